@@ -0,0 +1,72 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gwtorm.benchmarks;
+
+import com.google.gwtorm.nosql.IndexKeyBuilder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** Builds the secondary index keys written for each NoSQL row. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexKeyBuilderBenchmark {
+  private String name;
+  private byte[] rowKey;
+
+  @Setup
+  public void setUp() {
+    name = "Bob Example";
+    rowKey = new byte[] {0x01, 0x02, 0x00, 0x7f, (byte) 0xff, 0x10};
+  }
+
+  @Benchmark
+  public byte[] ascending() {
+    final IndexKeyBuilder b = new IndexKeyBuilder();
+    b.add("people.olderThan");
+    b.delimiter();
+    b.add(42L);
+    b.delimiter();
+    b.add(name);
+    b.delimiter();
+    b.add(rowKey);
+    return b.toByteArray();
+  }
+
+  @Benchmark
+  public byte[] descending() {
+    final IndexKeyBuilder b = new IndexKeyBuilder();
+    b.add("people.olderThanDescByName");
+    b.delimiter();
+    b.desc(name);
+    b.delimiter();
+    b.add(rowKey);
+    return b.toByteArray();
+  }
+}
@@ -0,0 +1,134 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gwtorm.benchmarks;
+
+import com.google.gwtorm.data.Person;
+import com.google.gwtorm.data.PersonAccess;
+import com.google.gwtorm.data.PhoneBookDb;
+import com.google.gwtorm.jdbc.Database;
+import com.google.gwtorm.jdbc.JdbcExecutor;
+import com.google.gwtorm.jdbc.JdbcSchema;
+import com.google.gwtorm.jdbc.SimpleDataSource;
+import com.google.gwtorm.server.OrmException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/** Binds and fetches {@code PhoneBookDb} rows through generated JDBC code. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JdbcBenchmark {
+  static final int PEOPLE = 1000;
+  static final int BATCH = 100;
+
+  @Param({"h2", "derby"})
+  public String database;
+
+  private PhoneBookDb schema;
+  private PersonAccess people;
+  private List<Person.Key> keys;
+  private List<Person> batch;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() throws OrmException, SQLException {
+    final Properties p = new Properties();
+    if ("derby".equals(database)) {
+      p.setProperty("driver",
+          org.apache.derby.jdbc.EmbeddedDriver.class.getName());
+      p.setProperty("url", "jdbc:derby:memory:JdbcBenchmark;create=true");
+    } else {
+      p.setProperty("driver", org.h2.Driver.class.getName());
+      p.setProperty("url", "jdbc:h2:mem:JdbcBenchmark");
+    }
+    final Database<PhoneBookDb> db =
+        new Database<>(new SimpleDataSource(p), PhoneBookDb.class);
+    schema = db.open();
+    final JdbcExecutor e = new JdbcExecutor((JdbcSchema) schema);
+    try {
+      schema.updateSchema(e);
+    } finally {
+      e.close();
+    }
+
+    people = schema.people();
+    keys = new ArrayList<>(PEOPLE);
+    final List<Person> all = new ArrayList<>(PEOPLE);
+    for (int i = 0; i < PEOPLE; i++) {
+      final Person.Key key = new Person.Key("person" + i);
+      keys.add(key);
+      all.add(new Person(key, i % 100));
+    }
+    people.insert(all);
+    batch = all.subList(0, BATCH);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    schema.close();
+    if ("derby".equals(database)) {
+      try {
+        DriverManager.getConnection("jdbc:derby:memory:JdbcBenchmark;drop=true");
+      } catch (SQLException dropped) {
+        // Derby reports a successful drop as an exception.
+      }
+    }
+  }
+
+  @Benchmark
+  public Person get() throws OrmException {
+    next = (next + 1) % PEOPLE;
+    return people.get(keys.get(next));
+  }
+
+  @Benchmark
+  public List<Person> getMany() throws OrmException {
+    return people.get(keys.subList(0, BATCH)).toList();
+  }
+
+  @Benchmark
+  public List<Person> query() throws OrmException {
+    return people.olderThan(90).toList();
+  }
+
+  @Benchmark
+  public List<Person> updateBatch() throws OrmException {
+    people.update(batch);
+    return batch;
+  }
+}
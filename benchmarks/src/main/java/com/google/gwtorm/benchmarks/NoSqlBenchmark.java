@@ -0,0 +1,123 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gwtorm.benchmarks;
+
+import com.google.gwtorm.data.Person;
+import com.google.gwtorm.data.PersonAccess;
+import com.google.gwtorm.data.PhoneBookDb;
+import com.google.gwtorm.nosql.heap.FileDatabase;
+import com.google.gwtorm.nosql.heap.MemoryDatabase;
+import com.google.gwtorm.server.OrmException;
+import com.google.gwtorm.server.SchemaFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Reads and writes {@code PhoneBookDb} rows through the heap NoSQL stores. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NoSqlBenchmark {
+  static final int PEOPLE = 1000;
+  static final int BATCH = 100;
+
+  @Param({"memory", "packed", "file"})
+  public String database;
+
+  private File path;
+  private FileDatabase<PhoneBookDb> file;
+  private PhoneBookDb schema;
+  private PersonAccess people;
+  private List<Person.Key> keys;
+  private List<Person> batch;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException, OrmException {
+    final SchemaFactory<PhoneBookDb> db;
+    if ("file".equals(database)) {
+      path = File.createTempFile("NoSqlBenchmark", "");
+      file = new FileDatabase<>(path, PhoneBookDb.class);
+      db = file;
+    } else {
+      db = new MemoryDatabase<>(PhoneBookDb.class, "packed".equals(database));
+    }
+    schema = db.open();
+    people = schema.people();
+    keys = new ArrayList<>(PEOPLE);
+    final List<Person> all = new ArrayList<>(PEOPLE);
+    for (int i = 0; i < PEOPLE; i++) {
+      final Person.Key key = new Person.Key("person" + i);
+      keys.add(key);
+      all.add(new Person(key, i % 100));
+    }
+    people.insert(all);
+    batch = all.subList(0, BATCH);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws OrmException {
+    schema.close();
+    if (file != null) {
+      file.close();
+      for (String suffix : new String[] {"", ".nosql_db", ".nosql_log"}) {
+        new File(path.getAbsolutePath() + suffix).delete();
+      }
+    }
+  }
+
+  @Benchmark
+  public Person get() throws OrmException {
+    next = (next + 1) % PEOPLE;
+    return people.get(keys.get(next));
+  }
+
+  @Benchmark
+  public List<Person> scanIndex() throws OrmException {
+    return people.olderThan(90).toList();
+  }
+
+  @Benchmark
+  public List<Person> scanPrimaryKey() throws OrmException {
+    return people.all().toList();
+  }
+
+  @Benchmark
+  public List<Person> upsertBatch() throws OrmException {
+    people.upsert(batch);
+    return batch;
+  }
+}
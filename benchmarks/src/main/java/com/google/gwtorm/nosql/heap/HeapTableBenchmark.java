@@ -0,0 +1,111 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gwtorm.nosql.heap;
+
+import com.google.gwtorm.nosql.IndexKeyBuilder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the heap stores on index-like keys.
+ * <p>
+ * Retained heap per row is printed once per fork when the table is loaded;
+ * the benchmarks measure a full scan, point lookups and replacing a value.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeapTableBenchmark {
+  static final int ROWS = 100000;
+
+  @Param({"treemap", "packed"})
+  public String table;
+
+  private HeapTable t;
+  private byte[][] keys;
+  private final byte[] value = new byte[16];
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    keys = new byte[ROWS][];
+    for (int i = 0; i < ROWS; i++) {
+      final IndexKeyBuilder b = new IndexKeyBuilder();
+      b.add("people.olderThan");
+      b.delimiter();
+      b.add(i % 100);
+      b.delimiter();
+      b.add("person" + i);
+      keys[i] = b.toByteArray();
+    }
+
+    final long before = usedHeap();
+    t = "packed".equals(table) ? new PackedTable() : new TreeMapTable();
+    for (byte[] k : keys) {
+      t.put(k.clone(), value);
+    }
+    final long after = usedHeap();
+    System.out.printf("%n%s: %.1f bytes/row retained%n", table,
+        (after - before) / (double) ROWS);
+  }
+
+  private static long usedHeap() {
+    final Runtime rt = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return rt.totalMemory() - rt.freeMemory();
+  }
+
+  @Benchmark
+  public int scan() {
+    int n = 0;
+    for (Map.Entry<byte[], byte[]> e : t.scan(null, null)) {
+      n += e.getKey().length;
+    }
+    return n;
+  }
+
+  @Benchmark
+  public byte[] get() {
+    next = (next + 7919) % ROWS;
+    return t.get(keys[next]);
+  }
+
+  @Benchmark
+  public int replace() {
+    next = (next + 7919) % ROWS;
+    t.put(keys[next], value);
+    return t.size();
+  }
+}
@@ -23,6 +23,9 @@ tokens {
   ORDER;
   BY;
   AND;
+  OR;
+  IN;
+  LIKE;
   LT;
   LE;
   GT;
@@ -31,6 +34,8 @@ tokens {
   ID;
   PLACEHOLDER;
   COMMA;
+  LPAREN;
+  RPAREN;
   ASC;
   DESC;
   LIMIT;
@@ -177,7 +182,12 @@ conditions
   ;
 
 condition
-  : field compare_op^ conditionValue
+  : field (compare_op^ conditionValue | IN^ PLACEHOLDER | LIKE^ likeValue)
+  | LPAREN! equality OR^ equality (OR! equality)* RPAREN!
+  ;
+
+equality
+  : field EQ^ conditionValue
   ;
 
 compare_op
@@ -196,6 +206,11 @@ qualifiedFieldName
   : ID (DOT^ ID)*
   ;
 
+likeValue
+  : PLACEHOLDER
+  | CONSTANT_STRING
+  ;
+
 conditionValue
   : PLACEHOLDER
   | CONSTANT_INTEGER
@@ -212,6 +227,9 @@ WHERE: 'WHERE' ;
 ORDER: 'ORDER' ;
 BY:    'BY'    ;
 AND:   'AND'   ;
+OR:    'OR'    ;
+IN:    'IN'    ;
+LIKE:  'LIKE'  ;
 ASC:   'ASC'   ;
 DESC:  'DESC'  ;
 LIMIT: 'LIMIT' ;
@@ -226,6 +244,8 @@ EQ : '='  ;
 
 PLACEHOLDER: '?' ;
 COMMA: ',' ;
+LPAREN: '(' ;
+RPAREN: ')' ;
 DOT: '.' ;
 
 CONSTANT_INTEGER
@@ -24,6 +24,7 @@ import com.google.gwtorm.schema.sql.SqlDialect;
 import com.google.gwtorm.server.Access;
 import com.google.gwtorm.server.CodeGenSupport;
 import com.google.gwtorm.server.GeneratedClassLoader;
+import com.google.gwtorm.server.LazyColumn;
 import com.google.gwtorm.server.OrmException;
 
 import org.objectweb.asm.ClassWriter;
@@ -38,7 +39,11 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 /** Generates a concrete implementation of an {@link Access} extension. */
 class AccessGen implements Opcodes {
@@ -67,6 +72,8 @@ class AccessGen implements Opcodes {
   private String implClassName;
   private String implTypeName;
   private Type entityType;
+  private List<QueryModel> projections;
+  private final Map<String, Type[]> asyncQueries = new LinkedHashMap<>();
 
   AccessGen(final GeneratedClassLoader loader,
       final RelationModel rm, final SqlDialect sd) {
@@ -79,6 +86,10 @@ class AccessGen implements Opcodes {
 
   public Class<?> create() throws OrmException {
     init();
+    final Class<?> existing = classLoader.findGeneratedClass(implClassName);
+    if (existing != null) {
+      return existing;
+    }
     implementConstructor();
     implementGetString("getRelationName", model.getRelationName());
     implementGetString("getInsertOneSql", model.getInsertOneSql(dialect));
@@ -91,6 +102,11 @@ class AccessGen implements Opcodes {
         implementGetString("getUpdateOneSql", model.getUpdateOneSql(dialect));
       }
       implementGetString("getDeleteOneSql", model.getDeleteOneSql(dialect));
+      implementGetString("getFromByKeySql", model.getFromByKeySql(dialect));
+      final String upsert = model.getUpsertOneSql(dialect);
+      if (upsert != null) {
+        implementGetString("getUpsertOneSql", upsert);
+      }
     } else {
       implementMissingGetString("getUpdateOneSql", "update");
       implementMissingGetString("getDeleteOneSql", "delete");
@@ -103,13 +119,25 @@ class AccessGen implements Opcodes {
     implementBindOne(DmlType.UPDATE);
     implementBindOne(DmlType.DELETE);
     implementBindOneFetch();
+    implementBindProjectionFetch();
 
     if (model.getPrimaryKey() != null) {
+      implementBindOneKey("bindOneKey", 0);
+      if (!model.getLazyColumns().isEmpty()) {
+        implementBindOneKey("bindOneLazyKey", 1);
+        implementGetUpdateLazySql();
+        implementGetLazyColumns();
+      }
       implementKeyQuery(model.getPrimaryKey());
+      if (model.getPrimaryKey().getField().isNested()
+          && dialect.getForUpdateSql() != null) {
+        implementLockOne(model.getPrimaryKey());
+      }
       if ((model.getPrimaryKey().getField().isNested() || !model
           .getPrimaryKey().getField().getPrimitiveType().isPrimitive())
           && model.getPrimaryKey().getAllLeafColumns().size() == 1) {
         overrideGetMany();
+        overrideDeleteMany();
       }
     }
 
@@ -117,12 +145,21 @@ class AccessGen implements Opcodes {
       implementQuery(q);
     }
     implementQuery(new QueryModel(model, "iterateAllEntities", ""));
+    CodeGenSupport.implementRunAsyncQuery(cw, implTypeName, asyncQueries);
 
     cw.visitEnd();
-    classLoader.defineClass(implClassName, cw.toByteArray());
+    classLoader.defineClass(loadEntityClass(), implClassName, cw.toByteArray());
     return loadClass();
   }
 
+  private Class<?> loadEntityClass() throws OrmException {
+    try {
+      return Class.forName(model.getEntityTypeClassName(), false, classLoader);
+    } catch (ClassNotFoundException err) {
+      throw new OrmException("Cannot locate model class", err);
+    }
+  }
+
   private Class<?> loadClass() throws OrmException {
     try {
       return Class.forName(implClassName, false, classLoader);
@@ -135,11 +172,12 @@ class AccessGen implements Opcodes {
     superTypeName = Type.getInternalName(JdbcAccess.class);
     implClassName =
         model.getEntityTypeClassName() + "_Access_" + model.getMethodName()
-            + "_" + Util.createRandomName();
+            + "_" + Util.createStableName(dialect.getClass().getName() + "\n"
+                + Util.describe(model));
     implTypeName = implClassName.replace('.', '/');
 
-    cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-    cw.visit(V1_3, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, implTypeName, null,
+    cw = classLoader.newClassWriter();
+    cw.visit(V1_7, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, implTypeName, null,
         superTypeName, new String[] {model.getAccessInterfaceName().replace(
             '.', '/')});
   }
@@ -305,8 +343,10 @@ class AccessGen implements Opcodes {
       final List<ColumnModel> cols = new ArrayList<>();
       cols.addAll(model.getDependentFields());
       cols.addAll(model.getRowVersionFields());
+      // Lazy columns are not in the UPDATE; see getUpdateLazySql.
+      final boolean skipLazy = type == DmlType.UPDATE;
       for (final ColumnModel field : cols) {
-        doBindOne(mv, cgs, field);
+        doBindOne(mv, cgs, field, skipLazy);
       }
     }
 
@@ -332,10 +372,10 @@ class AccessGen implements Opcodes {
   }
 
   private void doBindOne(final MethodVisitor mv, final CodeGenSupport cgs,
-      final ColumnModel field) {
+      final ColumnModel field, final boolean skipLazy) {
     if (field.isNested() && field.isNotNull()) {
       for (final ColumnModel c : field.getAllLeafColumns()) {
-        doBindOne(mv, cgs, c);
+        doBindOne(mv, cgs, c, skipLazy);
       }
 
     } else if (field.isNested()) {
@@ -348,24 +388,187 @@ class AccessGen implements Opcodes {
       mv.visitJumpInsn(IFNULL, isnull);
       cgs.resetColumnIndex(colIdx);
       for (final ColumnModel c : field.getNestedColumns()) {
-        doBindOne(mv, cgs, c);
+        doBindOne(mv, cgs, c, skipLazy);
       }
       mv.visitJumpInsn(GOTO, end);
 
       mv.visitLabel(isnull);
       cgs.resetColumnIndex(colIdx);
       for (final ColumnModel c : field.getAllLeafColumns()) {
+        if (skipLazy && c.isLazy()) {
+          continue;
+        }
         cgs.setFieldReference(c);
         dialect.getSqlTypeInfo(c).generatePreparedStatementNull(cgs);
       }
 
       mv.visitLabel(end);
-    } else {
+    } else if (!skipLazy || !field.isLazy()) {
       cgs.setFieldReference(field);
       dialect.getSqlTypeInfo(field).generatePreparedStatementSet(cgs);
     }
   }
 
+  private void implementBindOneKey(final String methodName,
+      final int firstColumn) {
+    final MethodVisitor mv =
+        cw.visitMethod(ACC_PUBLIC | ACC_FINAL, methodName, Type
+            .getMethodDescriptor(Type.VOID_TYPE, new Type[] {
+                Type.getType(PreparedStatement.class),
+                Type.getType(Object.class)}), null, new String[] {Type.getType(
+            SQLException.class).getInternalName()});
+    mv.visitCode();
+
+    mv.visitVarInsn(ALOAD, 2);
+    mv.visitTypeInsn(CHECKCAST, entityType.getInternalName());
+    mv.visitVarInsn(ASTORE, 2);
+
+    final CodeGenSupport cgs = new CodeGenSupport(mv);
+    cgs.setEntityType(entityType);
+    cgs.resetColumnIndex(firstColumn);
+    for (final ColumnModel col : model.getPrimaryKeyColumns()) {
+      cgs.setFieldReference(col);
+      dialect.getSqlTypeInfo(col).generatePreparedStatementSet(cgs);
+    }
+
+    mv.visitInsn(RETURN);
+    mv.visitMaxs(-1, -1);
+    mv.visitEnd();
+  }
+
+  private void implementGetUpdateLazySql() {
+    final Type string = Type.getType(String.class);
+    final MethodVisitor mv =
+        cw.visitMethod(ACC_PUBLIC | ACC_FINAL, "getUpdateLazySql", Type
+            .getMethodDescriptor(Type.getType(String[].class), new Type[] {}),
+            null, null);
+    mv.visitCode();
+
+    final CodeGenSupport cgs = new CodeGenSupport(mv);
+    final Collection<ColumnModel> lazy = model.getLazyColumns();
+    cgs.push(lazy.size());
+    mv.visitTypeInsn(ANEWARRAY, string.getInternalName());
+    int i = 0;
+    for (final ColumnModel col : lazy) {
+      mv.visitInsn(DUP);
+      cgs.push(i++);
+      mv.visitLdcInsn(model.getUpdateLazySql(dialect, col));
+      mv.visitInsn(AASTORE);
+    }
+    mv.visitInsn(ARETURN);
+    mv.visitMaxs(-1, -1);
+    mv.visitEnd();
+  }
+
+  private void implementGetLazyColumns() {
+    final Type lazyColumn = Type.getType(LazyColumn.class);
+    final MethodVisitor mv =
+        cw.visitMethod(ACC_PUBLIC | ACC_FINAL, "getLazyColumns", Type
+            .getMethodDescriptor(Type.getType(LazyColumn[].class),
+                new Type[] {Type.getType(Object.class)}), null, null);
+    mv.visitCode();
+
+    mv.visitVarInsn(ALOAD, 1);
+    mv.visitTypeInsn(CHECKCAST, entityType.getInternalName());
+    mv.visitVarInsn(ASTORE, 1);
+
+    final CodeGenSupport cgs = new CodeGenSupport(mv) {
+      @Override
+      public void pushEntity() {
+        mv.visitVarInsn(ALOAD, 1);
+      }
+    };
+    cgs.setEntityType(entityType);
+    final Collection<ColumnModel> lazy = model.getLazyColumns();
+    cgs.push(lazy.size());
+    mv.visitTypeInsn(ANEWARRAY, lazyColumn.getInternalName());
+    int i = 0;
+    for (final ColumnModel col : lazy) {
+      mv.visitInsn(DUP);
+      cgs.push(i++);
+
+      // A null holder, or a null containing object, stands for a null value,
+      // which must still be written.
+      final Label isnull = new Label();
+      final Label store = new Label();
+      final List<ColumnModel> parents = new ArrayList<>();
+      for (ColumnModel p = col.getParent(); p != null; p = p.getParent()) {
+        parents.add(0, p);
+      }
+      for (final ColumnModel p : parents) {
+        cgs.setFieldReference(p);
+        cgs.pushFieldValue();
+        mv.visitJumpInsn(IFNULL, isnull);
+      }
+      cgs.setFieldReference(col);
+      cgs.pushFieldValue();
+      mv.visitInsn(DUP);
+      mv.visitJumpInsn(IFNONNULL, store);
+      mv.visitInsn(POP);
+
+      mv.visitLabel(isnull);
+      final Type holder = CodeGenSupport.toType(col);
+      mv.visitTypeInsn(NEW, holder.getInternalName());
+      mv.visitInsn(DUP);
+      mv.visitMethodInsn(INVOKESPECIAL, holder.getInternalName(), "<init>",
+          Type.getMethodDescriptor(Type.VOID_TYPE, new Type[] {}));
+      mv.visitLabel(store);
+      mv.visitInsn(AASTORE);
+    }
+    mv.visitInsn(ARETURN);
+    mv.visitMaxs(-1, -1);
+    mv.visitEnd();
+  }
+
+  private void implementBindProjectionFetch() {
+    projections = new ArrayList<>();
+    for (final QueryModel q : model.getQueries()) {
+      if (q.isProjection()) {
+        projections.add(q);
+      }
+    }
+    if (projections.isEmpty()) {
+      return;
+    }
+
+    final MethodVisitor mv =
+        cw.visitMethod(ACC_PUBLIC | ACC_FINAL, "bindProjectionFetch", Type
+            .getMethodDescriptor(Type.VOID_TYPE, new Type[] {
+                Type.getType(ResultSet.class), Type.getType(Object.class),
+                Type.INT_TYPE}), null, new String[] {Type.getType(
+            SQLException.class).getInternalName()});
+    mv.visitCode();
+
+    mv.visitVarInsn(ALOAD, 2);
+    mv.visitTypeInsn(CHECKCAST, entityType.getInternalName());
+    mv.visitVarInsn(ASTORE, 2);
+
+    // The projection number is only read here; each case may then reuse
+    // its local for temporaries.
+    final Label end = new Label();
+    final Label[] cases = new Label[projections.size()];
+    for (int i = 0; i < cases.length; i++) {
+      cases[i] = new Label();
+    }
+    mv.visitVarInsn(ILOAD, 3);
+    mv.visitTableSwitchInsn(0, cases.length - 1, end, cases);
+
+    for (int i = 0; i < cases.length; i++) {
+      mv.visitLabel(cases[i]);
+      final CodeGenSupport cgs = new CodeGenSupport(mv);
+      cgs.setEntityType(entityType);
+      for (final ColumnModel field : projections.get(i).getProjection()) {
+        doFetchOne(mv, cgs, field, -1);
+      }
+      mv.visitInsn(RETURN);
+    }
+
+    mv.visitLabel(end);
+    mv.visitInsn(RETURN);
+    mv.visitMaxs(-1, -1);
+    mv.visitEnd();
+  }
+
   private void implementBindOneFetch() {
     final MethodVisitor mv =
         cw.visitMethod(ACC_PUBLIC | ACC_FINAL, "bindOneFetch", Type
@@ -475,6 +678,10 @@ class AccessGen implements Opcodes {
       cgs.setFieldReference(field);
       cgs.setDupOnFieldSetEnd(dupTo);
       dialect.getSqlTypeInfo(field).generateResultSetGet(cgs);
+      if (field.isLazy()) {
+        // Lazy columns are not in the select list, so take no index.
+        cgs.resetColumnIndex(cgs.getColumnIndex() - 1);
+      }
 
       if (reportLiveInto >= 0) {
         final Label wasnull = new Label();
@@ -496,6 +703,40 @@ class AccessGen implements Opcodes {
   }
 
   private void implementKeyQuery(final KeyModel info) {
+    implementKeyQuery(info, info.getName(), "", info.getField().isNested());
+  }
+
+  private void implementLockOne(final KeyModel info) {
+    final Type keyType = CodeGenSupport.toType(info.getField());
+    implementKeyQuery(info, "lockOne", dialect.getForUpdateSql(), false);
+
+    MethodVisitor mv =
+        cw.visitMethod(ACC_PUBLIC | ACC_FINAL, "lockOne", Type
+            .getMethodDescriptor(Type.getType(Object.class), new Type[] {Type
+                .getType(Key.class)}), null, new String[] {Type.getType(
+                OrmException.class).getInternalName()});
+    mv.visitCode();
+    mv.visitVarInsn(ALOAD, 0);
+    mv.visitVarInsn(ALOAD, 1);
+    mv.visitTypeInsn(CHECKCAST, keyType.getInternalName());
+    mv.visitMethodInsn(INVOKEVIRTUAL, implTypeName, "lockOne", Type
+        .getMethodDescriptor(entityType, new Type[] {keyType}));
+    mv.visitInsn(ARETURN);
+    mv.visitMaxs(-1, -1);
+    mv.visitEnd();
+
+    mv =
+        cw.visitMethod(ACC_PUBLIC | ACC_FINAL, "canLockOne", Type
+            .getMethodDescriptor(Type.BOOLEAN_TYPE, new Type[] {}), null, null);
+    mv.visitCode();
+    mv.visitInsn(ICONST_1);
+    mv.visitInsn(IRETURN);
+    mv.visitMaxs(-1, -1);
+    mv.visitEnd();
+  }
+
+  private void implementKeyQuery(final KeyModel info, final String methodName,
+      final String suffix, final boolean identityMap) {
     final Type keyType = CodeGenSupport.toType(info.getField());
     final StringBuilder query = new StringBuilder();
     query.append(model.getSelectSql(dialect, REL_ALIAS));
@@ -513,14 +754,30 @@ class AccessGen implements Opcodes {
         query.append(" AND ");
       }
     }
+    query.append(suffix);
 
     final MethodVisitor mv =
-        cw.visitMethod(ACC_PUBLIC | ACC_FINAL, info.getName(), Type
+        cw.visitMethod(ACC_PUBLIC | ACC_FINAL, methodName, Type
             .getMethodDescriptor(entityType, new Type[] {keyType}), null,
             new String[] {Type.getType(OrmException.class).getInternalName()});
     mv.visitCode();
 
     final int keyvar = 1, psvar = keyvar + keyType.getSize();
+    if (identityMap) {
+      final Label miss = new Label();
+      mv.visitVarInsn(ALOAD, 0);
+      mv.visitVarInsn(ALOAD, keyvar);
+      mv.visitMethodInsn(INVOKEVIRTUAL, superTypeName, "fromIdentityMap", Type
+          .getMethodDescriptor(Type.getType(Object.class), new Type[] {Type
+              .getType(Object.class)}));
+      mv.visitInsn(DUP);
+      mv.visitJumpInsn(IFNULL, miss);
+      mv.visitTypeInsn(CHECKCAST, entityType.getInternalName());
+      mv.visitInsn(ARETURN);
+      mv.visitLabel(miss);
+      mv.visitInsn(POP);
+    }
+
     mv.visitVarInsn(ALOAD, 0);
     mv.visitLdcInsn(query.toString());
     mv.visitMethodInsn(INVOKEVIRTUAL, superTypeName, "prepareStatement", Type
@@ -554,10 +811,20 @@ class AccessGen implements Opcodes {
     }
 
     mv.visitVarInsn(ALOAD, 0);
+    mv.visitLdcInsn(methodName);
     mv.visitVarInsn(ALOAD, psvar);
     mv.visitMethodInsn(INVOKEVIRTUAL, superTypeName, "queryOne", Type
-        .getMethodDescriptor(Type.getType(Object.class), new Type[] {Type
-            .getType(PreparedStatement.class)}));
+        .getMethodDescriptor(Type.getType(Object.class), new Type[] {
+            Type.getType(String.class), Type.getType(PreparedStatement.class)}));
+    if (identityMap) {
+      mv.visitVarInsn(ALOAD, 0);
+      mv.visitInsn(SWAP);
+      mv.visitVarInsn(ALOAD, keyvar);
+      mv.visitInsn(SWAP);
+      mv.visitMethodInsn(INVOKEVIRTUAL, superTypeName, "toIdentityMap", Type
+          .getMethodDescriptor(Type.getType(Object.class), new Type[] {
+              Type.getType(Object.class), Type.getType(Object.class)}));
+    }
     mv.visitTypeInsn(CHECKCAST, entityType.getInternalName());
     mv.visitInsn(ARETURN);
     mv.visitMaxs(-1, -1);
@@ -565,11 +832,11 @@ class AccessGen implements Opcodes {
   }
 
   private void overrideGetMany() {
-    final KeyModel pk = model.getPrimaryKey();
+    final ColumnModel pkcol =
+        model.getPrimaryKey().getAllLeafColumns().iterator().next();
     final StringBuilder query = new StringBuilder();
     query.append(model.getSelectSql(dialect, REL_ALIAS));
     query.append(" WHERE ");
-    final ColumnModel pkcol = pk.getAllLeafColumns().iterator().next();
     query.append(REL_ALIAS);
     query.append('.');
     query.append(pkcol.getColumnName());
@@ -583,6 +850,58 @@ class AccessGen implements Opcodes {
             new String[] {Type.getType(OrmException.class).getInternalName()});
     mv.visitCode();
 
+    final int psvar = prepareBySqlIn(mv, query.toString());
+    mv.visitVarInsn(ALOAD, 0);
+    mv.visitLdcInsn("get");
+    mv.visitVarInsn(ALOAD, psvar);
+    mv.visitMethodInsn(INVOKEVIRTUAL, superTypeName, "queryList", Type
+        .getMethodDescriptor(Type.getType(com.google.gwtorm.server.ResultSet.class),
+            new Type[] {Type.getType(String.class),
+                Type.getType(PreparedStatement.class)}));
+    mv.visitInsn(ARETURN);
+    mv.visitMaxs(-1, -1);
+    mv.visitEnd();
+  }
+
+  private void overrideDeleteMany() {
+    final ColumnModel pkcol =
+        model.getPrimaryKey().getAllLeafColumns().iterator().next();
+    final StringBuilder query = new StringBuilder();
+    query.append("DELETE FROM ");
+    query.append(model.getRelationName());
+    query.append(" WHERE ");
+    query.append(pkcol.getColumnName());
+    query.append(" IN");
+
+    final MethodVisitor mv =
+        cw.visitMethod(ACC_PUBLIC | ACC_FINAL, "deleteBySqlIn", Type
+            .getMethodDescriptor(Type.VOID_TYPE, new Type[] {Type
+                .getType(Collection.class)}), null, new String[] {Type
+                .getType(OrmException.class).getInternalName()});
+    mv.visitCode();
+
+    final int psvar = prepareBySqlIn(mv, query.toString());
+    mv.visitVarInsn(ALOAD, 0);
+    mv.visitLdcInsn("deleteKeys");
+    mv.visitVarInsn(ALOAD, psvar);
+    mv.visitMethodInsn(INVOKEVIRTUAL, superTypeName, "executeUpdate", Type
+        .getMethodDescriptor(Type.INT_TYPE, new Type[] {
+            Type.getType(String.class), Type.getType(PreparedStatement.class)}));
+    mv.visitInsn(POP);
+    mv.visitInsn(RETURN);
+    mv.visitMaxs(-1, -1);
+    mv.visitEnd();
+  }
+
+  /**
+   * Prepare a statement ending in {@code IN} with the keys in local 1, and
+   * bind the single column of each key.
+   *
+   * @return local holding the statement.
+   */
+  private int prepareBySqlIn(final MethodVisitor mv, final String sql) {
+    final KeyModel pk = model.getPrimaryKey();
+    final ColumnModel pkcol = pk.getAllLeafColumns().iterator().next();
     final int keyset = 1;
     final int psvar = 2;
     final int itrvar = 3;
@@ -590,7 +909,7 @@ class AccessGen implements Opcodes {
     final int keyvar = 5;
 
     mv.visitVarInsn(ALOAD, 0);
-    mv.visitLdcInsn(query.toString());
+    mv.visitLdcInsn(sql);
     mv.visitVarInsn(ALOAD, keyset);
     mv.visitMethodInsn(INVOKEVIRTUAL, superTypeName, "prepareBySqlIn", Type
         .getMethodDescriptor(Type.getType(PreparedStatement.class), new Type[] {
@@ -654,24 +973,30 @@ class AccessGen implements Opcodes {
     mv.visitJumpInsn(GOTO, again);
 
     mv.visitLabel(endbind);
-    mv.visitVarInsn(ALOAD, 0);
-    mv.visitVarInsn(ALOAD, psvar);
-    mv.visitMethodInsn(INVOKEVIRTUAL, superTypeName, "queryList", Type
-        .getMethodDescriptor(Type.getType(com.google.gwtorm.server.ResultSet.class),
-            new Type[] {Type.getType(PreparedStatement.class)}));
-    mv.visitInsn(ARETURN);
-    mv.visitMaxs(-1, -1);
-    mv.visitEnd();
+    return psvar;
   }
 
   private void implementQuery(final QueryModel info) {
-    final List<ColumnModel> pCols = info.getParameters();
+    final List<ColumnModel> pCols = new ArrayList<>(info.getAssignments());
+    pCols.addAll(info.getParameters());
+    final Set<Integer> lists = new TreeSet<>();
+    for (final int i : info.getCollectionParameters()) {
+      lists.add(info.getAssignments().size() + i);
+    }
+    final Set<Integer> prefixes = new TreeSet<>();
+    for (final int i : info.getPrefixParameters()) {
+      prefixes.add(info.getAssignments().size() + i);
+    }
     final boolean hasLimitParam = info.hasLimitParameter();
     final Type[] pTypes = new Type[pCols.size() + (hasLimitParam ? 1 : 0)];
     final int[] pVars = new int[pTypes.length];
     int nextVar = 1;
     for (int i = 0; i < pCols.size(); i++) {
-      pTypes[i] = CodeGenSupport.toType(pCols.get(i));
+      if (lists.contains(i)) {
+        pTypes[i] = Type.getType(Collection.class);
+      } else {
+        pTypes[i] = CodeGenSupport.toType(pCols.get(i));
+      }
       pVars[i] = nextVar;
       nextVar += pTypes[i].getSize();
     }
@@ -682,20 +1007,73 @@ class AccessGen implements Opcodes {
     }
 
     final int psvar = nextVar++;
+    final boolean dynamic = !lists.isEmpty();
+    final int colvar = nextVar++;
+    final int itrvar = nextVar++;
+    final int elemvar = nextVar;
+    final Type[] elemType = new Type[1];
+    final Type returnType;
+    final String sql;
+    if (info.isDelete() || info.isUpdate()) {
+      returnType = Type.INT_TYPE;
+    } else if (info.isAggregate()) {
+      returnType = Type.getType(info.getAggregateType());
+    } else if (info.isGrouped()) {
+      returnType = Type.getType(Map.class);
+    } else {
+      returnType = Type.getType(com.google.gwtorm.server.ResultSet.class);
+    }
+    if (info.isDelete()) {
+      sql = info.getDeleteSql(dialect);
+    } else if (info.isUpdate()) {
+      sql = info.getUpdateSql(dialect);
+    } else {
+      sql = info.getSelectSql(dialect, REL_ALIAS);
+    }
     final MethodVisitor mv =
-        cw.visitMethod(ACC_PUBLIC | ACC_FINAL, info.getName(), Type
-            .getMethodDescriptor(Type
-                .getType(com.google.gwtorm.server.ResultSet.class), pTypes),
+        cw.visitMethod(ACC_PUBLIC | ACC_FINAL
+            | (info.isAsync() ? ACC_SYNTHETIC : 0),
+            CodeGenSupport.getQueryMethodName(info), Type
+            .getMethodDescriptor(returnType, pTypes),
             null, new String[] {Type.getType(OrmException.class)
                 .getInternalName()});
     mv.visitCode();
 
+    final Label run = new Label();
     mv.visitVarInsn(ALOAD, 0);
-    mv.visitLdcInsn(info.getSelectSql(dialect, REL_ALIAS));
-    mv.visitMethodInsn(INVOKEVIRTUAL, superTypeName, "prepareStatement", Type
-        .getMethodDescriptor(Type.getType(PreparedStatement.class),
-            new Type[] {Type.getType(String.class)}));
-    mv.visitVarInsn(ASTORE, psvar);
+    mv.visitLdcInsn(sql);
+    if (dynamic) {
+      // Collections are expanded into one placeholder per element, so the
+      // statement text and the column index are only known at runtime.
+      //
+      final CodeGenSupport sizes = new CodeGenSupport(mv);
+      sizes.push(lists.size());
+      mv.visitIntInsn(NEWARRAY, T_INT);
+      int k = 0;
+      for (final int i : lists) {
+        mv.visitInsn(DUP);
+        sizes.push(k++);
+        mv.visitVarInsn(ALOAD, pVars[i]);
+        mv.visitMethodInsn(INVOKEINTERFACE, Type.getInternalName(
+            Collection.class), "size", Type.getMethodDescriptor(
+            Type.INT_TYPE, new Type[] {}));
+        mv.visitInsn(IASTORE);
+      }
+      mv.visitMethodInsn(INVOKEVIRTUAL, superTypeName, "prepareStatement",
+          Type.getMethodDescriptor(Type.getType(PreparedStatement.class),
+              new Type[] {Type.getType(String.class),
+                  Type.getType(int[].class)}));
+      mv.visitVarInsn(ASTORE, psvar);
+      mv.visitVarInsn(ALOAD, psvar);
+      mv.visitJumpInsn(IFNULL, run);
+      mv.visitInsn(ICONST_1);
+      mv.visitVarInsn(ISTORE, colvar);
+    } else {
+      mv.visitMethodInsn(INVOKEVIRTUAL, superTypeName, "prepareStatement",
+          Type.getMethodDescriptor(Type.getType(PreparedStatement.class),
+              new Type[] {Type.getType(String.class)}));
+      mv.visitVarInsn(ASTORE, psvar);
+    }
 
     final int argIdx[] = new int[] {0};
     final CodeGenSupport cgs = new CodeGenSupport(mv) {
@@ -704,6 +1082,15 @@ class AccessGen implements Opcodes {
         mv.visitVarInsn(ALOAD, psvar);
       }
 
+      @Override
+      public void pushColumnIndex() {
+        if (dynamic) {
+          mv.visitVarInsn(ILOAD, colvar);
+        } else {
+          super.pushColumnIndex();
+        }
+      }
+
       @Override
       public void pushFieldValue() {
         appendGetField(getFieldReference());
@@ -712,22 +1099,64 @@ class AccessGen implements Opcodes {
       @Override
       protected void appendGetField(final ColumnModel c) {
         final int n = argIdx[0];
-        if (c == pCols.get(n)) {
+        if (c == pCols.get(n) && lists.contains(n)) {
+          loadVar(elemType[0], elemvar);
+        } else if (c == pCols.get(n)) {
           loadVar(pTypes[n], pVars[n]);
+          if (prefixes.contains(n)) {
+            mv.visitMethodInsn(INVOKESTATIC, superTypeName, "likePrefix", Type
+                .getMethodDescriptor(Type.getType(String.class),
+                    new Type[] {Type.getType(String.class)}));
+          }
         } else {
           super.appendGetField(c);
         }
       }
     };
     for (final ColumnModel c : pCols) {
+      final List<ColumnModel> leaves = new ArrayList<>();
       if (c.isNested()) {
-        for (final ColumnModel n : c.getAllLeafColumns()) {
+        leaves.addAll(c.getAllLeafColumns());
+      } else {
+        leaves.add(c);
+      }
+
+      if (lists.contains(argIdx[0])) {
+        elemType[0] = CodeGenSupport.toType(c);
+        final Label again = new Label();
+        final Label done = new Label();
+        mv.visitVarInsn(ALOAD, pVars[argIdx[0]]);
+        mv.visitMethodInsn(INVOKEINTERFACE, Type.getInternalName(
+            Collection.class), "iterator", Type.getMethodDescriptor(Type
+            .getType(Iterator.class), new Type[] {}));
+        mv.visitVarInsn(ASTORE, itrvar);
+        mv.visitLabel(again);
+        mv.visitVarInsn(ALOAD, itrvar);
+        mv.visitMethodInsn(INVOKEINTERFACE, Type.getInternalName(
+            Iterator.class), "hasNext", Type.getMethodDescriptor(
+            Type.BOOLEAN_TYPE, new Type[] {}));
+        mv.visitJumpInsn(IFEQ, done);
+        mv.visitVarInsn(ALOAD, itrvar);
+        mv.visitMethodInsn(INVOKEINTERFACE, Type.getInternalName(
+            Iterator.class), "next", Type.getMethodDescriptor(Type
+            .getType(Object.class), new Type[] {}));
+        cgs.unbox(elemType[0]);
+        mv.visitVarInsn(elemType[0].getOpcode(ISTORE), elemvar);
+        for (final ColumnModel n : leaves) {
           cgs.setFieldReference(n);
           dialect.getSqlTypeInfo(n).generatePreparedStatementSet(cgs);
+          mv.visitIincInsn(colvar, 1);
         }
+        mv.visitJumpInsn(GOTO, again);
+        mv.visitLabel(done);
       } else {
-        cgs.setFieldReference(c);
-        dialect.getSqlTypeInfo(c).generatePreparedStatementSet(cgs);
+        for (final ColumnModel n : leaves) {
+          cgs.setFieldReference(n);
+          dialect.getSqlTypeInfo(n).generatePreparedStatementSet(cgs);
+          if (dynamic) {
+            mv.visitIincInsn(colvar, 1);
+          }
+        }
       }
       argIdx[0]++;
     }
@@ -743,6 +1172,15 @@ class AccessGen implements Opcodes {
                 mv.visitVarInsn(ALOAD, psvar);
               }
 
+              @Override
+              public void pushColumnIndex() {
+                if (dynamic) {
+                  mv.visitVarInsn(ILOAD, colvar);
+                } else {
+                  super.pushColumnIndex();
+                }
+              }
+
               @Override
               public void pushFieldValue() {
                 final int n = argIdx[0];
@@ -762,13 +1200,54 @@ class AccessGen implements Opcodes {
       }
     }
 
+    mv.visitLabel(run);
     mv.visitVarInsn(ALOAD, 0);
+    mv.visitLdcInsn(info.getName());
     mv.visitVarInsn(ALOAD, psvar);
-    mv.visitMethodInsn(INVOKEVIRTUAL, superTypeName, "queryList", Type
-        .getMethodDescriptor(Type.getType(com.google.gwtorm.server.ResultSet.class),
-            new Type[] {Type.getType(PreparedStatement.class)}));
-    mv.visitInsn(ARETURN);
+    final int projection = projections.indexOf(info);
+    if (info.isDelete() || info.isUpdate()) {
+      mv.visitMethodInsn(INVOKEVIRTUAL, superTypeName, "executeMutation", Type
+          .getMethodDescriptor(Type.INT_TYPE, new Type[] {
+              Type.getType(String.class),
+              Type.getType(PreparedStatement.class)}));
+    } else if (info.isExists()) {
+      mv.visitMethodInsn(INVOKEVIRTUAL, superTypeName, "queryExists", Type
+          .getMethodDescriptor(Type.BOOLEAN_TYPE, new Type[] {
+              Type.getType(String.class),
+              Type.getType(PreparedStatement.class)}));
+    } else if (info.isAggregate()) {
+      mv.visitMethodInsn(INVOKEVIRTUAL, superTypeName, "queryCount", Type
+          .getMethodDescriptor(Type.LONG_TYPE, new Type[] {
+              Type.getType(String.class),
+              Type.getType(PreparedStatement.class)}));
+      if (info.getAggregateType() == Integer.TYPE) {
+        mv.visitInsn(L2I);
+      }
+    } else if (projection >= 0) {
+      cgs.push(projection);
+      mv.visitMethodInsn(INVOKEVIRTUAL, superTypeName, "queryList", Type
+          .getMethodDescriptor(Type
+              .getType(com.google.gwtorm.server.ResultSet.class), new Type[] {
+              Type.getType(String.class),
+              Type.getType(PreparedStatement.class), Type.INT_TYPE}));
+    } else {
+      mv.visitMethodInsn(INVOKEVIRTUAL, superTypeName, "queryList", Type
+          .getMethodDescriptor(Type
+              .getType(com.google.gwtorm.server.ResultSet.class), new Type[] {
+              Type.getType(String.class),
+              Type.getType(PreparedStatement.class)}));
+    }
+    if (info.isGrouped()) {
+      CodeGenSupport.implementGroupBy(mv, info, entityType, pVars[lists
+          .iterator().next()], elemvar + 2);
+    } else {
+      mv.visitInsn(returnType.getOpcode(IRETURN));
+    }
     mv.visitMaxs(-1, -1);
     mv.visitEnd();
+
+    if (info.isAsync()) {
+      CodeGenSupport.implementAsyncQuery(cw, info, pTypes, asyncQueries);
+    }
   }
 }
@@ -21,6 +21,7 @@ import com.google.gwtorm.schema.java.JavaSchemaModel;
 import com.google.gwtorm.schema.sql.SqlDialect;
 import com.google.gwtorm.server.GeneratedClassLoader;
 import com.google.gwtorm.server.OrmException;
+import com.google.gwtorm.server.OrmMetrics;
 import com.google.gwtorm.server.Schema;
 import com.google.gwtorm.server.SchemaConstructorGen;
 import com.google.gwtorm.server.SchemaFactory;
@@ -29,6 +30,12 @@ import com.google.gwtorm.server.StandardKeyEncoder;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.sql.DataSource;
 
@@ -54,8 +61,17 @@ public class Database<T extends Schema> implements SchemaFactory<T> {
 
   private final DataSource dataSource;
   private final JavaSchemaModel schemaModel;
+  private volatile List<String> relationOrder;
   private final SchemaFactory<T> implFactory;
   private final SqlDialect implDialect;
+  private volatile Executor executor;
+  private volatile boolean coalesceGets;
+  private volatile boolean unitOfWork;
+  private volatile ReplicaSet replicas;
+  private volatile OrmMetrics metrics = OrmMetrics.DISABLED;
+  private volatile RetryPolicy retryPolicy;
+  private final AtomicLong atomicUpdateRetries = new AtomicLong();
+  private final AtomicLong statementRetries = new AtomicLong();
 
   /**
    * Create a new database interface, generating the interface implementations.
@@ -67,25 +83,42 @@ public class Database<T extends Schema> implements SchemaFactory<T> {
    */
   public Database(final DataSource ds, final Class<T> schema)
       throws OrmException {
+    this(ds, detectDialect(ds), schema);
+  }
+
+  /**
+   * Create a new database interface for a known dialect.
+   * <p>
+   * No connection is opened, so this form can also be used at build time to
+   * generate the implementation classes ahead of deployment.
+   *
+   * @param ds JDBC connection information
+   * @param dialect dialect of the database {@code ds} connects to.
+   * @param schema application extension of the Schema interface to implement.
+   * @throws OrmException the schema interface is incorrectly defined.
+   */
+  public Database(final DataSource ds, final SqlDialect dialect,
+      final Class<T> schema) throws OrmException {
     dataSource = ds;
+    schemaModel = new JavaSchemaModel(schema);
+    final GeneratedClassLoader loader = newLoader(schema);
+    final Class<T> impl = generate(dialect, loader);
+    implFactory = new SchemaConstructorGen<>(loader, impl, this).create();
+    implDialect = dialect;
+  }
 
-    SqlDialect dialect;
+  private static SqlDialect detectDialect(final DataSource ds)
+      throws OrmException {
     try {
       Connection c = ds.getConnection();
       try {
-        dialect = SqlDialect.getDialectFor(c);
+        return SqlDialect.getDialectFor(c);
       } finally {
         c.close();
       }
     } catch (SQLException e) {
       throw new OrmException("Unable to determine SqlDialect", e);
     }
-
-    schemaModel = new JavaSchemaModel(schema);
-    final GeneratedClassLoader loader = newLoader(schema);
-    final Class<T> impl = generate(dialect, loader);
-    implFactory = new SchemaConstructorGen<>(loader, impl, this).create();
-    implDialect = dialect;
   }
 
   @SuppressWarnings({"unchecked", "rawtypes"})
@@ -109,6 +142,177 @@ public class Database<T extends Schema> implements SchemaFactory<T> {
     return schemaModel;
   }
 
+  /**
+   * @return relation names, each after the relations it references. Computed
+   *         on first use, as only a unit of work needs it.
+   */
+  List<String> getRelationOrder() {
+    List<String> order = relationOrder;
+    if (order == null) {
+      order = new ArrayList<>();
+      for (final RelationModel r : schemaModel.getRelationsInReferenceOrder()) {
+        order.add(r.getRelationName());
+      }
+      order = Collections.unmodifiableList(order);
+      relationOrder = order;
+    }
+    return order;
+  }
+
+  /** @return executor for asynchronous operations; null if not configured. */
+  public Executor getExecutor() {
+    return executor;
+  }
+
+  /**
+   * Set the executor used for asynchronous operations.
+   * <p>
+   * Each asynchronous operation of a schema uses that schema's connection, so
+   * operations of one schema still run one at a time; only the calling thread
+   * is freed.
+   *
+   * @param e the executor; null to run asynchronous operations immediately in
+   *        the calling thread.
+   */
+  public void setExecutor(final Executor e) {
+    executor = e;
+  }
+
+  /** @return receiver of measurements; never null. */
+  public OrmMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Measure the operations of schemas opened after this call.
+   * <p>
+   * Every Access reports the latency and row count of its reads, writes and
+   * queries, by relation and query method name. The default discards all
+   * measurements without reading the clock.
+   *
+   * @param m receiver of measurements; null to disable measuring.
+   */
+  public void setMetrics(final OrmMetrics m) {
+    metrics = m != null ? m : OrmMetrics.DISABLED;
+  }
+
+  /** @return true if schemas remember entities loaded by primary key. */
+  public boolean isCoalescingGets() {
+    return coalesceGets;
+  }
+
+  /**
+   * Enable an identity map in each schema opened from this database.
+   * <p>
+   * Entities loaded by primary key are remembered by the schema that loaded
+   * them, so repeated {@code get} calls for the same key return the same
+   * instance without reading storage, and {@code get(Iterable)} only reads
+   * the keys not seen before. Writing an entity through the schema forgets it,
+   * as does rolling back. Changes made by other schemas are not observed.
+   *
+   * @param enable true to coalesce gets.
+   */
+  public void setCoalesceGets(final boolean enable) {
+    coalesceGets = enable;
+  }
+
+  /** @return true if schemas hold writes until they commit. */
+  public boolean isUnitOfWork() {
+    return unitOfWork;
+  }
+
+  /**
+   * Hold the writes of each schema opened from this database until it commits.
+   * <p>
+   * Inserts, updates, upserts, deletes and {@code deleteKeys} are remembered
+   * by the schema, and written entities are kept in its identity map, so
+   * {@code get} returns them without reading storage. On {@code commit()} the
+   * schema writes each relation's changes as one batch per kind of write,
+   * after collapsing repeated writes of one entity into one. Deletes are
+   * written first, to referencing relations first, so a replacement row may
+   * reuse the unique values of a deleted one. Inserts and updates follow,
+   * written to referenced relations first. A relation references another if
+   * a column has the type of the other relation's primary key. Before a
+   * query, or a lookup the identity map cannot answer, the pending changes of
+   * that relation are written so the read observes them, along with the
+   * changes they depend on in other relations. Rolling back, or closing the
+   * schema without committing, discards the pending changes.
+   * <p>
+   * Atomic updates, and query methods that delete rows or set fields, write
+   * through: they first write the pending changes of their relation, then
+   * change storage immediately. Their changes are undone by a rollback only
+   * inside a transaction.
+   *
+   * @param enable true to hold writes until commit.
+   */
+  public void setUnitOfWork(final boolean enable) {
+    unitOfWork = enable;
+  }
+
+  /**
+   * Send reads of schemas opened after this call to read replicas.
+   * <p>
+   * Queries and lookups run outside of a transaction go to a replica, until
+   * the schema writes; the schema then reads from the primary so it observes
+   * its own writes. Each schema keeps one connection to the least loaded
+   * replica, alternating between equally loaded ones. A replica that fails is
+   * not used for a while, and the failed read runs on the primary.
+   *
+   * @param sources read replicas of the primary database; null or empty to
+   *        read from the primary only.
+   */
+  public void setReplicas(final Collection<? extends DataSource> sources) {
+    replicas = sources != null && !sources.isEmpty()
+        ? new ReplicaSet(sources)
+        : null;
+  }
+
+  /** @return the read replicas; null if not configured. */
+  ReplicaSet getReplicaSet() {
+    return replicas;
+  }
+
+  /** @return policy for retrying failed batches; null if not set. */
+  public RetryPolicy getRetryPolicy() {
+    return retryPolicy;
+  }
+
+  /**
+   * Set the policy for retrying batches that deadlocked, failed to serialize,
+   * or changed fewer rows than expected.
+   * <p>
+   * Without a policy each relation uses the limits given by the
+   * {@code GERRIT_MAX_DEADLOCK_RETRIES} and
+   * {@code GERRIT_MAX_DEADLOCK_RETRY_TIMEOUT} system properties, which allow
+   * no retries by default.
+   *
+   * @param policy the policy; null to restore the default.
+   */
+  public void setRetryPolicy(final RetryPolicy policy) {
+    retryPolicy = policy;
+  }
+
+  /** @return number of times a failed batch was run again. */
+  public long getStatementRetryCount() {
+    return statementRetries.get();
+  }
+
+  void countStatementRetry() {
+    statementRetries.incrementAndGet();
+  }
+
+  /**
+   * @return number of times {@code atomicUpdate} reread a row because another
+   *         connection modified it first.
+   */
+  public long getAtomicUpdateRetryCount() {
+    return atomicUpdateRetries.get();
+  }
+
+  void countAtomicUpdateRetry() {
+    atomicUpdateRetries.incrementAndGet();
+  }
+
   /**
    * Open a new connection to the database and get a Schema wrapper.
    *
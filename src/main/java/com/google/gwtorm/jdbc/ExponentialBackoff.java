@@ -0,0 +1,61 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gwtorm.jdbc;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retries a bounded number of times with capped, randomized exponential
+ * delays.
+ * <p>
+ * The delay before retry {@code n} is chosen uniformly between half and all
+ * of {@code min(maxDelay, initialDelay * 2^(n-1))}, so that writers which
+ * collided are unlikely to collide again.
+ */
+public class ExponentialBackoff implements RetryPolicy {
+  private final int maxRetries;
+  private final long initialDelay;
+  private final long maxDelay;
+
+  /**
+   * @param maxRetries number of times a statement may be run again.
+   * @param initialDelay milliseconds to wait before the first retry.
+   * @param maxDelay upper bound in milliseconds on any single wait.
+   */
+  public ExponentialBackoff(final int maxRetries, final long initialDelay,
+      final long maxDelay) {
+    this.maxRetries = maxRetries;
+    this.initialDelay = Math.max(0, initialDelay);
+    this.maxDelay = Math.max(this.initialDelay, maxDelay);
+  }
+
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+
+  @Override
+  public long getRetryDelay(final int attempt) {
+    if (attempt > maxRetries) {
+      return -1;
+    }
+    final int shift = Math.min(Math.max(attempt - 1, 0), 30);
+    final long d = Math.min(maxDelay, initialDelay << shift);
+    if (d <= 1) {
+      return d;
+    }
+    return d - ThreadLocalRandom.current().nextLong(d / 2 + 1);
+  }
+}
@@ -15,14 +15,27 @@
 package com.google.gwtorm.jdbc;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.gwtorm.client.Key;
+import com.google.gwtorm.schema.QueryModel;
 import com.google.gwtorm.schema.sql.DialectDB2;
+import com.google.gwtorm.schema.sql.SqlByteArrayTypeInfo;
+import com.google.gwtorm.schema.sql.SqlDialect;
+import com.google.gwtorm.schema.sql.SqlLazyBytesTypeInfo;
+import com.google.gwtorm.schema.sql.SqlLazyStringTypeInfo;
+import com.google.gwtorm.schema.sql.SqlStringTypeInfo;
 import com.google.gwtorm.server.AbstractAccess;
 import com.google.gwtorm.server.Access;
+import com.google.gwtorm.server.AtomicUpdate;
+import com.google.gwtorm.server.LazyBytes;
+import com.google.gwtorm.server.LazyColumn;
+import com.google.gwtorm.server.LazyString;
 import com.google.gwtorm.server.ListResultSet;
 import com.google.gwtorm.server.OrmConcurrencyException;
 import com.google.gwtorm.server.OrmException;
 
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -30,26 +43,46 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 /** Internal base class for implementations of {@link Access}. */
 public abstract class JdbcAccess<T, K extends Key<?>> extends
     AbstractAccess<T, K> {
+  private static final RetryPolicy ATOMIC_UPDATE_RETRIES =
+      new ExponentialBackoff(9, 1, 100);
+  private static final long MAX_RETRY_DELAY_MILLIS = 1000;
+  private static final int DEFAULT_DEADLOCK_RETRIES =
+      Integer.getInteger("GERRIT_MAX_DEADLOCK_RETRIES", 0);
+  private static final int DEFAULT_DEADLOCK_RETRY_TIMEOUT =
+      Integer.getInteger("GERRIT_MAX_DEADLOCK_RETRY_TIMEOUT", 1);
+
+  /** Most keys bound into one {@code IN} list; Oracle allows no more. */
+  static final int MAX_IN_KEYS = 1000;
+
+  private enum Dml {
+    INSERT, UPDATE, DELETE, UPSERT
+  }
+
   private final JdbcSchema schema;
   private int GERRIT_MAX_DEADLOCK_RETRIES;
   private int GERRIT_MAX_DEADLOCK_RETRY_TIMEOUT;
+  private RetryPolicy deadlockRetryPolicy;
 
   protected JdbcAccess(final JdbcSchema s) {
+    super(s);
     schema = s;
-    setDeadlockRetry(Integer.parseInt(System.getProperty("GERRIT_MAX_DEADLOCK_RETRIES","0")));
-    setDeadlockRetryTimeOut(Integer.parseInt(System.getProperty("GERRIT_MAX_DEADLOCK_RETRY_TIMEOUT","1")));
+    setDeadlockRetry(DEFAULT_DEADLOCK_RETRIES);
+    setDeadlockRetryTimeOut(DEFAULT_DEADLOCK_RETRY_TIMEOUT);
   }
 
   protected JdbcAccess(final JdbcSchema s, int retries) {
+    super(s);
     schema = s;
     setDeadlockRetry(retries);
   }
 
   protected JdbcAccess(final JdbcSchema s, int retries,int retryTimeout) {
+    super(s);
     schema = s;
     setDeadlockRetry(retries);
     setDeadlockRetryTimeOut(retryTimeout);
@@ -57,6 +90,7 @@ public abstract class JdbcAccess<T, K extends Key<?>> extends
 
   @Override
   public void beginTransaction(K key) throws OrmException {
+    schema.pinToPrimary();
     try {
       schema.getConnection().setAutoCommit(false);
     } catch (SQLException e) {
@@ -65,8 +99,8 @@ public abstract class JdbcAccess<T, K extends Key<?>> extends
   }
 
   @Override
-  public final com.google.gwtorm.server.ResultSet<T> get(final Iterable<K> keys)
-      throws OrmException {
+  protected final com.google.gwtorm.server.ResultSet<T> fetch(
+      final Iterable<K> keys) throws OrmException {
     final Collection<K> keySet;
     if (keys instanceof Collection) {
       keySet = (Collection<K>) keys;
@@ -105,13 +139,132 @@ public abstract class JdbcAccess<T, K extends Key<?>> extends
 
   protected PreparedStatement prepareStatement(final String sql)
       throws OrmException {
+    flushWrites();
     try {
+      if (sql.startsWith("SELECT ")) {
+        return schema.prepareQuery(sql);
+      }
+      schema.pinToPrimary();
       return schema.getConnection().prepareStatement(sql);
     } catch (SQLException e) {
       throw convertError("prepare SQL\n" + sql + "\n", e);
     }
   }
 
+  /**
+   * Prepare a query whose {@code IN ?} tests are bound to collections.
+   *
+   * @param sql the query; each {@link QueryModel#LIST_PLACEHOLDER} outside a
+   *        string constant is replaced by a list of placeholders.
+   * @param listSizes size of each collection, in order.
+   * @return the statement; null if a collection is empty, as the query then
+   *         cannot match any row.
+   * @throws OrmException the statement cannot be prepared.
+   */
+  protected PreparedStatement prepareStatement(final String sql,
+      final int[] listSizes) throws OrmException {
+    for (final int n : listSizes) {
+      if (n == 0) {
+        return null;
+      }
+    }
+    return prepareStatement(expandLists(sql, listSizes));
+  }
+
+  /**
+   * Replace each {@link QueryModel#LIST_PLACEHOLDER} with placeholders.
+   * <p>
+   * A collection of more than {@link #MAX_IN_KEYS} elements is split into
+   * several lists of at most that many, tested with {@code OR}. The statement
+   * still binds the elements in order and matches the same rows.
+   */
+  static String expandLists(final String sql, final int[] listSizes) {
+    final String mark = QueryModel.LIST_PLACEHOLDER;
+    final StringBuilder buf = new StringBuilder(sql.length() + 16);
+    boolean quoted = false;
+    int list = 0;
+    for (int i = 0; i < sql.length();) {
+      final char c = sql.charAt(i);
+      if (c == '\'') {
+        quoted = !quoted;
+      } else if (!quoted && sql.startsWith(mark, i)) {
+        appendList(buf, listSizes[list]);
+        list++;
+        i += mark.length();
+        continue;
+      }
+      buf.append(c);
+      i++;
+    }
+    return buf.toString();
+  }
+
+  private static void appendList(final StringBuilder buf, final int n) {
+    if (n <= MAX_IN_KEYS) {
+      appendPlaceholders(buf, n);
+      return;
+    }
+
+    // Rewrite "expr IN " as "(expr IN (...) OR expr IN (...))".
+    final String in = " IN ";
+    Preconditions.checkState(buf.lastIndexOf(in) == buf.length() - in.length(),
+        "IN list without IN: %s", buf);
+    buf.setLength(buf.length() - in.length());
+    int start = buf.length();
+    while (start > 0 && buf.charAt(start - 1) != ' '
+        && buf.charAt(start - 1) != '(') {
+      start--;
+    }
+    final String expr = buf.substring(start);
+    buf.setLength(start);
+    buf.append('(');
+    for (int k = 0; k < n; k += MAX_IN_KEYS) {
+      if (k > 0) {
+        buf.append(" OR ");
+      }
+      buf.append(expr);
+      buf.append(in);
+      appendPlaceholders(buf, Math.min(MAX_IN_KEYS, n - k));
+    }
+    buf.append(')');
+  }
+
+  private static void appendPlaceholders(final StringBuilder buf,
+      final int n) {
+    buf.append('(');
+    for (int k = 0; k < n; k++) {
+      if (k > 0) {
+        buf.append(',');
+      }
+      buf.append('?');
+    }
+    buf.append(')');
+  }
+
+  /**
+   * Convert a prefix bound to {@code LIKE ?} into the pattern it stands for.
+   *
+   * @param prefix the value matching rows start with; may be null.
+   * @return the prefix with its wildcards escaped by
+   *         {@link QueryModel#LIKE_ESCAPE}, followed by {@code %}.
+   */
+  protected static String likePrefix(final String prefix) {
+    if (prefix == null) {
+      return null;
+    }
+    final char esc = QueryModel.LIKE_ESCAPE;
+    final StringBuilder r = new StringBuilder(prefix.length() + 8);
+    for (int i = 0; i < prefix.length(); i++) {
+      final char c = prefix.charAt(i);
+      if (c == '%' || c == '_' || c == esc) {
+        r.append(esc);
+      }
+      r.append(c);
+    }
+    r.append('%');
+    return r.toString();
+  }
+
   protected PreparedStatement prepareBySqlIn(final String sql,
       final Collection<K> keys) throws OrmException {
     final int n = keys.size();
@@ -129,11 +282,18 @@ public abstract class JdbcAccess<T, K extends Key<?>> extends
   }
 
   protected T queryOne(final PreparedStatement ps) throws OrmException {
+    return queryOne("fetch", ps);
+  }
+
+  protected T queryOne(final String name, final PreparedStatement ps)
+      throws OrmException {
+    final long start = startTimer();
+    T r = null;
+    boolean ok = false;
     try {
       try {
         final ResultSet rs = ps.executeQuery();
         try {
-          T r = null;
           if (rs.next()) {
             r = newEntityInstance();
             bindOneFetch(rs, r);
@@ -141,6 +301,7 @@ public abstract class JdbcAccess<T, K extends Key<?>> extends
               throw new OrmException("Multiple results");
             }
           }
+          ok = true;
           return r;
         } finally {
           rs.close();
@@ -150,17 +311,46 @@ public abstract class JdbcAccess<T, K extends Key<?>> extends
       }
     } catch (SQLException e) {
       throw convertError("fetch", e);
+    } finally {
+      record(name, r != null ? 1 : 0, 0, start, !ok);
     }
   }
 
   protected com.google.gwtorm.server.ResultSet<T> queryList(
       final PreparedStatement ps) throws OrmException {
+    return queryList("fetch", ps);
+  }
+
+  protected com.google.gwtorm.server.ResultSet<T> queryList(
+      final String name, final PreparedStatement ps) throws OrmException {
+    return queryList(name, ps, -1);
+  }
+
+  /**
+   * Run a query whose rows are bound by {@link #bindProjectionFetch}.
+   *
+   * @param name name of the query method.
+   * @param ps the query; null if it cannot match any row.
+   * @param projection number of the projection; -1 if rows hold every
+   *        column and are bound by {@link #bindOneFetch}.
+   * @return the results.
+   * @throws OrmException the query failed.
+   */
+  protected com.google.gwtorm.server.ResultSet<T> queryList(
+      final String name, final PreparedStatement ps, final int projection)
+      throws OrmException {
+    final long start = startTimer();
+    if (ps == null) {
+      record(name, 0, 0, start, false);
+      return new ListResultSet<>(Collections.<T> emptyList());
+    }
     final ResultSet rs;
     try {
       rs = ps.executeQuery();
       if (!rs.next()) {
         rs.close();
         ps.close();
+        record(name, 0, 0, start, false);
         return new ListResultSet<>(Collections.<T> emptyList());
       }
     } catch (SQLException err) {
@@ -169,21 +359,95 @@ public abstract class JdbcAccess<T, K extends Key<?>> extends
       } catch (SQLException e) {
         // Ignored.
       }
+      record(name, 0, 0, start, true);
       throw convertError("fetch", err);
     }
-    return new JdbcResultSet<>(this, rs, ps);
+    return record(name, start, new JdbcResultSet<>(this, rs, ps, projection));
+  }
+
+  /**
+   * Run a query of the form {@code SELECT COUNT(*) ...}.
+   *
+   * @param name name of the query method.
+   * @param ps the query; null if it cannot match any row.
+   * @return the count.
+   * @throws OrmException the query failed.
+   */
+  protected long queryCount(final String name, final PreparedStatement ps)
+      throws OrmException {
+    return queryAggregate(name, ps, false);
+  }
+
+  /**
+   * Run a query and test whether it returns any row.
+   *
+   * @param name name of the query method.
+   * @param ps the query; null if it cannot match any row.
+   * @return true if at least one row matched.
+   * @throws OrmException the query failed.
+   */
+  protected boolean queryExists(final String name, final PreparedStatement ps)
+      throws OrmException {
+    return queryAggregate(name, ps, true) > 0;
+  }
+
+  private long queryAggregate(final String name, final PreparedStatement ps,
+      final boolean exists) throws OrmException {
+    final long start = startTimer();
+    if (ps == null) {
+      record(name, 0, 0, start, false);
+      return 0;
+    }
+    int read = 0;
+    boolean ok = false;
+    try {
+      try {
+        if (exists) {
+          ps.setMaxRows(1);
+        }
+        final ResultSet rs = ps.executeQuery();
+        try {
+          long n = 0;
+          if (rs.next()) {
+            read = 1;
+            n = exists ? 1 : rs.getLong(1);
+          }
+          ok = true;
+          return n;
+        } finally {
+          rs.close();
+        }
+      } finally {
+        ps.close();
+      }
+    } catch (SQLException e) {
+      throw convertError("fetch", e);
+    } finally {
+      record(name, read, 0, start, !ok);
+    }
   }
 
   @Override
   public void insert(final Iterable<T> instances) throws OrmException {
+    if (deferInsert(instances)) {
+      return;
+    }
+    schema.pinToPrimary();
+    final List<T> rows = asList(instances);
+    evict(rows);
+    final long start = startTimer();
+    boolean ok = false;
     try {
       if (schema.getDialect().canDetermineTotalBatchUpdateCount()) {
-        insertAsBatch(instances);
+        executeAsBatch(Dml.INSERT, rows);
       } else {
-        insertIndividually(instances);
+        insertIndividually(rows);
       }
+      ok = true;
     } catch (SQLException e) {
       throw convertError("insert", e);
+    } finally {
+      record("insert", 0, rows.size(), start, !ok);
     }
   }
 
@@ -191,7 +455,7 @@ public abstract class JdbcAccess<T, K extends Key<?>> extends
       OrmConcurrencyException {
     PreparedStatement ps = null;
     try {
-      boolean concurrencyViolationDetected = false;
+      final List<T> modified = new ArrayList<>();
       for (final T o : instances) {
         if (ps == null) {
           ps = schema.getConnection().prepareStatement(getInsertOneSql());
@@ -199,11 +463,11 @@ public abstract class JdbcAccess<T, K extends Key<?>> extends
         bindOneInsert(ps, o);
         int updateCount = ps.executeUpdate();
         if (updateCount != 1) {
-          concurrencyViolationDetected = true;
+          modified.add(o);
         }
       }
-      if (concurrencyViolationDetected) {
-        throw new OrmConcurrencyException();
+      if (!modified.isEmpty()) {
+        throw new OrmConcurrencyException(modified);
       }
     } finally {
       if (ps != null) {
@@ -212,37 +476,28 @@ public abstract class JdbcAccess<T, K extends Key<?>> extends
     }
   }
 
-  private void insertAsBatch(final Iterable<T> instances) throws SQLException,
-          OrmException {
-    PreparedStatement ps = null;
-    try {
-      int cnt = 0;
-      for (final T o : instances) {
-        if (ps == null) {
-          ps = schema.getConnection().prepareStatement(getInsertOneSql());
-        }
-        bindOneInsert(ps, o);
-        ps.addBatch();
-        cnt++;
-      }
-      attemptBatchExecute(ps, cnt);
-      } finally {
-      if (ps != null) {
-        ps.close();
-      }
-    }
-  }
-
   @Override
   public void update(final Iterable<T> instances) throws OrmException {
+    if (deferUpdate(instances)) {
+      return;
+    }
+    schema.pinToPrimary();
+    final List<T> rows = asList(instances);
+    evict(rows);
+    final long start = startTimer();
+    boolean ok = false;
     try {
       if (schema.getDialect().canDetermineTotalBatchUpdateCount()) {
-        updateAsBatch(instances);
+        executeAsBatch(Dml.UPDATE, rows);
       } else {
-        updateIndividually(instances);
+        updateIndividually(rows);
       }
+      updateLazyColumns(rows);
+      ok = true;
     } catch (SQLException e) {
       throw convertError("update", e);
+    } finally {
+      record("update", 0, rows.size(), start, !ok);
     }
   }
 
@@ -250,7 +505,7 @@ public abstract class JdbcAccess<T, K extends Key<?>> extends
       OrmConcurrencyException {
     PreparedStatement ps = null;
     try {
-      boolean concurrencyViolationDetected = false;
+      final List<T> modified = new ArrayList<>();
       for (final T o : instances) {
         if (ps == null) {
           ps = schema.getConnection().prepareStatement(getUpdateOneSql());
@@ -258,11 +513,11 @@ public abstract class JdbcAccess<T, K extends Key<?>> extends
         bindOneUpdate(ps, o);
         int updateCount = ps.executeUpdate();
         if (updateCount != 1) {
-          concurrencyViolationDetected = true;
+          modified.add(o);
         }
       }
-      if (concurrencyViolationDetected) {
-        throw new OrmConcurrencyException();
+      if (!modified.isEmpty()) {
+        throw new OrmConcurrencyException(modified);
       }
     } finally {
       if (ps != null) {
@@ -271,27 +526,6 @@ public abstract class JdbcAccess<T, K extends Key<?>> extends
     }
   }
 
-  private void updateAsBatch(final Iterable<T> instances) throws SQLException,
-          OrmException {
-    PreparedStatement ps = null;
-    try {
-      int cnt = 0;
-      for (final T o : instances) {
-        if (ps == null) {
-          ps = schema.getConnection().prepareStatement(getUpdateOneSql());
-        }
-        bindOneUpdate(ps, o);
-        ps.addBatch();
-        cnt++;
-      }
-       attemptBatchExecute(ps, cnt);
-    } finally {
-      if (ps != null) {
-        ps.close();
-      }
-    }
-  }
-
   /**
    * Attempt to update instances.
    *
@@ -341,11 +575,93 @@ public abstract class JdbcAccess<T, K extends Key<?>> extends
 
   @Override
   public void upsert(final Iterable<T> instances) throws OrmException {
-  // Assume update first, it will cheaply tell us if the row is missing.
-  Collection<T> inserts = attemptUpdate(instances);
+    if (deferUpsert(instances)) {
+      return;
+    }
+    schema.pinToPrimary();
+    final List<T> rows = asList(instances);
+    evict(rows);
+    final long start = startTimer();
+    boolean ok = false;
+    try {
+      if (getUpsertOneSql() != null) {
+        executeAsBatch(Dml.UPSERT, rows);
+      } else {
+        // Assume update first, it will cheaply tell us if the row is missing.
+        final Collection<T> inserts = attemptUpdate(rows);
+        updateLazyColumns(updated(rows, inserts));
+        if (inserts != null) {
+          insert(inserts);
+        }
+      }
+      ok = true;
+    } catch (SQLException e) {
+      throw convertError("upsert", e);
+    } finally {
+      record("upsert", 0, rows.size(), start, !ok);
+    }
+  }
+
+  private static <T> List<T> updated(final List<T> rows,
+      final Collection<T> inserts) {
+    if (inserts == null) {
+      return rows;
+    }
+    final Set<T> missing = Sets.newIdentityHashSet();
+    missing.addAll(inserts);
+    final List<T> r = new ArrayList<>(rows.size() - missing.size());
+    for (final T o : rows) {
+      if (!missing.contains(o)) {
+        r.add(o);
+      }
+    }
+    return r;
+  }
 
-    if (inserts != null) {
-      insert(inserts);
+  /**
+   * Write the lazy columns of updated rows, which the row update leaves out.
+   * <p>
+   * Holders that were never read still hold the stored value, so they are
+   * skipped rather than read back only to be written again.
+   */
+  private void updateLazyColumns(final List<T> rows) throws SQLException {
+    final String[] sql = getUpdateLazySql();
+    if (sql.length == 0 || rows.isEmpty()) {
+      return;
+    }
+    final PreparedStatement[] ps = new PreparedStatement[sql.length];
+    try {
+      for (final T o : rows) {
+        final LazyColumn<?>[] cols = getLazyColumns(o);
+        for (int i = 0; i < cols.length; i++) {
+          if (!cols[i].isLoaded()) {
+            continue;
+          }
+          if (ps[i] == null) {
+            ps[i] = schema.getConnection().prepareStatement(sql[i]);
+          }
+          if (cols[i] instanceof LazyString) {
+            SqlLazyStringTypeInfo.toPreparedStatement(ps[i], 1,
+                (LazyString) cols[i]);
+          } else {
+            SqlLazyBytesTypeInfo.toPreparedStatement(ps[i], 1,
+                (LazyBytes) cols[i]);
+          }
+          bindOneLazyKey(ps[i], o);
+          ps[i].addBatch();
+        }
+      }
+      for (final PreparedStatement p : ps) {
+        if (p != null) {
+          p.executeBatch();
+        }
+      }
+    } finally {
+      for (final PreparedStatement p : ps) {
+        if (p != null) {
+          p.close();
+        }
+      }
     }
   }
 
@@ -397,24 +713,210 @@ public abstract class JdbcAccess<T, K extends Key<?>> extends
     return inserts;
   }
 
+  /**
+   * Atomically update one entity.
+   * <p>
+   * If the dialect can lock rows, the row is read with {@code FOR UPDATE} and
+   * written back in the same transaction, so concurrent callers wait rather
+   * than retry. A transaction already begun by the caller is used as is;
+   * otherwise a short one is committed before returning.
+   * <p>
+   * Otherwise the row is updated conditionally on its {@code @RowVersion}
+   * column (when the entity has one) and the update is retried after an
+   * exponentially growing, randomized delay if another writer got there
+   * first.
+   */
+  @Override
+  public T atomicUpdate(final K key, final AtomicUpdate<T> update)
+      throws OrmException {
+    schema.pinToPrimary();
+    if (canLockOne()) {
+      return atomicUpdateLocked(key, update);
+    }
+
+    for (int attempts = 1;; attempts++) {
+      try {
+        evict(key);
+        final T obj = get(key);
+        if (obj == null) {
+          return null;
+        }
+        final T res = update.update(obj);
+        update(Collections.singleton(obj));
+        flushWrites();
+        return res;
+      } catch (OrmConcurrencyException err) {
+        final long delay = ATOMIC_UPDATE_RETRIES.getRetryDelay(attempts);
+        if (delay < 0) {
+          throw err;
+        }
+        final Database<?> db = schema.getDatabase();
+        if (db != null) {
+          db.countAtomicUpdateRetry();
+        }
+        sleep(delay);
+      }
+    }
+  }
+
+  private T atomicUpdateLocked(final K key, final AtomicUpdate<T> update)
+      throws OrmException {
+    final Connection c = schema.getConnection();
+    final boolean local;
+    try {
+      local = c.getAutoCommit();
+      if (local) {
+        c.setAutoCommit(false);
+      }
+    } catch (SQLException e) {
+      throw convertError("atomicUpdate", e);
+    }
+
+    boolean committed = !local;
+    try {
+      evict(key);
+      final T obj = lockOne(key);
+      T res = null;
+      if (obj != null) {
+        res = update.update(obj);
+        update(Collections.singleton(obj));
+        flushWrites();
+      }
+      if (local) {
+        c.commit();
+        committed = true;
+      }
+      return res;
+    } catch (SQLException e) {
+      throw convertError("atomicUpdate", e);
+    } finally {
+      if (local) {
+        try {
+          if (!committed) {
+            c.rollback();
+          }
+          c.setAutoCommit(true);
+        } catch (SQLException e) {
+          // Ignored; the connection is returned in auto commit mode by
+          // the next commit or rollback of the schema.
+        }
+      }
+    }
+  }
+
   @Override
   public void delete(final Iterable<T> instances) throws OrmException {
+    if (deferDelete(instances)) {
+      return;
+    }
+    schema.pinToPrimary();
+    final List<T> rows = asList(instances);
+    evict(rows);
+    final long start = startTimer();
+    boolean ok = false;
     try {
       if (schema.getDialect().canDetermineTotalBatchUpdateCount()) {
-        deleteAsBatch(instances);
+        executeAsBatch(Dml.DELETE, rows);
       } else {
-        deleteIndividually(instances);
+        deleteIndividually(rows);
       }
+      ok = true;
     } catch (SQLException e) {
       throw convertError("delete", e);
+    } finally {
+      record("delete", 0, rows.size(), start, !ok);
+    }
+  }
+
+  /**
+   * Delete entities by primary key without reading them first.
+   * <p>
+   * Keys are deleted with {@code DELETE ... WHERE key IN (...)}, in groups
+   * of at most 1000, when the relation's key is a single column. Missing keys
+   * are ignored.
+   */
+  @Override
+  public void deleteKeys(final Iterable<K> keys) throws OrmException {
+    final List<K> all = asList(keys);
+    if (deferDeleteKeys(all)) {
+      return;
     }
+    for (final K k : all) {
+      evict(k);
+    }
+    for (final List<K> part : Lists.partition(all, MAX_IN_KEYS)) {
+      deleteBySqlIn(part);
+    }
+  }
+
+  /**
+   * Delete the entities with the given keys.
+   * <p>
+   * The default implementation reads the entities and deletes them.
+   *
+   * @param keys primary keys of the entities.
+   * @throws OrmException the entities cannot be deleted.
+   */
+  protected void deleteBySqlIn(final Collection<K> keys) throws OrmException {
+    delete(get(keys));
+  }
+
+  /**
+   * Run a statement changing rows of this relation.
+   *
+   * @param name name of the operation, or of the query method.
+   * @param ps the statement; closed before returning. Null if it
+   *        cannot match any row.
+   * @return number of rows changed.
+   * @throws OrmException the statement failed.
+   */
+  protected int executeUpdate(final String name, final PreparedStatement ps)
+      throws OrmException {
+    final long start = startTimer();
+    if (ps == null) {
+      record(name, 0, 0, start, false);
+      return 0;
+    }
+    int n = 0;
+    boolean ok = false;
+    try {
+      try {
+        n = ps.executeUpdate();
+        ok = true;
+        return n;
+      } finally {
+        ps.close();
+      }
+    } catch (SQLException e) {
+      throw convertError(name, e);
+    } finally {
+      record(name, 0, n, start, !ok);
+    }
+  }
+
+  /**
+   * Run a query method deleting or updating the rows it matches.
+   * <p>
+   * The changed rows are not known, so every entity of the relation is
+   * evicted from the identity map.
+   *
+   * @param name name of the query method.
+   * @param ps the statement; closed before returning. Null if it
+   *        cannot match any row.
+   * @return number of rows changed.
+   * @throws OrmException the statement failed.
+   */
+  protected int executeMutation(final String name, final PreparedStatement ps)
+      throws OrmException {
+    evictAll();
+    return executeUpdate(name, ps);
   }
 
   private void deleteIndividually(Iterable<T> instances) throws SQLException,
       OrmConcurrencyException {
     PreparedStatement ps = null;
     try {
-      boolean concurrencyViolationDetected = false;
+      final List<T> modified = new ArrayList<>();
       for (final T o : instances) {
         if (ps == null) {
           ps = schema.getConnection().prepareStatement(getDeleteOneSql());
@@ -422,11 +924,11 @@ public abstract class JdbcAccess<T, K extends Key<?>> extends
         bindOneDelete(ps, o);
         int updateCount = ps.executeUpdate();
         if (updateCount != 1) {
-          concurrencyViolationDetected = true;
+          modified.add(o);
         }
       }
-      if (concurrencyViolationDetected) {
-        throw new OrmConcurrencyException();
+      if (!modified.isEmpty()) {
+        throw new OrmConcurrencyException(modified);
       }
     } finally {
       if (ps != null) {
@@ -435,36 +937,42 @@ public abstract class JdbcAccess<T, K extends Key<?>> extends
     }
   }
 
-  private void deleteAsBatch(final Iterable<T> instances) throws SQLException,
-          OrmException {
-    PreparedStatement ps = null;
-    try {
-      int cnt = 0;
-      for (final T o : instances) {
-        if (ps == null) {
-          ps = schema.getConnection().prepareStatement(getDeleteOneSql());
-        }
-        bindOneDelete(ps, o);
-        ps.addBatch();
-        cnt++;
-      }
-        attemptBatchExecute(ps, cnt);
-    } finally {
-      if (ps != null) {
-        ps.close();
-      }
+  /**
+   * Run a batch with one statement per instance.
+   *
+   * @throws OrmConcurrencyException a statement changed no row. The exception
+   *         lists the instances of those statements, or every instance if the
+   *         dialect only reports the total rows changed.
+   */
+  private void execute(final PreparedStatement ps, final List<T> instances)
+      throws SQLException, OrmConcurrencyException {
+    if (instances.isEmpty()) {
+      return;
     }
-  }
 
-  private void execute(final PreparedStatement ps, final int cnt)
-      throws SQLException, OrmConcurrencyException {
-    if (cnt == 0) {
+    final SqlDialect dialect = schema.getDialect();
+    if (!dialect.canDetermineIndividualBatchUpdateCounts()) {
+      if (dialect.executeBatch(ps) != instances.size()) {
+        throw new OrmConcurrencyException(instances);
+      }
       return;
     }
 
-    final int numberOfRowsUpdated = schema.getDialect().executeBatch(ps);
-    if (numberOfRowsUpdated != cnt) {
-        throw new OrmConcurrencyException();
+    final int[] counts = ps.executeBatch();
+    if (counts == null) {
+      throw new SQLException("No rows affected");
+    }
+    if (counts.length != instances.size()) {
+      throw new OrmConcurrencyException(instances);
+    }
+    final List<T> modified = new ArrayList<>();
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] == 0) {
+        modified.add(instances.get(i));
+      }
+    }
+    if (!modified.isEmpty()) {
+      throw new OrmConcurrencyException(modified);
     }
   }
 
@@ -481,37 +989,146 @@ public abstract class JdbcAccess<T, K extends Key<?>> extends
     return schema.getDialect().convertError(op, getRelationName(), err);
   }
 
-  private void attemptBatchExecute(PreparedStatement ps, int cnt)
-          throws SQLException, OrmException {
-    for (int retryIndex = 0; retryIndex <= GERRIT_MAX_DEADLOCK_RETRIES; retryIndex++) {
+  /**
+   * Run one statement per instance as a single batch.
+   * <p>
+   * If the batch fails transiently, or changes fewer rows than expected, it is
+   * rebuilt from the instances and run again as the retry policy allows.
+   */
+  private void executeAsBatch(final Dml op, final List<T> instances)
+      throws SQLException, OrmException {
+    if (instances.isEmpty()) {
+      return;
+    }
+    for (int attempt = 1;; attempt++) {
+      final long delay;
+      final PreparedStatement ps =
+          schema.getConnection().prepareStatement(getSql(op));
       try {
-        execute(ps, cnt);
-        break;
+        for (final T o : instances) {
+          bindOne(op, ps, o);
+          ps.addBatch();
+        }
+        if (op == Dml.UPSERT) {
+          // Update counts differ between databases (MySQL reports 2 for a
+          // replaced row), and a failed row raises an exception anyway.
+          ps.executeBatch();
+        } else {
+          execute(ps, instances);
+        }
+        return;
       } catch (OrmConcurrencyException err) {
-        if (retryIndex >= GERRIT_MAX_DEADLOCK_RETRIES) {
+        delay = getRetryDelay(attempt, err);
+      } catch (SQLException err) {
+        if (!isTransient(err)) {
           throw err;
-        } else {
-          try {
-            /* Increment sleep to give OS time to schedule thread
-             * Default is 1ms wait incremented by retry count
-             * GERRIT_MAX_DEADLOCK_RETRY_TIMEOUT can be set to 0 to iterate with no delay.
-             */
-            Thread.sleep((GERRIT_MAX_DEADLOCK_RETRY_TIMEOUT * retryIndex));
-          } catch (InterruptedException e) {
-            //Throw to ORM to indicate issue in ORM class
-            throw new OrmException("Exception occurred during retry", e);
-          }
         }
+        delay = getRetryDelay(attempt, err);
+      } finally {
+        ps.close();
       }
+      sleep(delay);
     }
   }
 
+  private String getSql(final Dml op) {
+    switch (op) {
+      case INSERT:
+        return getInsertOneSql();
+      case UPDATE:
+        return getUpdateOneSql();
+      case DELETE:
+        return getDeleteOneSql();
+      case UPSERT:
+      default:
+        return getUpsertOneSql();
+    }
+  }
+
+  private void bindOne(final Dml op, final PreparedStatement ps, final T o)
+      throws SQLException {
+    switch (op) {
+      case UPDATE:
+        bindOneUpdate(ps, o);
+        break;
+      case DELETE:
+        bindOneDelete(ps, o);
+        break;
+      case INSERT:
+      case UPSERT:
+      default:
+        bindOneInsert(ps, o);
+        break;
+    }
+  }
+
+  /**
+   * Deadlocks roll back the whole transaction, so only statements running on
+   * their own can be retried.
+   */
+  private boolean isTransient(final SQLException err) throws SQLException {
+    return schema.getDialect().isTransientError(err)
+        && schema.getConnection().getAutoCommit();
+  }
+
+  private <E extends Exception> long getRetryDelay(final int attempt,
+      final E err) throws E {
+    final long delay = getRetryPolicy().getRetryDelay(attempt);
+    if (delay < 0) {
+      throw err;
+    }
+    final Database<?> db = schema.getDatabase();
+    if (db != null) {
+      db.countStatementRetry();
+    }
+    return delay;
+  }
+
+  private RetryPolicy getRetryPolicy() {
+    final Database<?> db = schema.getDatabase();
+    final RetryPolicy p = db != null ? db.getRetryPolicy() : null;
+    return p != null ? p : deadlockRetryPolicy;
+  }
+
+  private static void sleep(final long delay) throws OrmException {
+    if (delay <= 0) {
+      return;
+    }
+    try {
+      Thread.sleep(delay);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      //Throw to ORM to indicate issue in ORM class
+      throw new OrmException("Exception occurred during retry", e);
+    }
+  }
+
+  private static <T> List<T> asList(final Iterable<T> instances) {
+    if (instances instanceof List) {
+      return (List<T>) instances;
+    }
+    return Lists.newArrayList(instances);
+  }
+
+  /**
+   * Set how often this relation retries a failed batch when its database has
+   * no {@link RetryPolicy} of its own.
+   */
   public void setDeadlockRetry(int retries) {
     this.GERRIT_MAX_DEADLOCK_RETRIES = retries;
+    updateDeadlockRetryPolicy();
   }
 
+  /** Set the initial delay in milliseconds between retries of a batch. */
   public void setDeadlockRetryTimeOut(int retryTimeOut) {
     this.GERRIT_MAX_DEADLOCK_RETRY_TIMEOUT = retryTimeOut;
+    updateDeadlockRetryPolicy();
+  }
+
+  private void updateDeadlockRetryPolicy() {
+    deadlockRetryPolicy =
+        new ExponentialBackoff(GERRIT_MAX_DEADLOCK_RETRIES,
+            GERRIT_MAX_DEADLOCK_RETRY_TIMEOUT, MAX_RETRY_DELAY_MILLIS);
   }
 
   public int getDeadlockRetryCount() {
@@ -530,6 +1147,163 @@ public abstract class JdbcAccess<T, K extends Key<?>> extends
 
   protected abstract String getDeleteOneSql();
 
+  /**
+   * @return statement inserting or replacing one row, bound like
+   *         {@link #bindOneInsert}; null to update first and insert the rows
+   *         that were missing.
+   */
+  protected String getUpsertOneSql() {
+    return null;
+  }
+
+  /** @return true if {@link #lockOne(Key)} is implemented. */
+  protected boolean canLockOne() {
+    return false;
+  }
+
+  /**
+   * Read one entity, locking its row until the current transaction ends.
+   *
+   * @param key primary key of the entity.
+   * @return the entity; null if it does not exist.
+   * @throws OrmException the row cannot be read.
+   */
+  protected T lockOne(final K key) throws OrmException {
+    throw new UnsupportedOperationException(getRelationName()
+        + " cannot lock rows");
+  }
+
+  /**
+   * @return {@code FROM} and {@code WHERE} clauses selecting one row, bound by
+   *         {@link #bindOneKey(PreparedStatement, Object)}.
+   */
+  protected String getFromByKeySql() {
+    throw new UnsupportedOperationException(getRelationName()
+        + " has no primary key");
+  }
+
+  /**
+   * Bind the primary key of an entity, as used by {@link #getFromByKeySql()}.
+   *
+   * @param ps statement to bind.
+   * @param entity the entity.
+   * @throws SQLException the key cannot be bound.
+   */
+  protected void bindOneKey(final PreparedStatement ps, final T entity)
+      throws SQLException {
+    throw new UnsupportedOperationException(getRelationName()
+        + " has no primary key");
+  }
+
+  /**
+   * @return one {@code UPDATE} per lazy column, setting the column as the
+   *         first parameter and bound by
+   *         {@link #bindOneLazyKey(PreparedStatement, Object)}.
+   */
+  protected String[] getUpdateLazySql() {
+    return new String[0];
+  }
+
+  /**
+   * @param entity the entity.
+   * @return holders of the entity's lazy columns, in the order of
+   *         {@link #getUpdateLazySql()}. A null holder is returned as an empty
+   *         one.
+   */
+  protected LazyColumn<?>[] getLazyColumns(final T entity) {
+    throw new UnsupportedOperationException(getRelationName()
+        + " has no lazy columns");
+  }
+
+  /**
+   * Bind the primary key of an entity from the second parameter on, as used
+   * by {@link #getUpdateLazySql()}.
+   *
+   * @param ps statement to bind.
+   * @param entity the entity.
+   * @throws SQLException the key cannot be bound.
+   */
+  protected void bindOneLazyKey(final PreparedStatement ps, final T entity)
+      throws SQLException {
+    throw new UnsupportedOperationException(getRelationName()
+        + " has no lazy columns");
+  }
+
+  /**
+   * Create the holder of a lazy text column, for a fetched entity.
+   *
+   * @param column name of the column.
+   * @param entity the entity the column belongs to.
+   * @return holder reading the column by the entity's primary key.
+   */
+  protected LazyString lazyString(final String column, final T entity) {
+    return new LazyString(new LazyLoader<String>(column, entity) {
+      @Override
+      String read(final ResultSet rs) throws SQLException {
+        return SqlStringTypeInfo.fromResultSet(rs, 1);
+      }
+    });
+  }
+
+  /**
+   * Create the holder of a lazy binary column, for a fetched entity.
+   *
+   * @param column name of the column.
+   * @param entity the entity the column belongs to.
+   * @return holder reading the column by the entity's primary key.
+   */
+  protected LazyBytes lazyBytes(final String column, final T entity) {
+    return new LazyBytes(new LazyLoader<byte[]>(column, entity) {
+      @Override
+      byte[] read(final ResultSet rs) throws SQLException {
+        return SqlByteArrayTypeInfo.fromResultSet(rs, 1);
+      }
+    });
+  }
+
+  private abstract class LazyLoader<V> implements LazyColumn.Loader<V> {
+    private final String column;
+    private final T entity;
+
+    LazyLoader(final String column, final T entity) {
+      this.column = column;
+      this.entity = entity;
+    }
+
+    @Override
+    public V load() throws OrmException {
+      final long start = startTimer();
+      boolean ok = false;
+      try {
+        final PreparedStatement ps =
+            prepareStatement("SELECT " + column + " " + getFromByKeySql());
+        try {
+          bindOneKey(ps, entity);
+          final ResultSet rs = ps.executeQuery();
+          try {
+            if (!rs.next()) {
+              // The row was deleted after the entity was read.
+              throw new OrmConcurrencyException();
+            }
+            final V value = read(rs);
+            ok = true;
+            return value;
+          } finally {
+            rs.close();
+          }
+        } finally {
+          ps.close();
+        }
+      } catch (SQLException e) {
+        throw convertError("fetch", e);
+      } finally {
+        record("lazyLoad", ok ? 1 : 0, 0, start, !ok);
+      }
+    }
+
+    abstract V read(ResultSet rs) throws SQLException;
+  }
+
   protected abstract void bindOneInsert(PreparedStatement ps, T entity)
       throws SQLException;
 
@@ -541,4 +1315,19 @@ public abstract class JdbcAccess<T, K extends Key<?>> extends
 
   protected abstract void bindOneFetch(ResultSet rs, T entity)
       throws SQLException;
+
+  /**
+   * Bind a row of a query that reads only some fields.
+   *
+   * @param rs the row.
+   * @param entity entity to populate.
+   * @param projection number of the projection, as passed to
+   *        {@link #queryList(String, PreparedStatement, int)}.
+   * @throws SQLException the row cannot be read.
+   */
+  protected void bindProjectionFetch(final ResultSet rs, final T entity,
+      final int projection) throws SQLException {
+    throw new UnsupportedOperationException(getRelationName()
+        + " has no projection " + projection);
+  }
 }
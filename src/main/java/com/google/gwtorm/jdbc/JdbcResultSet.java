@@ -27,13 +27,16 @@ class JdbcResultSet<T, K extends Key<?>> extends AbstractResultSet<T> {
   private final JdbcAccess<T, K> access;
   private final ResultSet rs;
   private final PreparedStatement ps;
+  private final int projection;
   private Boolean haveRow;
   private boolean closed;
 
-  JdbcResultSet(JdbcAccess<T, K> jdbcAccess, ResultSet rs, PreparedStatement ps) {
+  JdbcResultSet(JdbcAccess<T, K> jdbcAccess, ResultSet rs, PreparedStatement ps,
+      int projection) {
     this.access = jdbcAccess;
     this.rs = rs;
     this.ps = ps;
+    this.projection = projection;
     this.haveRow = Boolean.TRUE;
   }
 
@@ -68,7 +71,11 @@ class JdbcResultSet<T, K extends Key<?>> extends AbstractResultSet<T> {
 
     final T o = access.newEntityInstance();
     try {
-      access.bindOneFetch(rs, o);
+      if (projection < 0) {
+        access.bindOneFetch(rs, o);
+      } else {
+        access.bindProjectionFetch(rs, o, projection);
+      }
     } catch (SQLException err) {
       close();
       throw new OrmRuntimeException(access.convertError("fetch", err));
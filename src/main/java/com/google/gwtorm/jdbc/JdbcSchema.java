@@ -22,34 +22,167 @@ import com.google.gwtorm.schema.SequenceModel;
 import com.google.gwtorm.schema.sql.SqlDialect;
 import com.google.gwtorm.server.AbstractSchema;
 import com.google.gwtorm.server.OrmException;
+import com.google.gwtorm.server.OrmMetrics;
 import com.google.gwtorm.server.Schema;
 import com.google.gwtorm.server.StatementExecutor;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 /** Internal base class for implementations of {@link Schema}. */
 public abstract class JdbcSchema extends AbstractSchema {
   private final Database<?> dbDef;
+  private final ReplicaSet replicas;
   private Connection conn;
+  private ReplicaSet.Replica replica;
+  private ReplicaConnection replicaConn;
+  private final List<ReplicaConnection> retiredReplicas = new ArrayList<>();
+  private boolean pinned;
+
+  /** Connection to a replica, with the number of its statements still open. */
+  static final class ReplicaConnection {
+    final Connection conn;
+    int openStatements;
+
+    ReplicaConnection(final Connection c) {
+      conn = c;
+    }
+  }
 
   protected JdbcSchema(final Database<?> d) throws OrmException {
     dbDef = d;
+    replicas = dbDef.getReplicaSet();
     conn = dbDef.newConnection();
   }
 
+  /** @return connection to the primary database, used for all writes. */
   public final Connection getConnection() {
+    checkNoPendingTasks();
     return conn;
   }
 
+  /**
+   * Prepare a query, on a replica if this schema may read from one.
+   * <p>
+   * Replicas serve queries run outside of a transaction until the schema first
+   * writes. From then on the schema reads from the primary, so it observes its
+   * own writes. If the connection to the replica fails the query runs on the
+   * primary.
+   */
+  PreparedStatement prepareQuery(final String sql) throws SQLException {
+    if (replicas == null || pinned || !conn.getAutoCommit()) {
+      return conn.prepareStatement(sql);
+    }
+    if (replicaConn == null) {
+      final ReplicaSet.Replica r = replicas.acquire();
+      if (r == null) {
+        return conn.prepareStatement(sql);
+      }
+      try {
+        replicaConn = new ReplicaConnection(replicas.open(r));
+      } catch (SQLException e) {
+        return conn.prepareStatement(sql);
+      }
+      replica = r;
+    }
+    final ReplicaConnection rc = replicaConn;
+    final PreparedStatement ps;
+    try {
+      ps = rc.conn.prepareStatement(sql);
+    } catch (SQLException e) {
+      if (!ReplicaStatement.isConnectionError(e)) {
+        throw e;
+      }
+      replicaFailed(rc);
+      return conn.prepareStatement(sql);
+    }
+    rc.openStatements++;
+    return ReplicaStatement.wrap(this, rc, sql, ps);
+  }
+
+  /** Read from the primary for the rest of this schema's life. */
+  void pinToPrimary() {
+    pinned = true;
+  }
+
+  /**
+   * Stop using a replica after its connection failed.
+   * <p>
+   * The connection is closed once its open statements are closed, so result
+   * sets still being read from it are not cut short.
+   */
+  void replicaFailed(final ReplicaConnection rc) {
+    if (rc != replicaConn) {
+      return;
+    }
+    replicas.failed(replica);
+    replica = null;
+    replicaConn = null;
+    if (rc.openStatements == 0) {
+      close(rc);
+    } else {
+      retiredReplicas.add(rc);
+    }
+  }
+
+  /** Note a statement prepared on a replica connection was closed. */
+  void replicaStatementClosed(final ReplicaConnection rc) {
+    rc.openStatements--;
+    if (rc.openStatements == 0 && retiredReplicas.remove(rc)) {
+      close(rc);
+    }
+  }
+
+  private static void close(final ReplicaConnection rc) {
+    try {
+      rc.conn.close();
+    } catch (SQLException err) {
+      // Ignored; the replica is being given up.
+    }
+  }
+
+  final Database<?> getDatabase() {
+    return dbDef;
+  }
+
   public final SqlDialect getDialect() {
     return dbDef.getDialect();
   }
 
+  @Override
+  protected Executor getExecutor() {
+    return dbDef.getExecutor();
+  }
+
+  @Override
+  protected OrmMetrics getMetrics() {
+    return dbDef.getMetrics();
+  }
+
+  @Override
+  protected boolean isCoalescingGets() {
+    return dbDef.isCoalescingGets();
+  }
+
+  @Override
+  protected boolean isUnitOfWork() {
+    return dbDef.isUnitOfWork();
+  }
+
+  @Override
+  protected List<String> getRelationOrder() {
+    return dbDef.getRelationOrder();
+  }
+
   @Override
   public void commit() throws OrmException {
+    super.commit();
     try {
       if (!conn.getAutoCommit()) {
         conn.commit();
@@ -67,6 +200,7 @@ public abstract class JdbcSchema extends AbstractSchema {
 
   @Override
   public void rollback() throws OrmException {
+    super.rollback();
     try {
       if (!conn.getAutoCommit()) {
         conn.rollback();
@@ -237,11 +371,34 @@ public abstract class JdbcSchema extends AbstractSchema {
 
   @Override
   protected long nextLong(final String poolName) throws OrmException {
-    return getDialect().nextLong(getConnection(), poolName);
+    final OrmMetrics metrics = getMetrics();
+    if (metrics == null || !metrics.isEnabled()) {
+      return getDialect().nextLong(getConnection(), poolName);
+    }
+    final long start = System.nanoTime();
+    boolean ok = false;
+    try {
+      final long r = getDialect().nextLong(getConnection(), poolName);
+      ok = true;
+      return r;
+    } finally {
+      metrics.record(poolName, "nextLong", 1, 0, System.nanoTime() - start,
+          !ok);
+    }
   }
 
   @Override
   public void close() {
+    if (replica != null) {
+      close(replicaConn);
+      replicas.release(replica);
+      replica = null;
+      replicaConn = null;
+    }
+    for (final ReplicaConnection rc : retiredReplicas) {
+      close(rc);
+    }
+    retiredReplicas.clear();
     if (conn != null) {
       try {
         conn.close();
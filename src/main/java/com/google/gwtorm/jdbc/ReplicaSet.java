@@ -0,0 +1,149 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gwtorm.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+/**
+ * Read replicas of a {@link Database}, shared by the schemas it opens.
+ * <p>
+ * Each schema reading from a replica holds one connection to it. A schema is
+ * given the healthy replica with the fewest such connections, taking turns
+ * among equally loaded replicas. A replica that fails is not used again for
+ * {@link #DOWN_MILLIS}, and is then checked before schemas may use it.
+ */
+class ReplicaSet {
+  static final long DOWN_MILLIS = 30000;
+  private static final int VALID_TIMEOUT_SECONDS = 2;
+
+  static class Replica {
+    private final DataSource dataSource;
+    private final AtomicInteger connections = new AtomicInteger();
+    private volatile long downUntil;
+    private volatile boolean down;
+
+    Replica(final DataSource ds) {
+      dataSource = ds;
+    }
+
+    int getConnectionCount() {
+      return connections.get();
+    }
+
+    boolean isAvailable(final long now) {
+      return !down || downUntil <= now;
+    }
+  }
+
+  private final List<Replica> replicas;
+  private final AtomicInteger next = new AtomicInteger();
+
+  ReplicaSet(final Collection<? extends DataSource> sources) {
+    replicas = new ArrayList<>(sources.size());
+    for (final DataSource ds : sources) {
+      replicas.add(new Replica(ds));
+    }
+  }
+
+  List<Replica> getReplicas() {
+    return replicas;
+  }
+
+  /**
+   * Choose the replica a schema should read from.
+   *
+   * @return the least loaded available replica, counted as holding one more
+   *         connection; null if every replica is down.
+   */
+  Replica acquire() {
+    final long now = System.currentTimeMillis();
+    final int n = replicas.size();
+    final int start = (next.getAndIncrement() & Integer.MAX_VALUE) % n;
+    Replica best = null;
+    for (int i = 0; i < n; i++) {
+      final Replica r = replicas.get((start + i) % n);
+      if (r.isAvailable(now)
+          && (best == null || r.connections.get() < best.connections.get())) {
+        best = r;
+      }
+    }
+    if (best != null) {
+      best.connections.incrementAndGet();
+    }
+    return best;
+  }
+
+  /**
+   * Connect to an acquired replica.
+   *
+   * @return a read only connection in auto-commit mode.
+   * @throws SQLException the replica cannot be used; it has been released and
+   *         marked down.
+   */
+  Connection open(final Replica r) throws SQLException {
+    Connection c = null;
+    try {
+      c = r.dataSource.getConnection();
+      if (r.down && !c.isValid(VALID_TIMEOUT_SECONDS)) {
+        throw new SQLException("Replica did not respond");
+      }
+      if (!c.getAutoCommit()) {
+        c.setAutoCommit(true);
+      }
+      c.setReadOnly(true);
+      r.down = false;
+      return c;
+    } catch (SQLException e) {
+      if (c != null) {
+        close(c);
+      }
+      failed(r);
+      throw e;
+    }
+  }
+
+  /**
+   * Stop using a replica that reported an error.
+   * <p>
+   * The caller's connection is released; the replica is not chosen again for
+   * {@link #DOWN_MILLIS}.
+   */
+  void failed(final Replica r) {
+    r.downUntil = System.currentTimeMillis() + DOWN_MILLIS;
+    r.down = true;
+    release(r);
+  }
+
+  /** Release a connection counted by {@link #acquire()}. */
+  void release(final Replica r) {
+    r.connections.decrementAndGet();
+  }
+
+  private static void close(final Connection c) {
+    try {
+      c.close();
+    } catch (SQLException e) {
+      // Ignored; the replica is already being given up.
+    }
+  }
+}
@@ -0,0 +1,136 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gwtorm.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Query prepared on a replica, run again on the primary if the replica fails.
+ * <p>
+ * Parameters bound to the statement are remembered, so when executing it on
+ * the replica fails to reach the replica, the schema stops using the replica
+ * and the query is prepared, bound and executed on the primary connection
+ * instead. Other errors, such as a constraint or syntax error, would fail on
+ * the primary too and are thrown to the caller.
+ */
+class ReplicaStatement implements InvocationHandler {
+  static PreparedStatement wrap(final JdbcSchema schema,
+      final JdbcSchema.ReplicaConnection rc, final String sql,
+      final PreparedStatement ps) {
+    return (PreparedStatement) Proxy.newProxyInstance(
+        ReplicaStatement.class.getClassLoader(),
+        new Class<?>[] {PreparedStatement.class},
+        new ReplicaStatement(schema, rc, sql, ps));
+  }
+
+  /**
+   * @return true if the error means the connection to the database failed,
+   *         SQLState class 08.
+   */
+  static boolean isConnectionError(final SQLException e) {
+    if (e instanceof SQLTransientConnectionException
+        || e instanceof SQLNonTransientConnectionException) {
+      return true;
+    }
+    final String state = e.getSQLState();
+    return state != null && state.startsWith("08");
+  }
+
+  private final JdbcSchema schema;
+  private final JdbcSchema.ReplicaConnection rc;
+  private final String sql;
+  private final List<Method> setters = new ArrayList<>();
+  private final List<Object[]> values = new ArrayList<>();
+  private PreparedStatement replica;
+  private PreparedStatement primary;
+
+  private ReplicaStatement(final JdbcSchema schema,
+      final JdbcSchema.ReplicaConnection rc, final String sql,
+      final PreparedStatement ps) {
+    this.schema = schema;
+    this.rc = rc;
+    this.sql = sql;
+    this.replica = ps;
+  }
+
+  @Override
+  public Object invoke(final Object proxy, final Method method,
+      final Object[] args) throws Throwable {
+    final String name = method.getName();
+    if (primary != null) {
+      return call(primary, method, args);
+    }
+    if (name.equals("close")) {
+      closeReplica();
+      return null;
+    }
+    if (replica == null) {
+      throw new SQLException("Statement is closed");
+    }
+    if (name.startsWith("set")) {
+      setters.add(method);
+      values.add(args);
+    } else if (name.equals("clearParameters")) {
+      setters.clear();
+      values.clear();
+    }
+
+    try {
+      return call(replica, method, args);
+    } catch (SQLException e) {
+      if (!name.startsWith("execute") || !isConnectionError(e)) {
+        throw e;
+      }
+      closeReplica();
+      schema.replicaFailed(rc);
+      primary = schema.getConnection().prepareStatement(sql);
+      for (int i = 0; i < setters.size(); i++) {
+        call(primary, setters.get(i), values.get(i));
+      }
+      return call(primary, method, args);
+    }
+  }
+
+  private void closeReplica() {
+    if (replica != null) {
+      try {
+        replica.close();
+      } catch (SQLException e) {
+        // Ignored; nothing more is read from the statement.
+      }
+      replica = null;
+      schema.replicaStatementClosed(rc);
+    }
+  }
+
+  private static Object call(final PreparedStatement ps, final Method method,
+      final Object[] args) throws Throwable {
+    try {
+      return method.invoke(ps, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+}
@@ -0,0 +1,36 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gwtorm.jdbc;
+
+/**
+ * Decides when a statement that failed for a transient reason is run again.
+ * <p>
+ * Statements are retried after deadlocks and serialization failures, as
+ * classified by {@link com.google.gwtorm.schema.sql.SqlDialect#isTransientError},
+ * if they ran outside of an explicit transaction. Batches that changed fewer
+ * rows than expected are retried as well.
+ *
+ * @see ExponentialBackoff
+ */
+public interface RetryPolicy {
+  /**
+   * @param attempt number of times the statement has run so far, starting
+   *        at 1.
+   * @return milliseconds to wait before running the statement again; negative
+   *         to give up and report the last failure.
+   */
+  long getRetryDelay(int attempt);
+}
@@ -30,6 +30,7 @@ import com.google.gwtorm.server.ResultSet;
 
 import org.antlr.runtime.tree.Tree;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
@@ -38,7 +39,12 @@ import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /** Generates a concrete implementation of a {@link NoSqlAccess} extension. */
 class AccessGen implements Opcodes {
@@ -55,6 +61,7 @@ class AccessGen implements Opcodes {
 
   private static final String F_OBJECT_CODEC = "objectCodec";
   private static final String F_INDEXES = "indexes";
+  private static final String F_DATA_ROW_PREFIX = "dataRowPrefix";
 
   private final GeneratedClassLoader classLoader;
   private final RelationModel model;
@@ -67,6 +74,7 @@ class AccessGen implements Opcodes {
   private ClassWriter cw;
   private String implClassName;
   private String implTypeName;
+  private final Map<String, Type[]> asyncQueries = new LinkedHashMap<>();
 
   AccessGen(final GeneratedClassLoader loader, final RelationModel rm,
       final Class<? extends NoSqlSchema> schemaClazz,
@@ -95,12 +103,19 @@ class AccessGen implements Opcodes {
 
   Class<?> create() throws OrmException {
     init();
+    final Class<?> existing = classLoader.findGeneratedClass(implClassName);
+    if (existing != null) {
+      initObjectCodec(existing);
+      initQueryIndexes(existing);
+      return existing;
+    }
     implementStaticFields();
     implementConstructor();
     implementGetString("getRelationName", model.getRelationName());
     implementGetRelationID();
     implementGetObjectCodec();
     implementGetIndexes();
+    implementKeyPrefixes();
 
     implementPrimaryKey();
     implementEncodePrimaryKey();
@@ -110,9 +125,10 @@ class AccessGen implements Opcodes {
       implementQuery(q);
     }
     implementQuery(new QueryModel(model, "iterateAllEntities", ""));
+    CodeGenSupport.implementRunAsyncQuery(cw, implTypeName, asyncQueries);
 
     cw.visitEnd();
-    classLoader.defineClass(implClassName, cw.toByteArray());
+    classLoader.defineClass(modelClass, implClassName, cw.toByteArray());
 
     final Class<?> c = loadClass();
     initObjectCodec(c);
@@ -128,9 +144,17 @@ class AccessGen implements Opcodes {
     }
 
     try {
-      final Field e = clazz.getDeclaredField(F_OBJECT_CODEC);
+      Field e = clazz.getDeclaredField(F_OBJECT_CODEC);
       e.setAccessible(true);
       e.set(null, oc);
+
+      for (final QueryModel q : model.getQueries()) {
+        if (needsCodec(q)) {
+          e = clazz.getDeclaredField("codec_" + q.getName());
+          e.setAccessible(true);
+          e.set(null, projectionCodec(q));
+        }
+      }
     } catch (IllegalArgumentException err) {
       throw new OrmException("Cannot setup ProtobufCodec", err);
     } catch (IllegalStateException err) {
@@ -144,6 +168,27 @@ class AccessGen implements Opcodes {
     }
   }
 
+  /**
+   * Decode the fields a projection returns, plus the key and the fields its
+   * index is computed from so matches can still be verified.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private ProtobufCodec projectionCodec(final QueryModel q) {
+    final Set<Integer> ids = new HashSet<>();
+    ids.add(key.getField().getColumnID());
+    for (final ColumnModel c : q.getProjection()) {
+      ids.add(c.getColumnID());
+    }
+    for (final ColumnModel c : q.getReferencedFields()) {
+      ids.add(c.getColumnID());
+    }
+    ProtobufCodec oc = CodecFactory.decoder(modelClass, ids);
+    if (model.getRelationID() > 0) {
+      oc = new RelationCodec(model.getRelationID(), oc);
+    }
+    return oc;
+  }
+
   @SuppressWarnings({"unchecked", "rawtypes"})
   private void initQueryIndexes(final Class<?> clazz) throws OrmException {
     final Collection<QueryModel> queries = model.getQueries();
@@ -164,6 +209,15 @@ class AccessGen implements Opcodes {
         e.setAccessible(true);
         e.set(null, f);
       }
+
+      for (QueryModel m : queries) {
+        if (needsMergeOrder(m)) {
+          e = clazz.getDeclaredField("merge_" + m.getName());
+          e.setAccessible(true);
+          e.set(null, new IndexFunctionGen(classLoader, mergeOrder(m),
+              modelClass).create());
+        }
+      }
     } catch (IllegalArgumentException err) {
       throw new OrmException("Cannot setup query IndexFunctions", err);
     } catch (IllegalStateException err) {
@@ -177,6 +231,21 @@ class AccessGen implements Opcodes {
     }
   }
 
+  /** @return a query sorting as {@code q} does, to merge its ranges by. */
+  private QueryModel mergeOrder(final QueryModel q) throws OrmException {
+    final StringBuilder r = new StringBuilder("ORDER BY ");
+    for (final QueryModel.OrderBy o : q.getOrderBy()) {
+      if (r.length() > 9) {
+        r.append(',');
+      }
+      r.append(o.column.getPathToFieldName());
+      if (o.descending) {
+        r.append(" DESC");
+      }
+    }
+    return new QueryModel(model, q.getName(), r.toString());
+  }
+
   private Class<?> loadClass() throws OrmException {
     try {
       return Class.forName(implClassName, false, classLoader);
@@ -188,11 +257,12 @@ class AccessGen implements Opcodes {
   private void init() {
     implClassName =
         model.getEntityTypeClassName() + "_Access_" + model.getMethodName()
-            + "_" + Util.createRandomName();
+            + "_" + Util.createStableName(schemaType.getClassName() + "\n"
+                + accessType.getClassName() + "\n" + Util.describe(model));
     implTypeName = implClassName.replace('.', '/');
 
-    cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-    cw.visit(V1_3, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, implTypeName, null,
+    cw = classLoader.newClassWriter();
+    cw.visit(V1_7, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, implTypeName, null,
         accessType.getInternalName(), new String[] {model
             .getAccessInterfaceName().replace('.', '/')});
   }
@@ -209,6 +279,14 @@ class AccessGen implements Opcodes {
         cw.visitField(ACC_PRIVATE | ACC_STATIC, "index_" + q.getName(),
             indexFunction.getDescriptor(), null, null).visitEnd();
       }
+      if (needsCodec(q)) {
+        cw.visitField(ACC_PRIVATE | ACC_STATIC, "codec_" + q.getName(),
+            protobufCodec.getDescriptor(), null, null).visitEnd();
+      }
+      if (needsMergeOrder(q)) {
+        cw.visitField(ACC_PRIVATE | ACC_STATIC, "merge_" + q.getName(),
+            indexFunction.getDescriptor(), null, null).visitEnd();
+      }
     }
   }
 
@@ -276,6 +354,83 @@ class AccessGen implements Opcodes {
     mv.visitEnd();
   }
 
+  private void implementKeyPrefixes() {
+    final String prefixDesc = byteArray.getDescriptor();
+    final String keyPrefixDesc =
+        Type.getMethodDescriptor(byteArray, new Type[] {string});
+    final List<QueryModel> indexed = new ArrayList<>();
+    for (final QueryModel q : model.getQueries()) {
+      if (needsIndexFunction(q)) {
+        indexed.add(q);
+      }
+    }
+
+    cw.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, F_DATA_ROW_PREFIX,
+        prefixDesc, null, null).visitEnd();
+    for (final QueryModel q : indexed) {
+      cw.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL,
+          "prefix_" + q.getName(), prefixDesc, null, null).visitEnd();
+    }
+
+    MethodVisitor mv =
+        cw.visitMethod(ACC_STATIC, "<clinit>", Type.getMethodDescriptor(
+            Type.VOID_TYPE, new Type[] {}), null, null);
+    mv.visitCode();
+    mv.visitLdcInsn(model.getRelationName());
+    mv.visitMethodInsn(INVOKESTATIC, accessType.getInternalName(),
+        "keyPrefix", keyPrefixDesc);
+    mv.visitFieldInsn(PUTSTATIC, implTypeName, F_DATA_ROW_PREFIX, prefixDesc);
+    for (final QueryModel q : indexed) {
+      mv.visitLdcInsn(model.getRelationName() + "." + q.getName());
+      mv.visitMethodInsn(INVOKESTATIC, accessType.getInternalName(),
+          "keyPrefix", keyPrefixDesc);
+      mv.visitFieldInsn(PUTSTATIC, implTypeName, "prefix_" + q.getName(),
+          prefixDesc);
+    }
+    mv.visitInsn(RETURN);
+    mv.visitMaxs(-1, -1);
+    mv.visitEnd();
+
+    mv =
+        cw.visitMethod(ACC_PROTECTED | ACC_FINAL, "getDataRowPrefix", Type
+            .getMethodDescriptor(byteArray, new Type[] {}), null, null);
+    mv.visitCode();
+    mv.visitFieldInsn(GETSTATIC, implTypeName, F_DATA_ROW_PREFIX, prefixDesc);
+    mv.visitInsn(ARETURN);
+    mv.visitMaxs(-1, -1);
+    mv.visitEnd();
+
+    // Indexes are singletons held in static fields, so match by identity.
+    //
+    mv =
+        cw.visitMethod(ACC_PROTECTED | ACC_FINAL, "getIndexRowPrefix", Type
+            .getMethodDescriptor(byteArray, new Type[] {indexFunction}), null,
+            null);
+    mv.visitCode();
+    for (final QueryModel q : indexed) {
+      final Label next = new Label();
+      mv.visitVarInsn(ALOAD, 1);
+      mv.visitFieldInsn(GETSTATIC, implTypeName, "index_" + q.getName(),
+          indexFunction.getDescriptor());
+      mv.visitJumpInsn(IF_ACMPNE, next);
+      mv.visitFieldInsn(GETSTATIC, implTypeName, "prefix_" + q.getName(),
+          prefixDesc);
+      mv.visitInsn(ARETURN);
+      mv.visitLabel(next);
+    }
+    mv.visitLdcInsn(model.getRelationName() + ".");
+    mv.visitVarInsn(ALOAD, 1);
+    mv.visitMethodInsn(INVOKEVIRTUAL, indexFunction.getInternalName(),
+        "getName", Type.getMethodDescriptor(string, new Type[] {}));
+    mv.visitMethodInsn(INVOKEVIRTUAL, string.getInternalName(), "concat", Type
+        .getMethodDescriptor(string, new Type[] {string}));
+    mv.visitMethodInsn(INVOKESTATIC, accessType.getInternalName(),
+        "keyPrefix", keyPrefixDesc);
+    mv.visitInsn(ARETURN);
+    mv.visitMaxs(-1, -1);
+    mv.visitEnd();
+  }
+
   private void implementPrimaryKey() {
     final ColumnModel f = key.getField();
     final MethodVisitor mv =
@@ -335,13 +490,25 @@ class AccessGen implements Opcodes {
   }
 
   private void implementQuery(final QueryModel info) throws OrmException {
+    final boolean mutation = info.isDelete() || info.isUpdate();
+    final List<ColumnModel> aCols = info.getAssignments();
     final List<ColumnModel> pCols = info.getParameters();
     final boolean hasLimitParam = info.hasLimitParameter();
     final Type[] pTypes = new Type[pCols.size() + (hasLimitParam ? 1 : 0)];
     final int[] pVars = new int[pTypes.length];
+    final Type[] argTypes = new Type[aCols.size() + pTypes.length];
     int nextVar = 1;
+    for (int i = 0; i < aCols.size(); i++) {
+      argTypes[i] = CodeGenSupport.toType(aCols.get(i));
+      nextVar += argTypes[i].getSize();
+    }
+    final Set<Integer> lists = info.getCollectionParameters();
     for (int i = 0; i < pCols.size(); i++) {
-      pTypes[i] = CodeGenSupport.toType(pCols.get(i));
+      if (lists.contains(i)) {
+        pTypes[i] = Type.getType(Collection.class);
+      } else {
+        pTypes[i] = CodeGenSupport.toType(pCols.get(i));
+      }
       pVars[i] = nextVar;
       nextVar += pTypes[i].getSize();
     }
@@ -350,37 +517,62 @@ class AccessGen implements Opcodes {
       pVars[pTypes.length - 1] = nextVar;
       nextVar += Type.INT_TYPE.getSize();
     }
-
+    System.arraycopy(pTypes, 0, argTypes, aCols.size(), pTypes.length);
+
+    final Type returnType;
+    if (mutation) {
+      returnType = Type.INT_TYPE;
+    } else if (info.isAggregate()) {
+      returnType = Type.getType(info.getAggregateType());
+    } else if (info.isGrouped()) {
+      returnType = Type.getType(Map.class);
+    } else {
+      returnType = resultSet;
+    }
     final MethodVisitor mv =
-        cw.visitMethod(ACC_PUBLIC | ACC_FINAL, info.getName(), Type
-            .getMethodDescriptor(resultSet, pTypes), null,
+        cw.visitMethod(ACC_PUBLIC | ACC_FINAL
+            | (info.isAsync() ? ACC_SYNTHETIC : 0),
+            CodeGenSupport.getQueryMethodName(info), Type
+            .getMethodDescriptor(returnType, argTypes), null,
             new String[] {ormException.getInternalName()});
     mv.visitCode();
 
     final List<Tree> ops = compareOpsOnly(info.getParseTree());
+    final int listp = listParameter(info, ops);
+    if (0 <= listp) {
+      implementListQuery(info, ops, listp, mv, pTypes, pVars, argTypes,
+          nextVar);
+      mv.visitMaxs(-1, -1);
+      mv.visitEnd();
+      if (info.isAsync()) {
+        CodeGenSupport.implementAsyncQuery(cw, info, pTypes, asyncQueries);
+      }
+      return;
+    }
 
-    // Generate fromKey
+    // Generate fromKey, then reuse the same builder for toKey.
     //
-    final int fromBuf = nextVar++;
+    final int keyBuf = nextVar++;
+    final int fromKey = nextVar++;
     mv.visitTypeInsn(NEW, indexKeyBuilder.getInternalName());
     mv.visitInsn(DUP);
     mv.visitMethodInsn(INVOKESPECIAL, indexKeyBuilder.getInternalName(),
         "<init>", Type.getMethodDescriptor(Type.VOID_TYPE, new Type[] {}));
-    mv.visitVarInsn(ASTORE, fromBuf);
+    mv.visitVarInsn(ASTORE, keyBuf);
 
-    QueryCGS cgs = new QueryCGS(mv, pTypes, pCols, pVars, fromBuf);
+    QueryCGS cgs = new QueryCGS(mv, pTypes, pCols, pVars, keyBuf);
     encodeFields(info, ops, mv, cgs, true /* fromKey */);
+    mv.visitVarInsn(ALOAD, keyBuf);
+    mv.visitMethodInsn(INVOKEVIRTUAL, indexKeyBuilder.getInternalName(),
+        "toByteArray", Type.getMethodDescriptor(byteArray, new Type[] {}));
+    mv.visitVarInsn(ASTORE, fromKey);
 
     // Generate toKey
     //
-    final int toBuf = nextVar++;
-    mv.visitTypeInsn(NEW, indexKeyBuilder.getInternalName());
-    mv.visitInsn(DUP);
-    mv.visitMethodInsn(INVOKESPECIAL, indexKeyBuilder.getInternalName(),
-        "<init>", Type.getMethodDescriptor(Type.VOID_TYPE, new Type[] {}));
-    mv.visitVarInsn(ASTORE, toBuf);
-
-    cgs = new QueryCGS(mv, pTypes, pCols, pVars, toBuf);
+    mv.visitVarInsn(ALOAD, keyBuf);
+    mv.visitMethodInsn(INVOKEVIRTUAL, indexKeyBuilder.getInternalName(),
+        "reset", Type.getMethodDescriptor(Type.VOID_TYPE, new Type[] {}));
+    cgs = new QueryCGS(mv, pTypes, pCols, pVars, keyBuf);
     encodeFields(info, ops, mv, cgs, false /* fromKey */);
     cgs.infinity();
 
@@ -390,16 +582,41 @@ class AccessGen implements Opcodes {
     if (needsIndexFunction(info)) {
       mv.visitFieldInsn(GETSTATIC, implTypeName, "index_" + info.getName(),
           indexFunction.getDescriptor());
+    } else {
+      mv.visitLdcInsn(info.getName());
     }
 
-    mv.visitVarInsn(ALOAD, fromBuf);
-    mv.visitMethodInsn(INVOKEVIRTUAL, indexKeyBuilder.getInternalName(),
-        "toByteArray", Type.getMethodDescriptor(byteArray, new Type[] {}));
+    if (needsCodec(info)) {
+      mv.visitFieldInsn(GETSTATIC, implTypeName, "codec_" + info.getName(),
+          protobufCodec.getDescriptor());
+    }
+
+    mv.visitVarInsn(ALOAD, fromKey);
 
-    mv.visitVarInsn(ALOAD, toBuf);
+    mv.visitVarInsn(ALOAD, keyBuf);
     mv.visitMethodInsn(INVOKEVIRTUAL, indexKeyBuilder.getInternalName(),
         "toByteArray", Type.getMethodDescriptor(byteArray, new Type[] {}));
 
+    if (info.isAggregate()) {
+      // Counting needs no order, and a test for any row stops at the first.
+      //
+      cgs.push(info.isExists() ? 1 : 0);
+      if (needsIndexFunction(info)) {
+        mv.visitMethodInsn(INVOKEVIRTUAL, accessType.getInternalName(),
+            "countIndex", Type.getMethodDescriptor(Type.LONG_TYPE, new Type[] {
+                indexFunction, protobufCodec, byteArray, byteArray,
+                Type.INT_TYPE}));
+      } else {
+        mv.visitMethodInsn(INVOKEVIRTUAL, accessType.getInternalName(),
+            "countPrimaryKey", Type.getMethodDescriptor(Type.LONG_TYPE,
+                new Type[] {string, byteArray, byteArray, Type.INT_TYPE}));
+      }
+      returnCount(mv, info);
+      mv.visitMaxs(-1, -1);
+      mv.visitEnd();
+      return;
+    }
+
     // Set the limit on the number of results.
     //
     if (info.hasLimit()) {
@@ -416,7 +633,14 @@ class AccessGen implements Opcodes {
     //
     cgs.push(info.hasOrderBy() ? 1 : 0);
 
-    if (needsIndexFunction(info)) {
+    if (info.isProjection()) {
+      final Type first = needsIndexFunction(info) ? indexFunction : string;
+      mv.visitMethodInsn(INVOKEVIRTUAL, accessType.getInternalName(),
+          needsIndexFunction(info) ? "scanIndex" : "scanPrimaryKey", Type
+              .getMethodDescriptor(resultSet, new Type[] {first,
+                  protobufCodec, byteArray, byteArray, Type.INT_TYPE,
+                  Type.BOOLEAN_TYPE}));
+    } else if (needsIndexFunction(info)) {
       mv.visitMethodInsn(INVOKEVIRTUAL, accessType.getInternalName(),
           "scanIndex", Type.getMethodDescriptor(resultSet, new Type[] {
               indexFunction, byteArray, byteArray, Type.INT_TYPE,
@@ -426,18 +650,278 @@ class AccessGen implements Opcodes {
       //
       mv.visitMethodInsn(INVOKEVIRTUAL, accessType.getInternalName(),
           "scanPrimaryKey", Type.getMethodDescriptor(resultSet, new Type[] {
-              byteArray, byteArray, Type.INT_TYPE, Type.BOOLEAN_TYPE}));
+              string, byteArray, byteArray, Type.INT_TYPE, Type.BOOLEAN_TYPE}));
     }
 
-    mv.visitInsn(ARETURN);
+    returnResults(mv, info, argTypes, nextVar);
     mv.visitMaxs(-1, -1);
     mv.visitEnd();
+
+    if (info.isAsync()) {
+      CodeGenSupport.implementAsyncQuery(cw, info, pTypes, asyncQueries);
+    }
+  }
+
+  /**
+   * Scan one range of the query's index per value of its list, then return
+   * the union of the ranges as the query would its single range.
+   */
+  private void implementListQuery(final QueryModel info, final List<Tree> ops,
+      final int listp, final MethodVisitor mv, final Type[] pTypes,
+      final int[] pVars, final Type[] argTypes, int nextVar)
+      throws OrmException {
+    final List<ColumnModel> pCols = info.getParameters();
+    final Type list = Type.getType(List.class);
+    final Type collection = Type.getType(Collection.class);
+    final Type iterator = Type.getType(Iterator.class);
+    final Type arrayList = Type.getType(ArrayList.class);
+    final Type elemType = CodeGenSupport.toType(pCols.get(listp));
+    final CodeGenSupport cgs = new CodeGenSupport(mv);
+
+    // An IN parameter is already the collection; the placeholders of an
+    // OR are gathered into one.
+    //
+    final int collvar;
+    if (info.getCollectionParameters().contains(listp)) {
+      collvar = pVars[listp];
+    } else {
+      collvar = nextVar++;
+      mv.visitTypeInsn(NEW, arrayList.getInternalName());
+      mv.visitInsn(DUP);
+      mv.visitMethodInsn(INVOKESPECIAL, arrayList.getInternalName(), "<init>",
+          Type.getMethodDescriptor(Type.VOID_TYPE, new Type[] {}));
+      mv.visitVarInsn(ASTORE, collvar);
+      int n = 0;
+      for (Tree node : ops) {
+        if (node.getType() == QueryParser.OR) {
+          n = node.getChildCount();
+        }
+      }
+      for (int i = listp; i < listp + n; i++) {
+        mv.visitVarInsn(ALOAD, collvar);
+        cgs.loadVar(pTypes[i], pVars[i]);
+        cgs.box(pTypes[i]);
+        mv.visitMethodInsn(INVOKEINTERFACE, collection.getInternalName(),
+            "add", Type.getMethodDescriptor(Type.BOOLEAN_TYPE,
+                new Type[] {object}));
+        mv.visitInsn(POP);
+      }
+    }
+
+    final int rangesvar = nextVar++;
+    final int keyBuf = nextVar++;
+    final int itrvar = nextVar++;
+    final int elemvar = nextVar;
+    nextVar += elemType.getSize();
+
+    mv.visitTypeInsn(NEW, arrayList.getInternalName());
+    mv.visitInsn(DUP);
+    mv.visitMethodInsn(INVOKESPECIAL, arrayList.getInternalName(), "<init>",
+        Type.getMethodDescriptor(Type.VOID_TYPE, new Type[] {}));
+    mv.visitVarInsn(ASTORE, rangesvar);
+    mv.visitTypeInsn(NEW, indexKeyBuilder.getInternalName());
+    mv.visitInsn(DUP);
+    mv.visitMethodInsn(INVOKESPECIAL, indexKeyBuilder.getInternalName(),
+        "<init>", Type.getMethodDescriptor(Type.VOID_TYPE, new Type[] {}));
+    mv.visitVarInsn(ASTORE, keyBuf);
+    mv.visitVarInsn(ALOAD, collvar);
+    mv.visitMethodInsn(INVOKEINTERFACE, collection.getInternalName(),
+        "iterator", Type.getMethodDescriptor(iterator, new Type[] {}));
+    mv.visitVarInsn(ASTORE, itrvar);
+
+    final Label again = new Label();
+    final Label done = new Label();
+    mv.visitLabel(again);
+    mv.visitVarInsn(ALOAD, itrvar);
+    mv.visitMethodInsn(INVOKEINTERFACE, iterator.getInternalName(), "hasNext",
+        Type.getMethodDescriptor(Type.BOOLEAN_TYPE, new Type[] {}));
+    mv.visitJumpInsn(IFEQ, done);
+    mv.visitVarInsn(ALOAD, itrvar);
+    mv.visitMethodInsn(INVOKEINTERFACE, iterator.getInternalName(), "next",
+        Type.getMethodDescriptor(object, new Type[] {}));
+    cgs.unbox(elemType);
+    mv.visitVarInsn(elemType.getOpcode(ISTORE), elemvar);
+
+    for (final boolean fromKey : new boolean[] {true, false}) {
+      mv.visitVarInsn(ALOAD, keyBuf);
+      mv.visitMethodInsn(INVOKEVIRTUAL, indexKeyBuilder.getInternalName(),
+          "reset", Type.getMethodDescriptor(Type.VOID_TYPE, new Type[] {}));
+      final QueryCGS qcgs = new QueryCGS(mv, pTypes, pCols, pVars, keyBuf);
+      qcgs.listElement(listp, elemType, elemvar);
+      encodeFields(info, ops, mv, qcgs, fromKey);
+      if (!fromKey) {
+        qcgs.infinity();
+      }
+      mv.visitVarInsn(ALOAD, rangesvar);
+      mv.visitVarInsn(ALOAD, keyBuf);
+      mv.visitMethodInsn(INVOKEVIRTUAL, indexKeyBuilder.getInternalName(),
+          "toByteArray", Type.getMethodDescriptor(byteArray, new Type[] {}));
+      mv.visitMethodInsn(INVOKEINTERFACE, list.getInternalName(), "add",
+          Type.getMethodDescriptor(Type.BOOLEAN_TYPE, new Type[] {object}));
+      mv.visitInsn(POP);
+    }
+    mv.visitJumpInsn(GOTO, again);
+    mv.visitLabel(done);
+
+    // Make the scan call
+    //
+    mv.visitVarInsn(ALOAD, 0);
+    mv.visitFieldInsn(GETSTATIC, implTypeName, "index_" + info.getName(),
+        indexFunction.getDescriptor());
+    if (needsCodec(info)) {
+      mv.visitFieldInsn(GETSTATIC, implTypeName, "codec_" + info.getName(),
+          protobufCodec.getDescriptor());
+    } else {
+      mv.visitFieldInsn(GETSTATIC, implTypeName, F_OBJECT_CODEC,
+          protobufCodec.getDescriptor());
+    }
+    if (needsMergeOrder(info)) {
+      mv.visitFieldInsn(GETSTATIC, implTypeName, "merge_" + info.getName(),
+          indexFunction.getDescriptor());
+    } else {
+      mv.visitInsn(ACONST_NULL);
+    }
+    mv.visitVarInsn(ALOAD, rangesvar);
+    if (info.isAggregate()) {
+      cgs.push(info.isExists() ? 1 : 0);
+    } else if (info.hasLimit()) {
+      if (info.hasLimitParameter()) {
+        mv.visitVarInsn(ILOAD, pVars[pTypes.length - 1]);
+      } else {
+        cgs.push(info.getStaticLimit());
+      }
+    } else {
+      cgs.push(0);
+    }
+    cgs.push(info.hasOrderBy() && !info.isAggregate() ? 1 : 0);
+    mv.visitMethodInsn(INVOKEVIRTUAL, accessType.getInternalName(),
+        "scanIndex", Type.getMethodDescriptor(resultSet, new Type[] {
+            indexFunction, protobufCodec, indexFunction, list, Type.INT_TYPE,
+            Type.BOOLEAN_TYPE}));
+
+    if (info.isAggregate()) {
+      mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(NoSqlAccess.class),
+          "count", Type.getMethodDescriptor(Type.LONG_TYPE,
+              new Type[] {resultSet}));
+      returnCount(mv, info);
+    } else {
+      returnResults(mv, info, argTypes, nextVar);
+    }
+  }
+
+  /** Return the count on top of the stack as the query's aggregate type. */
+  private static void returnCount(final MethodVisitor mv,
+      final QueryModel info) {
+    if (info.isExists()) {
+      mv.visitInsn(LCONST_0);
+      mv.visitInsn(LCMP);
+      mv.visitInsn(IRETURN);
+    } else if (info.getAggregateType() == Integer.TYPE) {
+      mv.visitInsn(L2I);
+      mv.visitInsn(IRETURN);
+    } else {
+      mv.visitInsn(LRETURN);
+    }
+  }
+
+  /**
+   * Return the result set on top of the stack, or delete or update its
+   * entities if the query is a mutation.
+   */
+  private void returnResults(final MethodVisitor mv, final QueryModel info,
+      final Type[] argTypes, int nextVar) {
+    if (info.isDelete()) {
+      final int rsvar = nextVar++;
+      mv.visitVarInsn(ASTORE, rsvar);
+      mv.visitVarInsn(ALOAD, 0);
+      mv.visitVarInsn(ALOAD, rsvar);
+      mv.visitMethodInsn(INVOKEVIRTUAL, accessType.getInternalName(),
+          "deleteAll", Type.getMethodDescriptor(Type.INT_TYPE,
+              new Type[] {resultSet}));
+      mv.visitInsn(IRETURN);
+    } else if (info.isUpdate()) {
+      implementAssignments(mv, info.getAssignments(), argTypes, nextVar);
+    } else if (info.isGrouped()) {
+      int values = 1;
+      for (int i = 0; i < info.getCollectionParameters().iterator().next();
+          i++) {
+        values += argTypes[i].getSize();
+      }
+      CodeGenSupport.implementGroupBy(mv, info, entityType, values, nextVar);
+    } else {
+      mv.visitInsn(ARETURN);
+    }
+  }
+
+  /**
+   * Assign the leading arguments to every entity of the result set on the
+   * stack, then store the entities and return how many there were.
+   */
+  private void implementAssignments(final MethodVisitor mv,
+      final List<ColumnModel> aCols, final Type[] argTypes, int nextVar) {
+    final Type list = Type.getType(List.class);
+    final Type iterator = Type.getType(Iterator.class);
+    final int listvar = nextVar++;
+    final int itrvar = nextVar++;
+    final int entvar = nextVar++;
+
+    mv.visitMethodInsn(INVOKEINTERFACE, resultSet.getInternalName(), "toList",
+        Type.getMethodDescriptor(list, new Type[] {}));
+    mv.visitVarInsn(ASTORE, listvar);
+    mv.visitVarInsn(ALOAD, listvar);
+    mv.visitMethodInsn(INVOKEINTERFACE, list.getInternalName(), "iterator",
+        Type.getMethodDescriptor(iterator, new Type[] {}));
+    mv.visitVarInsn(ASTORE, itrvar);
+
+    final Label again = new Label();
+    final Label done = new Label();
+    mv.visitLabel(again);
+    mv.visitVarInsn(ALOAD, itrvar);
+    mv.visitMethodInsn(INVOKEINTERFACE, iterator.getInternalName(), "hasNext",
+        Type.getMethodDescriptor(Type.BOOLEAN_TYPE, new Type[] {}));
+    mv.visitJumpInsn(IFEQ, done);
+    mv.visitVarInsn(ALOAD, itrvar);
+    mv.visitMethodInsn(INVOKEINTERFACE, iterator.getInternalName(), "next",
+        Type.getMethodDescriptor(object, new Type[] {}));
+    mv.visitTypeInsn(CHECKCAST, entityType.getInternalName());
+    mv.visitVarInsn(ASTORE, entvar);
+
+    int var = 1;
+    for (int i = 0; i < aCols.size(); i++) {
+      final ColumnModel c = aCols.get(i);
+      mv.visitVarInsn(ALOAD, entvar);
+      mv.visitVarInsn(argTypes[i].getOpcode(ILOAD), var);
+      mv.visitFieldInsn(PUTFIELD, entityType.getInternalName(),
+          c.getFieldName(), argTypes[i].getDescriptor());
+      var += argTypes[i].getSize();
+    }
+    mv.visitJumpInsn(GOTO, again);
+
+    mv.visitLabel(done);
+    mv.visitVarInsn(ALOAD, 0);
+    mv.visitVarInsn(ALOAD, listvar);
+    mv.visitMethodInsn(INVOKEVIRTUAL, accessType.getInternalName(),
+        "updateAll", Type.getMethodDescriptor(Type.INT_TYPE,
+            new Type[] {list}));
+    mv.visitInsn(IRETURN);
   }
 
   private boolean needsIndexFunction(final QueryModel info) {
     return info.hasWhere() || info.hasOrderBy();
   }
 
+  /** @return true if the query merges the ordered ranges of its list. */
+  private static boolean needsMergeOrder(final QueryModel info) {
+    return info.hasOrderBy() && !info.isAggregate()
+        && hasListOp(info.getParseTree());
+  }
+
+  /** @return true if the query decodes rows with its own partial codec. */
+  private boolean needsCodec(final QueryModel info) {
+    return info.isProjection()
+        || (info.isAggregate() && needsIndexFunction(info));
+  }
+
   private void encodeFields(QueryModel qm, List<Tree> query, MethodVisitor mv,
       QueryCGS cgs, boolean fromKey) throws OrmException {
     final boolean toKey = !fromKey;
@@ -465,9 +949,28 @@ class AccessGen implements Opcodes {
           break;
 
         case QueryParser.EQ:
+        case QueryParser.IN:
+          checkLastNode(qm, lastNode);
+          encodeField(node, mv, cgs);
+          cgs.delimiter();
+          break;
+
+        case QueryParser.LIKE:
+          // Keys extending the prefix sort from the bare prefix up to the
+          // infinity the caller appends to toKey.
+          //
           checkLastNode(qm, lastNode);
           encodeField(node, mv, cgs);
+          lastNode = node;
+          break;
+
+        case QueryParser.OR:
+          checkLastNode(qm, lastNode);
+          encodeField(node.getChild(0), mv, cgs);
           cgs.delimiter();
+          for (int i = 1; i < node.getChildCount(); i++) {
+            cgs.nextParameter();
+          }
           break;
 
         case QueryParser.LE:
@@ -512,6 +1015,49 @@ class AccessGen implements Opcodes {
     IndexFunctionGen.encodeField(new QueryModel.OrderBy(f, false), mv, cgs);
   }
 
+  /**
+   * @return position in the query's parameters of the first value matched
+   *         as a list, or -1 if the query matches no list.
+   */
+  private int listParameter(QueryModel qm, List<Tree> ops)
+      throws OrmException {
+    int r = -1;
+    int p = 0;
+    for (Tree node : ops) {
+      if (node.getType() == QueryParser.IN
+          || node.getType() == QueryParser.OR) {
+        if (0 <= r) {
+          throw new OrmException("Query " + model.getMethodName() + "."
+              + qm.getName() + " can match only one field against a list");
+        }
+        r = p;
+      }
+      p += node.getType() == QueryParser.OR ? node.getChildCount() : 1;
+    }
+    return r;
+  }
+
+  private static boolean hasListOp(Tree node) {
+    if (node == null) {
+      return false;
+    }
+    switch (node.getType()) {
+      case QueryParser.IN:
+        return true;
+
+      case QueryParser.OR:
+        return node.getChild(0).getChild(1).getType() == QueryParser.PLACEHOLDER;
+
+      default:
+        for (int i = 0; i < node.getChildCount(); i++) {
+          if (hasListOp(node.getChild(i))) {
+            return true;
+          }
+        }
+        return false;
+    }
+  }
+
   private List<Tree> compareOpsOnly(Tree node) throws OrmException {
     if (node == null) {
       return Collections.emptyList();
@@ -544,6 +1090,31 @@ class AccessGen implements Opcodes {
         break;
       }
 
+      case QueryParser.IN:
+        return Collections.singletonList(node);
+
+      case QueryParser.LIKE:
+        if (node.getChild(1).getType() == QueryParser.PLACEHOLDER) {
+          return Collections.singletonList(node);
+        }
+        break;
+
+      case QueryParser.OR: {
+        int placeholders = 0;
+        for (int i = 0; i < node.getChildCount(); i++) {
+          if (node.getChild(i).getChild(1).getType() == QueryParser.PLACEHOLDER) {
+            placeholders++;
+          }
+        }
+        if (placeholders == node.getChildCount()) {
+          return Collections.singletonList(node);
+        } else if (0 < placeholders) {
+          throw new OrmException("Cannot mix parameters and constants in "
+              + node.toStringTree());
+        }
+        break;
+      }
+
       case QueryParser.ORDER:
       case QueryParser.LIMIT:
         break;
@@ -560,6 +1131,9 @@ class AccessGen implements Opcodes {
     private final int[] pVars;
     private final int bufvar;
     private int currentp;
+    private int listp = -1;
+    private Type listType;
+    private int listVar;
 
     private QueryCGS(MethodVisitor method, Type[] pTypes,
         List<ColumnModel> pCols, int[] pVars, int bufvar) {
@@ -574,6 +1148,13 @@ class AccessGen implements Opcodes {
       currentp++;
     }
 
+    /** Read the parameter at {@code p} from one element of its list. */
+    void listElement(int p, Type type, int var) {
+      listp = p;
+      listType = type;
+      listVar = var;
+    }
+
     @Override
     void pushBuilder() {
       mv.visitVarInsn(ALOAD, bufvar);
@@ -586,7 +1167,9 @@ class AccessGen implements Opcodes {
 
     @Override
     protected void appendGetField(final ColumnModel c) {
-      if (currentp < pTypes.length && pCols.get(currentp).equals(c)) {
+      if (currentp == listp && pCols.get(currentp).equals(c)) {
+        loadVar(listType, listVar);
+      } else if (currentp < pTypes.length && pCols.get(currentp).equals(c)) {
         loadVar(pTypes[currentp], pVars[currentp]);
       } else {
         super.appendGetField(c);
@@ -122,12 +122,14 @@ class IndexFunctionGen<T> implements Opcodes {
 
   IndexFunction<T> create() throws OrmException {
     init();
-    implementConstructor();
-    implementGetName();
-    implementIncludes();
-    implementEncode();
-    cw.visitEnd();
-    classLoader.defineClass(implClassName, cw.toByteArray());
+    if (classLoader.findGeneratedClass(implClassName) == null) {
+      implementConstructor();
+      implementGetName();
+      implementIncludes();
+      implementEncode();
+      cw.visitEnd();
+      classLoader.defineClass(pojo, implClassName, cw.toByteArray());
+    }
 
     try {
       final Class<?> c = Class.forName(implClassName, true, classLoader);
@@ -150,11 +152,11 @@ class IndexFunctionGen<T> implements Opcodes {
     superTypeName = Type.getInternalName(IndexFunction.class);
     implClassName =
         pojo.getName() + "_IndexFunction_" + query.getName() + "_"
-            + Util.createRandomName();
+            + Util.createStableName(query + "\n" + myFields);
     implTypeName = implClassName.replace('.', '/');
 
-    cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-    cw.visit(V1_3, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, implTypeName, null,
+    cw = classLoader.newClassWriter();
+    cw.visit(V1_7, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, implTypeName, null,
         superTypeName, new String[] {});
   }
 
@@ -301,6 +303,56 @@ class IndexFunctionGen<T> implements Opcodes {
         }
         break;
 
+      case QueryParser.IN:
+        // Collection evaluated at runtime
+        break;
+
+      case QueryParser.LIKE: {
+        final Tree rhs = node.getChild(1);
+        if (rhs.getType() == QueryParser.CONSTANT_STRING) {
+          final String p = dequote(rhs.getText());
+          final ColumnModel f = QueryModel.likeColumn(
+              ((QueryParser.Column) node.getChild(0)).getField());
+          checkParentNotNull(f.getParent(), new HashSet<ColumnModel>(), mv,
+              cgs);
+          cgs.setFieldReference(f);
+          cgs.pushFieldValue();
+          mv.visitJumpInsn(IFNULL, cgs.no);
+          cgs.pushFieldValue();
+          mv.visitLdcInsn(p.substring(0, p.length() - 1));
+          mv.visitMethodInsn(INVOKEVIRTUAL, string.getInternalName(),
+              "startsWith", Type.getMethodDescriptor(Type.BOOLEAN_TYPE,
+                  new Type[] {string}));
+          mv.visitJumpInsn(IFEQ, cgs.no);
+        }
+        break;
+      }
+
+      case QueryParser.OR: {
+        for (int i = 0; i < node.getChildCount(); i++) {
+          if (node.getChild(i).getChild(1).getType() == QueryParser.PLACEHOLDER) {
+            // Parameters evaluated at runtime
+            return;
+          }
+        }
+
+        // Match if any alternative holds: each failed test falls through
+        // to the next one, and only the last one rejects the object.
+        //
+        final Label no = cgs.no;
+        final Label yes = new Label();
+        for (int i = 0; i < node.getChildCount() - 1; i++) {
+          cgs.no = new Label();
+          checkConstants(node.getChild(i), mv, cgs);
+          mv.visitJumpInsn(GOTO, yes);
+          mv.visitLabel(cgs.no);
+        }
+        cgs.no = no;
+        checkConstants(node.getChild(node.getChildCount() - 1), mv, cgs);
+        mv.visitLabel(yes);
+        break;
+      }
+
       case QueryParser.LT:
       case QueryParser.LE:
       case QueryParser.GT:
@@ -470,7 +522,7 @@ class IndexFunctionGen<T> implements Opcodes {
   }
 
   private static final class IncludeCGS extends CodeGenSupport {
-    final Label no = new Label();
+    Label no = new Label();
 
     private IncludeCGS(MethodVisitor method) {
       super(method);
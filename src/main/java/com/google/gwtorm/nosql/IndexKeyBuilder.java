@@ -14,9 +14,7 @@
 
 package com.google.gwtorm.nosql;
 
-
-import java.io.ByteArrayOutputStream;
-import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
 
 /**
  * Encoder support for {@link IndexFunction} computed strings.
@@ -47,16 +45,40 @@ import java.io.UnsupportedEncodingException;
  * <p>
  * Callers are responsible for inserting {@link #delimiter()} markers at the
  * appropriate positions in the sequence.
+ * <p>
+ * A builder is not thread-safe. It encodes directly into one growable buffer,
+ * which may be reused for another key after {@link #reset()}.
  */
 public class IndexKeyBuilder {
-  private final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+  private byte[] buf;
+  private int len;
+
+  public IndexKeyBuilder() {
+    this(32);
+  }
+
+  /** @param capacity initial size of the buffer, in bytes. */
+  public IndexKeyBuilder(final int capacity) {
+    buf = new byte[Math.max(capacity, 16)];
+  }
+
+  /** Discard the current key, keeping the buffer for the next one. */
+  public void reset() {
+    len = 0;
+  }
+
+  /** @return number of bytes in the current key. */
+  public int size() {
+    return len;
+  }
 
   /**
    * Add a delimiter marker to the string.
    */
   public void delimiter() {
-    buf.write(0x00);
-    buf.write(0x01);
+    ensure(2);
+    buf[len++] = 0x00;
+    buf[len++] = 0x01;
   }
 
   /**
@@ -65,8 +87,9 @@ public class IndexKeyBuilder {
    * The infinity symbol sorts after all other values in the same position.
    */
   public void infinity() {
-    buf.write(0xff);
-    buf.write(0xff);
+    ensure(2);
+    buf[len++] = (byte) 0xff;
+    buf[len++] = (byte) 0xff;
   }
 
   /**
@@ -76,7 +99,8 @@ public class IndexKeyBuilder {
    * in a query.
    */
   public void nul() {
-    buf.write(0x00);
+    ensure(1);
+    buf[len++] = 0x00;
   }
 
   /**
@@ -90,36 +114,16 @@ public class IndexKeyBuilder {
    * @param cnt number of bytes to copy.
    */
   public void add(byte[] bin, int pos, int cnt) {
+    ensure(cnt);
     while (0 < cnt--) {
-      byte b = bin[pos++];
-      if (b == 0x00) {
-        buf.write(0x00);
-        buf.write(0xff);
-
-      } else if (b == -1) {
-        buf.write(0xff);
-        buf.write(0x00);
-
-      } else {
-        buf.write(b);
-      }
+      put(bin[pos++] & 0xff);
     }
   }
 
   public void desc(byte[] bin, int pos, int cnt) {
+    ensure(cnt);
     while (0 < cnt--) {
-      int b = 0xff - (bin[pos++] & 0xff);
-      if (b == 0x00) {
-        buf.write(0x00);
-        buf.write(0xff);
-
-      } else if (b == 0xff) {
-        buf.write(0xff);
-        buf.write(0x00);
-
-      } else {
-        buf.write(b);
-      }
+      put(0xff - (bin[pos++] & 0xff));
     }
   }
 
@@ -145,19 +149,11 @@ public class IndexKeyBuilder {
    * @param str the string to encode and append.
    */
   public void add(String str) {
-    try {
-      add(str.getBytes("UTF-8"));
-    } catch (UnsupportedEncodingException e) {
-      throw new RuntimeException("JVM does not support UTF-8", e);
-    }
+    utf8(str, 0);
   }
 
   public void desc(String str) {
-    try {
-      desc(str.getBytes("UTF-8"));
-    } catch (UnsupportedEncodingException e) {
-      throw new RuntimeException("JVM does not support UTF-8", e);
-    }
+    utf8(str, 0xff);
   }
 
   /**
@@ -166,13 +162,9 @@ public class IndexKeyBuilder {
    * @param ch the character to encode and append.
    */
   public void add(char ch) {
-    if (ch == 0x00) {
-      buf.write(0x00);
-      buf.write(0xff);
-
-    } else if (ch <= 255) {
-      buf.write(ch);
-
+    if (ch <= 255) {
+      ensure(2);
+      put(ch);
     } else {
       add(Character.toString(ch));
     }
@@ -188,14 +180,12 @@ public class IndexKeyBuilder {
    * @param val the value to add.
    */
   public void add(long val) {
-    final byte[] t = new byte[9];
-    int i = t.length;
-    while (val != 0) {
-      t[--i] = (byte) (val & 0xff);
-      val >>>= 8;
+    final int n = (64 - Long.numberOfLeadingZeros(val) + 7) >>> 3;
+    ensure(n + 1);
+    buf[len++] = (byte) n;
+    for (int shift = (n - 1) * 8; shift >= 0; shift -= 8) {
+      buf[len++] = (byte) (val >>> shift);
     }
-    t[i - 1] = (byte) (t.length - i);
-    buf.write(t, i - 1, t.length - i + 1);
   }
 
   public void desc(long val) {
@@ -211,7 +201,9 @@ public class IndexKeyBuilder {
    * @param bin the binary to append as-is, without further escaping.
    */
   public void addRaw(byte[] bin) {
-    buf.write(bin, 0, bin.length);
+    ensure(bin.length);
+    System.arraycopy(bin, 0, buf, len, bin.length);
+    len += bin.length;
   }
 
   /**
@@ -220,6 +212,96 @@ public class IndexKeyBuilder {
    * @return the current state of this, converted into a flat byte array.
    */
   public byte[] toByteArray() {
-    return buf.toByteArray();
+    return Arrays.copyOf(buf, len);
+  }
+
+  /**
+   * Obtain a copy of the current key following a constant prefix.
+   *
+   * @param prefix bytes to place before the key, copied as-is.
+   * @return a new array holding {@code prefix} and then this key.
+   */
+  public byte[] toByteArray(byte[] prefix) {
+    final byte[] r = new byte[prefix.length + len];
+    System.arraycopy(prefix, 0, r, 0, prefix.length);
+    System.arraycopy(buf, 0, r, prefix.length, len);
+    return r;
+  }
+
+  /**
+   * Copy the current key into a caller supplied array.
+   *
+   * @param dst array to copy into; must have {@link #size()} bytes available
+   *        after {@code off}.
+   * @param off first index of {@code dst} to write.
+   * @return number of bytes written.
+   */
+  public int toByteArray(byte[] dst, int off) {
+    System.arraycopy(buf, 0, dst, off, len);
+    return len;
+  }
+
+  /** Append one byte, escaping it; the caller ensured room for 2 bytes. */
+  private void put(int b) {
+    if (b == 0x00) {
+      buf[len++] = 0x00;
+      buf[len++] = (byte) 0xff;
+
+    } else if (b == 0xff) {
+      buf[len++] = (byte) 0xff;
+      buf[len++] = 0x00;
+
+    } else {
+      buf[len++] = (byte) b;
+    }
+  }
+
+  /**
+   * Append a string as UTF-8, exactly as {@code String.getBytes("UTF-8")}
+   * would encode it, with each byte xor'd with {@code mask} and escaped.
+   */
+  private void utf8(String str, int mask) {
+    final int n = str.length();
+    for (int i = 0; i < n; i++) {
+      final char c = str.charAt(i);
+      if (c < 0x80) {
+        ensure(2);
+        put(c ^ mask);
+
+      } else if (c < 0x800) {
+        ensure(2);
+        put((0xc0 | (c >> 6)) ^ mask);
+        put((0x80 | (c & 0x3f)) ^ mask);
+
+      } else if (Character.isSurrogate(c)) {
+        if (Character.isHighSurrogate(c) && i + 1 < n
+            && Character.isLowSurrogate(str.charAt(i + 1))) {
+          final int cp = Character.toCodePoint(c, str.charAt(++i));
+          ensure(4);
+          put((0xf0 | (cp >> 18)) ^ mask);
+          put((0x80 | ((cp >> 12) & 0x3f)) ^ mask);
+          put((0x80 | ((cp >> 6) & 0x3f)) ^ mask);
+          put((0x80 | (cp & 0x3f)) ^ mask);
+        } else {
+          // Unpaired surrogates are replaced, as the JDK's encoder does.
+          ensure(2);
+          put('?' ^ mask);
+        }
+
+      } else {
+        ensure(3);
+        put((0xe0 | (c >> 12)) ^ mask);
+        put((0x80 | ((c >> 6) & 0x3f)) ^ mask);
+        put((0x80 | (c & 0x3f)) ^ mask);
+      }
+    }
+  }
+
+  /** Make room for {@code cnt} more bytes, each possibly escaped. */
+  private void ensure(int cnt) {
+    final int need = len + 2 * cnt;
+    if (need > buf.length) {
+      buf = Arrays.copyOf(buf, Math.max(need, buf.length * 2));
+    }
   }
 }
@@ -14,17 +14,34 @@
 
 package com.google.gwtorm.nosql;
 
+import com.google.common.base.Function;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.UnsignedBytes;
 import com.google.gwtorm.client.Key;
 import com.google.gwtorm.protobuf.ProtobufCodec;
 import com.google.gwtorm.server.AbstractAccess;
+import com.google.gwtorm.server.AbstractResultSet;
 import com.google.gwtorm.server.Access;
 import com.google.gwtorm.server.OrmException;
 import com.google.gwtorm.server.ResultSet;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
 /** Internal base class for implementations of {@link Access}. */
 public abstract class NoSqlAccess<T, K extends Key<?>> extends
     AbstractAccess<T, K> {
+  /** Most entities a query method deletes or updates in one call. */
+  private static final int MUTATION_BATCH = 500;
+
   protected NoSqlAccess(final NoSqlSchema s) {
+    super(s);
   }
 
   /**
@@ -48,6 +65,54 @@ public abstract class NoSqlAccess<T, K extends Key<?>> extends
   protected abstract ResultSet<T> scanPrimaryKey(byte[] fromKey, byte[] toKey,
       int limit, boolean order) throws OrmException;
 
+  /**
+   * Scan a range of primary keys on behalf of a query method.
+   * <p>
+   * The scan is reported to the database's metrics under the query's name.
+   *
+   * @param name name of the query method.
+   * @param fromKey key to start the scan on. This is inclusive.
+   * @param toKey key to stop the scan on. This is exclusive.
+   * @param limit maximum number of results to return, 0 for unlimited.
+   * @param order if true the order will be preserved.
+   * @return result set for the requested range.
+   * @throws OrmException an error occurred preventing the scan from completing.
+   */
+  protected ResultSet<T> scanPrimaryKey(String name, byte[] fromKey,
+      byte[] toKey, int limit, boolean order) throws OrmException {
+    return scanPrimaryKey(name, getObjectCodec(), fromKey, toKey, limit, order);
+  }
+
+  /**
+   * Scan a range of primary keys on behalf of a query method that reads only
+   * some fields.
+   *
+   * @param name name of the query method.
+   * @param codec decoder for the fields the query reads.
+   * @param fromKey key to start the scan on. This is inclusive.
+   * @param toKey key to stop the scan on. This is exclusive.
+   * @param limit maximum number of results to return, 0 for unlimited.
+   * @param order if true the order will be preserved.
+   * @return result set for the requested range.
+   * @throws OrmException an error occurred preventing the scan from completing.
+   */
+  protected ResultSet<T> scanPrimaryKey(String name, ProtobufCodec<T> codec,
+      byte[] fromKey, byte[] toKey, int limit, boolean order)
+      throws OrmException {
+    final long start = startTimer();
+    boolean ok = false;
+    try {
+      final ResultSet<T> rs = record(name, start,
+          scanPrimaryKey(codec, fromKey, toKey, limit, order));
+      ok = true;
+      return rs;
+    } finally {
+      if (!ok) {
+        record(name, 0, 0, start, true);
+      }
+    }
+  }
+
   /**
    * Scan a range of keys and return any matching objects.
    * <p>
@@ -71,6 +136,243 @@ public abstract class NoSqlAccess<T, K extends Key<?>> extends
       byte[] fromKey, byte[] toKey, int limit, boolean order)
       throws OrmException;
 
+  /**
+   * Scan a range of keys from the data rows, decoding them with a codec.
+   * <p>
+   * Implementations may override this to skip the fields a query does not
+   * read. By default the codec is ignored and every field is decoded.
+   *
+   * @param codec decoder for the fields the caller needs.
+   * @param fromKey key to start the scan on. This is inclusive.
+   * @param toKey key to stop the scan on. This is exclusive.
+   * @param limit maximum number of results to return, 0 for unlimited.
+   * @param order if true the order will be preserved.
+   * @return result set for the requested range.
+   * @throws OrmException an error occurred preventing the scan from completing.
+   */
+  protected ResultSet<T> scanPrimaryKey(ProtobufCodec<T> codec, byte[] fromKey,
+      byte[] toKey, int limit, boolean order) throws OrmException {
+    return scanPrimaryKey(fromKey, toKey, limit, order);
+  }
+
+  /**
+   * Scan a range of index keys, decoding the objects with a codec.
+   * <p>
+   * Implementations may override this to skip the fields a query does not
+   * read. By default the codec is ignored and every field is decoded. The
+   * codec always reads the fields the index is computed from.
+   *
+   * @param index definition of the index the scan occurs over.
+   * @param codec decoder for the fields the caller needs.
+   * @param fromKey key to start the scan on. This is inclusive.
+   * @param toKey key to stop the scan on. This is exclusive.
+   * @param limit maximum number of results to return, 0 for unlimited.
+   * @param order if true the order will be preserved.
+   * @return result set for the requested range.
+   * @throws OrmException an error occurred preventing the scan from completing.
+   */
+  protected ResultSet<T> scanIndex(IndexFunction<T> index,
+      ProtobufCodec<T> codec, byte[] fromKey, byte[] toKey, int limit,
+      boolean order) throws OrmException {
+    return scanIndex(index, fromKey, toKey, limit, order);
+  }
+
+  /**
+   * Scan several ranges of index keys and return the union of their objects.
+   * <p>
+   * Used by query methods matching a field against a list of values, one
+   * range per distinct value. Ranges repeating an earlier range are scanned
+   * only once.
+   *
+   * @param index definition of the index the scan occurs over.
+   * @param codec decoder for the fields the caller needs.
+   * @param mergeOrder if not null, encodes the key the ranges are ordered by;
+   *        each range is already in this order and the union keeps it.
+   * @param ranges pairs of inclusive start and exclusive stop keys.
+   * @param limit maximum number of results to return, 0 for unlimited.
+   * @param order if true the order will be preserved.
+   * @return result set for the requested ranges.
+   * @throws OrmException an error occurred preventing a scan from completing.
+   */
+  protected ResultSet<T> scanIndex(final IndexFunction<T> index,
+      final ProtobufCodec<T> codec, final IndexFunction<T> mergeOrder,
+      final List<byte[]> ranges, final int limit, final boolean order)
+      throws OrmException {
+    final Set<ByteBuffer> seen = new HashSet<>();
+    final List<ResultSet<T>> parts = new ArrayList<>(ranges.size() / 2);
+    boolean ok = false;
+    try {
+      for (int i = 0; i + 1 < ranges.size(); i += 2) {
+        if (seen.add(ByteBuffer.wrap(ranges.get(i)))) {
+          parts.add(scanIndex(index, codec, ranges.get(i), ranges.get(i + 1),
+              limit, order));
+        }
+      }
+      ok = true;
+    } finally {
+      if (!ok) {
+        for (final ResultSet<T> rs : parts) {
+          rs.close();
+        }
+      }
+    }
+
+    final Iterator<T> all;
+    if (mergeOrder != null && order && parts.size() > 1) {
+      final List<Iterator<Keyed<T>>> keyed = new ArrayList<>(parts.size());
+      for (final ResultSet<T> rs : parts) {
+        keyed.add(Iterators.transform(rs.iterator(),
+            new Function<T, Keyed<T>>() {
+              @Override
+              public Keyed<T> apply(final T obj) {
+                final IndexKeyBuilder b = new IndexKeyBuilder();
+                mergeOrder.encode(b, obj);
+                return new Keyed<>(b.toByteArray(), obj);
+              }
+            }));
+      }
+      all = Iterators.transform(Iterators.mergeSorted(keyed, KEYED_ORDER),
+          new Function<Keyed<T>, T>() {
+            @Override
+            public T apply(final Keyed<T> k) {
+              return k.obj;
+            }
+          });
+    } else {
+      final List<Iterator<T>> itrs = new ArrayList<>(parts.size());
+      for (final ResultSet<T> rs : parts) {
+        itrs.add(rs.iterator());
+      }
+      all = Iterators.concat(itrs.iterator());
+    }
+    final Iterator<T> r = 0 < limit ? Iterators.limit(all, limit) : all;
+
+    return new AbstractResultSet<T>() {
+      @Override
+      protected boolean hasNext() {
+        return r.hasNext();
+      }
+
+      @Override
+      protected T next() {
+        return r.next();
+      }
+
+      @Override
+      public void close() {
+        for (final ResultSet<T> rs : parts) {
+          rs.close();
+        }
+      }
+    };
+  }
+
+  /**
+   * Count the data rows in a range of primary keys, for a query method.
+   * <p>
+   * By default the rows are scanned and decoded. Implementations should
+   * override this to count without decoding.
+   *
+   * @param name name of the query method.
+   * @param fromKey key to start the scan on. This is inclusive.
+   * @param toKey key to stop the scan on. This is exclusive.
+   * @param limit stop counting after this many rows, 0 for unlimited.
+   * @return number of rows in the range.
+   * @throws OrmException an error occurred preventing the scan from completing.
+   */
+  protected long countPrimaryKey(String name, byte[] fromKey, byte[] toKey,
+      int limit) throws OrmException {
+    return count(scanPrimaryKey(name, fromKey, toKey, limit, false));
+  }
+
+  /**
+   * Count the objects matching a range of index keys, for a query method.
+   *
+   * @param index definition of the index the scan occurs over.
+   * @param codec decoder for the fields needed to verify index rows.
+   * @param fromKey key to start the scan on. This is inclusive.
+   * @param toKey key to stop the scan on. This is exclusive.
+   * @param limit stop counting after this many matches, 0 for unlimited.
+   * @return number of matching objects.
+   * @throws OrmException an error occurred preventing the scan from completing.
+   */
+  protected long countIndex(IndexFunction<T> index, ProtobufCodec<T> codec,
+      byte[] fromKey, byte[] toKey, int limit) throws OrmException {
+    return count(scanIndex(index, codec, fromKey, toKey, limit, false));
+  }
+
+  /**
+   * Delete the entities matched by a query method.
+   * <p>
+   * The matches are read before any is deleted, so the scan never observes
+   * its own deletions. They are then deleted in batches.
+   *
+   * @param rs the query's matches.
+   * @return number of entities deleted.
+   * @throws OrmException the entities cannot be deleted.
+   */
+  protected int deleteAll(final ResultSet<T> rs) throws OrmException {
+    final List<T> rows = rs.toList();
+    for (final List<T> batch : Lists.partition(rows, MUTATION_BATCH)) {
+      delete(batch);
+    }
+    return rows.size();
+  }
+
+  /**
+   * Store the entities changed by a query method, in batches.
+   *
+   * @param rows the query's matches, with their fields already assigned.
+   * @return number of entities updated.
+   * @throws OrmException the entities cannot be updated.
+   */
+  protected int updateAll(final List<T> rows) throws OrmException {
+    for (final List<T> batch : Lists.partition(rows, MUTATION_BATCH)) {
+      update(batch);
+    }
+    return rows.size();
+  }
+
+  /**
+   * Count and close a result set.
+   *
+   * @param rs the results to count.
+   * @return number of results in the set.
+   */
+  protected static long count(final ResultSet<?> rs) {
+    try {
+      long n = 0;
+      for (final Iterator<?> i = rs.iterator(); i.hasNext(); i.next()) {
+        n++;
+      }
+      return n;
+    } finally {
+      rs.close();
+    }
+  }
+
+  private static final Comparator<Keyed<?>> KEYED_ORDER =
+      new Comparator<Keyed<?>>() {
+        private final Comparator<byte[]> bytes =
+            UnsignedBytes.lexicographicalComparator();
+
+        @Override
+        public int compare(final Keyed<?> a, final Keyed<?> b) {
+          return bytes.compare(a.key, b.key);
+        }
+      };
+
+  /** An object paired with its encoded sort key. */
+  private static final class Keyed<T> {
+    final byte[] key;
+    final T obj;
+
+    Keyed(final byte[] key, final T obj) {
+      this.key = key;
+      this.obj = obj;
+    }
+  }
+
   // -- These are all provided by AccessGen when it builds a subclass --
 
   /** @return encoder/decoder for the object data. */
@@ -94,4 +396,37 @@ public abstract class NoSqlAccess<T, K extends Key<?>> extends
    * @param key the object primary key.
    */
   protected abstract void encodePrimaryKey(IndexKeyBuilder dst, K key);
+  /**
+   * Get the constant prefix of every data row key in this relation.
+   * <p>
+   * The prefix is the relation name followed by a delimiter. Callers must not
+   * modify the returned array.
+   *
+   * @return the prefix, as computed by {@link #keyPrefix(String)}.
+   */
+  protected abstract byte[] getDataRowPrefix();
+
+  /**
+   * Get the constant prefix of every row key in a secondary index.
+   * <p>
+   * The prefix is the relation name, '.', the index name and a delimiter.
+   * Callers must not modify the returned array.
+   *
+   * @param index the index.
+   * @return the prefix, as computed by {@link #keyPrefix(String)}.
+   */
+  protected abstract byte[] getIndexRowPrefix(IndexFunction<T> index);
+
+  /**
+   * Encode a key prefix.
+   *
+   * @param name name of the relation, or relation '.' index name.
+   * @return the encoded name followed by a delimiter.
+   */
+  protected static byte[] keyPrefix(String name) {
+    final IndexKeyBuilder b = new IndexKeyBuilder();
+    b.add(name);
+    b.delimiter();
+    return b.toByteArray();
+  }
 }
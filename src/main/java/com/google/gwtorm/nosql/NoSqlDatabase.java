@@ -20,12 +20,15 @@ import com.google.gwtorm.schema.SchemaModel;
 import com.google.gwtorm.schema.java.JavaSchemaModel;
 import com.google.gwtorm.server.GeneratedClassLoader;
 import com.google.gwtorm.server.OrmException;
+import com.google.gwtorm.server.OrmMetrics;
 import com.google.gwtorm.server.Schema;
 import com.google.gwtorm.server.SchemaConstructorGen;
 import com.google.gwtorm.server.SchemaFactory;
 import com.google.gwtorm.server.SchemaGen;
 import com.google.gwtorm.server.StandardKeyEncoder;
 
+import java.util.concurrent.Executor;
+
 /**
  * Base class for NoSQL typed databases.
  * <p>
@@ -56,6 +59,10 @@ public abstract class NoSqlDatabase<T extends Schema, S extends NoSqlSchema, A e
 
   private final SchemaModel schemaModel;
   private final SchemaFactory<T> implFactory;
+  private volatile Executor executor;
+  private volatile boolean coalesceGets;
+  private volatile boolean unitOfWork;
+  private volatile OrmMetrics metrics = OrmMetrics.DISABLED;
 
   /**
    * Initialize a new database and generate the implementation.
@@ -89,6 +96,88 @@ public abstract class NoSqlDatabase<T extends Schema, S extends NoSqlSchema, A e
     return schemaModel;
   }
 
+  /** @return executor for asynchronous operations; null if not configured. */
+  public Executor getExecutor() {
+    return executor;
+  }
+
+  /**
+   * Set the executor used for asynchronous operations.
+   * <p>
+   * Operations of one schema still run one at a time; only the calling thread
+   * is freed.
+   *
+   * @param e the executor; null to run asynchronous operations immediately in
+   *        the calling thread.
+   */
+  public void setExecutor(final Executor e) {
+    executor = e;
+  }
+
+  /** @return receiver of measurements; never null. */
+  public OrmMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Measure the operations of schemas opened after this call.
+   * <p>
+   * Every Access reports the latency and row count of its reads, writes and
+   * queries, by relation and query method name. The default discards all
+   * measurements without reading the clock.
+   *
+   * @param m receiver of measurements; null to disable measuring.
+   */
+  public void setMetrics(final OrmMetrics m) {
+    metrics = m != null ? m : OrmMetrics.DISABLED;
+  }
+
+  /** @return true if schemas remember entities loaded by primary key. */
+  public boolean isCoalescingGets() {
+    return coalesceGets;
+  }
+
+  /**
+   * Enable an identity map in each schema opened from this database.
+   * <p>
+   * Entities loaded by primary key are remembered by the schema that loaded
+   * them, so repeated {@code get} calls for the same key return the same
+   * instance without reading storage, and {@code get(Iterable)} only reads
+   * the keys not seen before. Writing an entity through the schema forgets it,
+   * as does rolling back. Changes made by other schemas are not observed.
+   *
+   * @param enable true to coalesce gets.
+   */
+  public void setCoalesceGets(final boolean enable) {
+    coalesceGets = enable;
+  }
+
+  /** @return true if schemas hold writes until they commit. */
+  public boolean isUnitOfWork() {
+    return unitOfWork;
+  }
+
+  /**
+   * Hold the writes of each schema opened from this database until it commits.
+   * <p>
+   * Inserts, updates, upserts and deletes are remembered by the schema, and
+   * written entities are kept in its identity map, so {@code get} returns them
+   * without reading storage. On {@code commit()} the schema writes each
+   * relation's changes as one batch per kind of write, after collapsing
+   * repeated writes of one entity into one. Before a query, or a lookup the
+   * identity map cannot answer, the pending changes of that relation are
+   * written so the read observes them. Rolling back, or closing the schema
+   * without committing, discards the pending changes.
+   * <p>
+   * Atomic updates write through: they first write the pending changes of
+   * their relation, then change storage immediately.
+   *
+   * @param enable true to hold writes until commit.
+   */
+  public void setUnitOfWork(final boolean enable) {
+    unitOfWork = enable;
+  }
+
   @SuppressWarnings("unchecked")
   private Class<T> generate(final Class<S> schemaBaseType,
       final Class<A> accessBaseType, final GeneratedClassLoader loader)
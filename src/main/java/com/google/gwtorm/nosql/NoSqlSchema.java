@@ -16,12 +16,38 @@ package com.google.gwtorm.nosql;
 
 import com.google.gwtorm.server.AbstractSchema;
 import com.google.gwtorm.server.OrmException;
+import com.google.gwtorm.server.OrmMetrics;
 import com.google.gwtorm.server.Schema;
 import com.google.gwtorm.server.StatementExecutor;
 
+import java.util.concurrent.Executor;
+
 /** Internal base class for implementations of {@link Schema}. */
 public abstract class NoSqlSchema extends AbstractSchema {
+  private final NoSqlDatabase<?, ?, ?> db;
+
   protected NoSqlSchema(final NoSqlDatabase<?, ?, ?> d) {
+    db = d;
+  }
+
+  @Override
+  protected Executor getExecutor() {
+    return db != null ? db.getExecutor() : null;
+  }
+
+  @Override
+  protected OrmMetrics getMetrics() {
+    return db != null ? db.getMetrics() : OrmMetrics.DISABLED;
+  }
+
+  @Override
+  protected boolean isCoalescingGets() {
+    return db != null && db.isCoalescingGets();
+  }
+
+  @Override
+  protected boolean isUnitOfWork() {
+    return db != null && db.isUnitOfWork();
   }
 
   @Override
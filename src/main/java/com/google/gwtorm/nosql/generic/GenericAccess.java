@@ -19,6 +19,7 @@ import com.google.gwtorm.nosql.IndexFunction;
 import com.google.gwtorm.nosql.IndexKeyBuilder;
 import com.google.gwtorm.nosql.IndexRow;
 import com.google.gwtorm.nosql.NoSqlAccess;
+import com.google.gwtorm.protobuf.ProtobufCodec;
 import com.google.gwtorm.server.AbstractResultSet;
 import com.google.gwtorm.server.Access;
 import com.google.gwtorm.server.AtomicUpdate;
@@ -75,18 +76,33 @@ public abstract class GenericAccess<T, K extends Key<?>> extends
    */
   @Override
   public T get(K key) throws OrmException, OrmDuplicateKeyException {
-    byte[] bin = db.fetchRow(dataRowKey(key));
-    if (bin != null) {
-      T obj = getObjectCodec().decode(bin);
-      cache().put(primaryKey(obj), bin);
+    T known = fromIdentityMap(key);
+    if (known != null) {
+      return known;
+    }
+
+    flushWrites();
+    final long start = startTimer();
+    T obj = null;
+    boolean ok = false;
+    try {
+      byte[] bin = db.fetchRow(dataRowKey(key));
+      if (bin != null) {
+        obj = getObjectCodec().decode(bin);
+        cache().put(primaryKey(obj), bin);
+        obj = toIdentityMap(key, obj);
+      }
+      ok = true;
       return obj;
-    } else {
-      return null;
+    } finally {
+      record("get", obj != null ? 1 : 0, 0, start, !ok);
     }
   }
 
   @Override
-  public ResultSet<T> get(final Iterable<K> keys) throws OrmException {
+  protected ResultSet<T> fetch(final Iterable<K> keys) throws OrmException {
+    flushWrites();
+    final long start = startTimer();
     final ResultSet<Row> rs = db.fetchRows(new Iterable<byte[]>() {
       @Override
       public Iterator<byte[]> iterator() {
@@ -112,7 +128,7 @@ public abstract class GenericAccess<T, K extends Key<?>> extends
     });
 
     final Iterator<Row> i = rs.iterator();
-    return new AbstractResultSet<T>() {
+    return record("get", start, new AbstractResultSet<T>() {
       @Override
       protected boolean hasNext() {
         return i.hasNext();
@@ -130,7 +146,7 @@ public abstract class GenericAccess<T, K extends Key<?>> extends
       public void close() {
         rs.close();
       }
-    };
+    });
   }
 
   /**
@@ -148,19 +164,17 @@ public abstract class GenericAccess<T, K extends Key<?>> extends
   @Override
   protected ResultSet<T> scanPrimaryKey(byte[] fromKey, byte[] toKey,
       int limit, boolean order) throws OrmException {
-    IndexKeyBuilder b;
-
-    b = new IndexKeyBuilder();
-    b.add(getRelationName());
-    b.delimiter();
-    b.addRaw(fromKey);
-    fromKey = b.toByteArray();
+    return scanPrimaryKey(getObjectCodec(), fromKey, toKey, limit, order);
+  }
 
-    b = new IndexKeyBuilder();
-    b.add(getRelationName());
-    b.delimiter();
-    b.addRaw(toKey);
-    toKey = b.toByteArray();
+  @Override
+  protected ResultSet<T> scanPrimaryKey(final ProtobufCodec<T> codec,
+      byte[] fromKey, byte[] toKey, int limit, boolean order)
+      throws OrmException {
+    flushWrites();
+    final byte[] prefix = getDataRowPrefix();
+    fromKey = concat(prefix, fromKey);
+    toKey = concat(prefix, toKey);
 
     final ResultSet<Row> rs = db.scan(fromKey, toKey, limit, order);
     final Iterator<Row> i = rs.iterator();
@@ -174,7 +188,7 @@ public abstract class GenericAccess<T, K extends Key<?>> extends
       @Override
       protected T next() {
         byte[] bin = i.next().getValue();
-        T obj = getObjectCodec().decode(bin);
+        T obj = codec.decode(bin);
         cache().put(primaryKey(obj), bin);
         return obj;
       }
@@ -186,6 +200,41 @@ public abstract class GenericAccess<T, K extends Key<?>> extends
     };
   }
 
+  /**
+   * Count the data rows in a range of keys without decoding them.
+   *
+   * @param name name of the query method.
+   * @param fromKey key to start the scan on. This is inclusive.
+   * @param toKey key to stop the scan on. This is exclusive.
+   * @param limit stop counting after this many rows, 0 for unlimited.
+   * @return number of rows in the range.
+   * @throws OrmException an error occurred preventing the scan from completing.
+   */
+  @Override
+  protected long countPrimaryKey(String name, byte[] fromKey, byte[] toKey,
+      int limit) throws OrmException {
+    flushWrites();
+    final byte[] prefix = getDataRowPrefix();
+    final long start = startTimer();
+    long n = 0;
+    boolean ok = false;
+    try {
+      final ResultSet<Row> rs =
+          db.scan(concat(prefix, fromKey), concat(prefix, toKey), limit, false);
+      try {
+        for (final Iterator<Row> i = rs.iterator(); i.hasNext(); i.next()) {
+          n++;
+        }
+      } finally {
+        rs.close();
+      }
+      ok = true;
+      return n;
+    } finally {
+      record(name, (int) n, 0, start, !ok);
+    }
+  }
+
   /**
    * Scan a range of index keys and return any matching objects.
    *
@@ -202,24 +251,32 @@ public abstract class GenericAccess<T, K extends Key<?>> extends
   @Override
   protected ResultSet<T> scanIndex(IndexFunction<T> idx, byte[] fromKey,
       byte[] toKey, int limit, boolean order) throws OrmException {
-    final long now = System.currentTimeMillis();
-    IndexKeyBuilder b;
+    return scanIndex(idx, getObjectCodec(), fromKey, toKey, limit, order);
+  }
 
-    b = new IndexKeyBuilder();
-    b.add(getRelationName());
-    b.add('.');
-    b.add(idx.getName());
-    b.delimiter();
-    b.addRaw(fromKey);
-    fromKey = b.toByteArray();
+  @Override
+  protected ResultSet<T> scanIndex(IndexFunction<T> idx,
+      ProtobufCodec<T> codec, byte[] fromKey, byte[] toKey, int limit,
+      boolean order) throws OrmException {
+    flushWrites();
+    final long start = startTimer();
+    List<T> res = null;
+    try {
+      res = scanIndexRows(idx, codec, fromKey, toKey, limit, order);
+      return new ListResultSet<>(res);
+    } finally {
+      record(idx.getName(), res != null ? res.size() : 0, 0, start,
+          res == null);
+    }
+  }
 
-    b = new IndexKeyBuilder();
-    b.add(getRelationName());
-    b.add('.');
-    b.add(idx.getName());
-    b.delimiter();
-    b.addRaw(toKey);
-    toKey = b.toByteArray();
+  private List<T> scanIndexRows(IndexFunction<T> idx, ProtobufCodec<T> codec,
+      byte[] fromKey, byte[] toKey, int limit, boolean order)
+      throws OrmException {
+    final long now = System.currentTimeMillis();
+    final byte[] prefix = getIndexRowPrefix(idx);
+    fromKey = concat(prefix, fromKey);
+    toKey = concat(prefix, toKey);
 
     final ArrayList<T> res = new ArrayList<>();
     byte[] lastKey = fromKey;
@@ -252,11 +309,7 @@ public abstract class GenericAccess<T, K extends Key<?>> extends
 
         for (CandidateRow idxRow : scanned) {
           if (!idxRow.hasData()) {
-            IndexKeyBuilder pk = new IndexKeyBuilder();
-            pk.add(getRelationName());
-            pk.delimiter();
-            pk.addRaw(idxRow.getDataKey());
-            byte[] key = pk.toByteArray();
+            byte[] key = concat(getDataRowPrefix(), idxRow.getDataKey());
 
             byKey.put(ByteString.copyFrom(key), idxRow);
             toFetch.add(key);
@@ -285,7 +338,7 @@ public abstract class GenericAccess<T, K extends Key<?>> extends
           // should drop it from the index.
           //
           byte[] bin = idxRow.getData();
-          final T obj = getObjectCodec().decode(bin);
+          final T obj = codec.decode(bin);
           if (matches(idx, obj, idxRow.getIndexKey())) {
             cache().put(primaryKey(obj), bin);
             res.add(obj);
@@ -303,7 +356,7 @@ public abstract class GenericAccess<T, K extends Key<?>> extends
         //
         for (CandidateRow idxRow : scanned) {
           byte[] bin = idxRow.getData();
-          T obj = getObjectCodec().decode(bin);
+          T obj = codec.decode(bin);
           cache().put(primaryKey(obj), bin);
           res.add(obj);
           if (limit > 0 && res.size() == limit) {
@@ -322,21 +375,31 @@ public abstract class GenericAccess<T, K extends Key<?>> extends
 
       // Otherwise we have to scan again starting after lastKey.
       //
-      b = new IndexKeyBuilder();
-      b.addRaw(lastKey);
-      b.nul();
-      lastKey = b.toByteArray();
+      lastKey = Arrays.copyOf(lastKey, lastKey.length + 1);
     }
 
-    return new ListResultSet<>(res);
+    return res;
   }
 
   @Override
   public void insert(Iterable<T> instances) throws OrmException {
-    for (T obj : instances) {
-      insertOne(obj);
+    if (deferInsert(instances)) {
+      return;
+    }
+    final long start = startTimer();
+    int rows = 0;
+    boolean ok = false;
+    try {
+      for (T obj : instances) {
+        evict(primaryKey(obj));
+        insertOne(obj);
+        rows++;
+      }
+      db.flush();
+      ok = true;
+    } finally {
+      record("insert", 0, rows, start, !ok);
     }
-    db.flush();
   }
 
   private void insertOne(T nObj) throws OrmException {
@@ -348,18 +411,44 @@ public abstract class GenericAccess<T, K extends Key<?>> extends
 
   @Override
   public void update(Iterable<T> instances) throws OrmException {
-    for (T obj : instances) {
-      upsertOne(obj, true);
+    if (deferUpdate(instances)) {
+      return;
+    }
+    final long start = startTimer();
+    int rows = 0;
+    boolean ok = false;
+    try {
+      for (T obj : instances) {
+        evict(primaryKey(obj));
+        upsertOne(obj, true);
+        rows++;
+      }
+      db.flush();
+      ok = true;
+    } finally {
+      record("update", 0, rows, start, !ok);
     }
-    db.flush();
   }
 
   @Override
   public void upsert(Iterable<T> instances) throws OrmException {
-    for (T obj : instances) {
-      upsertOne(obj, false);
+    if (deferUpsert(instances)) {
+      return;
+    }
+    final long start = startTimer();
+    int rows = 0;
+    boolean ok = false;
+    try {
+      for (T obj : instances) {
+        evict(primaryKey(obj));
+        upsertOne(obj, false);
+        rows++;
+      }
+      db.flush();
+      ok = true;
+    } finally {
+      record("upsert", 0, rows, start, !ok);
     }
-    db.flush();
   }
 
   private void upsertOne(T newObj, boolean mustExist) throws OrmException {
@@ -436,26 +525,38 @@ public abstract class GenericAccess<T, K extends Key<?>> extends
 
   @Override
   public void delete(Iterable<T> instances) throws OrmException {
-    for (T oldObj : instances) {
-      db.delete(dataRowKey(primaryKey(oldObj)));
-      pruneOldIndexes(oldObj, null);
-      cache().remove(primaryKey(oldObj));
+    if (deferDelete(instances)) {
+      return;
+    }
+    final long start = startTimer();
+    int rows = 0;
+    boolean ok = false;
+    try {
+      for (T oldObj : instances) {
+        evict(primaryKey(oldObj));
+        db.delete(dataRowKey(primaryKey(oldObj)));
+        pruneOldIndexes(oldObj, null);
+        cache().remove(primaryKey(oldObj));
+        rows++;
+      }
+      db.flush();
+      ok = true;
+    } finally {
+      record("delete", 0, rows, start, !ok);
     }
-    db.flush();
   }
 
   @Override
   public T atomicUpdate(K key, final AtomicUpdate<T> update)
       throws OrmException {
-    final IndexKeyBuilder b = new IndexKeyBuilder();
-    b.add(getRelationName());
-    b.delimiter();
-    encodePrimaryKey(b, key);
+    evict(key);
+    flushWrites();
+    final byte[] rowKey = dataRowKey(key);
 
     try {
       @SuppressWarnings("unchecked")
       final T[] res = (T[]) new Object[3];
-      db.atomicUpdate(b.toByteArray(), new AtomicUpdate<byte[]>() {
+      db.atomicUpdate(rowKey, new AtomicUpdate<byte[]>() {
         @Override
         public byte[] update(byte[] data) {
           if (data != null) {
@@ -512,11 +613,9 @@ public abstract class GenericAccess<T, K extends Key<?>> extends
    * @return the object's data row key.
    */
   protected byte[] dataRowKey(K key) {
-    IndexKeyBuilder b = new IndexKeyBuilder();
-    b.add(getRelationName());
-    b.delimiter();
+    final IndexKeyBuilder b = new IndexKeyBuilder();
     encodePrimaryKey(b, key);
-    return b.toByteArray();
+    return b.toByteArray(getDataRowPrefix());
   }
 
   /**
@@ -535,15 +634,11 @@ public abstract class GenericAccess<T, K extends Key<?>> extends
    * @return the encoded secondary index row key.
    */
   protected byte[] indexRowKey(IndexFunction<T> idx, T obj) {
-    IndexKeyBuilder b = new IndexKeyBuilder();
-    b.add(getRelationName());
-    b.add('.');
-    b.add(idx.getName());
-    b.delimiter();
+    final IndexKeyBuilder b = new IndexKeyBuilder();
     idx.encode(b, obj);
     b.delimiter();
     encodePrimaryKey(b, primaryKey(obj));
-    return b.toByteArray();
+    return b.toByteArray(getIndexRowPrefix(idx));
   }
 
   /**
@@ -565,6 +660,12 @@ public abstract class GenericAccess<T, K extends Key<?>> extends
     return IndexRow.CODEC.encodeToByteArray(IndexRow.forKey(now, key));
   }
 
+  private static byte[] concat(byte[] prefix, byte[] key) {
+    final byte[] r = Arrays.copyOf(prefix, prefix.length + key.length);
+    System.arraycopy(key, 0, r, prefix.length, key.length);
+    return r;
+  }
+
   @SuppressWarnings("serial")
   private static class IndexException extends RuntimeException {
     final OrmException cause;
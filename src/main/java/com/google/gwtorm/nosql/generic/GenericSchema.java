@@ -23,6 +23,7 @@ import com.google.gwtorm.server.AtomicUpdate;
 import com.google.gwtorm.server.ListResultSet;
 import com.google.gwtorm.server.OrmDuplicateKeyException;
 import com.google.gwtorm.server.OrmException;
+import com.google.gwtorm.server.OrmMetrics;
 import com.google.gwtorm.server.ResultSet;
 import com.google.gwtorm.server.Schema;
 
@@ -73,6 +74,23 @@ public abstract class GenericSchema extends NoSqlSchema {
    */
   @Override
   protected long nextLong(final String poolName) throws OrmException {
+    final OrmMetrics metrics = getMetrics();
+    if (!metrics.isEnabled()) {
+      return allocate(poolName);
+    }
+    final long start = System.nanoTime();
+    boolean ok = false;
+    try {
+      final long r = allocate(poolName);
+      ok = true;
+      return r;
+    } finally {
+      metrics.record(poolName, "nextLong", 1, 0, System.nanoTime() - start,
+          !ok);
+    }
+  }
+
+  private long allocate(final String poolName) throws OrmException {
     IndexKeyBuilder b = new IndexKeyBuilder();
     b.add(".sequence." + poolName);
     b.delimiter();
@@ -225,7 +225,7 @@ public class FileDatabase<T extends Schema> extends
                 new FileOutputStream(tmp)));
         try {
           out.writeInt(table.size());
-          for (Map.Entry<byte[], byte[]> ent : table.entrySet()) {
+          for (Map.Entry<byte[], byte[]> ent : table.scan(null, null)) {
             out.writeInt(ent.getKey().length);
             out.writeInt(ent.getValue().length);
             out.write(ent.getKey());
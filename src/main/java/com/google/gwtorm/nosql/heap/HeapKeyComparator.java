@@ -14,25 +14,59 @@
 
 package com.google.gwtorm.nosql.heap;
 
+import com.google.common.primitives.UnsignedBytes;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
 import java.util.Comparator;
 
+/**
+ * Orders keys by unsigned bytes, shorter keys first on a common prefix.
+ * <p>
+ * Keys share long prefixes, so bytes are compared a machine word at a time:
+ * through {@code Arrays.compareUnsigned} on Java 9 and later, otherwise through
+ * Guava's comparator, which reads 8 bytes at once when {@code Unsafe} is
+ * available.
+ */
 class HeapKeyComparator implements Comparator<byte[]> {
   static final HeapKeyComparator INSTANCE = new HeapKeyComparator();
 
+  private static final MethodHandle compareUnsigned;
+  private static final Comparator<byte[]> fallback =
+      UnsignedBytes.lexicographicalComparator();
+
+  static {
+    MethodHandle m;
+    try {
+      m = MethodHandles.publicLookup().findStatic(Arrays.class,
+          "compareUnsigned", MethodType.methodType(int.class, byte[].class,
+              byte[].class));
+    } catch (NoSuchMethodException e) {
+      m = null;
+    } catch (IllegalAccessException e) {
+      m = null;
+    }
+    compareUnsigned = m;
+  }
+
   private HeapKeyComparator() {
   }
 
   @Override
   public int compare(byte[] a, byte[] b) {
-    for (int i = 0; i < a.length && i < b.length; i++) {
-      final int av = a[i] & 0xff;
-      final int bv = b[i] & 0xff;
-      final int rc = av - bv;
-      if (rc != 0) {
-        return rc;
+    if (compareUnsigned != null) {
+      try {
+        return (int) compareUnsigned.invokeExact(a, b);
+      } catch (RuntimeException e) {
+        throw e;
+      } catch (Error e) {
+        throw e;
+      } catch (Throwable e) {
+        throw new IllegalStateException(e);
       }
     }
-
-    return a.length - b.length;
+    return fallback.compare(a, b);
   }
 }
@@ -0,0 +1,52 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gwtorm.nosql.heap;
+
+import java.util.Map;
+
+/**
+ * Ordered storage of the rows of a {@link TreeMapDatabase}.
+ * <p>
+ * Keys are ordered by {@link HeapKeyComparator}. Implementations are not
+ * thread-safe; callers hold the database's lock, including while iterating
+ * the result of {@link #scan(byte[], byte[])}. Arrays passed in or returned
+ * must not be modified.
+ */
+interface HeapTable {
+  /** @return value stored under {@code key}; null if there is none. */
+  byte[] get(byte[] key);
+
+  /** Store {@code value} under {@code key}, replacing any prior value. */
+  void put(byte[] key, byte[] value);
+
+  /** Remove the row stored under {@code key}, if any. */
+  void remove(byte[] key);
+
+  /**
+   * Iterate over a range of rows in key order.
+   *
+   * @param fromKey first key to return, inclusive.
+   * @param toKey key to stop at, exclusive; null to scan to the end.
+   * @return rows in the range.
+   */
+  Iterable<Map.Entry<byte[], byte[]>> scan(byte[] fromKey, byte[] toKey);
+
+  /** @return number of rows stored. */
+  int size();
+
+  /** Remove every row. */
+  void clear();
+}
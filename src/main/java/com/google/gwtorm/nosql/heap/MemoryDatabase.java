@@ -39,6 +39,21 @@ public class MemoryDatabase<T extends Schema> extends
    * @throws OrmException the schema cannot be queried.
    */
   public MemoryDatabase(final Class<T> schema) throws OrmException {
-    super(TreeMapSchema.class, TreeMapAccess.class, schema);
+    this(schema, false);
+  }
+
+  /**
+   * Create the database and implement the application's schema interface.
+   *
+   * @param schema the application schema this database will open.
+   * @param packed if true store rows in pages of prefix-compressed keys,
+   *        which uses considerably less memory for large tables than a
+   *        TreeMap, but makes inserts and deletes slower.
+   * @throws OrmException the schema cannot be queried.
+   */
+  public MemoryDatabase(final Class<T> schema, final boolean packed)
+      throws OrmException {
+    super(TreeMapSchema.class, TreeMapAccess.class, schema,
+        packed ? new PackedTable() : new TreeMapTable());
   }
 }
@@ -0,0 +1,326 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gwtorm.nosql.heap;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Stores rows in sorted pages of prefix-compressed keys.
+ * <p>
+ * Each page holds up to {@link #PAGE_SIZE} consecutive rows. The prefix shared
+ * by every key in the page, typically the relation or index name and the
+ * leading fields, is stored once; the remaining suffixes are packed into a
+ * single array. This avoids a map entry and a full key array per row, at the
+ * cost of rewriting one page on each insert or delete. Replacing the value of
+ * an existing key does not rewrite the page.
+ * <p>
+ * Keys returned by {@link #scan(byte[], byte[])} are reassembled on demand.
+ */
+class PackedTable implements HeapTable {
+  static final int PAGE_SIZE = 64;
+
+  /** Non-empty pages, in key order. */
+  private final ArrayList<Page> pages = new ArrayList<>();
+  private int size;
+
+  @Override
+  public byte[] get(byte[] key) {
+    if (pages.isEmpty()) {
+      return null;
+    }
+    final Page p = pages.get(pageFor(key));
+    final int i = p.find(key);
+    return 0 <= i ? p.values[i] : null;
+  }
+
+  @Override
+  public void put(byte[] key, byte[] value) {
+    if (pages.isEmpty()) {
+      pages.add(new Page(new byte[][] {key}, new byte[][] {value}, 0, 1));
+      size = 1;
+      return;
+    }
+
+    final int pi = pageFor(key);
+    final Page p = pages.get(pi);
+    int i = p.find(key);
+    if (0 <= i) {
+      p.values[i] = value;
+      return;
+    }
+
+    i = -(i + 1);
+    final int n = p.n + 1;
+    final byte[][] keys = new byte[n][];
+    final byte[][] values = new byte[n][];
+    for (int j = 0, k = 0; j < n; j++) {
+      if (j == i) {
+        keys[j] = key;
+        values[j] = value;
+      } else {
+        keys[j] = p.key(k);
+        values[j] = p.values[k++];
+      }
+    }
+    size++;
+
+    if (n <= PAGE_SIZE) {
+      pages.set(pi, new Page(keys, values, 0, n));
+    } else {
+      final int half = n / 2;
+      pages.set(pi, new Page(keys, values, 0, half));
+      pages.add(pi + 1, new Page(keys, values, half, n));
+    }
+  }
+
+  @Override
+  public void remove(byte[] key) {
+    if (pages.isEmpty()) {
+      return;
+    }
+
+    final int pi = pageFor(key);
+    final Page p = pages.get(pi);
+    final int i = p.find(key);
+    if (i < 0) {
+      return;
+    }
+
+    size--;
+    if (p.n == 1) {
+      pages.remove(pi);
+      return;
+    }
+
+    final int n = p.n - 1;
+    final byte[][] keys = new byte[n][];
+    final byte[][] values = new byte[n][];
+    for (int j = 0, k = 0; k < p.n; k++) {
+      if (k != i) {
+        keys[j] = p.key(k);
+        values[j++] = p.values[k];
+      }
+    }
+    pages.set(pi, new Page(keys, values, 0, n));
+  }
+
+  @Override
+  public Iterable<Map.Entry<byte[], byte[]>> scan(final byte[] fromKey,
+      final byte[] toKey) {
+    return new Iterable<Map.Entry<byte[], byte[]>>() {
+      @Override
+      public Iterator<Map.Entry<byte[], byte[]>> iterator() {
+        return new Scan(fromKey, toKey);
+      }
+    };
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public void clear() {
+    pages.clear();
+    size = 0;
+  }
+
+  /** @return index of the last page starting at or before key, or 0. */
+  private int pageFor(byte[] key) {
+    int lo = 0;
+    int hi = pages.size() - 1;
+    while (lo < hi) {
+      final int mid = (lo + hi + 1) >>> 1;
+      if (pages.get(mid).compare(0, key) <= 0) {
+        lo = mid;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    return lo;
+  }
+
+  private class Scan implements Iterator<Map.Entry<byte[], byte[]>> {
+    private final byte[] toKey;
+    private int pi;
+    private int i;
+
+    Scan(byte[] fromKey, byte[] toKey) {
+      this.toKey = toKey;
+      if (fromKey != null && !pages.isEmpty()) {
+        pi = pageFor(fromKey);
+        i = pages.get(pi).find(fromKey);
+        if (i < 0) {
+          i = -(i + 1);
+        }
+        if (i == pages.get(pi).n) {
+          pi++;
+          i = 0;
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return pi < pages.size()
+          && (toKey == null || pages.get(pi).compare(i, toKey) < 0);
+    }
+
+    @Override
+    public Map.Entry<byte[], byte[]> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      final Page p = pages.get(pi);
+      final Map.Entry<byte[], byte[]> e =
+          new AbstractMap.SimpleImmutableEntry<>(p.key(i), p.values[i]);
+      if (++i == p.n) {
+        pi++;
+        i = 0;
+      }
+      return e;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private static final class Page {
+    final byte[] prefix;
+    final byte[] suffixes;
+    /** End offset in {@link #suffixes} of each key's suffix. */
+    final int[] ends;
+    final byte[][] values;
+    final int n;
+
+    /** Pack sorted keys {@code [from, to)} and their values. */
+    Page(byte[][] keys, byte[][] vals, int from, int to) {
+      n = to - from;
+      prefix = commonPrefix(keys[from], keys[to - 1]);
+
+      int total = 0;
+      for (int k = from; k < to; k++) {
+        total += keys[k].length - prefix.length;
+      }
+      suffixes = new byte[total];
+      ends = new int[n];
+      values = Arrays.copyOfRange(vals, from, to);
+
+      int pos = 0;
+      for (int k = from; k < to; k++) {
+        final int len = keys[k].length - prefix.length;
+        System.arraycopy(keys[k], prefix.length, suffixes, pos, len);
+        pos += len;
+        ends[k - from] = pos;
+      }
+    }
+
+    private static byte[] commonPrefix(byte[] a, byte[] b) {
+      final int m = Math.min(a.length, b.length);
+      int i = 0;
+      while (i < m && a[i] == b[i]) {
+        i++;
+      }
+      return Arrays.copyOf(a, i);
+    }
+
+    private int start(int i) {
+      return i == 0 ? 0 : ends[i - 1];
+    }
+
+    byte[] key(int i) {
+      final int start = start(i);
+      final byte[] r = new byte[prefix.length + ends[i] - start];
+      System.arraycopy(prefix, 0, r, 0, prefix.length);
+      System.arraycopy(suffixes, start, r, prefix.length, ends[i] - start);
+      return r;
+    }
+
+    /** @return sign of stored key {@code i} compared to {@code key}. */
+    int compare(int i, byte[] key) {
+      final int rc = comparePrefix(key);
+      if (rc != 0) {
+        return rc;
+      }
+      return compareSuffix(i, key);
+    }
+
+    /**
+     * @return 0 if key starts with the prefix; otherwise the sign of every
+     *         stored key compared to {@code key}.
+     */
+    private int comparePrefix(byte[] key) {
+      final int m = Math.min(prefix.length, key.length);
+      for (int j = 0; j < m; j++) {
+        final int rc = (prefix[j] & 0xff) - (key[j] & 0xff);
+        if (rc != 0) {
+          return rc;
+        }
+      }
+      return key.length < prefix.length ? 1 : 0;
+    }
+
+    private int compareSuffix(int i, byte[] key) {
+      final int start = start(i);
+      final int len = ends[i] - start;
+      final int klen = key.length - prefix.length;
+      final int m = Math.min(len, klen);
+      for (int j = 0; j < m; j++) {
+        final int rc =
+            (suffixes[start + j] & 0xff) - (key[prefix.length + j] & 0xff);
+        if (rc != 0) {
+          return rc;
+        }
+      }
+      return len - klen;
+    }
+
+    /**
+     * @return index of key, or {@code -(insertion point + 1)} if not present.
+     */
+    int find(byte[] key) {
+      final int rc = comparePrefix(key);
+      if (rc > 0) {
+        return -1;
+      } else if (rc < 0) {
+        return -(n + 1);
+      }
+
+      int lo = 0;
+      int hi = n - 1;
+      while (lo <= hi) {
+        final int mid = (lo + hi) >>> 1;
+        final int c = compareSuffix(mid, key);
+        if (c < 0) {
+          lo = mid + 1;
+        } else if (c > 0) {
+          hi = mid - 1;
+        } else {
+          return mid;
+        }
+      }
+      return -(lo + 1);
+    }
+  }
+}
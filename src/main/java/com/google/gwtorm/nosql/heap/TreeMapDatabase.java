@@ -22,8 +22,6 @@ import com.google.protobuf.UnknownFieldSet;
 
 import java.io.PrintWriter;
 import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -45,7 +43,7 @@ abstract class TreeMapDatabase<T extends Schema, S extends TreeMapSchema, A exte
   final Lock lock;
 
   /** The NoSQL database storage. */
-  final SortedMap<byte[], byte[]> table;
+  final HeapTable table;
 
   /**
    * Initialize a new database and generate the implementation.
@@ -63,10 +61,16 @@ abstract class TreeMapDatabase<T extends Schema, S extends TreeMapSchema, A exte
   protected TreeMapDatabase(final Class<S> schemaBaseType,
       final Class<A> accessBaseType, final Class<T> appSchema)
       throws OrmException {
+    this(schemaBaseType, accessBaseType, appSchema, new TreeMapTable());
+  }
+
+  TreeMapDatabase(final Class<S> schemaBaseType,
+      final Class<A> accessBaseType, final Class<T> appSchema,
+      final HeapTable storage) throws OrmException {
     super(schemaBaseType, accessBaseType, appSchema);
 
     lock = new ReentrantLock(true);
-    table = new TreeMap<>(HeapKeyComparator.INSTANCE);
+    table = storage;
   }
 
   /**
@@ -77,7 +81,7 @@ abstract class TreeMapDatabase<T extends Schema, S extends TreeMapSchema, A exte
   public void dump(PrintWriter pw) {
     lock.lock();
     try {
-      for (Map.Entry<byte[], byte[]> ent : table.entrySet()) {
+      for (Map.Entry<byte[], byte[]> ent : table.scan(null, null)) {
         String key = format(ent.getKey());
 
         String val;
@@ -25,8 +25,6 @@ import com.google.gwtorm.server.Schema;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.Map.Entry;
 
 /** Base implementation for {@link Schema} in a {@link TreeMapDatabase}. */
 public abstract class TreeMapSchema extends GenericSchema {
@@ -53,7 +51,7 @@ public abstract class TreeMapSchema extends GenericSchema {
     db.lock.lock();
     try {
       final List<Row> res = new ArrayList<>();
-      for (Map.Entry<byte[], byte[]> ent : entries(fromKey, toKey)) {
+      for (Map.Entry<byte[], byte[]> ent : db.table.scan(fromKey, toKey)) {
         res.add(new Row(ent.getKey(), ent.getValue()));
 
         if (limit > 0 && res.size() == limit) {
@@ -66,8 +64,14 @@ public abstract class TreeMapSchema extends GenericSchema {
     }
   }
 
-  private Set<Entry<byte[], byte[]>> entries(byte[] fromKey, byte[] toKey) {
-    return db.table.subMap(fromKey, toKey).entrySet();
+  @Override
+  public byte[] fetchRow(byte[] key) {
+    db.lock.lock();
+    try {
+      return db.table.get(key);
+    } finally {
+      db.lock.unlock();
+    }
   }
 
   @Override
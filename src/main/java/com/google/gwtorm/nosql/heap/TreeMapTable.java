@@ -0,0 +1,61 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gwtorm.nosql.heap;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Stores each row as an entry of a {@link TreeMap}. */
+class TreeMapTable implements HeapTable {
+  private static final byte[] FIRST = {};
+
+  private final TreeMap<byte[], byte[]> map =
+      new TreeMap<>(HeapKeyComparator.INSTANCE);
+
+  @Override
+  public byte[] get(byte[] key) {
+    return map.get(key);
+  }
+
+  @Override
+  public void put(byte[] key, byte[] value) {
+    map.put(key, value);
+  }
+
+  @Override
+  public void remove(byte[] key) {
+    map.remove(key);
+  }
+
+  @Override
+  public Iterable<Map.Entry<byte[], byte[]>> scan(byte[] fromKey,
+      byte[] toKey) {
+    if (toKey == null) {
+      return map.tailMap(fromKey != null ? fromKey : FIRST).entrySet();
+    }
+    return map.subMap(fromKey, toKey).entrySet();
+  }
+
+  @Override
+  public int size() {
+    return map.size();
+  }
+
+  @Override
+  public void clear() {
+    map.clear();
+  }
+}
@@ -19,7 +19,9 @@ import com.google.gwtorm.server.GeneratedClassLoader;
 import com.google.gwtorm.server.OrmException;
 
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.WeakHashMap;
 
 /** Creates {@link ProtobufCodec} implementations on demand. */
@@ -60,6 +62,30 @@ public final class CodecFactory {
     return encoder;
   }
 
+  /**
+   * Create an implementation that reads only some fields of an object.
+   * <p>
+   * Other fields are skipped when decoding, and are not encoded.
+   *
+   * @param <T> type of the object to be supported.
+   * @param type the object type.
+   * @param columnIds ids of the top-level {@link Column}s to support.
+   * @return a decoder for those fields of this object type.
+   * @throws IllegalArgumentException the object's fields aren't declared
+   *         properly. This is a programming error that cannot be recovered.
+   */
+  public static <T> ProtobufCodec<T> decoder(Class<T> type,
+      Set<Integer> columnIds) throws IllegalStateException {
+    final CodecGen<T> gen =
+        new CodecGen<>(newLoader(type), type, new HashSet<>(columnIds));
+    try {
+      return gen.create();
+    } catch (OrmException e) {
+      throw new IllegalArgumentException("Class " + type.getName()
+          + " cannot be supported on protobuf", e);
+    }
+  }
+
   private static <T> GeneratedClassLoader newLoader(final Class<T> type) {
     return new GeneratedClassLoader(type.getClassLoader());
   }
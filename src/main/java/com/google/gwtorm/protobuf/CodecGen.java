@@ -40,7 +40,9 @@ import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeSet;
 
 /** Generates {@link ProtobufCodec} implementations. */
@@ -61,6 +63,7 @@ class CodecGen<T> implements Opcodes {
   private final GeneratedClassLoader classLoader;
   private final Class<T> pojo;
   private final Type pojoType;
+  private final Set<Integer> onlyColumns;
 
   private ClassWriter cw;
   private JavaColumnModel[] myFields;
@@ -71,16 +74,39 @@ class CodecGen<T> implements Opcodes {
   private Map<Class<?>, NestedCodec> nestedCodecs;
 
   public CodecGen(final GeneratedClassLoader loader, final Class<T> t) {
+    this(loader, t, null);
+  }
+
+  /**
+   * @param loader loader to define the codec in.
+   * @param t the object type.
+   * @param onlyColumns ids of the top-level columns to support; null for all.
+   */
+  public CodecGen(final GeneratedClassLoader loader, final Class<T> t,
+      final Set<Integer> onlyColumns) {
     classLoader = loader;
     pojo = t;
     pojoType = Type.getType(pojo);
+    this.onlyColumns = onlyColumns;
     nestedCodecs = new HashMap<>();
   }
 
   public ProtobufCodec<T> create() throws OrmException {
     myFields = scanFields(pojo);
+    if (onlyColumns != null) {
+      final List<JavaColumnModel> keep = new ArrayList<>();
+      for (final JavaColumnModel f : myFields) {
+        if (onlyColumns.contains(f.getColumnID())) {
+          keep.add(f);
+        }
+      }
+      myFields = keep.toArray(new JavaColumnModel[keep.size()]);
+    }
 
     init();
+    if (classLoader.findGeneratedClass(implClassName) != null) {
+      return newInstance();
+    }
     implementNewInstanceObject();
     implementNewInstanceSelf();
 
@@ -97,8 +123,11 @@ class CodecGen<T> implements Opcodes {
     implementStaticInit();
     implementConstructor();
     cw.visitEnd();
-    classLoader.defineClass(implClassName, cw.toByteArray());
+    classLoader.defineClass(pojo, implClassName, cw.toByteArray());
+    return newInstance();
+  }
 
+  private ProtobufCodec<T> newInstance() throws OrmException {
     try {
       final Class<?> c = Class.forName(implClassName, true, classLoader);
       return cast(c.newInstance());
@@ -145,16 +174,34 @@ class CodecGen<T> implements Opcodes {
     return (ProtobufCodec<T>) c;
   }
 
-  private void init() {
+  private void init() throws OrmException {
     superTypeName = Type.getInternalName(ProtobufCodec.class);
-    implClassName = pojo.getName() + "_protobuf_" + Util.createRandomName();
+    implClassName =
+        pojo.getName() + "_protobuf_" + Util.createStableName(describe());
     implTypeName = implClassName.replace('.', '/');
 
-    cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-    cw.visit(V1_3, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, implTypeName, null,
+    cw = classLoader.newClassWriter();
+    cw.visit(V1_7, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, implTypeName, null,
         superTypeName, new String[] {});
   }
 
+  private String describe() throws OrmException {
+    final StringBuilder r = new StringBuilder();
+    for (final JavaColumnModel f : myFields) {
+      JavaColumnModel col = f;
+      r.append(Util.describe(f)).append('\n');
+      if (f.isCollection()) {
+        final Class<?> valClazz = (Class<?>) f.getArgumentTypes()[0];
+        col = collectionColumn(f, valClazz);
+        r.append(valClazz.getName()).append('\n');
+      }
+      if (col.isNested()) {
+        r.append(nestedFor(col).codecType.getClassName()).append('\n');
+      }
+    }
+    return r.toString();
+  }
+
   private void implementCodecFields() {
     for (NestedCodec other : nestedCodecs.values()) {
       cw.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, other.field,
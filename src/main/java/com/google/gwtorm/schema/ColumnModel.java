@@ -15,6 +15,8 @@
 package com.google.gwtorm.schema;
 
 import com.google.gwtorm.client.Column;
+import com.google.gwtorm.server.LazyBytes;
+import com.google.gwtorm.server.LazyString;
 import com.google.gwtorm.server.OrmException;
 
 import java.lang.reflect.Type;
@@ -146,6 +148,12 @@ public abstract class ColumnModel {
     return !isCollection() && getPrimitiveType() == null;
   }
 
+  /** @return true if the column is only read when first used. */
+  public boolean isLazy() {
+    final Class<?> t = getPrimitiveType();
+    return t == LazyString.class || t == LazyBytes.class;
+  }
+
   public boolean isRowVersion() {
     return rowVersion;
   }
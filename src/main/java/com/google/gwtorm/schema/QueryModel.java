@@ -25,17 +25,68 @@ import org.antlr.runtime.tree.CommonTree;
 import org.antlr.runtime.tree.Tree;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class QueryModel {
+  /**
+   * Stands for the parenthesized list of placeholders bound to a collection
+   * parameter, in SQL from {@link #getSelectSql}, {@link #getDeleteSql} and
+   * {@link #getUpdateSql}. It is replaced with one placeholder per element
+   * when the statement is prepared.
+   */
+  public static final String LIST_PLACEHOLDER = "(?*)";
+
+  /**
+   * Escapes the wildcards of a prefix bound to {@code LIKE ?}, in SQL from
+   * {@link #getSelectSql}, {@link #getDeleteSql} and {@link #getUpdateSql}.
+   */
+  public static final char LIKE_ESCAPE = '!';
+
   private final RelationModel model;
   private final String name;
   private final Tree parsedQuery;
+  private final boolean async;
+  private final List<ColumnModel> projection;
+  private final Class<?> aggregate;
+  private final boolean grouped;
+  private final boolean delete;
+  private final List<ColumnModel> assignments;
 
   public QueryModel(final RelationModel rel, final String queryName,
       final Query q) throws OrmException {
-    this(rel, queryName, queryTextOf(queryName, q));
+    this(rel, queryName, q, false);
+  }
+
+  public QueryModel(final RelationModel rel, final String queryName,
+      final Query q, final boolean async) throws OrmException {
+    this(rel, queryName, queryTextOf(queryName, q), async, q.fields(), null,
+        q.delete(), q.set());
+  }
+
+  /**
+   * Create a query that counts its matches, or changes them, rather than
+   * returning them.
+   *
+   * @param rel the relation.
+   * @param queryName name of the query method.
+   * @param q the query annotation.
+   * @param aggregate return type of the method: {@code int} or {@code long}
+   *        to count the matching rows, {@code boolean} to test for any, or
+   *        {@link Map} to group them by the field tested with
+   *        {@code IN ?}. A query deleting or setting fields must return
+   *        {@code int}.
+   * @throws OrmException the query is invalid.
+   */
+  public QueryModel(final RelationModel rel, final String queryName,
+      final Query q, final Class<?> aggregate) throws OrmException {
+    this(rel, queryName, queryTextOf(queryName, q), false, q.fields(),
+        aggregate, q.delete(), q.set());
   }
 
   private static String queryTextOf(String queryName, Query q)
@@ -49,32 +100,326 @@ public class QueryModel {
 
   public QueryModel(final RelationModel rel, final String queryName,
       final String queryText) throws OrmException {
+    this(rel, queryName, queryText, false, new String[0], null, false,
+        new String[0]);
+  }
+
+  private QueryModel(final RelationModel rel, final String queryName,
+      final String queryText, final boolean async, final String[] fields,
+      final Class<?> returns, final boolean delete, final String[] set)
+      throws OrmException {
+    final boolean mutation = delete || set.length > 0;
     model = rel;
     name = queryName;
+    this.async = async;
+    this.grouped = !mutation && returns == Map.class;
+    this.aggregate = mutation || grouped ? null : returns;
+    this.delete = delete;
 
     try {
       parsedQuery = QueryParser.parse(model, queryText);
     } catch (QueryParseException e) {
       throw new OrmException("Cannot parse query " + queryText, e);
     }
+    projection = projectionOf(fields);
+    assignments = assignmentsOf(set);
+    if (parsedQuery != null) {
+      checkConditions(parsedQuery);
+    }
+
+    if (mutation) {
+      if (returns != Integer.TYPE) {
+        throw new OrmException("Query " + name + " changes rows and must"
+            + " return int");
+      }
+      if (delete && set.length > 0) {
+        throw new OrmException("Query " + name
+            + " cannot both delete and set fields");
+      }
+      if (hasOrderBy() || hasLimit() || isProjection()) {
+        throw new OrmException("Query " + name + " changes rows and cannot"
+            + " use ORDER BY, LIMIT or fields");
+      }
+    }
+
+    if (grouped) {
+      if (getCollectionParameters().size() != 1) {
+        throw new OrmException("Query " + name + " returns a Map and must"
+            + " test exactly one field with IN ?");
+      }
+      if (hasLimit() || isProjection()) {
+        throw new OrmException("Query " + name + " returns a Map and cannot"
+            + " use LIMIT or fields");
+      }
+    }
+
+    if (aggregate != null) {
+      if (aggregate != Integer.TYPE && aggregate != Long.TYPE
+          && aggregate != Boolean.TYPE) {
+        throw new OrmException("Query " + name + " cannot return "
+            + aggregate.getName());
+      }
+      if (hasOrderBy() || hasLimit() || isProjection()) {
+        throw new OrmException("Query " + name + " returns "
+            + aggregate.getName()
+            + " and cannot use ORDER BY, LIMIT or fields");
+      }
+    }
+  }
+
+  private List<ColumnModel> projectionOf(final String[] fields)
+      throws OrmException {
+    if (fields.length == 0) {
+      return Collections.emptyList();
+    }
+    final Set<ColumnModel> want = new HashSet<>();
+    for (final String n : fields) {
+      final ColumnModel c = model.getField(n);
+      if (c == null) {
+        throw new OrmException("Query " + name + " reads unknown field " + n);
+      }
+      want.add(c);
+    }
+    if (model.getPrimaryKey() != null) {
+      want.add(model.getPrimaryKey().getField());
+    }
+    final List<ColumnModel> r = new ArrayList<>(want.size());
+    for (final ColumnModel c : model.getFields()) {
+      if (want.contains(c)) {
+        r.add(c);
+      }
+    }
+    return Collections.unmodifiableList(r);
+  }
+
+  private void checkConditions(final Tree node) throws OrmException {
+    switch (node.getType()) {
+      case QueryParser.IN: {
+        final ColumnModel c = ((QueryParser.Column) node.getChild(0)).getField();
+        if (c.isNested() && c.getAllLeafColumns().size() != 1) {
+          throw new OrmException("Query " + name + " cannot use IN on "
+              + c.getPathToFieldName() + ", which has several columns");
+        }
+        break;
+      }
+
+      case QueryParser.LIKE: {
+        final ColumnModel c = ((QueryParser.Column) node.getChild(0)).getField();
+        if (c.isNested() && c.getAllLeafColumns().size() != 1) {
+          throw new OrmException("Query " + name + " cannot use LIKE on "
+              + c.getPathToFieldName() + ", which has several columns");
+        }
+        if (likeColumn(c).getPrimitiveType() != String.class) {
+          throw new OrmException("Query " + name + " cannot use LIKE on "
+              + c.getPathToFieldName() + ", which is not a String");
+        }
+        final Tree v = node.getChild(1);
+        if (v.getType() == QueryParser.CONSTANT_STRING) {
+          final String p = v.getText().substring(1, v.getText().length() - 1);
+          if (!p.endsWith("%") || p.indexOf('%') < p.length() - 1
+              || p.indexOf('_') >= 0) {
+            throw new OrmException("Query " + name
+                + " can only use LIKE with a prefix pattern such as 'abc%'");
+          }
+        }
+        break;
+      }
+
+      case QueryParser.OR: {
+        final ColumnModel c = ((QueryParser.Column) node.getChild(0)
+            .getChild(0)).getField();
+        for (int i = 1; i < node.getChildCount(); i++) {
+          if (((QueryParser.Column) node.getChild(i).getChild(0)).getField()
+              != c) {
+            throw new OrmException("Query " + name
+                + " can only use OR between tests of one field");
+          }
+        }
+        break;
+      }
+
+      default:
+        for (int i = 0; i < node.getChildCount(); i++) {
+          checkConditions(node.getChild(i));
+        }
+        break;
+    }
+  }
+
+  private List<ColumnModel> assignmentsOf(final String[] set)
+      throws OrmException {
+    if (set.length == 0) {
+      return Collections.emptyList();
+    }
+    final List<ColumnModel> r = new ArrayList<>(set.length);
+    for (final String n : set) {
+      final ColumnModel c = model.getField(n);
+      if (c == null) {
+        throw new OrmException("Query " + name + " sets unknown field " + n);
+      }
+      if (c.isNested() || c.inPrimaryKey || c.isRowVersion()) {
+        throw new OrmException("Query " + name + " cannot set field " + n);
+      }
+      if (r.contains(c)) {
+        throw new OrmException("Query " + name + " sets field " + n
+            + " twice");
+      }
+      r.add(c);
+    }
+    return Collections.unmodifiableList(r);
   }
 
   public String getName() {
     return name;
   }
 
+  /** @return true if the query method returns a future of its results. */
+  public boolean isAsync() {
+    return async;
+  }
+
   public Tree getParseTree() {
     return parsedQuery;
   }
 
+  /** @return true if the query counts or tests for matches. */
+  public boolean isAggregate() {
+    return aggregate != null;
+  }
+
+  /** @return true if the query tests whether any row matches. */
+  public boolean isExists() {
+    return aggregate == Boolean.TYPE;
+  }
+
+  /**
+   * @return {@code int}, {@code long} or {@code boolean} for an aggregate
+   *         query; null if the query returns entities.
+   */
+  public Class<?> getAggregateType() {
+    return aggregate;
+  }
+
+  /**
+   * @return true if the query returns its matches grouped by the values of
+   *         the field it tests with {@code IN ?}.
+   */
+  public boolean isGrouped() {
+    return grouped;
+  }
+
+  /** @return the field a grouping query groups its matches by. */
+  public ColumnModel getGroupColumn() {
+    final List<ColumnModel> params = getParameters();
+    return params.get(getCollectionParameters().iterator().next());
+  }
+
+  /** @return true if the query deletes the rows it matches. */
+  public boolean isDelete() {
+    return delete;
+  }
+
+  /** @return true if the query sets fields of the rows it matches. */
+  public boolean isUpdate() {
+    return !assignments.isEmpty();
+  }
+
+  /**
+   * @return fields an update query sets, in the order their values precede
+   *         the query parameters; empty for other queries.
+   */
+  public List<ColumnModel> getAssignments() {
+    return assignments;
+  }
+
+  /** @return true if the query reads only some of the entity's fields. */
+  public boolean isProjection() {
+    return !projection.isEmpty();
+  }
+
+  /**
+   * @return fields read by a projection, including the primary key, in
+   *         relation order; empty if the query reads every field.
+   */
+  public List<ColumnModel> getProjection() {
+    return projection;
+  }
+
+  /** @return top-level fields the query's conditions and ordering use. */
+  public Set<ColumnModel> getReferencedFields() {
+    final Set<ColumnModel> r = new LinkedHashSet<>();
+    if (parsedQuery != null) {
+      findReferencedFields(r, parsedQuery);
+    }
+    return r;
+  }
+
+  private static void findReferencedFields(final Set<ColumnModel> r,
+      final Tree node) {
+    if (node instanceof QueryParser.Column) {
+      ColumnModel c = ((QueryParser.Column) node).getField();
+      while (c.getParent() != null) {
+        c = c.getParent();
+      }
+      r.add(c);
+    }
+    for (int i = 0; i < node.getChildCount(); i++) {
+      findReferencedFields(r, node.getChild(i));
+    }
+  }
+
   public List<ColumnModel> getParameters() {
     final ArrayList<ColumnModel> r = new ArrayList<>();
     if (parsedQuery != null) {
-      findParameters(r, parsedQuery);
+      findParameters(r, new ArrayList<Integer>(), parsedQuery);
+    }
+    return r;
+  }
+
+  /**
+   * @return positions in {@link #getParameters()} of the parameters tested
+   *         with {@code IN ?}, which are collections of the field's values.
+   */
+  public Set<Integer> getCollectionParameters() {
+    return parametersOf(QueryParser.IN);
+  }
+
+  /**
+   * @return positions in {@link #getParameters()} of the parameters tested
+   *         with {@code LIKE ?}, which are prefixes of the field's value.
+   */
+  public Set<Integer> getPrefixParameters() {
+    return parametersOf(QueryParser.LIKE);
+  }
+
+  private Set<Integer> parametersOf(final int op) {
+    final List<ColumnModel> params = new ArrayList<>();
+    final List<Integer> ops = new ArrayList<>();
+    if (parsedQuery != null) {
+      findParameters(params, ops, parsedQuery);
+    }
+    final Set<Integer> r = new HashSet<>();
+    for (int i = 0; i < ops.size(); i++) {
+      if (ops.get(i) == op) {
+        r.add(i);
+      }
     }
     return r;
   }
 
+  /**
+   * @return the column a {@code LIKE} on the field tests: the field, or the
+   *         only column of a nested field.
+   */
+  public static ColumnModel likeColumn(final ColumnModel f) {
+    return f.isNested() ? f.getAllLeafColumns().iterator().next() : f;
+  }
+
+  /** @return true if a parameter is a collection tested with {@code IN ?}. */
+  public boolean hasCollectionParameters() {
+    return !getCollectionParameters().isEmpty();
+  }
+
   public static class OrderBy {
     public final ColumnModel column;
     public final boolean descending;
@@ -116,35 +461,50 @@ public class QueryModel {
     return r;
   }
 
-  private void findParameters(final List<ColumnModel> r, final Tree node) {
+  private void findParameters(final List<ColumnModel> r,
+      final List<Integer> ops, final Tree node) {
     switch (node.getType()) {
       case QueryParser.WHERE:
-        extractParameters(r, node);
+        extractParameters(r, ops, node);
         break;
 
       default:
         for (int i = 0; i < node.getChildCount(); i++) {
-          findParameters(r, node.getChild(i));
+          findParameters(r, ops, node.getChild(i));
         }
         break;
     }
   }
 
-  private void extractParameters(final List<ColumnModel> r, final Tree node) {
+  private void extractParameters(final List<ColumnModel> r,
+      final List<Integer> ops, final Tree node) {
     switch (node.getType()) {
+      case QueryParser.IN:
+        ops.add(node.getType());
+        r.add(((QueryParser.Column) node.getChild(0)).getField());
+        break;
+
+      case QueryParser.LIKE:
+        if (node.getChild(1).getType() == QueryParser.PLACEHOLDER) {
+          ops.add(node.getType());
+          r.add(likeColumn(((QueryParser.Column) node.getChild(0)).getField()));
+        }
+        break;
+
       case QueryParser.LT:
       case QueryParser.LE:
       case QueryParser.GT:
       case QueryParser.GE:
       case QueryParser.EQ:
         if (node.getChild(1).getType() == QueryParser.PLACEHOLDER) {
+          ops.add(node.getType());
           r.add(((QueryParser.Column) node.getChild(0)).getField());
         }
         break;
 
       default:
         for (int i = 0; i < node.getChildCount(); i++) {
-          extractParameters(r, node.getChild(i));
+          extractParameters(r, ops, node.getChild(i));
         }
         break;
     }
@@ -228,9 +588,75 @@ public class QueryModel {
 
   public String getSelectSql(final SqlDialect dialect, final String tableAlias) {
     final StringBuilder buf = new StringBuilder();
-    buf.append(model.getSelectSql(dialect, tableAlias));
+    if (isAggregate()) {
+      buf.append(isExists() ? "SELECT 1" : "SELECT COUNT(*)");
+      buf.append(" FROM ");
+      buf.append(model.getRelationName());
+      buf.append(' ');
+      buf.append(tableAlias);
+    } else if (isProjection()) {
+      final List<ColumnModel> cols = new ArrayList<>();
+      for (final ColumnModel c : projection) {
+        if (c.isNested()) {
+          cols.addAll(c.getAllLeafColumns());
+        } else {
+          cols.add(c);
+        }
+      }
+      buf.append(model.getSelectSql(dialect, tableAlias, cols));
+    } else {
+      buf.append(model.getSelectSql(dialect, tableAlias));
+    }
+    formatQuery(buf, dialect, tableAlias, 1);
+    return buf.toString();
+  }
+
+  /**
+   * @return {@code DELETE} statement removing the rows matched by a query
+   *         with {@link #isDelete()}.
+   */
+  public String getDeleteSql(final SqlDialect dialect) {
+    final StringBuilder buf = new StringBuilder();
+    buf.append("DELETE FROM ");
+    buf.append(model.getRelationName());
+    formatQuery(buf, dialect, model.getRelationName(), 1);
+    return buf.toString();
+  }
+
+  /**
+   * @return {@code UPDATE} statement for a query with {@link #isUpdate()},
+   *         binding the assigned values before the query parameters.
+   */
+  public String getUpdateSql(final SqlDialect dialect) {
+    final StringBuilder buf = new StringBuilder();
+    buf.append("UPDATE ");
+    buf.append(model.getRelationName());
+    buf.append(" SET ");
+    int nth = 1;
+    for (final ColumnModel c : assignments) {
+      if (nth > 1) {
+        buf.append(',');
+      }
+      buf.append(c.getColumnName());
+      buf.append('=');
+      buf.append(dialect.getParameterPlaceHolder(nth++));
+    }
+    for (final ColumnModel c : model.getRowVersionColumns()) {
+      buf.append(',');
+      buf.append(c.getColumnName());
+      buf.append('=');
+      buf.append(c.getColumnName());
+      buf.append("+1");
+    }
+    formatQuery(buf, dialect, model.getRelationName(), nth);
+    return buf.toString();
+  }
+
+  private void formatQuery(final StringBuilder buf, final SqlDialect dialect,
+      final String tableAlias, final int firstParam) {
     if (parsedQuery != null) {
       final FormatInfo fmt = new FormatInfo(buf, dialect, tableAlias);
+      fmt.nthParam = firstParam;
       final Tree t = expand(parsedQuery);
       if (t.getType() == 0) {
         formatChilden(fmt, t);
@@ -238,7 +664,6 @@ public class QueryModel {
         format(fmt, t);
       }
     }
-    return buf.toString();
   }
 
   private void formatChilden(final FormatInfo fmt, final Tree node) {
@@ -263,6 +688,17 @@ public class QueryModel {
         }
         break;
 
+      case QueryParser.OR:
+        fmt.buf.append('(');
+        for (int i = 0; i < node.getChildCount(); i++) {
+          if (i > 0) {
+            fmt.buf.append(" OR ");
+          }
+          format(fmt, node.getChild(i));
+        }
+        fmt.buf.append(')');
+        break;
+
       case QueryParser.LT:
       case QueryParser.LE:
       case QueryParser.GT:
@@ -273,6 +709,24 @@ public class QueryModel {
         format(fmt, node.getChild(1));
         break;
 
+      case QueryParser.IN:
+        format(fmt, node.getChild(0));
+        fmt.buf.append(" IN ");
+        fmt.buf.append(LIST_PLACEHOLDER);
+        fmt.nthParam++;
+        break;
+
+      case QueryParser.LIKE:
+        format(fmt, node.getChild(0));
+        fmt.buf.append(" LIKE ");
+        format(fmt, node.getChild(1));
+        if (node.getChild(1).getType() == QueryParser.PLACEHOLDER) {
+          fmt.buf.append(" ESCAPE '");
+          fmt.buf.append(LIKE_ESCAPE);
+          fmt.buf.append('\'');
+        }
+        break;
+
       case QueryParser.ID: {
         final ColumnModel col = ((QueryParser.Column) node).getField();
         if (!col.isSqlPrimitive()) {
@@ -354,7 +808,25 @@ public class QueryModel {
 
   @Override
   public String toString() {
-    return "Query[" + name + " " + getParseTree().toStringTree() + "]";
+    final Tree t = getParseTree();
+    final StringBuilder fields = new StringBuilder();
+    for (final ColumnModel c : projection) {
+      fields.append(" ").append(c.getFieldName());
+    }
+    if (aggregate != null) {
+      fields.append(" returns ").append(aggregate.getName());
+    }
+    if (grouped) {
+      fields.append(" grouped");
+    }
+    if (delete) {
+      fields.append(" delete");
+    }
+    for (final ColumnModel c : assignments) {
+      fields.append(" set ").append(c.getFieldName());
+    }
+    return "Query[" + name + (async ? " async " : " ")
+        + (t != null ? t.toStringTree() : "") + fields + "]";
   }
 
   private Tree expand(final Tree node) {
@@ -380,6 +852,21 @@ public class QueryModel {
           }
           return join;
         }
+        break;
+      }
+
+      case QueryParser.IN:
+      case QueryParser.LIKE: {
+        final Column qpc = (QueryParser.Column) node.getChild(0);
+        final ColumnModel f = qpc.getField();
+        if (f.isNested()) {
+          final Tree in = node.dupNode();
+          in.addChild(new QueryParser.Column(qpc, f.getAllLeafColumns()
+              .iterator().next()));
+          in.addChild(node.getChild(1).dupNode());
+          return in;
+        }
+        break;
       }
     }
 
@@ -148,6 +148,17 @@ public abstract class RelationModel {
     return r;
   }
 
+  /** @return columns read only when first used, in column order. */
+  public Collection<ColumnModel> getLazyColumns() {
+    final ArrayList<ColumnModel> r = new ArrayList<>();
+    for (final ColumnModel c : getColumns()) {
+      if (c.isLazy()) {
+        r.add(c);
+      }
+    }
+    return r;
+  }
+
   public Collection<ColumnModel> getRowVersionFields() {
     final ArrayList<ColumnModel> r = new ArrayList<>();
     for (final ColumnModel c : fieldsByFieldName.values()) {
@@ -248,16 +259,32 @@ public abstract class RelationModel {
   }
 
   public String getSelectSql(final SqlDialect dialect, final String tableAlias) {
+    return getSelectSql(dialect, tableAlias, getColumns());
+  }
+
+  /**
+   * @param dialect dialect the statement is for.
+   * @param tableAlias alias of the relation in the statement.
+   * @param columns leaf columns to read, in the order they are fetched. Lazy
+   *        columns are left out.
+   * @return {@code SELECT} and {@code FROM} clauses reading the columns.
+   */
+  public String getSelectSql(final SqlDialect dialect, final String tableAlias,
+      final Collection<ColumnModel> columns) {
     final StringBuilder r = new StringBuilder();
     r.append("SELECT ");
-    for (final Iterator<ColumnModel> i = getColumns().iterator(); i.hasNext();) {
-      final ColumnModel col = i.next();
+    boolean first = true;
+    for (final ColumnModel col : columns) {
+      if (col.isLazy()) {
+        continue;
+      }
+      if (!first) {
+        r.append(",");
+      }
+      first = false;
       r.append(tableAlias);
       r.append('.');
       r.append(col.getColumnName());
-      if (i.hasNext()) {
-        r.append(",");
-      }
     }
     r.append(" FROM ");
     r.append(relationName);
@@ -266,6 +293,30 @@ public abstract class RelationModel {
     return r.toString();
   }
 
+  /**
+   * @param dialect dialect the statement is for.
+   * @return {@code FROM} and {@code WHERE} clauses selecting one row by its
+   *         primary key columns, in {@link #getPrimaryKeyColumns()} order.
+   */
+  public String getFromByKeySql(final SqlDialect dialect) {
+    final StringBuilder r = new StringBuilder();
+    r.append("FROM ");
+    r.append(relationName);
+    r.append(" WHERE ");
+    int nth = 1;
+    for (final Iterator<ColumnModel> i = getPrimaryKeyColumns().iterator(); i
+        .hasNext();) {
+      final ColumnModel col = i.next();
+      r.append(col.getColumnName());
+      r.append("=");
+      r.append(dialect.getParameterPlaceHolder(nth++));
+      if (i.hasNext()) {
+        r.append(" AND ");
+      }
+    }
+    return r.toString();
+  }
+
   public String getInsertOneSql(final SqlDialect dialect) {
     final StringBuilder r = new StringBuilder();
     r.append("INSERT INTO ");
@@ -299,9 +350,21 @@ public abstract class RelationModel {
     List<ColumnModel> cols;
     int nth = 1;
 
+    // Lazy columns are written by getUpdateLazySql, and only once loaded.
     cols = new ArrayList<>();
-    cols.addAll(getDependentColumns());
+    for (final ColumnModel col : getDependentColumns()) {
+      if (!col.isLazy()) {
+        cols.add(col);
+      }
+    }
     cols.addAll(getRowVersionColumns());
+    if (cols.isEmpty()) {
+      final String pk =
+          getPrimaryKeyColumns().iterator().next().getColumnName();
+      r.append(pk);
+      r.append("=");
+      r.append(pk);
+    }
     for (final Iterator<ColumnModel> i = cols.iterator(); i.hasNext();) {
       final ColumnModel col = i.next();
       r.append(col.getColumnName());
@@ -328,6 +391,59 @@ public abstract class RelationModel {
     return r.toString();
   }
 
+  /**
+   * Get a statement that inserts one row, or replaces the row with the same
+   * primary key if one already exists.
+   * <p>
+   * Parameters are bound in the same order as {@link #getInsertOneSql}.
+   *
+   * @param dialect dialect to generate the statement for.
+   * @return the statement; null if the dialect has no native upsert, the
+   *         relation has a row version that must be checked on update, or
+   *         it has lazy columns that must not be overwritten unless loaded.
+   */
+  public String getUpsertOneSql(final SqlDialect dialect) {
+    if (getPrimaryKey() == null || !getRowVersionColumns().isEmpty()
+        || !getLazyColumns().isEmpty()) {
+      return null;
+    }
+    return dialect.getUpsertOneSql(this);
+  }
+
+  /**
+   * Get a statement that sets one lazy column of a row.
+   * <p>
+   * The value is the first parameter, followed by the primary key columns in
+   * {@link #getPrimaryKeyColumns()} order.
+   *
+   * @param dialect dialect to generate the statement for.
+   * @param col the lazy column.
+   * @return the UPDATE statement.
+   */
+  public String getUpdateLazySql(final SqlDialect dialect,
+      final ColumnModel col) {
+    final StringBuilder r = new StringBuilder();
+    r.append("UPDATE ");
+    r.append(relationName);
+    r.append(" SET ");
+    r.append(col.getColumnName());
+    r.append("=");
+    int nth = 1;
+    r.append(dialect.getParameterPlaceHolder(nth++));
+    r.append(" WHERE ");
+    for (final Iterator<ColumnModel> i = getPrimaryKeyColumns().iterator(); i
+        .hasNext();) {
+      final ColumnModel c = i.next();
+      r.append(c.getColumnName());
+      r.append("=");
+      r.append(dialect.getParameterPlaceHolder(nth++));
+      if (i.hasNext()) {
+        r.append(" AND ");
+      }
+    }
+    return r.toString();
+  }
+
   public String getDeleteOneSql(final SqlDialect dialect) {
     final StringBuilder r = new StringBuilder();
     r.append("DELETE FROM ");
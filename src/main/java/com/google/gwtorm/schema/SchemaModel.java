@@ -17,8 +17,11 @@ package com.google.gwtorm.schema;
 import com.google.gwtorm.schema.sql.SqlDialect;
 import com.google.gwtorm.server.OrmException;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
@@ -62,6 +65,58 @@ public abstract class SchemaModel {
     return relations.values();
   }
 
+  /**
+   * List the relations so each follows the relations it references.
+   * <p>
+   * A relation references another when one of its columns has the type of the
+   * other relation's primary key. Relations in a reference cycle are listed in
+   * an arbitrary order of the cycle.
+   */
+  public List<RelationModel> getRelationsInReferenceOrder() {
+    final Map<String, RelationModel> byKeyType = new HashMap<>();
+    for (final RelationModel r : getRelations()) {
+      if (r.getPrimaryKey() == null) {
+        // Nothing can reference a relation without a primary key.
+        continue;
+      }
+      final String keyType = r.getPrimaryKey().getField().getNestedClassName();
+      if (keyType != null) {
+        byKeyType.put(keyType, r);
+      }
+    }
+
+    final List<RelationModel> order = new ArrayList<>(relations.size());
+    final Set<RelationModel> seen = new HashSet<>();
+    for (final RelationModel r : getRelations()) {
+      addAfterReferenced(r, byKeyType, seen, order);
+    }
+    return order;
+  }
+
+  private static void addAfterReferenced(final RelationModel r,
+      final Map<String, RelationModel> byKeyType,
+      final Set<RelationModel> seen, final List<RelationModel> order) {
+    if (!seen.add(r)) {
+      return;
+    }
+    for (final ColumnModel c : r.getFields()) {
+      addReferenced(r, c, byKeyType, seen, order);
+    }
+    order.add(r);
+  }
+
+  private static void addReferenced(final RelationModel r, final ColumnModel c,
+      final Map<String, RelationModel> byKeyType,
+      final Set<RelationModel> seen, final List<RelationModel> order) {
+    final RelationModel p = byKeyType.get(c.getNestedClassName());
+    if (p != null && p != r) {
+      addAfterReferenced(p, byKeyType, seen, order);
+    }
+    for (final ColumnModel n : c.getNestedColumns()) {
+      addReferenced(r, n, byKeyType, seen, order);
+    }
+  }
+
   public Collection<SequenceModel> getSequences() {
     return sequences.values();
   }
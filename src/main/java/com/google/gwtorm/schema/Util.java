@@ -14,14 +14,109 @@
 
 package com.google.gwtorm.schema;
 
+import com.google.common.base.Charsets;
+import com.google.common.collect.Ordering;
+import com.google.common.hash.Hashing;
+import com.google.gwtorm.client.Column;
+import com.google.gwtorm.server.LazyBytes;
+import com.google.gwtorm.server.LazyString;
+
+import java.util.List;
+
 
 public class Util {
+  /**
+   * Version of the generated code layout.
+   * <p>
+   * Mixed into every {@link #createStableName(String)} so classes generated by
+   * an older release are never picked up after the generators change.
+   */
+  private static final int CODEGEN_VERSION = 19;
+
   private static int nameCounter;
 
   public static synchronized String createRandomName() {
     return "GwtOrm$$" + nameCounter++;
   }
 
+  /**
+   * Create a class name suffix derived only from the supplied description.
+   * <p>
+   * Generators use this instead of {@link #createRandomName()} so the same
+   * model always produces the same class name, allowing classes emitted at
+   * build time to be discovered and reused at runtime.
+   *
+   * @param seed description of everything that affects the generated code.
+   * @return a name suffix, stable across JVMs for the same seed.
+   */
+  public static String createStableName(final String seed) {
+    final String in = CODEGEN_VERSION + "\n" + seed;
+    final String hash =
+        Hashing.sha1().hashString(in, Charsets.UTF_8).toString();
+    return "GwtOrm$$" + hash.substring(0, 16);
+  }
+
+  /**
+   * Describe a relation's columns and queries for {@link #createStableName}.
+   * <p>
+   * Queries are sorted by name, as the JVM may list a relation's methods in
+   * any order.
+   *
+   * @param rel the relation to describe.
+   * @return text that changes whenever the relation's generated code would.
+   */
+  public static String describe(final RelationModel rel) {
+    final StringBuilder r = new StringBuilder();
+    r.append(rel).append('\n');
+    for (final ColumnModel c : rel.getColumns()) {
+      describe(r, c);
+    }
+    if (rel.getPrimaryKey() != null) {
+      r.append("key:").append(rel.getPrimaryKey().getName()).append('\n');
+    }
+    final List<QueryModel> queries = new Ordering<QueryModel>() {
+      @Override
+      public int compare(final QueryModel a, final QueryModel b) {
+        return a.getName().compareTo(b.getName());
+      }
+    }.sortedCopy(rel.getQueries());
+    for (final QueryModel q : queries) {
+      r.append(q).append('\n');
+    }
+    return r.toString();
+  }
+
+  private static void describe(final StringBuilder r, final ColumnModel c) {
+    r.append(describe(c)).append('\n');
+    if (c.isNested()) {
+      for (final ColumnModel n : c.getNestedColumns()) {
+        describe(r, n);
+      }
+    }
+  }
+
+  /**
+   * Describe one column, without its nested columns, for
+   * {@link #createStableName}.
+   * <p>
+   * The {@link Column} attributes are listed one by one, as the text of an
+   * annotation differs between JVMs.
+   *
+   * @param c the column to describe.
+   * @return text that changes whenever code reading the column would.
+   */
+  public static String describe(final ColumnModel c) {
+    final Column a = c.getColumnAnnotation();
+    final StringBuilder r = new StringBuilder();
+    r.append(c);
+    r.append(" id=").append(a.id());
+    r.append(" name=").append(a.name());
+    r.append(" length=").append(a.length());
+    r.append(" notNull=").append(a.notNull());
+    r.append(" rowVersion=").append(c.isRowVersion());
+    return r.toString();
+  }
+
   public static String makeSqlFriendly(final String name) {
     final StringBuilder r = new StringBuilder(name.length() + 8);
     boolean lastWasCap = true;
@@ -89,6 +184,9 @@ public class Util {
     if (type == byte[].class) {
       return true;
     }
+    if (type == LazyString.class || type == LazyBytes.class) {
+      return true;
+    }
     return false;
   }
 
@@ -14,6 +14,7 @@
 
 package com.google.gwtorm.schema.java;
 
+import com.google.common.util.concurrent.CheckedFuture;
 import com.google.gwtorm.client.Column;
 import com.google.gwtorm.schema.QueryModel;
 import com.google.gwtorm.schema.RelationModel;
@@ -30,6 +31,7 @@ import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 class JavaRelationModel extends RelationModel {
   private final Method method;
@@ -76,30 +78,75 @@ class JavaRelationModel extends RelationModel {
   }
 
   private void initQueriesAndKeys() throws OrmException {
-    for (final Method m : accessType.getDeclaredMethods()) {
-      if (m.getAnnotation(PrimaryKey.class) != null) {
-        if (m.isBridge()) {
-          continue;
-        }
+    // Queries reading only some fields also read the primary key, so it
+    // must be known before any query is built.
+    final Method[] methods = accessType.getDeclaredMethods();
+    for (final Method m : methods) {
+      if (m.getAnnotation(PrimaryKey.class) != null && !m.isBridge()) {
         if (m.getReturnType() != entityType) {
           throw new OrmException("PrimaryKey " + m.getName() + " must return "
               + entityType.getName());
         }
         initPrimaryKey(m.getName(), m.getAnnotation(PrimaryKey.class));
+      }
+    }
+
+    for (final Method m : methods) {
+      if (m.getAnnotation(PrimaryKey.class) != null) {
+        continue;
+      }
+
+      if (m.getAnnotation(Query.class) != null
+          && m.getReturnType().isPrimitive()) {
+        addQuery(new QueryModel(this, m.getName(),
+            m.getAnnotation(Query.class), m.getReturnType()));
+
+      } else if (m.getAnnotation(Query.class) != null
+          && m.getReturnType() == Map.class) {
+        if (!isMapOfEntityLists(m.getGenericReturnType())) {
+          throw new OrmException("Query " + m.getName() + " must return"
+              + " Map<K, List<" + entityType.getName() + ">>");
+        }
+        addQuery(new QueryModel(this, m.getName(),
+            m.getAnnotation(Query.class), Map.class));
 
       } else if (m.getAnnotation(Query.class) != null) {
-        if (!ResultSet.class.isAssignableFrom(m.getReturnType())
-            || !(m.getGenericReturnType() instanceof ParameterizedType)
-            || ((ParameterizedType) m.getGenericReturnType())
-                .getActualTypeArguments()[0] != entityType) {
+        final boolean async = m.getReturnType() == CheckedFuture.class;
+        Type r = m.getGenericReturnType();
+        if (async && r instanceof ParameterizedType) {
+          r = ((ParameterizedType) r).getActualTypeArguments()[0];
+        }
+        if (!isResultSetOfEntity(r)) {
           throw new OrmException("Query " + m.getName() + " must return"
-              + " ResultSet<" + entityType.getName() + ">");
+              + " ResultSet<" + entityType.getName() + "> or CheckedFuture<"
+              + "ResultSet<" + entityType.getName() + ">, OrmException>");
         }
-        addQuery(new QueryModel(this, m.getName(), m.getAnnotation(Query.class)));
+        addQuery(new QueryModel(this, m.getName(),
+            m.getAnnotation(Query.class), async));
       }
     }
   }
 
+  private boolean isMapOfEntityLists(final Type t) {
+    if (!(t instanceof ParameterizedType)) {
+      return false;
+    }
+    final Type v = ((ParameterizedType) t).getActualTypeArguments()[1];
+    return v instanceof ParameterizedType
+        && ((ParameterizedType) v).getRawType() == List.class
+        && ((ParameterizedType) v).getActualTypeArguments()[0] == entityType;
+  }
+
+  private boolean isResultSetOfEntity(final Type t) {
+    if (!(t instanceof ParameterizedType)) {
+      return false;
+    }
+    final ParameterizedType p = (ParameterizedType) t;
+    return p.getRawType() instanceof Class
+        && ResultSet.class.isAssignableFrom((Class<?>) p.getRawType())
+        && p.getActualTypeArguments()[0] == entityType;
+  }
+
   @Override
   public String getAccessInterfaceName() {
     return accessType.getName();
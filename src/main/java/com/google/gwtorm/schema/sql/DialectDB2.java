@@ -15,6 +15,7 @@
 package com.google.gwtorm.schema.sql;
 
 import com.google.gwtorm.schema.ColumnModel;
+import com.google.gwtorm.schema.RelationModel;
 import com.google.gwtorm.server.OrmDuplicateKeyException;
 import com.google.gwtorm.server.OrmException;
 import com.google.gwtorm.server.StatementExecutor;
@@ -26,6 +27,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
 
 /** Dialect for DB2 */
@@ -150,4 +152,25 @@ public class DialectDB2 extends SqlDialect {
   public boolean isStatementDelimiterSupported() {
     return false;
   }
+
+  @Override
+  public String getUpsertOneSql(final RelationModel model) {
+    final StringBuilder r = new StringBuilder();
+    final StringBuilder names = new StringBuilder();
+    r.append("(VALUES(");
+    int nth = 1;
+    for (final Iterator<ColumnModel> i = model.getColumns().iterator(); i
+        .hasNext();) {
+      r.append(getParameterPlaceHolder(nth++));
+      names.append(i.next().getColumnName());
+      if (i.hasNext()) {
+        r.append(",");
+        names.append(",");
+      }
+    }
+    r.append(")) AS s(");
+    r.append(names);
+    r.append(")");
+    return getMergeOneSql(model, r.toString());
+  }
 }
@@ -15,6 +15,7 @@
 package com.google.gwtorm.schema.sql;
 
 import com.google.gwtorm.schema.ColumnModel;
+import com.google.gwtorm.schema.RelationModel;
 import com.google.gwtorm.server.OrmDuplicateKeyException;
 import com.google.gwtorm.server.OrmException;
 import com.google.gwtorm.server.StatementExecutor;
@@ -24,6 +25,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
 
 /** Dialect for <a href="http://www.h2database.com/">H2</a> */
@@ -110,4 +112,36 @@ public class DialectH2 extends SqlDialect {
     r.append(col.getColumnName());
     stmt.execute(r.toString());
   }
+
+  @Override
+  public String getUpsertOneSql(final RelationModel model) {
+    final StringBuilder r = new StringBuilder();
+    r.append("MERGE INTO ");
+    r.append(model.getRelationName());
+    r.append("(");
+    for (final Iterator<ColumnModel> i = model.getColumns().iterator(); i
+        .hasNext();) {
+      r.append(i.next().getColumnName());
+      if (i.hasNext()) {
+        r.append(",");
+      }
+    }
+    r.append(")KEY(");
+    for (final Iterator<ColumnModel> i =
+        model.getPrimaryKeyColumns().iterator(); i.hasNext();) {
+      r.append(i.next().getColumnName());
+      if (i.hasNext()) {
+        r.append(",");
+      }
+    }
+    r.append(")VALUES(");
+    for (int n = 1; n <= model.getColumns().size(); n++) {
+      if (n > 1) {
+        r.append(",");
+      }
+      r.append(getParameterPlaceHolder(n));
+    }
+    r.append(")");
+    return r.toString();
+  }
 }
@@ -16,6 +16,7 @@ package com.google.gwtorm.schema.sql;
 
 import com.google.gwtorm.client.Column;
 import com.google.gwtorm.schema.ColumnModel;
+import com.google.gwtorm.schema.RelationModel;
 import com.google.gwtorm.server.OrmDuplicateKeyException;
 import com.google.gwtorm.server.OrmException;
 import com.google.gwtorm.server.StatementExecutor;
@@ -202,4 +203,11 @@ public class DialectHANA extends SqlDialect {
   protected String getNextSequenceValueSql(String seqname) {
     return "SELECT " + seqname + ".nextval FROM dummy";
   }
+
+  @Override
+  public String getUpsertOneSql(final RelationModel model) {
+    final String insert = model.getInsertOneSql(this);
+    return "UPSERT" + insert.substring("INSERT INTO".length())
+        + " WITH PRIMARY KEY";
+  }
 }
@@ -116,4 +116,8 @@ public class DialectMaxDB extends SqlDialect {
     e.execute(r.toString());
   }
 
+  @Override
+  public String getForUpdateSql() {
+    return null;
+  }
 }
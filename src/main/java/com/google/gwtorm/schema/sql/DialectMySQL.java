@@ -16,6 +16,7 @@ package com.google.gwtorm.schema.sql;
 
 import com.google.gwtorm.client.Column;
 import com.google.gwtorm.schema.ColumnModel;
+import com.google.gwtorm.schema.RelationModel;
 import com.google.gwtorm.schema.SequenceModel;
 import com.google.gwtorm.server.OrmDuplicateKeyException;
 import com.google.gwtorm.server.OrmException;
@@ -29,6 +30,7 @@ import java.sql.Statement;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
 
 /** Dialect for <a href="http://www.mysql.com/">MySQL</a> */
@@ -232,4 +234,37 @@ public class DialectMySQL extends SqlDialect {
         return super.convertError(op, entity, err);
     }
   }
+
+  @Override
+  public boolean isTransientError(final SQLException err) {
+    switch (err.getErrorCode()) {
+      case 1205: // ER_LOCK_WAIT_TIMEOUT
+      case 1213: // ER_LOCK_DEADLOCK
+        return true;
+      default:
+        return super.isTransientError(err);
+    }
+  }
+
+  @Override
+  public String getUpsertOneSql(final RelationModel model) {
+    final StringBuilder r = new StringBuilder();
+    r.append(model.getInsertOneSql(this));
+    r.append(" ON DUPLICATE KEY UPDATE ");
+    if (model.getDependentColumns().isEmpty()) {
+      final String c =
+          model.getPrimaryKeyColumns().iterator().next().getColumnName();
+      r.append(c + "=" + c);
+    } else {
+      for (final Iterator<ColumnModel> i =
+          model.getDependentColumns().iterator(); i.hasNext();) {
+        final String c = i.next().getColumnName();
+        r.append(c + "=VALUES(" + c + ")");
+        if (i.hasNext()) {
+          r.append(",");
+        }
+      }
+    }
+    return r.toString();
+  }
 }
@@ -15,6 +15,7 @@
 package com.google.gwtorm.schema.sql;
 
 import com.google.gwtorm.schema.ColumnModel;
+import com.google.gwtorm.schema.RelationModel;
 import com.google.gwtorm.server.OrmDuplicateKeyException;
 import com.google.gwtorm.server.OrmException;
 import com.google.gwtorm.server.StatementExecutor;
@@ -26,6 +27,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
 
 public class DialectOracle extends SqlDialect {
@@ -159,4 +161,33 @@ public class DialectOracle extends SqlDialect {
         return super.convertError(op, entity, err);
     }
   }
+
+  @Override
+  public boolean isTransientError(final SQLException err) {
+    switch (err.getErrorCode()) {
+      case 60: // ORA-00060: deadlock detected
+      case 8177: // ORA-08177: can't serialize access for this transaction
+        return true;
+      default:
+        return super.isTransientError(err);
+    }
+  }
+
+  @Override
+  public String getUpsertOneSql(final RelationModel model) {
+    final StringBuilder r = new StringBuilder();
+    r.append("(SELECT ");
+    int nth = 1;
+    for (final Iterator<ColumnModel> i = model.getColumns().iterator(); i
+        .hasNext();) {
+      r.append(getParameterPlaceHolder(nth++));
+      r.append(" ");
+      r.append(i.next().getColumnName());
+      if (i.hasNext()) {
+        r.append(",");
+      }
+    }
+    r.append(" FROM DUAL) s");
+    return getMergeOneSql(model, r.toString());
+  }
 }
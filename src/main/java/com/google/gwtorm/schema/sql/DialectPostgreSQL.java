@@ -26,6 +26,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
 
 /** Dialect for <a href="http://www.postgresql.org/>PostgreSQL</a> */
@@ -47,6 +48,9 @@ public class DialectPostgreSQL extends SqlDialect {
     if (major < 8 || (major == 8 && minor < 2)) {
       return new Pre82();
     }
+    if (major < 9 || (major == 9 && minor < 5)) {
+      return new Pre95();
+    }
     return this;
   }
 
@@ -110,7 +114,44 @@ public class DialectPostgreSQL extends SqlDialect {
     }
   }
 
-  private static class Pre82 extends DialectPostgreSQL {
+  @Override
+  public String getUpsertOneSql(final RelationModel model) {
+    final StringBuilder r = new StringBuilder();
+    r.append(model.getInsertOneSql(this));
+    r.append(" ON CONFLICT(");
+    for (final Iterator<ColumnModel> i =
+        model.getPrimaryKeyColumns().iterator(); i.hasNext();) {
+      r.append(i.next().getColumnName());
+      if (i.hasNext()) {
+        r.append(",");
+      }
+    }
+    r.append(")");
+    if (model.getDependentColumns().isEmpty()) {
+      r.append(" DO NOTHING");
+    } else {
+      r.append(" DO UPDATE SET ");
+      for (final Iterator<ColumnModel> i =
+          model.getDependentColumns().iterator(); i.hasNext();) {
+        final String c = i.next().getColumnName();
+        r.append(c + "=EXCLUDED." + c);
+        if (i.hasNext()) {
+          r.append(",");
+        }
+      }
+    }
+    return r.toString();
+  }
+
+  /** Servers before 9.5 have no {@code ON CONFLICT} clause. */
+  private static class Pre95 extends DialectPostgreSQL {
+    @Override
+    public String getUpsertOneSql(final RelationModel model) {
+      return null;
+    }
+  }
+
+  private static class Pre82 extends Pre95 {
     @Override
     public void appendCreateTableStorage(final StringBuilder sqlBuffer,
         final RelationModel relationModel) {
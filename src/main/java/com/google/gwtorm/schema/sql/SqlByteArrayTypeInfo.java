@@ -21,13 +21,13 @@ import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.Arrays;
 
 public class SqlByteArrayTypeInfo extends SqlTypeInfo {
   @Override
@@ -83,13 +83,26 @@ public class SqlByteArrayTypeInfo extends SqlTypeInfo {
     }
     try {
       try {
-        final ByteArrayOutputStream w = new ByteArrayOutputStream();
-        final byte[] buf = new byte[1024];
-        int n;
-        while ((n = r.read(buf)) > 0) {
-          w.write(buf, 0, n);
+        // Drivers that have already fetched the value report its length,
+        // letting a single array hold it with no further copies.
+        byte[] buf = new byte[Math.max(r.available(), 256)];
+        int n = 0;
+        for (;;) {
+          final int cnt = r.read(buf, n, buf.length - n);
+          if (cnt < 0) {
+            break;
+          }
+          n += cnt;
+          if (n == buf.length) {
+            final int b = r.read();
+            if (b < 0) {
+              return buf;
+            }
+            buf = Arrays.copyOf(buf, n << 1);
+            buf[n++] = (byte) b;
+          }
         }
-        return w.toByteArray();
+        return n == buf.length ? buf : Arrays.copyOf(buf, n);
       } finally {
         r.close();
       }
@@ -17,6 +17,8 @@ package com.google.gwtorm.schema.sql;
 import com.google.gwtorm.schema.ColumnModel;
 import com.google.gwtorm.schema.RelationModel;
 import com.google.gwtorm.schema.SequenceModel;
+import com.google.gwtorm.server.LazyBytes;
+import com.google.gwtorm.server.LazyString;
 import com.google.gwtorm.server.OrmException;
 import com.google.gwtorm.server.Sequence;
 import com.google.gwtorm.server.StatementExecutor;
@@ -30,6 +32,7 @@ import java.sql.Statement;
 import java.sql.Types;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -79,6 +82,8 @@ public abstract class SqlDialect {
     types.put(java.sql.Date.class, new SqlDateTypeInfo());
     types.put(java.sql.Timestamp.class, new SqlTimestampTypeInfo());
     types.put(byte[].class, new SqlByteArrayTypeInfo());
+    types.put(LazyString.class, new SqlLazyStringTypeInfo());
+    types.put(LazyBytes.class, new SqlLazyBytesTypeInfo());
 
     typeNames = new HashMap<>();
     typeNames.put(Types.VARBINARY, "BLOB");
@@ -145,6 +150,20 @@ public abstract class SqlDialect {
     return 0;
   }
 
+  /**
+   * Can a statement that failed with this error succeed if run again?
+   * <p>
+   * True for deadlocks and serialization failures, after which the database
+   * has rolled back the whole transaction.
+   *
+   * @param err the driver specific exception.
+   * @return true if the failure is transient.
+   */
+  public boolean isTransientError(final SQLException err) {
+    final String state = getSQLState(err);
+    return "40001".equals(state) || "40P01".equals(state);
+  }
+
   /**
    * Convert a driver specific exception into an {@link OrmException}.
    *
@@ -458,6 +477,87 @@ public abstract class SqlDialect {
     return totalUpdateCount;
   }
 
+  /**
+   * Get the clause appended to a single table SELECT to lock the rows it
+   * returns until the end of the transaction.
+   *
+   * @return the clause, with a leading space; null if rows cannot be locked.
+   */
+  public String getForUpdateSql() {
+    return " FOR UPDATE";
+  }
+
+  /**
+   * Get a single statement inserting one row, or replacing the existing row
+   * with the same primary key.
+   * <p>
+   * Parameters must be bound in the same order as
+   * {@link RelationModel#getInsertOneSql(SqlDialect)}, and the statement may
+   * report any update count for a row it touched.
+   *
+   * @param model relation with a primary key and no row version.
+   * @return the statement; null if the database has no native upsert.
+   */
+  public String getUpsertOneSql(final RelationModel model) {
+    return null;
+  }
+
+  /**
+   * Build a standard SQL MERGE statement for {@link #getUpsertOneSql}.
+   *
+   * @param model relation to merge one row into.
+   * @param source table expression producing the parameters as a single row
+   *        with one column per entry of {@link RelationModel#getColumns()},
+   *        named as those columns, under the correlation name {@code s}.
+   * @return the MERGE statement.
+   */
+  protected String getMergeOneSql(final RelationModel model,
+      final String source) {
+    final String t = model.getRelationName();
+    final StringBuilder r = new StringBuilder();
+    r.append("MERGE INTO ");
+    r.append(t);
+    r.append(" USING ");
+    r.append(source);
+    r.append(" ON (");
+    for (final Iterator<ColumnModel> i =
+        model.getPrimaryKeyColumns().iterator(); i.hasNext();) {
+      final String c = i.next().getColumnName();
+      r.append(t + "." + c + "=s." + c);
+      if (i.hasNext()) {
+        r.append(" AND ");
+      }
+    }
+    r.append(")");
+    if (!model.getDependentColumns().isEmpty()) {
+      r.append(" WHEN MATCHED THEN UPDATE SET ");
+      for (final Iterator<ColumnModel> i =
+          model.getDependentColumns().iterator(); i.hasNext();) {
+        final String c = i.next().getColumnName();
+        r.append(c + "=s." + c);
+        if (i.hasNext()) {
+          r.append(",");
+        }
+      }
+    }
+    r.append(" WHEN NOT MATCHED THEN INSERT(");
+    final StringBuilder values = new StringBuilder();
+    for (final Iterator<ColumnModel> i = model.getColumns().iterator(); i
+        .hasNext();) {
+      final String c = i.next().getColumnName();
+      r.append(c);
+      values.append("s." + c);
+      if (i.hasNext()) {
+        r.append(",");
+        values.append(",");
+      }
+    }
+    r.append(")VALUES(");
+    r.append(values);
+    r.append(")");
+    return r.toString();
+  }
+
   /**
    * Some databases don't support delimiters (semicolons) in scripts.
    *
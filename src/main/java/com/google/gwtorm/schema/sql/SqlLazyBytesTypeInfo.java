@@ -0,0 +1,84 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gwtorm.schema.sql;
+
+import com.google.gwtorm.jdbc.JdbcAccess;
+import com.google.gwtorm.schema.ColumnModel;
+import com.google.gwtorm.server.CodeGenSupport;
+import com.google.gwtorm.server.LazyBytes;
+import com.google.gwtorm.server.OrmException;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Stores {@link LazyBytes} like byte[], but leaves the column out of entity
+ * fetches and reads it by primary key on first use.
+ */
+public class SqlLazyBytesTypeInfo extends SqlTypeInfo {
+  @Override
+  protected String getJavaSqlTypeAlias() {
+    return "BinaryStream";
+  }
+
+  @Override
+  protected int getSqlTypeConstant() {
+    return Types.VARBINARY;
+  }
+
+  @Override
+  public String getSqlType(final ColumnModel col, final SqlDialect dialect) {
+    return dialect.getSqlTypeInfo(byte[].class).getSqlType(col, dialect);
+  }
+
+  @Override
+  public void generatePreparedStatementSet(final CodeGenSupport cgs) {
+    cgs.pushSqlHandle();
+    cgs.pushColumnIndex();
+    cgs.pushFieldValue();
+    cgs.mv.visitMethodInsn(Opcodes.INVOKESTATIC, Type
+        .getInternalName(SqlLazyBytesTypeInfo.class), "toPreparedStatement",
+        Type.getMethodDescriptor(Type.VOID_TYPE, new Type[] {
+            Type.getType(PreparedStatement.class), Type.INT_TYPE,
+            Type.getType(LazyBytes.class)}));
+  }
+
+  @Override
+  public void generateResultSetGet(final CodeGenSupport cgs) {
+    cgs.fieldSetBegin();
+    cgs.mv.visitVarInsn(Opcodes.ALOAD, 0); // the JdbcAccess being generated
+    cgs.mv.visitLdcInsn(cgs.getFieldReference().getColumnName());
+    cgs.pushEntity();
+    cgs.mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type
+        .getInternalName(JdbcAccess.class), "lazyBytes", Type
+        .getMethodDescriptor(Type.getType(LazyBytes.class), new Type[] {
+            Type.getType(String.class), Type.getType(Object.class)}));
+    cgs.fieldSetEnd();
+  }
+
+  public static void toPreparedStatement(final PreparedStatement ps,
+      final int col, final LazyBytes v) throws SQLException {
+    try {
+      SqlByteArrayTypeInfo.toPreparedStatement(ps, col, v != null ? v.get() : null);
+    } catch (OrmException e) {
+      throw new SQLException("Unable to read lazy column " + col, e);
+    }
+  }
+}
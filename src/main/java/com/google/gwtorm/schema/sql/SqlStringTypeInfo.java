@@ -24,11 +24,11 @@ import org.objectweb.asm.Type;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
-import java.io.StringWriter;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.Arrays;
 
 public class SqlStringTypeInfo extends SqlTypeInfo {
   @Override
@@ -102,13 +102,16 @@ public class SqlStringTypeInfo extends SqlTypeInfo {
     }
     try {
       try {
-        final StringWriter w = new StringWriter();
-        final char[] buf = new char[1024];
-        int n;
-        while ((n = r.read(buf)) > 0) {
-          w.write(buf, 0, n);
+        char[] buf = new char[4096];
+        int n = 0;
+        int cnt;
+        while ((cnt = r.read(buf, n, buf.length - n)) >= 0) {
+          n += cnt;
+          if (n == buf.length) {
+            buf = Arrays.copyOf(buf, n << 1);
+          }
         }
-        return w.toString();
+        return new String(buf, 0, n);
       } finally {
         r.close();
       }
@@ -16,33 +16,274 @@ package com.google.gwtorm.server;
 
 import com.google.common.util.concurrent.CheckedFuture;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.gwtorm.client.Key;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 public abstract class AbstractAccess<E, K extends Key<?>>
     implements Access<E, K> {
   private static final int MAX_TRIES = 10;
 
+  private final AbstractSchema schema;
+  private final OrmMetrics metrics;
+  private Map<K, SettableFuture<E>> pendingGets;
+
+  protected AbstractAccess() {
+    this(null);
+  }
+
+  protected AbstractAccess(final AbstractSchema s) {
+    schema = s;
+    final OrmMetrics m = s != null ? s.getMetrics() : null;
+    metrics = m != null ? m : OrmMetrics.DISABLED;
+  }
+
   @Override
   public void beginTransaction(K key) throws OrmException {
     // Do nothing by default.
   }
 
+  /**
+   * Lookup a single entity asynchronously.
+   * <p>
+   * If the database has an executor, lookups requested before the executor
+   * gets to them are combined into a single {@link #get(Iterable)} call, so
+   * fanning out many {@code getAsync} calls costs one round trip per relation.
+   * Without an executor the lookup is performed immediately.
+   */
   @Override
   public CheckedFuture<E, OrmException> getAsync(K key) {
+    final E known = fromIdentityMap(key);
+    if (known != null) {
+      return Futures.immediateCheckedFuture(known);
+    }
+    if (schema == null || schema.getExecutor() == null) {
+      try {
+        return Futures.immediateCheckedFuture(get(key));
+      } catch (OrmException e) {
+        return Futures.immediateFailedCheckedFuture(e);
+      }
+    }
+
+    final SettableFuture<E> f;
+    final boolean schedule;
+    synchronized (this) {
+      schedule = pendingGets == null;
+      if (schedule) {
+        pendingGets = new LinkedHashMap<>();
+      }
+      SettableFuture<E> p = pendingGets.get(key);
+      if (p == null) {
+        p = SettableFuture.create();
+        pendingGets.put(key, p);
+      }
+      f = p;
+    }
+
+    if (schedule) {
+      final CheckedFuture<Void, OrmException> flush =
+          schema.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+              flushPendingGets();
+              return null;
+            }
+          });
+      if (flush.isDone()) {
+        try {
+          flush.checkedGet();
+        } catch (OrmException e) {
+          failPendingGets(e);
+        }
+      }
+    }
+    return Futures.makeChecked(f, AbstractSchema.MAPPER);
+  }
+
+  private void flushPendingGets() {
+    final Map<K, SettableFuture<E>> batch;
+    synchronized (this) {
+      batch = pendingGets;
+      pendingGets = null;
+    }
+    if (batch == null) {
+      return;
+    }
+
     try {
-      return Futures.immediateCheckedFuture(get(key));
-    } catch (OrmException e) {
-      return Futures.immediateFailedCheckedFuture(e);
+      final Map<K, E> found = toMap(get(batch.keySet()));
+      for (final Map.Entry<K, SettableFuture<E>> e : batch.entrySet()) {
+        e.getValue().set(found.get(e.getKey()));
+      }
+    } catch (OrmException | RuntimeException err) {
+      for (final SettableFuture<E> f : batch.values()) {
+        f.setException(err);
+      }
     }
   }
 
+  private void failPendingGets(final OrmException err) {
+    final Map<K, SettableFuture<E>> batch;
+    synchronized (this) {
+      batch = pendingGets;
+      pendingGets = null;
+    }
+    if (batch != null) {
+      for (final SettableFuture<E> f : batch.values()) {
+        f.setException(err);
+      }
+    }
+  }
+
+  /**
+   * Run a generated query method asynchronously.
+   * <p>
+   * Used by generated implementations of {@code @Query} methods declared to
+   * return {@code CheckedFuture<ResultSet<E>, OrmException>}. The results are
+   * read completely before the future completes, so the caller can iterate
+   * them while the schema runs other work.
+   *
+   * @param query index of the query, passed to
+   *        {@link #runAsyncQuery(int, Object[])}.
+   * @param args arguments of the query, with primitives boxed.
+   * @return future for the query results.
+   */
+  protected CheckedFuture<ResultSet<E>, OrmException> queryAsync(
+      final int query, final Object[] args) {
+    final Callable<ResultSet<E>> task = new Callable<ResultSet<E>>() {
+      @Override
+      public ResultSet<E> call() throws OrmException {
+        return new ListResultSet<>(runAsyncQuery(query, args).toList());
+      }
+    };
+    if (schema == null) {
+      try {
+        return Futures.immediateCheckedFuture(task.call());
+      } catch (Exception e) {
+        return Futures.immediateFailedCheckedFuture(
+            AbstractSchema.MAPPER.apply(e));
+      }
+    }
+    return schema.submit(task);
+  }
+
+  /**
+   * Run the synchronous twin of an asynchronous query method.
+   * <p>
+   * Generated implementations switch on {@code query} to call the twin
+   * directly.
+   *
+   * @param query index of the query, as passed to
+   *        {@link #queryAsync(int, Object[])}.
+   * @param args arguments of the query, with primitives boxed.
+   * @return the query results.
+   * @throws OrmException the query failed.
+   */
+  protected ResultSet<E> runAsyncQuery(final int query, final Object[] args)
+      throws OrmException {
+    throw new IllegalStateException("No asynchronous query " + query + " in "
+        + getClass().getName());
+  }
+
+  /**
+   * Create the result of a query method grouping its matches by a field.
+   * <p>
+   * Every requested value maps to a list, in the order the values were
+   * requested, so values nothing matched still map to an empty list.
+   *
+   * @param values the field values the query matched.
+   * @return an empty list for each distinct value.
+   */
+  protected static <G, T> Map<G, List<T>> newGroups(final Iterable<G> values) {
+    final Map<G, List<T>> r = new LinkedHashMap<>();
+    for (final G v : values) {
+      if (!r.containsKey(v)) {
+        r.put(v, new ArrayList<T>(4));
+      }
+    }
+    return r;
+  }
+
+  /**
+   * Add one match of a grouping query method to its group.
+   *
+   * @param groups groups created by {@link #newGroups(Iterable)}.
+   * @param value value of the grouped field in {@code obj}.
+   * @param obj the matching entity.
+   */
+  protected static <G, T> void addToGroup(final Map<G, List<T>> groups,
+      final G value, final T obj) {
+    List<T> group = groups.get(value);
+    if (group == null) {
+      group = new ArrayList<>(4);
+      groups.put(value, group);
+    }
+    group.add(obj);
+  }
+
+  /**
+   * Lookup multiple entities by primary key.
+   * <p>
+   * When the database coalesces gets, entities already loaded by this schema
+   * are served from its identity map and only the remaining keys are passed
+   * to {@link #fetch(Iterable)}.
+   */
   @Override
   public ResultSet<E> get(final Iterable<K> keys) throws OrmException {
+    final IdentityMap map = identityMap();
+    if (map == null) {
+      return fetch(keys);
+    }
+
+    final Set<K> unique = new LinkedHashSet<>();
+    for (final K key : keys) {
+      unique.add(key);
+    }
+
+    final ArrayList<E> r = new ArrayList<>(unique.size());
+    final List<K> missing = new ArrayList<>();
+    for (final K key : unique) {
+      @SuppressWarnings("unchecked")
+      final E e = (E) map.get(this, key);
+      if (e != null) {
+        r.add(e);
+      } else {
+        missing.add(key);
+      }
+    }
+    if (!missing.isEmpty()) {
+      final ResultSet<E> rs = fetch(missing);
+      try {
+        for (final E e : rs) {
+          map.put(this, primaryKey(e), e);
+          r.add(e);
+        }
+      } finally {
+        rs.close();
+      }
+    }
+    return new ListResultSet<>(r);
+  }
+
+  /**
+   * Read multiple entities from the data store.
+   * <p>
+   * The default implementation looks up each key with {@link #get(Key)}.
+   *
+   * @param keys primary keys to load.
+   * @return the entities found; order is unspecified.
+   * @throws OrmException the data store could not be read.
+   */
+  protected ResultSet<E> fetch(final Iterable<K> keys) throws OrmException {
     final ArrayList<E> r = new ArrayList<>();
     for (final K key : keys) {
       final E o = get(key);
@@ -53,6 +294,248 @@ public abstract class AbstractAccess<E, K extends Key<?>>
     return new ListResultSet<>(r);
   }
 
+  private IdentityMap identityMap() {
+    return schema != null ? schema.getIdentityMap() : null;
+  }
+
+  /**
+   * Find an entity in the schema's identity map.
+   * <p>
+   * Called by {@link #get(Key)} implementations before reading storage.
+   *
+   * @param key primary key of the entity.
+   * @return the entity loaded earlier by this schema; null if not known or if
+   *         gets are not being coalesced.
+   */
+  @SuppressWarnings("unchecked")
+  protected final E fromIdentityMap(final Object key) {
+    final IdentityMap map = identityMap();
+    return map != null && key != null ? (E) map.get(this, key) : null;
+  }
+
+  /**
+   * Remember an entity just read by {@link #get(Key)}.
+   *
+   * @param key primary key of the entity.
+   * @param entity the entity; may be null.
+   * @return {@code entity}.
+   */
+  protected final E toIdentityMap(final Object key, final E entity) {
+    if (entity != null) {
+      final IdentityMap map = identityMap();
+      if (map != null) {
+        map.put(this, key, entity);
+      }
+    }
+    return entity;
+  }
+
+  /**
+   * Forget entities about to be written.
+   * <p>
+   * Called by every method that modifies the data store.
+   *
+   * @param instances entities being written.
+   */
+  protected final void evict(final Iterable<E> instances) {
+    final IdentityMap map = identityMap();
+    if (map != null) {
+      for (final E e : instances) {
+        map.remove(this, primaryKey(e));
+      }
+    }
+  }
+
+  /**
+   * Forget an entity about to be written.
+   *
+   * @param key primary key of the entity.
+   */
+  protected final void evict(final K key) {
+    final IdentityMap map = identityMap();
+    if (map != null) {
+      map.remove(this, key);
+    }
+  }
+
+  /**
+   * Forget every entity of this relation.
+   * <p>
+   * Called before writing rows that are not known individually.
+   */
+  protected final void evictAll() {
+    final IdentityMap map = identityMap();
+    if (map != null) {
+      map.removeAll(this);
+    }
+  }
+
+  /**
+   * Hold inserts until the schema commits, if it has a unit of work.
+   *
+   * @param instances entities being inserted.
+   * @return true if the unit of work holds the writes; false if the caller
+   *         must write them now.
+   * @throws OrmException the writes conflict with writes already held.
+   */
+  protected final boolean deferInsert(final Iterable<E> instances)
+      throws OrmException {
+    return defer(UnitOfWork.Op.INSERT, instances);
+  }
+
+  /** Hold updates until the schema commits; see {@link #deferInsert}. */
+  protected final boolean deferUpdate(final Iterable<E> instances)
+      throws OrmException {
+    return defer(UnitOfWork.Op.UPDATE, instances);
+  }
+
+  /** Hold upserts until the schema commits; see {@link #deferInsert}. */
+  protected final boolean deferUpsert(final Iterable<E> instances)
+      throws OrmException {
+    return defer(UnitOfWork.Op.UPSERT, instances);
+  }
+
+  /** Hold deletes until the schema commits; see {@link #deferInsert}. */
+  protected final boolean deferDelete(final Iterable<E> instances)
+      throws OrmException {
+    return defer(UnitOfWork.Op.DELETE, instances);
+  }
+
+  /**
+   * Hold deletes by primary key until the schema commits; see
+   * {@link #deferInsert}. The rows are deleted with {@link #deleteKeys}.
+   */
+  protected final boolean deferDeleteKeys(final Iterable<K> keys)
+      throws OrmException {
+    final UnitOfWork uow = unitOfWork();
+    if (uow == null || uow.isFlushing()) {
+      return false;
+    }
+    final IdentityMap map = identityMap();
+    for (final K key : keys) {
+      uow.add(this, UnitOfWork.Op.DELETE, key, null);
+      if (map != null) {
+        map.remove(this, key);
+      }
+    }
+    return true;
+  }
+
+  private boolean defer(final UnitOfWork.Op op, final Iterable<E> instances)
+      throws OrmException {
+    final UnitOfWork uow = unitOfWork();
+    if (uow == null || uow.isFlushing()) {
+      return false;
+    }
+    final IdentityMap map = identityMap();
+    for (final E e : instances) {
+      final K key = primaryKey(e);
+      uow.add(this, op, key, e);
+      if (map == null) {
+        continue;
+      } else if (op == UnitOfWork.Op.DELETE) {
+        map.remove(this, key);
+      } else {
+        map.put(this, key, e);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Write the changes of this relation held by the schema's unit of work.
+   * <p>
+   * Called before reading the data store, so reads observe the writes made
+   * earlier through the same schema.
+   *
+   * @throws OrmException a held write failed.
+   */
+  protected final void flushWrites() throws OrmException {
+    final UnitOfWork uow = unitOfWork();
+    if (uow != null) {
+      uow.flush(this);
+    }
+  }
+
+  private UnitOfWork unitOfWork() {
+    if (schema == null) {
+      return null;
+    }
+    schema.checkNoPendingTasks();
+    return schema.getUnitOfWork();
+  }
+
+  @SuppressWarnings("unchecked")
+  final void write(final UnitOfWork.Op op, final List<?> rows)
+      throws OrmException {
+    final List<E> instances = (List<E>) rows;
+    switch (op) {
+      case DELETE:
+        delete(instances);
+        break;
+      case INSERT:
+        insert(instances);
+        break;
+      case UPDATE:
+        update(instances);
+        break;
+      case UPSERT:
+        upsert(instances);
+        break;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  final void writeDeleteKeys(final List<?> keys) throws OrmException {
+    deleteKeys((List<K>) keys);
+  }
+
+  /**
+   * Start measuring an operation.
+   *
+   * @return start time to pass to {@link #record}; 0 if metrics are disabled.
+   */
+  protected final long startTimer() {
+    return metrics.isEnabled() ? System.nanoTime() : 0;
+  }
+
+  /**
+   * Report a completed operation to the database's {@link OrmMetrics}.
+   *
+   * @param operation name of the operation, or of the query method.
+   * @param rowsReturned number of rows read from the data store.
+   * @param rowsBound number of rows bound to write statements.
+   * @param start value returned by {@link #startTimer()}.
+   * @param failed true if the operation threw an exception.
+   */
+  protected final void record(final String operation, final int rowsReturned,
+      final int rowsBound, final long start, final boolean failed) {
+    if (metrics.isEnabled()) {
+      metrics.record(getRelationName(), operation, rowsReturned, rowsBound,
+          System.nanoTime() - start, failed);
+    }
+  }
+
+  /**
+   * Report a query once its results have been read or closed.
+   * <p>
+   * The latency reported is the time until the first row of {@code rs} was
+   * fetched, excluding the time the caller then spends reading the rows.
+   *
+   * @param operation name of the query method.
+   * @param start value returned by {@link #startTimer()}.
+   * @param rs results of the query.
+   * @return result set to return to the caller in place of {@code rs}.
+   */
+  protected final ResultSet<E> record(final String operation,
+      final long start, final ResultSet<E> rs) {
+    if (!metrics.isEnabled()) {
+      return rs;
+    }
+    return new MeteredResultSet<>(rs, metrics, getRelationName(), operation,
+        start);
+  }
+
   @Override
   public Map<K, E> toMap(final Iterable<E> c) {
     try {
@@ -73,12 +556,14 @@ public abstract class AbstractAccess<E, K extends Key<?>>
       throws OrmException {
     for (int attempts = 1;; attempts++) {
       try {
+        evict(key);
         final E obj = get(key);
         if (obj == null) {
           return null;
         }
         final E res = update.update(obj);
         update(Collections.singleton(obj));
+        flushWrites();
         return res;
       } catch (OrmConcurrencyException err) {
         if (attempts < MAX_TRIES) {
@@ -14,17 +14,65 @@
 
 package com.google.gwtorm.server;
 
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.CheckedFuture;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFutureTask;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 /** Base implementation any generated schema must implement. */
 public abstract class AbstractSchema implements Schema {
+  static final Function<Exception, OrmException> MAPPER =
+      new Function<Exception, OrmException>() {
+        @Override
+        public OrmException apply(Exception e) {
+          Throwable cause = e;
+          if (e instanceof ExecutionException && e.getCause() != null) {
+            cause = e.getCause();
+          }
+          if (cause instanceof OrmException) {
+            return (OrmException) cause;
+          }
+          return new OrmException(cause);
+        }
+      };
+
+  private volatile SerialExecutor serialExecutor;
+  private IdentityMap identityMap;
+  private UnitOfWork unitOfWork;
+
+  /**
+   * Commit the current transaction.
+   * <p>
+   * The default implementation writes the changes held by the unit of work.
+   * Implementations must call it before committing their transaction.
+   */
   @Override
   public void commit() throws OrmException {
-    // Do nothign by default.
+    flushUnitOfWork();
   }
 
+  /**
+   * Roll back the current transaction.
+   * <p>
+   * The default implementation forgets the identity map and the changes held
+   * by the unit of work.
+   */
   @Override
   public void rollback() throws OrmException {
-    // Do nothign by default.
+    clearIdentityMap();
+    final UnitOfWork uow = getUnitOfWork();
+    if (uow != null) {
+      uow.clear();
+    }
   }
 
   /**
@@ -41,4 +89,219 @@ public abstract class AbstractSchema implements Schema {
    *         has been exhausted and no new values are available.
    */
   protected abstract long nextLong(String poolName) throws OrmException;
+
+  /**
+   * Executor for asynchronous operations on this schema.
+   * <p>
+   * Implementations return the executor configured on their database.
+   *
+   * @return the executor; null to run asynchronous operations immediately in
+   *         the calling thread.
+   */
+  protected Executor getExecutor() {
+    return null;
+  }
+
+  /**
+   * Implementations return the metrics configured on their database.
+   *
+   * @return receiver of measurements of this schema's operations.
+   */
+  protected OrmMetrics getMetrics() {
+    return OrmMetrics.DISABLED;
+  }
+
+  /**
+   * Whether primary key lookups are coalesced through an identity map.
+   * <p>
+   * Implementations return the setting configured on their database.
+   *
+   * @return true to remember entities loaded by primary key for the life of
+   *         this schema, until they are written or the transaction is rolled
+   *         back.
+   */
+  protected boolean isCoalescingGets() {
+    return false;
+  }
+
+  /**
+   * Whether writes are held by a unit of work until the schema commits.
+   * <p>
+   * Implementations return the setting configured on their database.
+   *
+   * @return true to hold writes, coalescing repeated writes of one entity,
+   *         until {@link #commit()}.
+   */
+  protected boolean isUnitOfWork() {
+    return false;
+  }
+
+  /**
+   * Order in which the unit of work writes relations.
+   * <p>
+   * The default lists no relations, so relations are written in the order the
+   * schema first wrote them.
+   *
+   * @return names of relations, each after the relations it references.
+   */
+  protected List<String> getRelationOrder() {
+    return Collections.emptyList();
+  }
+
+  /**
+   * Write the changes held by the unit of work to storage.
+   *
+   * @throws OrmException a write failed.
+   */
+  protected void flushUnitOfWork() throws OrmException {
+    final UnitOfWork uow = getUnitOfWork();
+    if (uow != null) {
+      uow.flush(null);
+    }
+  }
+
+  /** Forget all entities remembered by the identity map. */
+  protected void clearIdentityMap() {
+    if (identityMap != null) {
+      identityMap.clear();
+    }
+  }
+
+  /** @return the identity map; null if gets are not being coalesced. */
+  synchronized IdentityMap getIdentityMap() {
+    if (identityMap == null) {
+      if (!isCoalescingGets() && !isUnitOfWork()) {
+        return null;
+      }
+      identityMap = new IdentityMap();
+    }
+    return identityMap;
+  }
+
+  /** @return the unit of work; null if writes are not being held. */
+  synchronized UnitOfWork getUnitOfWork() {
+    if (unitOfWork == null) {
+      if (!isUnitOfWork()) {
+        return null;
+      }
+      unitOfWork = new UnitOfWork(getRelationOrder());
+    }
+    return unitOfWork;
+  }
+
+  /**
+   * Run a task asynchronously on behalf of this schema.
+   * <p>
+   * Schema instances are not thread-safe, so tasks submitted to the same
+   * schema run one at a time, in submission order. Until every submitted task
+   * has completed, synchronous calls from other threads fail with
+   * {@link IllegalStateException}; see {@link #checkNoPendingTasks()}.
+   *
+   * @param task the work to perform.
+   * @return future for the task's result.
+   */
+  protected <T> CheckedFuture<T, OrmException> submit(final Callable<T> task) {
+    final Executor executor = getExecutor();
+    if (executor == null) {
+      try {
+        return Futures.immediateCheckedFuture(task.call());
+      } catch (Exception e) {
+        return Futures.immediateFailedCheckedFuture(MAPPER.apply(e));
+      }
+    }
+
+    final SerialExecutor s;
+    synchronized (this) {
+      if (serialExecutor == null || (serialExecutor.executor != executor
+          && !serialExecutor.isBusy())) {
+        serialExecutor = new SerialExecutor(executor);
+      }
+      s = serialExecutor;
+    }
+    final ListenableFutureTask<T> f = ListenableFutureTask.create(task);
+    try {
+      s.execute(f);
+    } catch (RejectedExecutionException e) {
+      return Futures.immediateFailedCheckedFuture(MAPPER.apply(e));
+    }
+    return Futures.makeChecked(f, MAPPER);
+  }
+
+  /**
+   * Fail if tasks submitted to this schema have not yet completed.
+   * <p>
+   * Tasks use the schema's connection from another thread, so implementations
+   * call this before a synchronous operation uses the connection. Calls made
+   * by a task itself are permitted.
+   *
+   * @throws IllegalStateException a submitted task is still queued or running.
+   */
+  protected final void checkNoPendingTasks() {
+    final SerialExecutor s = serialExecutor;
+    if (s != null && s.isBusy()) {
+      throw new IllegalStateException(
+          "Schema is in use by pending asynchronous operations");
+    }
+  }
+
+  private static class SerialExecutor {
+    final Executor executor;
+    private final ArrayDeque<Future<?>> queue = new ArrayDeque<>();
+    private boolean running;
+    private Future<?> active;
+    private Thread worker;
+
+    SerialExecutor(final Executor executor) {
+      this.executor = executor;
+    }
+
+    /** @return true if another thread may still be running a task. */
+    synchronized boolean isBusy() {
+      if (worker == Thread.currentThread()) {
+        return false;
+      }
+      return !queue.isEmpty() || (active != null && !active.isDone());
+    }
+
+    <T> void execute(final ListenableFutureTask<T> task) {
+      synchronized (this) {
+        queue.add(task);
+        if (running) {
+          return;
+        }
+        running = true;
+      }
+      try {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            drain();
+          }
+        });
+      } catch (RuntimeException e) {
+        synchronized (this) {
+          queue.remove(task);
+          running = false;
+        }
+        throw e;
+      }
+    }
+
+    private void drain() {
+      for (;;) {
+        final Runnable task;
+        synchronized (this) {
+          active = queue.poll();
+          if (active == null) {
+            running = false;
+            worker = null;
+            return;
+          }
+          worker = Thread.currentThread();
+          task = (Runnable) active;
+        }
+        task.run();
+      }
+    }
+  }
 }
@@ -14,8 +14,12 @@
 
 package com.google.gwtorm.server;
 
+import com.google.common.util.concurrent.CheckedFuture;
 import com.google.gwtorm.schema.ColumnModel;
+import com.google.gwtorm.schema.QueryModel;
 
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
@@ -24,7 +28,9 @@ import java.lang.reflect.Method;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 public class CodeGenSupport implements Opcodes {
   public final MethodVisitor mv;
@@ -79,6 +85,261 @@ public class CodeGenSupport implements Opcodes {
     mv.visitVarInsn(type.getOpcode(ILOAD), index);
   }
 
+  /** Replace a primitive on top of the stack with its wrapper object. */
+  public void box(final Type type) {
+    final String owner;
+    switch (type.getSort()) {
+      case Type.BOOLEAN:
+        owner = "java/lang/Boolean";
+        break;
+      case Type.CHAR:
+        owner = "java/lang/Character";
+        break;
+      case Type.BYTE:
+        owner = "java/lang/Byte";
+        break;
+      case Type.SHORT:
+        owner = "java/lang/Short";
+        break;
+      case Type.INT:
+        owner = "java/lang/Integer";
+        break;
+      case Type.FLOAT:
+        owner = "java/lang/Float";
+        break;
+      case Type.LONG:
+        owner = "java/lang/Long";
+        break;
+      case Type.DOUBLE:
+        owner = "java/lang/Double";
+        break;
+      default:
+        return;
+    }
+    mv.visitMethodInsn(INVOKESTATIC, owner, "valueOf", Type
+        .getMethodDescriptor(Type.getObjectType(owner), new Type[] {type}));
+  }
+
+  /**
+   * Replace an object on top of the stack with a value of the given type,
+   * unwrapping it if the type is primitive.
+   */
+  public void unbox(final Type type) {
+    final String owner;
+    switch (type.getSort()) {
+      case Type.BOOLEAN:
+        owner = "java/lang/Boolean";
+        break;
+      case Type.CHAR:
+        owner = "java/lang/Character";
+        break;
+      case Type.BYTE:
+        owner = "java/lang/Byte";
+        break;
+      case Type.SHORT:
+        owner = "java/lang/Short";
+        break;
+      case Type.INT:
+        owner = "java/lang/Integer";
+        break;
+      case Type.FLOAT:
+        owner = "java/lang/Float";
+        break;
+      case Type.LONG:
+        owner = "java/lang/Long";
+        break;
+      case Type.DOUBLE:
+        owner = "java/lang/Double";
+        break;
+      default:
+        mv.visitTypeInsn(CHECKCAST, type.getInternalName());
+        return;
+    }
+    mv.visitTypeInsn(CHECKCAST, owner);
+    mv.visitMethodInsn(INVOKEVIRTUAL, owner, type.getClassName() + "Value",
+        Type.getMethodDescriptor(type, new Type[] {}));
+  }
+
+  /**
+   * @return name of the method implementing a query's statement; for an
+   *         asynchronous query this is a synthetic twin of the declared method.
+   */
+  public static String getQueryMethodName(final QueryModel info) {
+    return info.isAsync() ? info.getName() + "$sync" : info.getName();
+  }
+
+  /**
+   * Implement an asynchronous query method by passing its index and arguments
+   * to {@link AbstractAccess#queryAsync(int, Object[])}.
+   *
+   * @param cw class being generated.
+   * @param info the asynchronous query.
+   * @param pTypes parameter types of the query method.
+   * @param asyncQueries parameter types of the asynchronous queries already
+   *        implemented in {@code cw}, by {@link #getQueryMethodName}; the
+   *        types of {@code info} are added to it.
+   */
+  public static void implementAsyncQuery(final ClassWriter cw,
+      final QueryModel info, final Type[] pTypes,
+      final Map<String, Type[]> asyncQueries) {
+    final int index = asyncQueries.size();
+    asyncQueries.put(getQueryMethodName(info), pTypes);
+
+    final MethodVisitor mv =
+        cw.visitMethod(ACC_PUBLIC | ACC_FINAL, info.getName(), Type
+            .getMethodDescriptor(Type.getType(CheckedFuture.class), pTypes),
+            null, null);
+    mv.visitCode();
+    final CodeGenSupport cgs = new CodeGenSupport(mv);
+
+    mv.visitVarInsn(ALOAD, 0);
+    cgs.push(index);
+    cgs.push(pTypes.length);
+    mv.visitTypeInsn(ANEWARRAY, Type.getInternalName(Object.class));
+    int var = 1;
+    for (int i = 0; i < pTypes.length; i++) {
+      mv.visitInsn(DUP);
+      cgs.push(i);
+      cgs.loadVar(pTypes[i], var);
+      cgs.box(pTypes[i]);
+      mv.visitInsn(AASTORE);
+      var += pTypes[i].getSize();
+    }
+    mv.visitMethodInsn(INVOKEVIRTUAL, Type.getInternalName(AbstractAccess.class),
+        "queryAsync", Type.getMethodDescriptor(
+            Type.getType(CheckedFuture.class), new Type[] {Type.INT_TYPE,
+                Type.getType(Object[].class)}));
+    mv.visitInsn(ARETURN);
+    mv.visitMaxs(-1, -1);
+    mv.visitEnd();
+  }
+
+  /**
+   * Implement {@link AbstractAccess#runAsyncQuery(int, Object[])} by switching
+   * on the query index to call the synchronous twin of each asynchronous
+   * query directly.
+   *
+   * @param cw class being generated.
+   * @param implTypeName internal name of the class being generated.
+   * @param asyncQueries parameter types of the asynchronous queries, as
+   *        filled in by {@link #implementAsyncQuery}.
+   */
+  public static void implementRunAsyncQuery(final ClassWriter cw,
+      final String implTypeName, final Map<String, Type[]> asyncQueries) {
+    if (asyncQueries.isEmpty()) {
+      return;
+    }
+
+    final Type resultSet =
+        Type.getType(com.google.gwtorm.server.ResultSet.class);
+    final String desc = Type.getMethodDescriptor(resultSet, new Type[] {
+        Type.INT_TYPE, Type.getType(Object[].class)});
+    final MethodVisitor mv =
+        cw.visitMethod(ACC_PROTECTED | ACC_FINAL, "runAsyncQuery", desc, null,
+            new String[] {Type.getInternalName(OrmException.class)});
+    mv.visitCode();
+    final CodeGenSupport cgs = new CodeGenSupport(mv);
+
+    final Label dflt = new Label();
+    final Label[] cases = new Label[asyncQueries.size()];
+    for (int i = 0; i < cases.length; i++) {
+      cases[i] = new Label();
+    }
+    mv.visitVarInsn(ILOAD, 1);
+    mv.visitTableSwitchInsn(0, cases.length - 1, dflt, cases);
+
+    int index = 0;
+    for (final Map.Entry<String, Type[]> e : asyncQueries.entrySet()) {
+      final Type[] pTypes = e.getValue();
+      mv.visitLabel(cases[index++]);
+      mv.visitVarInsn(ALOAD, 0);
+      for (int i = 0; i < pTypes.length; i++) {
+        mv.visitVarInsn(ALOAD, 2);
+        cgs.push(i);
+        mv.visitInsn(AALOAD);
+        cgs.unbox(pTypes[i]);
+      }
+      mv.visitMethodInsn(INVOKEVIRTUAL, implTypeName, e.getKey(),
+          Type.getMethodDescriptor(resultSet, pTypes));
+      mv.visitInsn(ARETURN);
+    }
+
+    mv.visitLabel(dflt);
+    mv.visitVarInsn(ALOAD, 0);
+    mv.visitVarInsn(ILOAD, 1);
+    mv.visitVarInsn(ALOAD, 2);
+    mv.visitMethodInsn(INVOKESPECIAL, Type
+        .getInternalName(AbstractAccess.class), "runAsyncQuery", desc);
+    mv.visitInsn(ARETURN);
+    mv.visitMaxs(-1, -1);
+    mv.visitEnd();
+  }
+
+  /**
+   * Return the entities of the result set on top of the stack grouped by the
+   * field a query matched against a collection, using
+   * {@link AbstractAccess#newGroups(Iterable)}.
+   *
+   * @param mv method being generated.
+   * @param info the grouping query.
+   * @param entityType type of the entities.
+   * @param values local variable holding the collection of field values.
+   * @param nextVar first unused local variable.
+   */
+  public static void implementGroupBy(final MethodVisitor mv,
+      final QueryModel info, final Type entityType, final int values,
+      final int nextVar) {
+    final Type map = Type.getType(Map.class);
+    final Type object = Type.getType(Object.class);
+    final Type iterator = Type.getType(Iterator.class);
+    final String abstractAccess = Type.getInternalName(AbstractAccess.class);
+    final int groups = nextVar;
+    final int itr = nextVar + 1;
+    final int ent = nextVar + 2;
+
+    mv.visitMethodInsn(INVOKEINTERFACE, Type
+        .getInternalName(com.google.gwtorm.server.ResultSet.class), "iterator",
+        Type.getMethodDescriptor(iterator, new Type[] {}));
+    mv.visitVarInsn(ASTORE, itr);
+    mv.visitVarInsn(ALOAD, values);
+    mv.visitMethodInsn(INVOKESTATIC, abstractAccess, "newGroups", Type
+        .getMethodDescriptor(map, new Type[] {Type.getType(Iterable.class)}));
+    mv.visitVarInsn(ASTORE, groups);
+
+    final CodeGenSupport cgs = new CodeGenSupport(mv) {
+      @Override
+      public void pushEntity() {
+        mv.visitVarInsn(ALOAD, ent);
+      }
+    };
+    cgs.setEntityType(entityType);
+    cgs.setFieldReference(info.getGroupColumn());
+
+    final Label again = new Label();
+    final Label done = new Label();
+    mv.visitLabel(again);
+    mv.visitVarInsn(ALOAD, itr);
+    mv.visitMethodInsn(INVOKEINTERFACE, iterator.getInternalName(), "hasNext",
+        Type.getMethodDescriptor(Type.BOOLEAN_TYPE, new Type[] {}));
+    mv.visitJumpInsn(IFEQ, done);
+    mv.visitVarInsn(ALOAD, itr);
+    mv.visitMethodInsn(INVOKEINTERFACE, iterator.getInternalName(), "next",
+        Type.getMethodDescriptor(object, new Type[] {}));
+    mv.visitTypeInsn(CHECKCAST, entityType.getInternalName());
+    mv.visitVarInsn(ASTORE, ent);
+    mv.visitVarInsn(ALOAD, groups);
+    cgs.pushFieldValue();
+    cgs.box(toType(info.getGroupColumn()));
+    mv.visitVarInsn(ALOAD, ent);
+    mv.visitMethodInsn(INVOKESTATIC, abstractAccess, "addToGroup", Type
+        .getMethodDescriptor(Type.VOID_TYPE, new Type[] {map, object, object}));
+    mv.visitJumpInsn(GOTO, again);
+
+    mv.visitLabel(done);
+    mv.visitVarInsn(ALOAD, groups);
+    mv.visitInsn(ARETURN);
+  }
+
   public int newLocal() {
     if (freeLocals.isEmpty()) {
       return ++lastLocal;
@@ -15,9 +15,12 @@
 package com.google.gwtorm.server;
 
 
+import org.objectweb.asm.ClassWriter;
+
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
@@ -29,14 +32,46 @@ import java.lang.reflect.Method;
  * defined the application's Schema interface extension. This is necessary to
  * ensure the generated classes can access protected and default-access fields
  * within the entities.
+ * <p>
+ * On Java 9 and later classes are defined through
+ * {@code MethodHandles.Lookup.defineClass}, using a host class from the same
+ * package, so no access checks need to be suppressed. Older runtimes fall back
+ * to calling {@code ClassLoader.defineClass} reflectively.
+ * <p>
+ * Generators name their classes deterministically from the schema model, so a
+ * class that already exists in the parent (for example because it was written
+ * by {@link PrecompileSchema} at build time and packaged next to the schema)
+ * is found by {@link #findGeneratedClass(String)} and reused instead of being
+ * generated and injected again.
  */
 public class GeneratedClassLoader extends ClassLoader {
-  private static final boolean debugCodeGen;
-
   private static final Method defineClass;
+  private static final Method privateLookupIn;
+  private static final Method lookupDefineClass;
+
+  private static volatile File outputDirectory;
 
   static {
-    debugCodeGen = "true".equals(System.getProperty("gwtorm.debugCodeGen"));
+    final String dir = System.getProperty("gwtorm.codeGenDir");
+    if (dir != null && dir.length() > 0) {
+      outputDirectory = new File(dir);
+    } else if ("true".equals(System.getProperty("gwtorm.debugCodeGen"))) {
+      outputDirectory = new File("generated_classes");
+    }
+
+    Method p;
+    Method d;
+    try {
+      p =
+          MethodHandles.class.getMethod("privateLookupIn", Class.class,
+              MethodHandles.Lookup.class);
+      d = MethodHandles.Lookup.class.getMethod("defineClass", byte[].class);
+    } catch (NoSuchMethodException e) {
+      p = null;
+      d = null;
+    }
+    privateLookupIn = p;
+    lookupDefineClass = d;
 
     Method m;
     try {
@@ -44,23 +79,106 @@ public class GeneratedClassLoader extends ClassLoader {
           ClassLoader.class.getDeclaredMethod("defineClass", String.class,
               byte[].class, Integer.TYPE, Integer.TYPE);
       m.setAccessible(true);
-    } catch (SecurityException e) {
-      throw new LinkageError("No defineClass in ClassLoader");
     } catch (NoSuchMethodException e) {
-      throw new LinkageError("No defineClass in ClassLoader");
+      m = null;
+    } catch (RuntimeException e) {
+      // SecurityException, or InaccessibleObjectException on Java 9+.
+      m = null;
     }
     defineClass = m;
+    if (defineClass == null && lookupDefineClass == null) {
+      throw new LinkageError("No defineClass in ClassLoader");
+    }
+  }
+
+  /**
+   * Set the directory every generated class is also written to.
+   *
+   * @param dir root of a class file tree; null to stop saving classes.
+   */
+  public static void setOutputDirectory(final File dir) {
+    outputDirectory = dir;
   }
 
   public GeneratedClassLoader(final ClassLoader parent) {
     super(parent);
   }
 
+  /**
+   * Locate a class previously generated under this name.
+   *
+   * @param name binary name of the class.
+   * @return the class if the parent can already load it; null otherwise.
+   */
+  public Class<?> findGeneratedClass(final String name) {
+    try {
+      return Class.forName(name, false, getParent());
+    } catch (ClassNotFoundException notFound) {
+      return null;
+    }
+  }
+
+  /**
+   * Create a writer for a class that will be passed to {@link #defineClass}.
+   * <p>
+   * The writer computes stack map frames, resolving any types it must merge
+   * through this loader so application classes are visible to it.
+   *
+   * @return a new writer.
+   */
+  public ClassWriter newClassWriter() {
+    return new ClassWriter(ClassWriter.COMPUTE_FRAMES) {
+      @Override
+      protected String getCommonSuperClass(final String type1,
+          final String type2) {
+        final Class<?> c;
+        final Class<?> d;
+        try {
+          c = Class.forName(type1.replace('/', '.'), false,
+              GeneratedClassLoader.this);
+          d = Class.forName(type2.replace('/', '.'), false,
+              GeneratedClassLoader.this);
+        } catch (ClassNotFoundException e) {
+          return "java/lang/Object";
+        }
+        if (c.isAssignableFrom(d)) {
+          return type1;
+        }
+        if (d.isAssignableFrom(c)) {
+          return type2;
+        }
+        if (c.isInterface() || d.isInterface()) {
+          return "java/lang/Object";
+        }
+        Class<?> s = c;
+        do {
+          s = s.getSuperclass();
+        } while (!s.isAssignableFrom(d));
+        return s.getName().replace('.', '/');
+      }
+    };
+  }
+
   public void defineClass(final String name, final byte[] code)
       throws OrmException {
-    if (debugCodeGen) {
+    defineClass(null, name, code);
+  }
+
+  /**
+   * Define a generated class in the parent ClassLoader.
+   *
+   * @param host any class of the parent loader in the same package as
+   *        {@code name}; null if none is known.
+   * @param name binary name of the new class.
+   * @param code class file content.
+   * @throws OrmException the class cannot be defined.
+   */
+  public void defineClass(final Class<?> host, final String name,
+      final byte[] code) throws OrmException {
+    final File dir = outputDirectory;
+    if (dir != null) {
       final File outClassFile =
-          new File("generated_classes/" + name.replace('.', '/') + ".class");
+          new File(dir, name.replace('.', '/') + ".class");
       outClassFile.getParentFile().mkdirs();
       try {
         final FileOutputStream out = new FileOutputStream(outClassFile);
@@ -75,8 +193,14 @@ public class GeneratedClassLoader extends ClassLoader {
     }
 
     try {
-      defineClass.invoke(getParent(), name, code, Integer.valueOf(0), Integer
-          .valueOf(code.length));
+      if (!defineWithLookup(host, code)) {
+        if (defineClass == null) {
+          throw new OrmException("Unable to inject class " + name
+              + ": no host class in the same package");
+        }
+        defineClass.invoke(getParent(), name, code, Integer.valueOf(0),
+            Integer.valueOf(code.length));
+      }
     } catch (IllegalArgumentException e) {
       throw new OrmException("Unable to inject class " + name, e);
     } catch (SecurityException e) {
@@ -84,7 +208,36 @@ public class GeneratedClassLoader extends ClassLoader {
     } catch (IllegalAccessException e) {
       throw new OrmException("Unable to inject class " + name, e);
     } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof LinkageError
+          && findGeneratedClass(name) != null) {
+        // Another thread generated the same class concurrently.
+        return;
+      }
       throw new OrmException("Unable to inject class " + name, e);
     }
   }
+
+  private boolean defineWithLookup(final Class<?> host, final byte[] code)
+      throws InvocationTargetException {
+    if (host == null || lookupDefineClass == null
+        || host.getClassLoader() != getParent()) {
+      return false;
+    }
+
+    final Object lookup;
+    try {
+      lookup = privateLookupIn.invoke(null, host, MethodHandles.lookup());
+    } catch (IllegalAccessException e) {
+      return false;
+    } catch (InvocationTargetException e) {
+      // The host's module does not open its package to us.
+      return false;
+    }
+    try {
+      lookupDefineClass.invoke(lookup, code);
+    } catch (IllegalAccessException e) {
+      return false;
+    }
+    return true;
+  }
 }
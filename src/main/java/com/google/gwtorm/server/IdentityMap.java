@@ -0,0 +1,61 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gwtorm.server;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Entities loaded by one schema, indexed by relation and primary key.
+ * <p>
+ * Each {@link AbstractAccess} is its own partition, so relations sharing a key
+ * type cannot collide. Methods are synchronized because asynchronous lookups
+ * may complete on an executor thread.
+ */
+class IdentityMap {
+  private final Map<AbstractAccess<?, ?>, Map<Object, Object>> relations =
+      new HashMap<>();
+
+  synchronized Object get(final AbstractAccess<?, ?> access, final Object key) {
+    final Map<Object, Object> m = relations.get(access);
+    return m != null ? m.get(key) : null;
+  }
+
+  synchronized void put(final AbstractAccess<?, ?> access, final Object key,
+      final Object entity) {
+    Map<Object, Object> m = relations.get(access);
+    if (m == null) {
+      m = new HashMap<>();
+      relations.put(access, m);
+    }
+    m.put(key, entity);
+  }
+
+  synchronized void remove(final AbstractAccess<?, ?> access,
+      final Object key) {
+    final Map<Object, Object> m = relations.get(access);
+    if (m != null) {
+      m.remove(key);
+    }
+  }
+
+  synchronized void removeAll(final AbstractAccess<?, ?> access) {
+    relations.remove(access);
+  }
+
+  synchronized void clear() {
+    relations.clear();
+  }
+}
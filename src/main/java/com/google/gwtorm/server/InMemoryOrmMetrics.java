@@ -0,0 +1,215 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gwtorm.server;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps latency histograms and counters in memory, per relation and
+ * operation.
+ * <p>
+ * Latencies are bucketed logarithmically with 16 buckets per power of two,
+ * so reported percentiles are within about 6% of the true value while each
+ * operation costs a few atomic increments.
+ */
+public class InMemoryOrmMetrics extends OrmMetrics {
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+  /** Measurements of one operation on one relation. */
+  public static class Stats {
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong rowsReturned = new AtomicLong();
+    private final AtomicLong rowsBound = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLong iterationNanos = new AtomicLong();
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+    void add(final int returned, final int bound, final long nanos,
+        final boolean failed) {
+      count.incrementAndGet();
+      if (failed) {
+        failures.incrementAndGet();
+      }
+      if (returned > 0) {
+        rowsReturned.addAndGet(returned);
+      }
+      if (bound > 0) {
+        rowsBound.addAndGet(bound);
+      }
+      totalNanos.addAndGet(nanos);
+      long max;
+      do {
+        max = maxNanos.get();
+      } while (nanos > max && !maxNanos.compareAndSet(max, nanos));
+      histogram.incrementAndGet(bucket(nanos));
+    }
+
+    /** @return number of operations recorded. */
+    public long getCount() {
+      return count.get();
+    }
+
+    /** @return number of operations that failed. */
+    public long getFailures() {
+      return failures.get();
+    }
+
+    /** @return total rows read from the data store. */
+    public long getRowsReturned() {
+      return rowsReturned.get();
+    }
+
+    /** @return total rows bound to write statements. */
+    public long getRowsBound() {
+      return rowsBound.get();
+    }
+
+    /** @return total time spent, in nanoseconds. */
+    public long getTotalNanos() {
+      return totalNanos.get();
+    }
+
+    /** @return longest single operation, in nanoseconds. */
+    public long getMaxNanos() {
+      return maxNanos.get();
+    }
+
+    /**
+     * @return total time callers spent reading query results after the first
+     *         row was fetched, in nanoseconds; not part of the latencies.
+     */
+    public long getIterationNanos() {
+      return iterationNanos.get();
+    }
+
+    /** @return mean time per operation in nanoseconds; 0 if none recorded. */
+    public long getMeanNanos() {
+      final long n = count.get();
+      return n > 0 ? totalNanos.get() / n : 0;
+    }
+
+    /**
+     * @param p percentile between 0 and 100.
+     * @return upper bound of the latency bucket holding the percentile, in
+     *         nanoseconds; 0 if nothing was recorded.
+     */
+    public long getPercentileNanos(final double p) {
+      long total = 0;
+      final long[] c = new long[BUCKETS];
+      for (int i = 0; i < BUCKETS; i++) {
+        c[i] = histogram.get(i);
+        total += c[i];
+      }
+      if (total == 0) {
+        return 0;
+      }
+      final long rank = Math.max(1, (long) Math.ceil(total * p / 100.0));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += c[i];
+        if (seen >= rank) {
+          return Math.min(upperBound(i), getMaxNanos());
+        }
+      }
+      return getMaxNanos();
+    }
+
+    @Override
+    public String toString() {
+      return "count=" + getCount() + " failures=" + getFailures()
+          + " returned=" + getRowsReturned() + " bound=" + getRowsBound()
+          + " mean=" + getMeanNanos() + "ns p50="
+          + getPercentileNanos(50) + "ns p99=" + getPercentileNanos(99)
+          + "ns max=" + getMaxNanos() + "ns";
+    }
+  }
+
+  private final ConcurrentMap<String, Stats> stats =
+      new ConcurrentHashMap<>();
+
+  @Override
+  public void record(final String relation, final String operation,
+      final int rowsReturned, final int rowsBound, final long nanos,
+      final boolean failed) {
+    stats(relation, operation).add(rowsReturned, rowsBound, Math.max(0, nanos),
+        failed);
+  }
+
+  @Override
+  public void recordIteration(final String relation, final String operation,
+      final long nanos) {
+    stats(relation, operation).iterationNanos.addAndGet(Math.max(0, nanos));
+  }
+
+  private Stats stats(final String relation, final String operation) {
+    final String name = relation + "." + operation;
+    Stats s = stats.get(name);
+    if (s == null) {
+      final Stats n = new Stats();
+      s = stats.putIfAbsent(name, n);
+      if (s == null) {
+        s = n;
+      }
+    }
+    return s;
+  }
+
+  /**
+   * @param relation name of the relation.
+   * @param operation name of the operation.
+   * @return measurements so far; null if the operation was never recorded.
+   */
+  public Stats get(final String relation, final String operation) {
+    return stats.get(relation + "." + operation);
+  }
+
+  /** @return all measurements, keyed by {@code relation.operation}. */
+  public Map<String, Stats> getAll() {
+    return new TreeMap<>(stats);
+  }
+
+  /** Discard all measurements. */
+  public void reset() {
+    stats.clear();
+  }
+
+  static int bucket(final long v) {
+    if (v < SUB_BUCKETS) {
+      return (int) v;
+    }
+    final int exp = 63 - Long.numberOfLeadingZeros(v) - SUB_BUCKET_BITS + 1;
+    final int sub = (int) (v >>> (exp - 1)) & (SUB_BUCKETS - 1);
+    return exp * SUB_BUCKETS + sub;
+  }
+
+  static long upperBound(final int bucket) {
+    final int exp = bucket / SUB_BUCKETS;
+    final long sub = bucket % SUB_BUCKETS;
+    if (exp == 0) {
+      return sub;
+    }
+    return ((SUB_BUCKETS + sub + 1) << (exp - 1)) - 1;
+  }
+}
@@ -0,0 +1,68 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gwtorm.server;
+
+/**
+ * A large column value that may be read from the database on first use.
+ * <p>
+ * SQL databases leave lazy columns out of the statements that fetch whole
+ * entities; the value is read by primary key the first time {@link #get()}
+ * is called, using the schema the entity was read through. Holders created
+ * by the application are loaded from the start.
+ *
+ * @param <V> type of the column value.
+ */
+public abstract class LazyColumn<V> {
+  /** Reads the value of an unloaded column. */
+  public interface Loader<V> {
+    V load() throws OrmException;
+  }
+
+  private V value;
+  private Loader<V> loader;
+
+  protected LazyColumn(final V value) {
+    this.value = value;
+  }
+
+  protected LazyColumn(final Loader<V> loader) {
+    this.loader = loader;
+  }
+
+  /**
+   * @return the column value, reading it from the database if necessary.
+   * @throws OrmException the value could not be read, e.g. because the
+   *         schema has been closed or the row no longer exists.
+   */
+  public V get() throws OrmException {
+    if (loader != null) {
+      value = loader.load();
+      loader = null;
+    }
+    return value;
+  }
+
+  /** Replace the value; an unloaded column will no longer be read. */
+  public void set(final V value) {
+    this.value = value;
+    this.loader = null;
+  }
+
+  /** @return true if {@link #get()} will not access the database. */
+  public boolean isLoaded() {
+    return loader == null;
+  }
+}
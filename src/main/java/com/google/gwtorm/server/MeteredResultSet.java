@@ -0,0 +1,90 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gwtorm.server;
+
+import java.util.Iterator;
+
+/**
+ * Reports a query to {@link OrmMetrics} once its results are consumed.
+ * <p>
+ * The query's latency is measured until its first row has been fetched, which
+ * this result set does when it is created. Time the caller then spends reading
+ * the rows is reported separately through {@link OrmMetrics#recordIteration}.
+ */
+class MeteredResultSet<T> extends AbstractResultSet<T> {
+  private final ResultSet<T> rs;
+  private final Iterator<T> i;
+  private final OrmMetrics metrics;
+  private final String relation;
+  private final String operation;
+  private final long fetched;
+  private final long nanos;
+  private int rows;
+  private boolean done;
+
+  MeteredResultSet(final ResultSet<T> rs, final OrmMetrics metrics,
+      final String relation, final String operation, final long start) {
+    this.rs = rs;
+    this.i = rs.iterator();
+    this.metrics = metrics;
+    this.relation = relation;
+    this.operation = operation;
+
+    // Lazy result sets run their query on the first call.
+    i.hasNext();
+    this.fetched = System.nanoTime();
+    this.nanos = fetched - start;
+  }
+
+  @Override
+  protected boolean hasNext() {
+    final boolean r;
+    try {
+      r = i.hasNext();
+    } catch (RuntimeException e) {
+      finish(true);
+      throw e;
+    }
+    if (!r) {
+      finish(false);
+    }
+    return r;
+  }
+
+  @Override
+  protected T next() {
+    final T r = i.next();
+    rows++;
+    return r;
+  }
+
+  @Override
+  public void close() {
+    try {
+      rs.close();
+    } finally {
+      finish(false);
+    }
+  }
+
+  private void finish(final boolean failed) {
+    if (!done) {
+      done = true;
+      metrics.record(relation, operation, rows, 0, nanos, failed);
+      metrics.recordIteration(relation, operation, System.nanoTime() - fetched);
+    }
+  }
+}
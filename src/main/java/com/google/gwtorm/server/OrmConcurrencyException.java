@@ -14,18 +14,49 @@
 
 package com.google.gwtorm.server;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
 /** Indicates one or more entities were modified concurrently. */
 @SuppressWarnings("serial")
 public class OrmConcurrencyException extends OrmException {
+  private final transient List<?> entities;
+
   public OrmConcurrencyException() {
     super("Concurrent modification detected");
+    entities = Collections.emptyList();
+  }
+
+  /**
+   * @param entities the entities whose write found the row missing or
+   *        modified by another writer.
+   */
+  public OrmConcurrencyException(final Collection<?> entities) {
+    super("Concurrent modification detected");
+    this.entities = Collections.unmodifiableList(new ArrayList<>(entities));
   }
 
   public OrmConcurrencyException(final String message) {
     super(message);
+    entities = Collections.emptyList();
   }
 
   public OrmConcurrencyException(final String message, final Throwable why) {
     super(message, why);
+    entities = Collections.emptyList();
+  }
+
+  /**
+   * Entities whose write failed.
+   * <p>
+   * When the data store reports only the total rows changed by a batch, every
+   * entity of the batch is listed, including those written successfully.
+   *
+   * @return the entities; empty if not known.
+   */
+  public List<?> getEntities() {
+    return entities != null ? entities : Collections.emptyList();
   }
 }
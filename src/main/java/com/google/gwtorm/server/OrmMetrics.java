@@ -0,0 +1,79 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gwtorm.server;
+
+/**
+ * Receives a measurement of every storage operation performed by an Access.
+ * <p>
+ * Operations are named after the method that performed them: {@code get},
+ * {@code insert}, {@code update}, {@code upsert}, {@code delete}, the name of
+ * a {@code @Query} method, or {@code nextLong} for sequences. A query is
+ * measured until its first row has been fetched, and its rows are counted
+ * once the caller has exhausted or closed the result set.
+ * <p>
+ * Implementations must be thread-safe and fast; they are called inline on
+ * the thread performing the operation.
+ *
+ * @see InMemoryOrmMetrics
+ */
+public abstract class OrmMetrics {
+  /** Metrics that discard every measurement, without reading the clock. */
+  public static final OrmMetrics DISABLED = new OrmMetrics() {
+    @Override
+    public boolean isEnabled() {
+      return false;
+    }
+
+    @Override
+    public void record(String relation, String operation, int rowsReturned,
+        int rowsBound, long nanos, boolean failed) {
+    }
+  };
+
+  /** @return false if measurements are discarded and need not be taken. */
+  public boolean isEnabled() {
+    return true;
+  }
+
+  /**
+   * Record one completed operation.
+   *
+   * @param relation name of the relation, or of the sequence for
+   *        {@code nextLong}.
+   * @param operation name of the operation.
+   * @param rowsReturned number of rows read from the data store.
+   * @param rowsBound number of rows bound to write statements, or changed by
+   *        a statement matching them.
+   * @param nanos elapsed time in nanoseconds.
+   * @param failed true if the operation threw an exception.
+   */
+  public abstract void record(String relation, String operation,
+      int rowsReturned, int rowsBound, long nanos, boolean failed);
+
+  /**
+   * Record the time a caller spent reading the results of a query.
+   * <p>
+   * Measured from the first row being fetched until the result set was
+   * exhausted or closed, so it includes the caller's own work on each row.
+   * The default implementation discards it.
+   *
+   * @param relation name of the relation.
+   * @param operation name of the query method.
+   * @param nanos elapsed time in nanoseconds.
+   */
+  public void recordIteration(String relation, String operation, long nanos) {
+  }
+}
@@ -0,0 +1,105 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gwtorm.server;
+
+import com.google.gwtorm.schema.sql.SqlDialect;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+
+import javax.sql.DataSource;
+
+/**
+ * Generates a schema's implementation classes at build time.
+ * <p>
+ * Run after the application's classes are compiled, writing into the same
+ * output directory (for example from {@code exec-maven-plugin} bound to the
+ * {@code process-classes} phase):
+ *
+ * <pre>
+ * PrecompileSchema target/classes com.example.MyDb \
+ *     com.google.gwtorm.jdbc.Database \
+ *     com.google.gwtorm.schema.sql.DialectH2
+ * </pre>
+ *
+ * The database class is constructed exactly as the application would at
+ * runtime, either with a {@link SqlDialect} for JDBC or with just the schema
+ * interface for NoSQL implementations. Every generated class is saved, and
+ * because class names are derived from the schema model the runtime finds
+ * these classes already on the classpath and skips generating them.
+ */
+public class PrecompileSchema {
+  public static void main(final String[] argv) throws Exception {
+    if (argv.length < 3 || argv.length > 4) {
+      System.err.println("usage: " + PrecompileSchema.class.getName()
+          + " <output-dir> <schema-class> <database-class> [<dialect-class>]");
+      System.exit(1);
+    }
+
+    final File out = new File(argv[0]);
+    final Class<?> schema = Class.forName(argv[1]);
+    final Class<?> database = Class.forName(argv[2]);
+    final SqlDialect dialect;
+    if (argv.length == 4) {
+      dialect = newDialect(argv[3]);
+    } else {
+      dialect = null;
+    }
+    generate(out, schema, database, dialect);
+  }
+
+  /**
+   * Construct a database, saving all classes generated for it.
+   *
+   * @param out root directory to write class files into.
+   * @param schema application extension of the Schema interface.
+   * @param database implementation of {@link SchemaFactory} to construct.
+   * @param dialect dialect for a JDBC database; null for NoSQL databases.
+   * @throws OrmException the classes could not be generated.
+   */
+  public static void generate(final File out, final Class<?> schema,
+      final Class<?> database, final SqlDialect dialect) throws OrmException {
+    GeneratedClassLoader.setOutputDirectory(out);
+    try {
+      if (dialect != null) {
+        database.getConstructor(DataSource.class, SqlDialect.class,
+            Class.class).newInstance(null, dialect, schema);
+      } else {
+        database.getConstructor(Class.class).newInstance(schema);
+      }
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof OrmException) {
+        throw (OrmException) e.getCause();
+      }
+      throw new OrmException("Cannot construct " + database.getName(), e);
+    } catch (ReflectiveOperationException e) {
+      throw new OrmException("Cannot construct " + database.getName(), e);
+    } finally {
+      GeneratedClassLoader.setOutputDirectory(null);
+    }
+  }
+
+  private static SqlDialect newDialect(final String name) throws OrmException {
+    try {
+      return Class.forName(name).asSubclass(SqlDialect.class)
+          .getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException e) {
+      throw new OrmException("Cannot construct dialect " + name, e);
+    } catch (ClassCastException e) {
+      throw new OrmException(name + " is not a "
+          + SqlDialect.class.getName(), e);
+    }
+  }
+}
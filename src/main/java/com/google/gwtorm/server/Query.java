@@ -40,12 +40,55 @@ import java.lang.annotation.Target;
  * [LIMIT { &lt;count&gt; | ? }]
  *
  * &lt;condition&gt; := &lt;property&gt; { &lt; | &lt;= | &gt; | &gt;= | = } &lt;value&gt;
+ *              | &lt;property&gt; IN ?
+ *              | &lt;property&gt; LIKE { ? | '&lt;prefix&gt;%' }
+ *              | ( &lt;property&gt; = &lt;value&gt; OR &lt;property&gt; = &lt;value&gt; ... )
  * &lt;value&gt; := { ? | true | false | &lt;int&gt; | &lt;string&gt; }
  * </pre>
  * <p>
  * Method parameters are bound in order to the placeholders (?) declared in the
  * query conditions. The type of the limit placeholder parameter (if used in the
- * query) must be <code>int</code>.
+ * query) must be <code>int</code>. The parameter of an {@code IN ?} condition
+ * is a {@link java.util.Collection} of the property's values; an empty one
+ * matches nothing. All tests joined by {@code OR} must be of one property.
+ * {@code LIKE} only matches prefixes of {@code String} properties: its
+ * parameter is the prefix itself, and any wildcard in it matches literally.
+ * NoSQL databases answer such lists by scanning the index once per value, and
+ * only support one {@code IN} or {@code OR} of placeholders per query.
+ * <p>
+ * A query may name the fields it returns, reading only those columns:
+ *
+ * <pre>
+ *   &#064;Query(value = &quot;WHERE a=?&quot;, fields = {&quot;a&quot;, &quot;b&quot;})
+ * </pre>
+ *
+ * The primary key is always read. Other fields keep the values set by the
+ * entity's constructor, so entities from such a query must not be updated.
+ * <p>
+ * A query method returning {@code int} or {@code long} counts the matching
+ * entities, and one returning {@code boolean} tests whether any match. Such
+ * queries cannot use {@code ORDER BY}, {@code LIMIT} or fields.
+ * <p>
+ * A query returning {@code int} may instead change the matching entities,
+ * returning how many it changed. With {@code delete} they are deleted; with
+ * {@code set} the named fields are assigned from the leading parameters,
+ * which precede the parameters of the conditions:
+ *
+ * <pre>
+ *   &#064;Query(value = &quot;WHERE a=?&quot;, set = {&quot;b&quot;})
+ *   int setB(String b, int a) throws OrmException;
+ * </pre>
+ *
+ * A query returning {@code Map<K, List<E>>} loads the children of many
+ * parents at once. It tests one field, such as a foreign key, with
+ * {@code IN ?} and returns the matches grouped by that field's value. Every
+ * requested value is a key of the map, in the order requested:
+ *
+ * <pre>
+ *   &#064;Query(&quot;WHERE parent IN ? ORDER BY name&quot;)
+ *   Map&lt;Parent.Key, List&lt;Child&gt;&gt; byParents(Collection&lt;Parent.Key&gt; p)
+ *       throws OrmException;
+ * </pre>
  */
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.METHOD)
@@ -54,4 +97,19 @@ public @interface Query {
    * @return the query clause. Defaults to "", matching all entities, no order.
    */
   String value() default "";
+
+  /**
+   * @return names of the fields the query reads. Defaults to none, reading
+   *         every field.
+   */
+  String[] fields() default {};
+
+  /** @return true if the query deletes the entities it matches. */
+  boolean delete() default false;
+
+  /**
+   * @return names of the fields the query sets on the entities it matches.
+   *         Defaults to none.
+   */
+  String[] set() default {};
 }
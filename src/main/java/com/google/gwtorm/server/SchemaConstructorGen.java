@@ -44,11 +44,14 @@ public class SchemaConstructorGen<T extends Schema> implements Opcodes {
 
   public void defineClass() throws OrmException {
     init();
+    if (classLoader.findGeneratedClass(implClassName) != null) {
+      return;
+    }
     declareFactoryField();
     implementConstructor();
     implementNewInstance();
     cw.visitEnd();
-    classLoader.defineClass(implClassName, cw.toByteArray());
+    classLoader.defineClass(schemaImpl, implClassName, cw.toByteArray());
   }
 
 
@@ -78,11 +81,12 @@ public class SchemaConstructorGen<T extends Schema> implements Opcodes {
 
   private void init() {
     implClassName =
-        schemaImpl.getName() + "_Factory_" + Util.createRandomName();
+        schemaImpl.getName() + "_Factory_"
+            + Util.createStableName(schemaArg.getClass().getName());
     implTypeName = implClassName.replace('.', '/');
 
-    cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-    cw.visit(V1_3, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, implTypeName, null, Type
+    cw = classLoader.newClassWriter();
+    cw.visit(V1_7, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, implTypeName, null, Type
         .getInternalName(Object.class), new String[] {Type
         .getInternalName(SchemaFactory.class)});
   }
@@ -20,14 +20,21 @@ import com.google.gwtorm.schema.SequenceModel;
 import com.google.gwtorm.schema.Util;
 
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /** Generates a concrete implementation of a {@link Schema} extension. */
 public class SchemaGen<S extends AbstractSchema> implements Opcodes {
@@ -60,6 +67,9 @@ public class SchemaGen<S extends AbstractSchema> implements Opcodes {
     defineRelationClasses();
 
     init();
+    if (classLoader.findGeneratedClass(getImplClassName()) != null) {
+      return loadClass();
+    }
     implementRelationFields();
     implementConstructor();
     implementSequenceMethods();
@@ -67,7 +77,8 @@ public class SchemaGen<S extends AbstractSchema> implements Opcodes {
     implementAllRelationsMethod();
 
     cw.visitEnd();
-    classLoader.defineClass(getImplClassName(), cw.toByteArray());
+    classLoader.defineClass(loadSchemaInterface(), getImplClassName(),
+        cw.toByteArray());
     return loadClass();
   }
 
@@ -81,6 +92,14 @@ public class SchemaGen<S extends AbstractSchema> implements Opcodes {
     }
   }
 
+  private Class<?> loadSchemaInterface() throws OrmException {
+    try {
+      return Class.forName(getSchemaClassName(), false, classLoader);
+    } catch (ClassNotFoundException err) {
+      throw new OrmException("Cannot locate schema interface", err);
+    }
+  }
+
   String getSchemaClassName() {
     return schema.getSchemaClassName();
   }
@@ -94,10 +113,15 @@ public class SchemaGen<S extends AbstractSchema> implements Opcodes {
   }
 
   private void defineRelationClasses() throws OrmException {
-    relations = new ArrayList<>();
-    for (final RelationModel rel : schema.getRelations()) {
-      final Class<?> a = accessGen.create(classLoader, rel);
-      relations.add(new RelationGen(rel, a));
+    final Collection<RelationModel> models = schema.getRelations();
+    relations = new ArrayList<>(models.size());
+    if (models.size() < 2) {
+      for (final RelationModel rel : models) {
+        final Class<?> a = accessGen.create(classLoader, rel);
+        relations.add(new RelationGen(rel, a));
+      }
+    } else {
+      defineRelationClassesInParallel(models);
     }
 
     Collections.sort(relations, new Comparator<RelationGen>() {
@@ -112,16 +136,64 @@ public class SchemaGen<S extends AbstractSchema> implements Opcodes {
     });
   }
 
+  private void defineRelationClassesInParallel(
+      final Collection<RelationModel> models) throws OrmException {
+    final List<Callable<Class<?>>> tasks = new ArrayList<>(models.size());
+    for (final RelationModel rel : models) {
+      tasks.add(new Callable<Class<?>>() {
+        @Override
+        public Class<?> call() throws OrmException {
+          return accessGen.create(classLoader, rel);
+        }
+      });
+    }
+
+    final int threads =
+        Math.min(models.size(), Runtime.getRuntime().availableProcessors());
+    final ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      final Iterator<RelationModel> m = models.iterator();
+      for (final Future<Class<?>> f : pool.invokeAll(tasks)) {
+        relations.add(new RelationGen(m.next(), f.get()));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new OrmException("Interrupted generating relation classes", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof OrmException) {
+        throw (OrmException) e.getCause();
+      }
+      throw new OrmException("Cannot generate relation classes", e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
   private void init() {
-    implClassName = getSchemaClassName() + "_Schema_" + Util.createRandomName();
+    implClassName =
+        getSchemaClassName() + "_Schema_" + Util.createStableName(describe());
     implTypeName = implClassName.replace('.', '/');
 
-    cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-    cw.visit(V1_3, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, implTypeName, null, Type
+    cw = classLoader.newClassWriter();
+    cw.visit(V1_7, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, implTypeName, null, Type
         .getInternalName(schemaSuperClass), new String[] {getSchemaClassName()
         .replace('.', '/')});
   }
 
+  private String describe() {
+    final StringBuilder r = new StringBuilder();
+    r.append(schemaSuperClass.getName()).append('\n');
+    r.append(databaseClass.getName()).append('\n');
+    for (final RelationGen info : relations) {
+      r.append(info.model.getMethodName()).append(' ');
+      r.append(info.accessType.getClassName()).append('\n');
+    }
+    for (final SequenceModel seq : schema.getSequences()) {
+      r.append(seq).append('\n');
+    }
+    return r.toString();
+  }
+
   private void implementRelationFields() {
     for (final RelationGen info : relations) {
       info.implementField();
@@ -145,18 +217,6 @@ public class SchemaGen<S extends AbstractSchema> implements Opcodes {
             .getType(schemaSuperClass.getDeclaredConstructors()[0]
                 .getParameterTypes()[0])}));
 
-    for (final RelationGen info : relations) {
-      mv.visitVarInsn(ALOAD, 0);
-      mv.visitTypeInsn(NEW, info.accessType.getInternalName());
-      mv.visitInsn(DUP);
-      mv.visitVarInsn(ALOAD, 0);
-      mv.visitMethodInsn(INVOKESPECIAL, info.accessType.getInternalName(),
-          consName, Type.getMethodDescriptor(Type.VOID_TYPE,
-              new Type[] {superType}));
-      mv.visitFieldInsn(PUTFIELD, implTypeName, info
-          .getAccessInstanceFieldName(), info.accessType.getDescriptor());
-    }
-
     mv.visitInsn(RETURN);
     mv.visitMaxs(-1, -1);
     mv.visitEnd();
@@ -236,7 +296,7 @@ public class SchemaGen<S extends AbstractSchema> implements Opcodes {
     }
 
     void implementField() {
-      cw.visitField(ACC_PRIVATE | ACC_FINAL, getAccessInstanceFieldName(),
+      cw.visitField(ACC_PRIVATE, getAccessInstanceFieldName(),
           accessType.getDescriptor(), null, null).visitEnd();
     }
 
@@ -249,9 +309,31 @@ public class SchemaGen<S extends AbstractSchema> implements Opcodes {
           cw.visitMethod(ACC_PUBLIC | ACC_FINAL, model.getMethodName(),
               getDescriptor(), null, null);
       mv.visitCode();
+
+      // Access instances are created on first use, so opening a schema
+      // does not pay for relations the caller never touches.
+      //
+      final Label done = new Label();
       mv.visitVarInsn(ALOAD, 0);
       mv.visitFieldInsn(GETFIELD, implTypeName, getAccessInstanceFieldName(),
           accessType.getDescriptor());
+      mv.visitInsn(DUP);
+      mv.visitJumpInsn(IFNONNULL, done);
+      mv.visitInsn(POP);
+
+      mv.visitTypeInsn(NEW, accessType.getInternalName());
+      mv.visitInsn(DUP);
+      mv.visitVarInsn(ALOAD, 0);
+      mv.visitMethodInsn(INVOKESPECIAL, accessType.getInternalName(),
+          "<init>", Type.getMethodDescriptor(Type.VOID_TYPE,
+              new Type[] {Type.getType(schemaSuperClass)}));
+      mv.visitInsn(DUP);
+      mv.visitVarInsn(ALOAD, 0);
+      mv.visitInsn(SWAP);
+      mv.visitFieldInsn(PUTFIELD, implTypeName, getAccessInstanceFieldName(),
+          accessType.getDescriptor());
+
+      mv.visitLabel(done);
       mv.visitInsn(ARETURN);
       mv.visitMaxs(-1, -1);
       mv.visitEnd();
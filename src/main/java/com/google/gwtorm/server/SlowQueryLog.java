@@ -0,0 +1,114 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gwtorm.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Logs operations that take longer than a threshold.
+ * <p>
+ * Every measurement is passed on to a delegate, typically an
+ * {@link InMemoryOrmMetrics} keeping per-query statistics, so both can be
+ * installed on a database at once:
+ *
+ * <pre>
+ * InMemoryOrmMetrics stats = new InMemoryOrmMetrics();
+ * db.setMetrics(new SlowQueryLog(stats, 250, TimeUnit.MILLISECONDS));
+ * </pre>
+ *
+ * An operation is slow if its latency reaches the threshold. For queries that
+ * is the time until the first row was fetched; the time the caller then
+ * spends reading the rows is passed on to the delegate but never logged.
+ * <p>
+ * Slow operations are logged at {@code WARNING} to the
+ * {@code com.google.gwtorm.server.SlowQueryLog} logger, naming the relation
+ * and the query method. Subclasses may override {@link #log} to report them
+ * elsewhere.
+ */
+public class SlowQueryLog extends OrmMetrics {
+  private static final Logger log =
+      Logger.getLogger(SlowQueryLog.class.getName());
+
+  private final OrmMetrics delegate;
+  private volatile long thresholdNanos;
+
+  /**
+   * @param delegate metrics to pass every measurement on to; null to only log.
+   * @param threshold operations taking at least this long are logged.
+   * @param unit unit of {@code threshold}.
+   */
+  public SlowQueryLog(final OrmMetrics delegate, final long threshold,
+      final TimeUnit unit) {
+    this.delegate = delegate != null ? delegate : DISABLED;
+    setThreshold(threshold, unit);
+  }
+
+  /** @return operations taking at least this many nanoseconds are logged. */
+  public long getThresholdNanos() {
+    return thresholdNanos;
+  }
+
+  /**
+   * @param threshold operations taking at least this long are logged.
+   * @param unit unit of {@code threshold}.
+   */
+  public void setThreshold(final long threshold, final TimeUnit unit) {
+    if (threshold < 0) {
+      throw new IllegalArgumentException("negative threshold " + threshold);
+    }
+    thresholdNanos = unit.toNanos(threshold);
+  }
+
+  @Override
+  public void record(final String relation, final String operation,
+      final int rowsReturned, final int rowsBound, final long nanos,
+      final boolean failed) {
+    delegate.record(relation, operation, rowsReturned, rowsBound, nanos,
+        failed);
+    if (nanos >= thresholdNanos) {
+      log(relation, operation, rowsReturned, rowsBound, nanos, failed);
+    }
+  }
+
+  @Override
+  public void recordIteration(final String relation, final String operation,
+      final long nanos) {
+    delegate.recordIteration(relation, operation, nanos);
+  }
+
+  /**
+   * Report one slow operation.
+   *
+   * @param relation name of the relation, or of the sequence.
+   * @param operation name of the operation or query method.
+   * @param rowsReturned number of rows read from the data store.
+   * @param rowsBound number of rows bound to write statements.
+   * @param nanos elapsed time in nanoseconds.
+   * @param failed true if the operation threw an exception.
+   */
+  protected void log(final String relation, final String operation,
+      final int rowsReturned, final int rowsBound, final long nanos,
+      final boolean failed) {
+    if (log.isLoggable(Level.WARNING)) {
+      log.warning(String.format(
+          "Slow %s on %s: %.3f ms, %d rows returned, %d rows bound%s",
+          operation, relation, nanos / 1e6, rowsReturned, rowsBound,
+          failed ? ", failed" : ""));
+    }
+  }
+}
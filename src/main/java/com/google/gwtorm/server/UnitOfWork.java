@@ -0,0 +1,240 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gwtorm.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes made through one schema, held until the schema commits.
+ * <p>
+ * Writes are kept per relation and per primary key, so several writes of one
+ * entity collapse into the single write having the same effect. Methods are
+ * synchronized because asynchronous operations may run on an executor thread.
+ */
+class UnitOfWork {
+  enum Op {
+    INSERT, UPSERT, UPDATE, DELETE
+  }
+
+  private static class Write {
+    Op op;
+    /** Entity to write; null for a delete by primary key. */
+    Object entity;
+
+    Write(final Op op, final Object entity) {
+      this.op = op;
+      this.entity = entity;
+    }
+  }
+
+  private final List<String> relationOrder;
+  private final Map<AbstractAccess<?, ?>, Map<Object, Write>> relations =
+      new LinkedHashMap<>();
+  private boolean flushing;
+
+  /**
+   * @param relationOrder names of relations, each after the relations it
+   *        references. Relations not listed are written after those listed,
+   *        in the order they were first written.
+   */
+  UnitOfWork(final List<String> relationOrder) {
+    this.relationOrder = relationOrder;
+  }
+
+  /** @return true while held writes are being sent to storage. */
+  synchronized boolean isFlushing() {
+    return flushing;
+  }
+
+  synchronized void add(final AbstractAccess<?, ?> access, final Op op,
+      final Object key, final Object entity) throws OrmException {
+    Map<Object, Write> m = relations.get(access);
+    if (m == null) {
+      m = new LinkedHashMap<>();
+      relations.put(access, m);
+    }
+    final Write w = m.get(key);
+    if (w == null) {
+      m.put(key, new Write(op, entity));
+      return;
+    }
+    if (w.op == Op.DELETE && op == Op.UPDATE) {
+      throw new OrmConcurrencyException(Collections.singletonList(entity));
+    }
+    final Op r = combine(w.op, op);
+    if (r == null) {
+      m.remove(key);
+    } else {
+      w.op = r;
+      w.entity = entity;
+    }
+  }
+
+  /**
+   * Find the single write equivalent to two writes of one entity.
+   *
+   * @return the combined write; null if nothing needs to be written.
+   */
+  private static Op combine(final Op first, final Op then) {
+    switch (then) {
+      case DELETE:
+        return first == Op.INSERT ? null : Op.DELETE;
+      case INSERT:
+        return first == Op.DELETE ? Op.UPSERT : Op.INSERT;
+      case UPDATE:
+        return first;
+      case UPSERT:
+      default:
+        return first == Op.INSERT ? Op.INSERT : Op.UPSERT;
+    }
+  }
+
+  /**
+   * Send held writes to storage.
+   * <p>
+   * Deletes are sent first, with referencing relations before the relations
+   * they reference, so a row is removed after the rows referencing it. This
+   * also frees unique values for rows inserted in their place. Inserts,
+   * upserts and updates follow, one kind at a time, with referenced relations
+   * before the relations referencing them. Each relation's writes of one kind
+   * are sent as a single call, which JDBC runs as one batch.
+   * <p>
+   * Writing one relation also writes what its writes depend on: the deletes
+   * of relations listed after it, and the other writes of relations listed
+   * before it.
+   *
+   * @param only the relation to write; null to write all relations.
+   * @throws OrmException a write failed. Writes not yet sent are discarded; the
+   *         caller should roll back.
+   */
+  void flush(final AbstractAccess<?, ?> only) throws OrmException {
+    final Map<AbstractAccess<?, ?>, Map<Object, Write>> writes =
+        new LinkedHashMap<>();
+    final List<AbstractAccess<?, ?>> order;
+    synchronized (this) {
+      if (flushing) {
+        return;
+      }
+      if (only == null) {
+        writes.putAll(relations);
+        relations.clear();
+      } else if (relations.containsKey(only)) {
+        final int r = rank(only);
+        for (final AbstractAccess<?, ?> access : relations.keySet()) {
+          if (access == only) {
+            writes.put(access, relations.get(access));
+          } else if (rank(access) < r) {
+            writes.put(access, take(relations.get(access), false));
+          } else if (r < rank(access)) {
+            writes.put(access, take(relations.get(access), true));
+          }
+        }
+        relations.remove(only);
+        for (final Iterator<Map<Object, Write>> i =
+            relations.values().iterator(); i.hasNext();) {
+          if (i.next().isEmpty()) {
+            i.remove();
+          }
+        }
+      }
+      if (writes.isEmpty()) {
+        return;
+      }
+      order = new ArrayList<>(writes.keySet());
+      Collections.sort(order, new Comparator<AbstractAccess<?, ?>>() {
+        @Override
+        public int compare(AbstractAccess<?, ?> a, AbstractAccess<?, ?> b) {
+          return Integer.compare(rank(a), rank(b));
+        }
+      });
+      flushing = true;
+    }
+
+    try {
+      for (int i = order.size() - 1; 0 <= i; i--) {
+        write(order.get(i), writes.get(order.get(i)), Op.DELETE);
+      }
+      for (final Op op : Op.values()) {
+        if (op != Op.DELETE) {
+          for (final AbstractAccess<?, ?> access : order) {
+            write(access, writes.get(access), op);
+          }
+        }
+      }
+    } finally {
+      synchronized (this) {
+        flushing = false;
+      }
+    }
+  }
+
+  /**
+   * Remove the deletes, or the other writes, of a relation.
+   *
+   * @return the removed writes.
+   */
+  private static Map<Object, Write> take(final Map<Object, Write> from,
+      final boolean deletes) {
+    final Map<Object, Write> r = new LinkedHashMap<>();
+    for (final Iterator<Map.Entry<Object, Write>> i =
+        from.entrySet().iterator(); i.hasNext();) {
+      final Map.Entry<Object, Write> e = i.next();
+      if ((e.getValue().op == Op.DELETE) == deletes) {
+        r.put(e.getKey(), e.getValue());
+        i.remove();
+      }
+    }
+    return r;
+  }
+
+  private int rank(final AbstractAccess<?, ?> access) {
+    final int i = relationOrder.indexOf(access.getRelationName());
+    return 0 <= i ? i : relationOrder.size();
+  }
+
+  private static void write(final AbstractAccess<?, ?> access,
+      final Map<Object, Write> writes, final Op op) throws OrmException {
+    final List<Object> rows = new ArrayList<>();
+    final List<Object> keys = new ArrayList<>();
+    for (final Map.Entry<Object, Write> e : writes.entrySet()) {
+      final Write w = e.getValue();
+      if (w.op != op) {
+        continue;
+      } else if (w.entity != null) {
+        rows.add(w.entity);
+      } else {
+        keys.add(e.getKey());
+      }
+    }
+    if (!rows.isEmpty()) {
+      access.write(op, rows);
+    }
+    if (!keys.isEmpty()) {
+      access.writeDeleteKeys(keys);
+    }
+  }
+
+  /** Forget all held writes. */
+  synchronized void clear() {
+    relations.clear();
+  }
+}
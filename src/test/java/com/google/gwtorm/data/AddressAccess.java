@@ -20,6 +20,10 @@ import com.google.gwtorm.server.PrimaryKey;
 import com.google.gwtorm.server.Query;
 import com.google.gwtorm.server.ResultSet;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
 public interface AddressAccess extends Access<Address, Address.Key> {
   @PrimaryKey("city")
   Address byId(Address.Key a) throws OrmException;
@@ -29,4 +33,8 @@ public interface AddressAccess extends Access<Address, Address.Key> {
 
   @Query("WHERE city.owner = ?")
   ResultSet<Address> byOwner(Person.Key owner) throws OrmException;
+
+  @Query("WHERE city.owner IN ? ORDER BY city.name")
+  Map<Person.Key, List<Address>> byOwners(Collection<Person.Key> owners)
+      throws OrmException;
 }
@@ -0,0 +1,95 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gwtorm.data;
+
+import com.google.gwtorm.client.Column;
+import com.google.gwtorm.client.StringKey;
+import com.google.gwtorm.server.LazyBytes;
+import com.google.gwtorm.server.LazyString;
+
+
+public class Note {
+  @SuppressWarnings("serial")
+  public static class Key extends StringKey<com.google.gwtorm.client.Key<?>> {
+    @Column(id = 1, length = 40)
+    protected String name;
+
+    protected Key() {
+    }
+
+    public Key(final String name) {
+      this.name = name;
+    }
+
+    @Override
+    public String get() {
+      return name;
+    }
+
+    @Override
+    protected void set(String newValue) {
+      name = newValue;
+    }
+  }
+
+  @Column(id = 1)
+  protected Key name;
+
+  @Column(id = 2)
+  protected String title;
+
+  @Column(id = 3, length = Integer.MAX_VALUE, notNull = false)
+  protected LazyString body;
+
+  @Column(id = 4, notNull = false)
+  protected LazyBytes attachment;
+
+  protected Note() {
+  }
+
+  public Note(final Key key, final String title) {
+    this.name = key;
+    this.title = title;
+  }
+
+  public Key getKey() {
+    return name;
+  }
+
+  public String getTitle() {
+    return title;
+  }
+
+  public void setTitle(final String title) {
+    this.title = title;
+  }
+
+  public LazyString getBody() {
+    return body;
+  }
+
+  public void setBody(final LazyString body) {
+    this.body = body;
+  }
+
+  public LazyBytes getAttachment() {
+    return attachment;
+  }
+
+  public void setAttachment(final LazyBytes attachment) {
+    this.attachment = attachment;
+  }
+}
@@ -14,12 +14,15 @@
 
 package com.google.gwtorm.data;
 
+import com.google.common.util.concurrent.CheckedFuture;
 import com.google.gwtorm.server.Access;
 import com.google.gwtorm.server.OrmException;
 import com.google.gwtorm.server.PrimaryKey;
 import com.google.gwtorm.server.Query;
 import com.google.gwtorm.server.ResultSet;
 
+import java.util.Collection;
+
 public interface PersonAccess extends Access<Person, Person.Key> {
   @Override
   @PrimaryKey("name")
@@ -31,6 +34,49 @@ public interface PersonAccess extends Access<Person, Person.Key> {
   @Query("WHERE age > ? ORDER BY age")
   ResultSet<Person> olderThan(int age) throws OrmException;
 
+  @Query("WHERE age > ? ORDER BY age")
+  CheckedFuture<ResultSet<Person>, OrmException> olderThanAsync(int age);
+
+  @Query(value = "WHERE age > ? ORDER BY age", fields = {"age"})
+  ResultSet<Person> agesOlderThan(int age) throws OrmException;
+
+  @Query(fields = {"registered"})
+  ResultSet<Person> registration() throws OrmException;
+
+  @Query
+  long countAll() throws OrmException;
+
+  @Query("WHERE age > ?")
+  int countOlderThan(int age) throws OrmException;
+
+  @Query("WHERE age > ?")
+  boolean anyOlderThan(int age) throws OrmException;
+
+  @Query(value = "WHERE age > ?", delete = true)
+  int deleteOlderThan(int age) throws OrmException;
+
+  @Query(value = "WHERE age > ?", set = {"registered"})
+  int setRegisteredOlderThan(boolean registered, int age)
+      throws OrmException;
+
+  @Query("WHERE age IN ? ORDER BY name")
+  ResultSet<Person> withAges(Collection<Integer> ages) throws OrmException;
+
+  @Query("WHERE age IN ?")
+  int countWithAges(Collection<Integer> ages) throws OrmException;
+
+  @Query("WHERE (age = ? OR age = ?) ORDER BY name")
+  ResultSet<Person> eitherAge(int a, int b) throws OrmException;
+
+  @Query("WHERE (age = 18 OR age = 33) ORDER BY name")
+  ResultSet<Person> eighteenOrThirtyThree() throws OrmException;
+
+  @Query("WHERE name LIKE ? ORDER BY name")
+  ResultSet<Person> nameStartsWith(String prefix) throws OrmException;
+
+  @Query("WHERE name LIKE 'M%' ORDER BY age")
+  ResultSet<Person> nameStartsWithM() throws OrmException;
+
   @Query("WHERE age > ? ORDER BY name DESC")
   ResultSet<Person> olderThanDescByName(int age)
       throws OrmException;
@@ -15,6 +15,7 @@
 package com.google.gwtorm.jdbc;
 
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.doNothing;
@@ -225,10 +226,13 @@ public abstract class AbstractTestJdbcAccess {
 
   protected static void assertUsedBatchingOnly(int retry, PreparedStatement ps, int... ids)
           throws SQLException {
-    verify(ps, times(ids.length)).addBatch();
+    // Every attempt rebuilds the batch; a completed batch is empty.
+    verify(ps, times(ids.length * retry)).addBatch();
     verify(ps,times(retry)).executeBatch();
     verify(ps, never()).executeUpdate();
-    assertExpectedIdsUsed(ps, ids);
+    for (int id : ids) {
+      verify(ps, times(retry)).setInt(1, id);
+    }
   }
 
 
@@ -333,6 +337,27 @@ public abstract class AbstractTestJdbcAccess {
     assertCorrectUpdatingRetries(update,classUnderTest.getDeadlockRetryCount() + 1, 1, 2);
   }
 
+  @Test
+  public void testUpdateReportsConcurrentlyModifiedEntities()
+      throws SQLException, OrmException {
+    stubStatementWithUpdateCounts(UPDATE, 1, 0);
+    try {
+      classUnderTest.update(twoRows);
+      fail("missing OrmConcurrencyException");
+    } catch (OrmConcurrencyException e) {
+      final int[] ids = new int[e.getEntities().size()];
+      for (int i = 0; i < ids.length; i++) {
+        ids[i] = ((Data) e.getEntities().get(i)).id;
+      }
+      assertArrayEquals(concurrentlyModifiedIds(), ids);
+    }
+  }
+
+  /** @return ids of the rows reported when the second of two updates fails. */
+  protected int[] concurrentlyModifiedIds() {
+    return new int[] {2};
+  }
+
   @Test
   public void testUpsertNothing() throws OrmException {
     classUnderTest.upsert(noData);
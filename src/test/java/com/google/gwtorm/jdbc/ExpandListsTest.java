@@ -0,0 +1,56 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gwtorm.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ExpandListsTest {
+  private static int count(final String s, final String part) {
+    int n = 0;
+    for (int i = s.indexOf(part); i >= 0; i = s.indexOf(part, i + 1)) {
+      n++;
+    }
+    return n;
+  }
+
+  @Test
+  public void testSmallLists() {
+    assertEquals("SELECT * FROM t T WHERE T.a IN (?,?) AND T.b='(?*)'",
+        JdbcAccess.expandLists(
+            "SELECT * FROM t T WHERE T.a IN (?*) AND T.b='(?*)'",
+            new int[] {2}));
+  }
+
+  @Test
+  public void testLargeListIsSplit() {
+    final int n = 2 * JdbcAccess.MAX_IN_KEYS + 1;
+    final String sql = JdbcAccess.expandLists(
+        "SELECT * FROM t T WHERE (T.a IN (?*) OR T.b=?) AND T.c IN (?*)",
+        new int[] {n, 3});
+    assertTrue(sql, sql.startsWith(
+        "SELECT * FROM t T WHERE ((T.a IN (?,"));
+    assertTrue(sql, sql.endsWith(
+        ",?) OR T.a IN (?)) OR T.b=?) AND T.c IN (?,?,?)"));
+    assertEquals(3, count(sql, "T.a IN ("));
+    assertEquals(n + 4, count(sql, "?"));
+    for (final String list : sql.split("\\(")) {
+      assertTrue(count(list, "?") <= JdbcAccess.MAX_IN_KEYS);
+    }
+  }
+}
@@ -0,0 +1,44 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gwtorm.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ExponentialBackoffTest {
+  @Test
+  public void testGivesUpAfterMaxRetries() {
+    final RetryPolicy p = new ExponentialBackoff(2, 0, 0);
+    assertEquals(0, p.getRetryDelay(1));
+    assertEquals(0, p.getRetryDelay(2));
+    assertTrue(p.getRetryDelay(3) < 0);
+  }
+
+  @Test
+  public void testDelayGrowsUpToCap() {
+    final RetryPolicy p = new ExponentialBackoff(10, 8, 50);
+    for (int i = 0; i < 100; i++) {
+      final long first = p.getRetryDelay(1);
+      assertTrue(4 <= first && first <= 8);
+      final long third = p.getRetryDelay(3);
+      assertTrue(16 <= third && third <= 32);
+      final long last = p.getRetryDelay(10);
+      assertTrue(25 <= last && last <= 50);
+    }
+  }
+}
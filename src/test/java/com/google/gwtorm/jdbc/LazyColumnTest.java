@@ -0,0 +1,209 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gwtorm.jdbc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.gwtorm.data.Note;
+import com.google.gwtorm.data.NoteDb;
+import com.google.gwtorm.server.InMemoryOrmMetrics;
+import com.google.gwtorm.server.LazyBytes;
+import com.google.gwtorm.server.LazyString;
+import com.google.gwtorm.server.OrmConcurrencyException;
+import com.google.gwtorm.server.OrmException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+public class LazyColumnTest {
+  private static int runCount;
+  private Database<NoteDb> db;
+  private NoteDb schema;
+
+  @Before
+  public void setUp() throws Exception {
+    final Properties p = new Properties();
+    p.setProperty("driver", org.h2.Driver.class.getName());
+    p.setProperty("url", "jdbc:h2:mem:NoteDb" + (runCount++));
+    db = new Database<>(new SimpleDataSource(p), NoteDb.class);
+    schema = db.open();
+    final JdbcExecutor e = new JdbcExecutor((JdbcSchema) schema);
+    try {
+      schema.updateSchema(e);
+    } finally {
+      e.close();
+    }
+  }
+
+  @After
+  public void tearDown() {
+    if (schema != null) {
+      schema.close();
+    }
+  }
+
+  private static String text(final int len) {
+    final StringBuilder r = new StringBuilder(len);
+    for (int i = 0; i < len; i++) {
+      r.append((char) ('a' + i % 26));
+    }
+    return r.toString();
+  }
+
+  private static byte[] bytes(final int len) {
+    final byte[] r = new byte[len];
+    for (int i = 0; i < len; i++) {
+      r[i] = (byte) i;
+    }
+    return r;
+  }
+
+  private Note insert(final String name, final String body,
+      final byte[] attachment) throws OrmException {
+    final Note n = new Note(new Note.Key(name), "title of " + name);
+    n.setBody(new LazyString(body));
+    n.setAttachment(new LazyBytes(attachment));
+    schema.notes().insert(Collections.singleton(n));
+    return n;
+  }
+
+  @Test
+  public void testGetReadsColumnsOnFirstUse() throws OrmException {
+    final String body = text(10000);
+    final byte[] attachment = bytes(5000);
+    insert("a", body, attachment);
+
+    // Metrics are picked up when a schema opens; the in-memory database
+    // lives only as long as the first schema does.
+    final InMemoryOrmMetrics metrics = new InMemoryOrmMetrics();
+    db.setMetrics(metrics);
+    final NoteDb other = db.open();
+    try {
+      final Note n = other.notes().get(new Note.Key("a"));
+      assertNotNull(n);
+      assertEquals("title of a", n.getTitle());
+      assertFalse(n.getBody().isLoaded());
+      assertFalse(n.getAttachment().isLoaded());
+      assertNull(metrics.get("notes", "lazyLoad"));
+
+      assertEquals(body, n.getBody().get());
+      assertTrue(n.getBody().isLoaded());
+      assertEquals(body, n.getBody().get());
+      assertArrayEquals(attachment, n.getAttachment().get());
+      assertEquals(2, metrics.get("notes", "lazyLoad").getCount());
+    } finally {
+      other.close();
+    }
+  }
+
+  @Test
+  public void testQueryLeavesColumnsUnread() throws OrmException {
+    insert("a", "first", bytes(1));
+    insert("b", "second", bytes(300));
+
+    final List<Note> all = schema.notes().all().toList();
+    assertEquals(2, all.size());
+    assertFalse(all.get(0).getBody().isLoaded());
+    assertEquals("second", all.get(1).getBody().get());
+    assertArrayEquals(bytes(300), all.get(1).getAttachment().get());
+  }
+
+  @Test
+  public void testNullValues() throws OrmException {
+    insert("a", null, null);
+    final Note n = schema.notes().get(new Note.Key("a"));
+    assertNull(n.getBody().get());
+    assertNull(n.getAttachment().get());
+
+    n.setBody(null);
+    n.setAttachment(new LazyBytes(new byte[0]));
+    schema.notes().update(Collections.singleton(n));
+    final Note r = schema.notes().get(new Note.Key("a"));
+    assertNull(r.getBody().get());
+    assertArrayEquals(new byte[0], r.getAttachment().get());
+  }
+
+  @Test
+  public void testUpdateKeepsUnreadValues() throws OrmException {
+    final String body = text(300);
+    insert("a", body, bytes(10));
+
+    final Note n = schema.notes().get(new Note.Key("a"));
+    n.setTitle("changed");
+    schema.notes().update(Collections.singleton(n));
+
+    final Note r = schema.notes().get(new Note.Key("a"));
+    assertEquals("changed", r.getTitle());
+    assertEquals(body, r.getBody().get());
+    assertArrayEquals(bytes(10), r.getAttachment().get());
+
+    r.getBody().set("replaced");
+    schema.notes().update(Collections.singleton(r));
+    assertEquals("replaced", schema.notes().get(new Note.Key("a")).getBody()
+        .get());
+  }
+
+  @Test
+  public void testWritesDoNotReadUnreadValues() throws OrmException {
+    final String body = text(300);
+    insert("a", body, bytes(10));
+
+    final InMemoryOrmMetrics metrics = new InMemoryOrmMetrics();
+    db.setMetrics(metrics);
+    final NoteDb other = db.open();
+    try {
+      final Note n = other.notes().get(new Note.Key("a"));
+      n.setTitle("updated");
+      other.notes().update(Collections.singleton(n));
+      n.setTitle("upserted");
+      n.getAttachment().set(bytes(20));
+      other.notes().upsert(Collections.singleton(n));
+      assertFalse(n.getBody().isLoaded());
+      assertNull(metrics.get("notes", "lazyLoad"));
+
+      final Note r = other.notes().get(new Note.Key("a"));
+      assertEquals("upserted", r.getTitle());
+      assertEquals(body, r.getBody().get());
+      assertArrayEquals(bytes(20), r.getAttachment().get());
+    } finally {
+      other.close();
+    }
+  }
+
+  @Test
+  public void testDeletedRow() throws OrmException {
+    insert("a", "body", bytes(1));
+    final Note n = schema.notes().get(new Note.Key("a"));
+    schema.notes().deleteKeys(Collections.singleton(new Note.Key("a")));
+    try {
+      n.getBody().get();
+      fail("Expected OrmConcurrencyException");
+    } catch (OrmConcurrencyException e) {
+      // Expected.
+    }
+  }
+}
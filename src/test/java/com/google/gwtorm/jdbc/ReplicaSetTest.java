@@ -0,0 +1,90 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gwtorm.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import javax.sql.DataSource;
+
+public class ReplicaSetTest {
+  @Test
+  public void testAcquireLeastLoaded() {
+    final ReplicaSet set = new ReplicaSet(Arrays.asList(
+        mock(DataSource.class), mock(DataSource.class)));
+    final ReplicaSet.Replica a = set.acquire();
+    final ReplicaSet.Replica b = set.acquire();
+    assertNotSame(a, b);
+    assertEquals(1, a.getConnectionCount());
+    assertEquals(1, b.getConnectionCount());
+
+    set.release(b);
+    assertSame(b, set.acquire());
+    assertEquals(1, b.getConnectionCount());
+  }
+
+  @Test
+  public void testAcquireTakesTurns() {
+    final ReplicaSet set = new ReplicaSet(Arrays.asList(
+        mock(DataSource.class), mock(DataSource.class)));
+    final ReplicaSet.Replica a = set.acquire();
+    set.release(a);
+    final ReplicaSet.Replica b = set.acquire();
+    set.release(b);
+    assertNotSame(a, b);
+  }
+
+  @Test
+  public void testFailedReplicaIsSkipped() throws SQLException {
+    final DataSource ds = mock(DataSource.class);
+    when(ds.getConnection()).thenThrow(new SQLException("down"));
+    final ReplicaSet set = new ReplicaSet(Arrays.asList(ds));
+
+    final ReplicaSet.Replica r = set.acquire();
+    try {
+      set.open(r);
+      fail("expected SQLException");
+    } catch (SQLException e) {
+      assertEquals("down", e.getMessage());
+    }
+    assertEquals(0, r.getConnectionCount());
+    assertNull(set.acquire());
+  }
+
+  @Test
+  public void testOpenReadOnly() throws SQLException {
+    final DataSource ds = mock(DataSource.class);
+    final Connection c = mock(Connection.class);
+    when(ds.getConnection()).thenReturn(c);
+    when(c.getAutoCommit()).thenReturn(true);
+    final ReplicaSet set = new ReplicaSet(Arrays.asList(ds));
+
+    assertSame(c, set.open(set.acquire()));
+    verify(c).setReadOnly(true);
+  }
+}
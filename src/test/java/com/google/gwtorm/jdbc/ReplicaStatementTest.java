@@ -0,0 +1,151 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gwtorm.jdbc;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.gwtorm.data.PhoneBookDb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Collections;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+public class ReplicaStatementTest {
+  private static final String SQL = "SELECT name FROM people";
+  private static int runCount;
+  private Database<PhoneBookDb> db;
+  private PhoneBookDb primary;
+  private JdbcSchema schema;
+  private Connection replica;
+
+  @Before
+  public void setUp() throws Exception {
+    final Properties p = new Properties();
+    p.setProperty("driver", org.h2.Driver.class.getName());
+    p.setProperty("url", "jdbc:h2:mem:ReplicaStatement" + (runCount++));
+    db = new Database<>(new SimpleDataSource(p), PhoneBookDb.class);
+    primary = db.open();
+    final JdbcExecutor e = new JdbcExecutor((JdbcSchema) primary);
+    try {
+      primary.updateSchema(e);
+    } finally {
+      e.close();
+    }
+
+    replica = mock(Connection.class);
+    when(replica.getAutoCommit()).thenReturn(true);
+    final DataSource ds = mock(DataSource.class);
+    when(ds.getConnection()).thenReturn(replica);
+    db.setReplicas(Collections.singleton(ds));
+    schema = (JdbcSchema) db.open();
+  }
+
+  @After
+  public void tearDown() {
+    if (schema != null) {
+      schema.close();
+    }
+    if (primary != null) {
+      primary.close();
+    }
+  }
+
+  @Test
+  public void testConnectionErrors() {
+    assertTrue(ReplicaStatement.isConnectionError(
+        new SQLTransientConnectionException("timeout")));
+    assertTrue(ReplicaStatement.isConnectionError(
+        new SQLNonTransientConnectionException("refused")));
+    assertTrue(ReplicaStatement.isConnectionError(
+        new SQLException("link failure", "08S01")));
+    assertFalse(ReplicaStatement.isConnectionError(
+        new SQLException("syntax error", "42000")));
+    assertFalse(ReplicaStatement.isConnectionError(new SQLException("other")));
+  }
+
+  @Test
+  public void testFailoverKeepsOpenStatements() throws Exception {
+    final PreparedStatement streaming = mock(PreparedStatement.class);
+    final ResultSet rows = mock(ResultSet.class);
+    when(streaming.executeQuery()).thenReturn(rows);
+    final PreparedStatement failing = mock(PreparedStatement.class);
+    when(failing.executeQuery()).thenThrow(
+        new SQLException("connection reset", "08006"));
+    when(replica.prepareStatement(anyString()))
+        .thenReturn(streaming, failing);
+
+    final PreparedStatement a = schema.prepareQuery(SQL);
+    assertSame(rows, a.executeQuery());
+
+    final PreparedStatement b = schema.prepareQuery(SQL);
+    final ResultSet r = b.executeQuery();
+    assertFalse(r.next());
+    r.close();
+    b.close();
+    verify(failing).close();
+    verify(replica, never()).close();
+
+    a.close();
+    verify(streaming).close();
+    verify(replica).close();
+
+    // The replica is down, so queries now run on the primary.
+    final PreparedStatement c = schema.prepareQuery(SQL);
+    c.close();
+    verify(replica, times(2)).prepareStatement(anyString());
+  }
+
+  @Test
+  public void testQueryErrorIsThrown() throws Exception {
+    final PreparedStatement ps = mock(PreparedStatement.class);
+    final SQLException err = new SQLException("syntax error", "42000");
+    when(ps.executeQuery()).thenThrow(err);
+    when(replica.prepareStatement(anyString())).thenReturn(ps);
+
+    final PreparedStatement a = schema.prepareQuery(SQL);
+    try {
+      a.executeQuery();
+      fail("expected SQLException");
+    } catch (SQLException e) {
+      assertSame(err, e);
+    }
+    a.close();
+
+    schema.prepareQuery(SQL).close();
+    verify(replica, times(2)).prepareStatement(anyString());
+    verify(replica, never()).close();
+  }
+}
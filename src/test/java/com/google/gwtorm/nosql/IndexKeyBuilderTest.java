@@ -18,6 +18,8 @@ import static org.junit.Assert.assertEquals;
 
 import org.junit.Test;
 
+import java.nio.charset.StandardCharsets;
+
 public class IndexKeyBuilderTest  {
 
   @Test
@@ -72,6 +74,61 @@ public class IndexKeyBuilderTest  {
     assertEqualToBuilderResult(new byte[] {(byte) 0xff, (byte) 0xff}, ib);
   }
 
+  @Test
+  public void testNegativeInt() {
+    IndexKeyBuilder ib = new IndexKeyBuilder();
+    ib.add(-1L);
+    assertEqualToBuilderResult(new byte[] {0x08, (byte) 0xff, (byte) 0xff,
+        (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff,
+        (byte) 0xff}, ib);
+  }
+
+  @Test
+  public void testStringUTF8() {
+    final String[] tests = {"caf\u00e9", "\u20ac", "\ud83d\ude00", "a\ud83db",
+        "\ude00", "\uffff\u0080\u07ff\u0800"};
+    for (String str : tests) {
+      final byte[] utf8 = str.getBytes(StandardCharsets.UTF_8);
+      IndexKeyBuilder exp = new IndexKeyBuilder();
+      exp.add(utf8);
+      IndexKeyBuilder ib = new IndexKeyBuilder();
+      ib.add(str);
+      assertEquals(toString(exp.toByteArray()), toString(ib.toByteArray()));
+
+      exp = new IndexKeyBuilder();
+      exp.desc(utf8);
+      ib = new IndexKeyBuilder();
+      ib.desc(str);
+      assertEquals(toString(exp.toByteArray()), toString(ib.toByteArray()));
+    }
+  }
+
+  @Test
+  public void testGrowAndReset() {
+    IndexKeyBuilder ib = new IndexKeyBuilder(1);
+    final StringBuilder exp = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      ib.add("abc");
+      exp.append("abc");
+    }
+    assertEqualToBuilderResult(exp.toString().getBytes(StandardCharsets.UTF_8), ib);
+
+    ib.reset();
+    assertEquals(0, ib.size());
+    ib.add("hi");
+    ib.delimiter();
+    assertEqualToBuilderResult(new byte[] {'h', 'i', 0x00, 0x01}, ib);
+  }
+
+  @Test
+  public void testToCallerArray() {
+    IndexKeyBuilder ib = new IndexKeyBuilder();
+    ib.add("hi");
+    final byte[] dst = new byte[4];
+    assertEquals(2, ib.toByteArray(dst, 1));
+    assertEquals(toString(new byte[] {0, 'h', 'i', 0}), toString(dst));
+  }
+
   private static void assertEqualToBuilderResult(byte[] exp, IndexKeyBuilder ic) {
     assertEquals(toString(exp), toString(ic.toByteArray()));
   }
@@ -0,0 +1,28 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gwtorm.nosql;
+
+import com.google.gwtorm.data.PhoneBookDb;
+import com.google.gwtorm.nosql.heap.MemoryDatabase;
+import com.google.gwtorm.server.OrmException;
+
+/** Runs the phone book tests against the prefix-compressed store. */
+public class NoSqlPackedPhoneBookTest extends NoSqlPhoneBookTest {
+  @Override
+  protected MemoryDatabase<PhoneBookDb> newDatabase() throws OrmException {
+    return new MemoryDatabase<>(PhoneBookDb.class, true);
+  }
+}
@@ -14,18 +14,24 @@
 
 package com.google.gwtorm.nosql;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import com.google.common.util.concurrent.CheckedFuture;
+import com.google.gwtorm.data.Address;
 import com.google.gwtorm.data.Person;
 import com.google.gwtorm.data.PersonAccess;
 import com.google.gwtorm.data.PhoneBookDb;
 import com.google.gwtorm.nosql.heap.MemoryDatabase;
 import com.google.gwtorm.server.Access;
+import com.google.gwtorm.server.InMemoryOrmMetrics;
 import com.google.gwtorm.server.OrmConcurrencyException;
 import com.google.gwtorm.server.OrmException;
 
@@ -34,8 +40,11 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
 
 public class NoSqlPhoneBookTest  {
   protected MemoryDatabase<PhoneBookDb> db;
@@ -43,10 +52,14 @@ public class NoSqlPhoneBookTest  {
 
   @Before
   public void setUp() throws Exception {
-    db = new MemoryDatabase<>(PhoneBookDb.class);
+    db = newDatabase();
     openSchemas = new ArrayList<>();
   }
 
+  protected MemoryDatabase<PhoneBookDb> newDatabase() throws OrmException {
+    return new MemoryDatabase<>(PhoneBookDb.class);
+  }
+
   @After
   public void tearDown() throws Exception {
     if (openSchemas != null) {
@@ -80,6 +93,19 @@ public class NoSqlPhoneBookTest  {
     assertNotSame(schema1, schema2);
   }
 
+  @Test
+  public void testGeneratedClassesReused() throws Exception {
+    final PhoneBookDb schema1 = open();
+    final PhoneBookDb schema2 =
+        new MemoryDatabase<>(PhoneBookDb.class).open();
+    try {
+      assertSame(schema1.getClass(), schema2.getClass());
+      assertSame(schema1.people().getClass(), schema2.people().getClass());
+    } finally {
+      schema2.close();
+    }
+  }
+
   @Test
   public void testGetPeopleAccess() throws Exception {
     final PhoneBookDb schema = open();
@@ -159,6 +185,199 @@ public class NoSqlPhoneBookTest  {
     assertEquals(sp.primaryKey(p1), sp.primaryKey(p2));
   }
 
+  @Test
+  public void testGetAsyncBatched() throws Exception {
+    final List<Runnable> tasks = new ArrayList<>();
+    db.setExecutor(new Executor() {
+      @Override
+      public void execute(Runnable task) {
+        tasks.add(task);
+      }
+    });
+    final PhoneBookDb schema = open();
+    final PersonAccess sp = schema.people();
+    final Person bob = new Person(new Person.Key("Bob"), 18);
+    final Person mary = new Person(new Person.Key("Mary"), 22);
+    sp.insert(Arrays.asList(bob, mary));
+
+    final CheckedFuture<Person, OrmException> f1 = sp.getAsync(sp.primaryKey(bob));
+    final CheckedFuture<Person, OrmException> f2 = sp.getAsync(sp.primaryKey(mary));
+    final CheckedFuture<Person, OrmException> f3 =
+        sp.getAsync(new Person.Key("Zak"));
+    assertFalse(f1.isDone());
+    assertEquals(1, tasks.size());
+
+    tasks.remove(0).run();
+    assertEquals(bob.name(), f1.checkedGet().name());
+    assertEquals(mary.name(), f2.checkedGet().name());
+    assertNull(f3.checkedGet());
+  }
+
+  @Test
+  public void testSyncCallWhileAsyncPending() throws Exception {
+    final List<Runnable> tasks = new ArrayList<>();
+    db.setExecutor(new Executor() {
+      @Override
+      public void execute(Runnable task) {
+        tasks.add(task);
+      }
+    });
+    final PhoneBookDb schema = open();
+    final PersonAccess sp = schema.people();
+    final Person bob = new Person(new Person.Key("Bob"), 18);
+    sp.insert(Collections.singleton(bob));
+
+    final CheckedFuture<Person, OrmException> f =
+        sp.getAsync(sp.primaryKey(bob));
+    try {
+      sp.get(new Person.Key("Mary"));
+      fail("Expected IllegalStateException");
+    } catch (IllegalStateException e) {
+      // Expected.
+    }
+    try {
+      sp.insert(Collections.singleton(new Person(new Person.Key("Mary"), 22)));
+      fail("Expected IllegalStateException");
+    } catch (IllegalStateException e) {
+      // Expected.
+    }
+
+    tasks.remove(0).run();
+    assertEquals(bob.name(), f.checkedGet().name());
+    assertNull(sp.get(new Person.Key("Mary")));
+  }
+
+  @Test
+  public void testKeyPrefixes() throws Exception {
+    @SuppressWarnings("unchecked")
+    final NoSqlAccess<Person, Person.Key> sp =
+        (NoSqlAccess<Person, Person.Key>) open().people();
+    assertArrayEquals(NoSqlAccess.keyPrefix("people"), sp.getDataRowPrefix());
+    assertSame(sp.getDataRowPrefix(), sp.getDataRowPrefix());
+    assertTrue(sp.getIndexes().length > 0);
+    for (IndexFunction<Person> idx : sp.getIndexes()) {
+      assertArrayEquals(NoSqlAccess.keyPrefix("people." + idx.getName()),
+          sp.getIndexRowPrefix(idx));
+    }
+  }
+
+  @Test
+  public void testMetrics() throws Exception {
+    final InMemoryOrmMetrics metrics = new InMemoryOrmMetrics();
+    db.setMetrics(metrics);
+    final PhoneBookDb schema = open();
+    final PersonAccess sp = schema.people();
+    sp.insert(Arrays.asList(new Person(new Person.Key("Bob"), 18),
+        new Person(new Person.Key("Mary"), 22)));
+    assertNotNull(sp.get(new Person.Key("Bob")));
+    assertEquals(1, sp.olderThan(20).toList().size());
+
+    final InMemoryOrmMetrics.Stats insert = metrics.get("people", "insert");
+    assertEquals(1, insert.getCount());
+    assertEquals(2, insert.getRowsBound());
+    assertEquals(0, insert.getFailures());
+    assertEquals(1, metrics.get("people", "get").getRowsReturned());
+    assertEquals(1, metrics.get("people", "olderThan").getRowsReturned());
+
+    schema.close();
+    db.setMetrics(null);
+    metrics.reset();
+    open().people().olderThan(20).toList();
+    assertTrue(metrics.getAll().isEmpty());
+  }
+
+  @Test
+  public void testCoalesceGets() throws Exception {
+    db.setCoalesceGets(true);
+    final PhoneBookDb schema = open();
+    final PersonAccess sp = schema.people();
+    final Person bob = new Person(new Person.Key("Bob"), 18);
+    final Person mary = new Person(new Person.Key("Mary"), 22);
+    sp.insert(Arrays.asList(bob, mary));
+
+    final Person b1 = sp.get(sp.primaryKey(bob));
+    assertNotNull(b1);
+    assertSame(b1, sp.get(new Person.Key("Bob")));
+
+    final List<Person> r =
+        sp.get(Arrays.asList(sp.primaryKey(bob), sp.primaryKey(mary), sp.primaryKey(bob)))
+            .toList();
+    assertEquals(2, r.size());
+    assertSame(b1, r.get(0));
+    assertEquals(mary.name(), r.get(1).name());
+
+    b1.growOlder();
+    sp.update(Collections.singleton(b1));
+    final Person b2 = sp.get(sp.primaryKey(bob));
+    assertNotSame(b1, b2);
+    assertEquals(b1.age(), b2.age());
+  }
+
+  @Test
+  public void testUnitOfWork() throws Exception {
+    final InMemoryOrmMetrics metrics = new InMemoryOrmMetrics();
+    db.setMetrics(metrics);
+    db.setUnitOfWork(true);
+    final PhoneBookDb schema = open();
+    final PersonAccess sp = schema.people();
+    final Person bob = new Person(new Person.Key("Bob"), 18);
+    final Person mary = new Person(new Person.Key("Mary"), 22);
+    sp.insert(Arrays.asList(bob, mary));
+    bob.growOlder();
+    sp.update(Collections.singleton(bob));
+    bob.growOlder();
+    sp.update(Collections.singleton(bob));
+    sp.delete(Collections.singleton(mary));
+
+    assertSame(bob, sp.get(new Person.Key("Bob")));
+    assertNull(metrics.get("people", "insert"));
+    final PhoneBookDb other = open();
+    assertNull(other.people().get(new Person.Key("Bob")));
+
+    schema.commit();
+    assertEquals(1, metrics.get("people", "insert").getCount());
+    assertEquals(1, metrics.get("people", "insert").getRowsBound());
+    assertNull(metrics.get("people", "update"));
+    assertNull(metrics.get("people", "delete"));
+    assertEquals(20, other.people().get(new Person.Key("Bob")).age());
+    assertNull(other.people().get(new Person.Key("Mary")));
+
+    final Person b = sp.get(new Person.Key("Bob"));
+    b.growOlder();
+    sp.update(Collections.singleton(b));
+    b.growOlder();
+    sp.update(Collections.singleton(b));
+    assertNull(metrics.get("people", "update"));
+    schema.commit();
+    assertEquals(1, metrics.get("people", "update").getCount());
+    assertEquals(22, open().people().get(new Person.Key("Bob")).age());
+
+    sp.insert(Collections.singleton(new Person(new Person.Key("Zak"), 33)));
+    final List<Person> r = sp.olderThan(30).toList();
+    assertEquals(1, r.size());
+    assertEquals("Zak", r.get(0).name());
+
+    sp.insert(Collections.singleton(new Person(new Person.Key("Ann"), 40)));
+    schema.rollback();
+    schema.commit();
+    assertNull(sp.get(new Person.Key("Ann")));
+  }
+
+  @Test
+  public void testFetchByAgeAsync() throws Exception {
+    final PhoneBookDb schema = open();
+    final ArrayList<Person> all = new ArrayList<>();
+    all.add(new Person(new Person.Key("Bob"), 18));
+    all.add(new Person(new Person.Key("Mary"), 22));
+    all.add(new Person(new Person.Key("Zak"), 33));
+    schema.people().insert(all);
+
+    final List<Person> r = schema.people().olderThanAsync(20).get().toList();
+    assertEquals(2, r.size());
+    assertEquals(all.get(1).name(), r.get(0).name());
+    assertEquals(all.get(2).name(), r.get(1).name());
+  }
+
   @Test
   public void testGetOnePersonIterator() throws Exception {
     final PhoneBookDb schema = open();
@@ -261,6 +480,178 @@ public class NoSqlPhoneBookTest  {
     assertEquals(all.get(2).name(), r.get(1).name());
   }
 
+  @Test
+  public void testCountAndExists() throws Exception {
+    final PhoneBookDb schema = open();
+    assertEquals(0, schema.people().countAll());
+    assertFalse(schema.people().anyOlderThan(0));
+
+    final ArrayList<Person> all = new ArrayList<>();
+    all.add(new Person(new Person.Key("Bob"), 18));
+    all.add(new Person(new Person.Key("Mary"), 22));
+    all.add(new Person(new Person.Key("Zak"), 33));
+    schema.people().insert(all);
+
+    assertEquals(3, schema.people().countAll());
+    assertEquals(2, schema.people().countOlderThan(20));
+    assertEquals(0, schema.people().countOlderThan(40));
+    assertTrue(schema.people().anyOlderThan(30));
+    assertFalse(schema.people().anyOlderThan(33));
+
+    schema.people().delete(Collections.singleton(all.get(2)));
+    assertEquals(1, schema.people().countOlderThan(20));
+    assertFalse(schema.people().anyOlderThan(30));
+  }
+
+  @Test
+  public void testDeleteAndUpdateWhere() throws Exception {
+    final PhoneBookDb schema = open();
+    final ArrayList<Person> all = new ArrayList<>();
+    all.add(new Person(new Person.Key("Bob"), 18));
+    all.add(new Person(new Person.Key("Mary"), 22));
+    all.add(new Person(new Person.Key("Zak"), 33));
+    schema.people().insert(all);
+
+    assertEquals(2, schema.people().setRegisteredOlderThan(true, 20));
+    assertFalse(schema.people().get(new Person.Key("Bob")).isRegistered());
+    assertTrue(schema.people().get(new Person.Key("Mary")).isRegistered());
+    assertTrue(schema.people().get(new Person.Key("Zak")).isRegistered());
+    assertEquals(1, schema.people().notRegistered().toList().size());
+
+    assertEquals(1, schema.people().deleteOlderThan(30));
+    assertEquals(0, schema.people().deleteOlderThan(30));
+    assertNull(schema.people().get(new Person.Key("Zak")));
+    assertEquals(2, schema.people().countAll());
+  }
+
+  @Test
+  public void testInAndOr() throws Exception {
+    final PhoneBookDb schema = open();
+    final ArrayList<Person> all = new ArrayList<>();
+    all.add(new Person(new Person.Key("Zak"), 33));
+    all.add(new Person(new Person.Key("Mary"), 22));
+    all.add(new Person(new Person.Key("Bob"), 18));
+    schema.people().insert(all);
+
+    List<Person> r =
+        schema.people().withAges(Arrays.asList(33, 18, 40)).toList();
+    assertEquals(2, r.size());
+    assertEquals("Bob", r.get(0).name());
+    assertEquals("Zak", r.get(1).name());
+    assertEquals(1, schema.people().withAges(Arrays.asList(22, 22)).toList()
+        .size());
+    assertTrue(schema.people().withAges(Collections.<Integer> emptyList())
+        .toList().isEmpty());
+    assertEquals(2, schema.people().countWithAges(Arrays.asList(18, 22)));
+    assertEquals(0, schema.people().countWithAges(
+        Collections.<Integer> emptyList()));
+
+    r = schema.people().eitherAge(33, 22).toList();
+    assertEquals(2, r.size());
+    assertEquals("Mary", r.get(0).name());
+    assertEquals("Zak", r.get(1).name());
+
+    r = schema.people().eighteenOrThirtyThree().toList();
+    assertEquals(2, r.size());
+    assertEquals("Bob", r.get(0).name());
+    assertEquals("Zak", r.get(1).name());
+  }
+
+  @Test
+  public void testLikePrefix() throws Exception {
+    final PhoneBookDb schema = open();
+    final ArrayList<Person> all = new ArrayList<>();
+    all.add(new Person(new Person.Key("Mary"), 22));
+    all.add(new Person(new Person.Key("Mark"), 41));
+    all.add(new Person(new Person.Key("Ma%x"), 19));
+    all.add(new Person(new Person.Key("Bob"), 18));
+    schema.people().insert(all);
+
+    List<Person> r = schema.people().nameStartsWith("Mar").toList();
+    assertEquals(2, r.size());
+    assertEquals("Mark", r.get(0).name());
+    assertEquals("Mary", r.get(1).name());
+    assertEquals(4, schema.people().nameStartsWith("").toList().size());
+    assertEquals(1, schema.people().nameStartsWith("Ma%").toList().size());
+    assertTrue(schema.people().nameStartsWith("Mary!").toList().isEmpty());
+    assertTrue(schema.people().nameStartsWith("Bobby").toList().isEmpty());
+
+    r = schema.people().nameStartsWithM().toList();
+    assertEquals(3, r.size());
+    assertEquals("Ma%x", r.get(0).name());
+    assertEquals("Mary", r.get(1).name());
+    assertEquals("Mark", r.get(2).name());
+  }
+
+  @Test
+  public void testGroupedByOwners() throws Exception {
+    final PhoneBookDb schema = open();
+    final Person.Key bob = new Person.Key("Bob");
+    final Person.Key mary = new Person.Key("Mary");
+    final Person.Key zak = new Person.Key("Zak");
+    schema.addresses().insert(Arrays.asList(
+        new Address(new Address.Key(bob, "Paris"), "rue 1"),
+        new Address(new Address.Key(mary, "Rome"), "via 2"),
+        new Address(new Address.Key(bob, "Berlin"), "strasse 3")));
+
+    final Map<Person.Key, List<Address>> r =
+        schema.addresses().byOwners(Arrays.asList(zak, bob, mary));
+    assertEquals(Arrays.asList(zak, bob, mary),
+        new ArrayList<>(r.keySet()));
+    assertTrue(r.get(zak).isEmpty());
+    assertEquals(2, r.get(bob).size());
+    assertEquals("Berlin", r.get(bob).get(0).city());
+    assertEquals("Paris", r.get(bob).get(1).city());
+    assertEquals(1, r.get(mary).size());
+    assertEquals("Rome", r.get(mary).get(0).city());
+
+    assertTrue(schema.addresses().byOwners(
+        Collections.<Person.Key> emptyList()).isEmpty());
+  }
+
+  @Test
+  public void testDeleteKeys() throws Exception {
+    final PhoneBookDb schema = open();
+    final ArrayList<Person> all = new ArrayList<>();
+    all.add(new Person(new Person.Key("Bob"), 18));
+    all.add(new Person(new Person.Key("Mary"), 22));
+    all.add(new Person(new Person.Key("Zak"), 33));
+    schema.people().insert(all);
+
+    schema.people().deleteKeys(Arrays.asList(new Person.Key("Bob"),
+        new Person.Key("Zak"), new Person.Key("Nobody")));
+    final List<Person> left = schema.people().all().toList();
+    assertEquals(1, left.size());
+    assertEquals("Mary", left.get(0).name());
+  }
+
+  @Test
+  public void testProjection() throws Exception {
+    final PhoneBookDb schema = open();
+    final ArrayList<Person> all = new ArrayList<>();
+    all.add(new Person(new Person.Key("Bob"), 18));
+    all.add(new Person(new Person.Key("Mary"), 22));
+    all.add(new Person(new Person.Key("Zak"), 33));
+    all.get(1).register();
+    all.get(2).register();
+    schema.people().insert(all);
+
+    final List<Person> r = schema.people().agesOlderThan(20).toList();
+    assertEquals(2, r.size());
+    assertEquals("Mary", r.get(0).name());
+    assertEquals(22, r.get(0).age());
+    assertFalse(r.get(0).isRegistered());
+    assertEquals("Zak", r.get(1).name());
+    assertEquals(33, r.get(1).age());
+
+    final List<Person> reg = schema.people().registration().toList();
+    assertEquals(3, reg.size());
+    for (final Person p : reg) {
+      assertEquals(0, p.age());
+      assertEquals(!p.name().equals("Bob"), p.isRegistered());
+    }
+  }
+
   @Test
   public void testBooleanType() throws Exception {
     final PhoneBookDb schema = open();
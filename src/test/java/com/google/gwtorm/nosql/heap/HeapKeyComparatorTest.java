@@ -0,0 +1,57 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gwtorm.nosql.heap;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class HeapKeyComparatorTest {
+  @Test
+  public void testMatchesBytewiseOrder() {
+    final Random rng = new Random(42);
+    for (int n = 0; n < 10000; n++) {
+      final byte[] a = new byte[rng.nextInt(40)];
+      rng.nextBytes(a);
+      final byte[] b;
+      if (rng.nextBoolean() && a.length > 0) {
+        // Share a prefix, as keys of the same relation and index do.
+        b = Arrays.copyOf(a, rng.nextInt(a.length + 8));
+        if (b.length > 0 && rng.nextBoolean()) {
+          b[rng.nextInt(b.length)] = (byte) rng.nextInt();
+        }
+      } else {
+        b = new byte[rng.nextInt(40)];
+        rng.nextBytes(b);
+      }
+      assertEquals(Integer.signum(bytewise(a, b)),
+          Integer.signum(HeapKeyComparator.INSTANCE.compare(a, b)));
+    }
+  }
+
+  private static int bytewise(byte[] a, byte[] b) {
+    for (int i = 0; i < a.length && i < b.length; i++) {
+      final int rc = (a[i] & 0xff) - (b[i] & 0xff);
+      if (rc != 0) {
+        return rc;
+      }
+    }
+    return a.length - b.length;
+  }
+}
@@ -0,0 +1,118 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gwtorm.nosql.heap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class PackedTableTest {
+  @Test
+  public void testEmpty() {
+    final PackedTable t = new PackedTable();
+    assertNull(t.get(new byte[] {1}));
+    t.remove(new byte[] {1});
+    assertEquals(0, t.size());
+    assertEquals(0, keys(t.scan(null, null)).size());
+  }
+
+  @Test
+  public void testMatchesTreeMap() {
+    final Random rng = new Random(7);
+    final PackedTable packed = new PackedTable();
+    final TreeMapTable tree = new TreeMapTable();
+
+    for (int op = 0; op < 20000; op++) {
+      final byte[] key = randomKey(rng);
+      if (rng.nextInt(4) == 0) {
+        packed.remove(key);
+        tree.remove(key);
+      } else {
+        final byte[] val = {(byte) op};
+        packed.put(key, val);
+        tree.put(key, val);
+      }
+
+      if (op % 500 == 0) {
+        assertScan(tree, packed, null, null);
+        final byte[] from = randomKey(rng);
+        final byte[] to = randomKey(rng);
+        if (HeapKeyComparator.INSTANCE.compare(from, to) <= 0) {
+          assertScan(tree, packed, from, to);
+        } else {
+          assertScan(tree, packed, to, from);
+        }
+      }
+    }
+
+    assertEquals(tree.size(), packed.size());
+    for (Map.Entry<byte[], byte[]> e : tree.scan(null, null)) {
+      assertArrayEquals(e.getValue(), packed.get(e.getKey()));
+    }
+  }
+
+  private static byte[] randomKey(Random rng) {
+    // A shared prefix, like the relation and index name, then a short tail.
+    final String prefix = rng.nextBoolean() ? "people" : "people.byAge";
+    final byte[] tail = new byte[rng.nextInt(4)];
+    rng.nextBytes(tail);
+    final byte[] key = new byte[prefix.length() + 2 + tail.length];
+    for (int i = 0; i < prefix.length(); i++) {
+      key[i] = (byte) prefix.charAt(i);
+    }
+    key[prefix.length()] = 0x00;
+    key[prefix.length() + 1] = 0x01;
+    System.arraycopy(tail, 0, key, prefix.length() + 2, tail.length);
+    return key;
+  }
+
+  private static void assertScan(HeapTable exp, HeapTable act, byte[] from,
+      byte[] to) {
+    final List<Map.Entry<byte[], byte[]>> e = entries(exp.scan(from, to));
+    final List<Map.Entry<byte[], byte[]>> a = entries(act.scan(from, to));
+    assertEquals(e.size(), a.size());
+    for (int i = 0; i < e.size(); i++) {
+      assertArrayEquals(e.get(i).getKey(), a.get(i).getKey());
+      assertArrayEquals(e.get(i).getValue(), a.get(i).getValue());
+    }
+  }
+
+  private static List<Map.Entry<byte[], byte[]>> entries(
+      Iterable<Map.Entry<byte[], byte[]>> scan) {
+    final List<Map.Entry<byte[], byte[]>> r = new ArrayList<>();
+    for (Map.Entry<byte[], byte[]> e : scan) {
+      r.add(e);
+    }
+    return r;
+  }
+
+  private static List<byte[]> keys(Iterable<Map.Entry<byte[], byte[]>> scan) {
+    final List<byte[]> r = new ArrayList<>();
+    final Iterator<Map.Entry<byte[], byte[]>> i = scan.iterator();
+    while (i.hasNext()) {
+      r.add(i.next().getKey());
+    }
+    return r;
+  }
+}
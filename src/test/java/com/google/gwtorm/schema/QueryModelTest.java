@@ -26,6 +26,7 @@ import com.google.gwtorm.server.OrmException;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Collections;
 import java.util.List;
 
 public class QueryModelTest {
@@ -61,4 +62,81 @@ public class QueryModelTest {
     String sql = qm.getSelectSql(new DialectH2(), "T");
     assertEquals("SELECT T.age,T.registered,T.name FROM people T LIMIT ?", sql);
   }
+
+  @Test
+  public void testDeleteAndUpdateSql() throws OrmException {
+    assertEquals("DELETE FROM people WHERE people.age>?",
+        query("deleteOlderThan").getDeleteSql(new DialectH2()));
+    assertEquals("UPDATE people SET registered=? WHERE people.age>?",
+        query("setRegisteredOlderThan").getUpdateSql(new DialectH2()));
+  }
+
+  @Test
+  public void testInAndOrSql() throws OrmException {
+    QueryModel qm = query("withAges");
+    assertEquals(Collections.singleton(0), qm.getCollectionParameters());
+    assertEquals("SELECT T.age,T.registered,T.name FROM people T"
+        + " WHERE T.age IN (?*) ORDER BY T.name",
+        qm.getSelectSql(new DialectH2(), "T"));
+
+    qm = query("eitherAge");
+    assertTrue(qm.getCollectionParameters().isEmpty());
+    assertEquals(2, qm.getParameters().size());
+    assertEquals("SELECT T.age,T.registered,T.name FROM people T"
+        + " WHERE (T.age=? OR T.age=?) ORDER BY T.name",
+        qm.getSelectSql(new DialectH2(), "T"));
+  }
+
+  @Test
+  public void testLikeSql() throws OrmException {
+    QueryModel qm = query("nameStartsWith");
+    assertEquals(Collections.singleton(0), qm.getPrefixParameters());
+    assertEquals(String.class, qm.getParameters().get(0).getPrimitiveType());
+    assertEquals("SELECT T.age,T.registered,T.name FROM people T"
+        + " WHERE T.name LIKE ? ESCAPE '!' ORDER BY T.name",
+        qm.getSelectSql(new DialectH2(), "T"));
+
+    qm = query("nameStartsWithM");
+    assertTrue(qm.getParameters().isEmpty());
+    assertEquals("SELECT T.age,T.registered,T.name FROM people T"
+        + " WHERE T.name LIKE 'M%' ORDER BY T.age",
+        qm.getSelectSql(new DialectH2(), "T"));
+  }
+
+  @Test(expected = OrmException.class)
+  public void testLikeNeedsPrefixPattern() throws OrmException {
+    new QueryModel(people, "q", "WHERE name LIKE '%a%'");
+  }
+
+  @Test(expected = OrmException.class)
+  public void testLikeNeedsString() throws OrmException {
+    new QueryModel(people, "q", "WHERE age LIKE ?");
+  }
+
+  @Test
+  public void testProjectionReadsPrimaryKey() throws OrmException {
+    assertEquals("SELECT T.name,T.age FROM people T"
+        + " WHERE T.age>? ORDER BY T.age",
+        query("agesOlderThan").getSelectSql(new DialectH2(), "T"));
+    assertEquals("SELECT T.name,T.registered FROM people T",
+        query("registration").getSelectSql(new DialectH2(), "T"));
+
+    // Whichever order the JVM lists the access methods in, the key is
+    // known before the queries are built.
+    final ColumnModel key = people.getPrimaryKey().getField();
+    for (final QueryModel q : people.getQueries()) {
+      if (q.isProjection()) {
+        assertTrue(q.getName(), q.getProjection().contains(key));
+      }
+    }
+  }
+
+  private QueryModel query(final String name) {
+    for (final QueryModel q : people.getQueries()) {
+      if (q.getName().equals(name)) {
+        return q;
+      }
+    }
+    throw new IllegalArgumentException(name);
+  }
 }
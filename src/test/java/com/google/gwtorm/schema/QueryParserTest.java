@@ -131,6 +131,55 @@ public class QueryParserTest {
     assertGoodEQ(c.getChild(2), "c");
   }
 
+  @Test
+  public void testWhereAIn() throws QueryParseException {
+    final Tree t = parse("WHERE a IN ?");
+    assertNotNull(t);
+    assertEquals(QueryParser.WHERE, t.getType());
+
+    assertEquals(1, t.getChildCount());
+    final Tree c = t.getChild(0);
+    assertEquals(QueryParser.IN, c.getType());
+    assertEquals(2, c.getChildCount());
+    assertEquals(QueryParser.ID, c.getChild(0).getType());
+    assertEquals("a", c.getChild(0).getText());
+    assertEquals(QueryParser.PLACEHOLDER, c.getChild(1).getType());
+  }
+
+  @Test
+  public void testWhereALike() throws QueryParseException {
+    final Tree t = parse("WHERE a LIKE 'abc%' AND b LIKE ?");
+    assertNotNull(t);
+
+    final Tree c = t.getChild(0);
+    assertEquals(QueryParser.AND, c.getType());
+    assertEquals(QueryParser.LIKE, c.getChild(0).getType());
+    assertEquals("a", c.getChild(0).getChild(0).getText());
+    assertEquals(QueryParser.CONSTANT_STRING, c.getChild(0).getChild(1)
+        .getType());
+    assertEquals(QueryParser.LIKE, c.getChild(1).getType());
+    assertEquals(QueryParser.PLACEHOLDER, c.getChild(1).getChild(1)
+        .getType());
+  }
+
+  @Test
+  public void testWhereAOrAOrA() throws QueryParseException {
+    final Tree t = parse("WHERE (a = ? OR a = ? OR a = ?) AND b = ?");
+    assertNotNull(t);
+    assertEquals(QueryParser.WHERE, t.getType());
+
+    final Tree c = t.getChild(0);
+    assertEquals(QueryParser.AND, c.getType());
+    assertEquals(2, c.getChildCount());
+    final Tree or = c.getChild(0);
+    assertEquals(QueryParser.OR, or.getType());
+    assertEquals(3, or.getChildCount());
+    assertGoodEQ(or.getChild(0), "a");
+    assertGoodEQ(or.getChild(1), "a");
+    assertGoodEQ(or.getChild(2), "a");
+    assertGoodEQ(c.getChild(1), "b");
+  }
+
   @Test
   public void testOrderByA() throws QueryParseException {
     final Tree t = parse("ORDER BY a");
@@ -0,0 +1,87 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gwtorm.schema;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.gwtorm.client.Column;
+import com.google.gwtorm.client.Key;
+import com.google.gwtorm.data.Person;
+import com.google.gwtorm.data.PersonAccess;
+import com.google.gwtorm.data.PhoneBookDb;
+import com.google.gwtorm.schema.java.JavaSchemaModel;
+import com.google.gwtorm.server.Access;
+import com.google.gwtorm.server.OrmException;
+import com.google.gwtorm.server.Query;
+import com.google.gwtorm.server.Relation;
+import com.google.gwtorm.server.ResultSet;
+import com.google.gwtorm.server.Schema;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SchemaModelTest {
+  public static class LogEntry {
+    @Column(id = 1)
+    protected Person.Key owner;
+
+    @Column(id = 2)
+    protected String text;
+  }
+
+  public interface LogEntryAccess extends Access<LogEntry, Key<?>> {
+    @Query
+    ResultSet<LogEntry> all() throws OrmException;
+  }
+
+  public interface LogDb extends Schema {
+    @Relation(id = 1)
+    LogEntryAccess log();
+
+    @Relation(id = 2)
+    PersonAccess people();
+  }
+
+  @Test
+  public void testRelationsInReferenceOrder() throws OrmException {
+    final SchemaModel schema = new JavaSchemaModel(PhoneBookDb.class);
+    final List<String> byName = new ArrayList<>();
+    for (final RelationModel r : schema.getRelations()) {
+      byName.add(r.getRelationName());
+    }
+    assertEquals(Arrays.asList("addresses", "people"), byName);
+
+    // Address.Key holds a Person.Key, so people are written first.
+    final List<String> order = new ArrayList<>();
+    for (final RelationModel r : schema.getRelationsInReferenceOrder()) {
+      order.add(r.getRelationName());
+    }
+    assertEquals(Arrays.asList("people", "addresses"), order);
+  }
+
+  @Test
+  public void testRelationWithoutPrimaryKey() throws OrmException {
+    final SchemaModel schema = new JavaSchemaModel(LogDb.class);
+    final List<String> order = new ArrayList<>();
+    for (final RelationModel r : schema.getRelationsInReferenceOrder()) {
+      order.add(r.getRelationName());
+    }
+    assertEquals(Arrays.asList("people", "log"), order);
+  }
+}
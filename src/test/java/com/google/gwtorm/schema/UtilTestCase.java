@@ -15,10 +15,29 @@
 package com.google.gwtorm.schema;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.google.common.collect.Lists;
+import com.google.gwtorm.client.Column;
+import com.google.gwtorm.data.PhoneBookDb;
+import com.google.gwtorm.schema.java.JavaColumnModel;
+import com.google.gwtorm.schema.java.JavaSchemaModel;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+
 public class UtilTestCase {
+  static class IdFirst {
+    @Column(id = 1, length = 20, notNull = false)
+    protected String name;
+  }
+
+  static class IdLast {
+    @Column(notNull = false, length = 20, id = 1)
+    protected String name;
+  }
+
   @Test
   public void testSqlFriendlyNames() {
     assertEquals("a", Util.makeSqlFriendly("a"));
@@ -28,4 +47,29 @@ public class UtilTestCase {
     assertEquals("urlnext", Util.makeSqlFriendly("URLnext"));
     assertEquals("camel_case_name", Util.makeSqlFriendly("camelCaseName"));
   }
+
+  @Test
+  public void testStableNames() {
+    assertEquals(Util.createStableName("a"), Util.createStableName("a"));
+    assertFalse(Util.createStableName("a").equals(Util.createStableName("b")));
+  }
+
+  @Test
+  public void testStableNameIgnoresQueryOrder() throws Exception {
+    final RelationModel people =
+        new JavaSchemaModel(PhoneBookDb.class).getRelation("people");
+    final String before = Util.describe(people);
+    people.queries = Lists.reverse(new ArrayList<>(people.getQueries()));
+    assertEquals(before, Util.describe(people));
+  }
+
+  @Test
+  public void testStableNameIgnoresAnnotationOrder() throws Exception {
+    final ColumnModel a =
+        new JavaColumnModel(IdFirst.class.getDeclaredField("name"));
+    final ColumnModel b =
+        new JavaColumnModel(IdLast.class.getDeclaredField("name"));
+    assertEquals(Util.describe(a), Util.describe(b));
+    assertFalse(Util.describe(a).contains("@"));
+  }
 }
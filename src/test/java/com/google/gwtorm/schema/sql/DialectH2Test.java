@@ -33,7 +33,9 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Properties;
 import java.util.Set;
@@ -204,4 +206,34 @@ public class DialectH2Test extends SqlDialectTest {
     assertTrue(s.contains("bar"));
     assertFalse(s.contains("for"));
   }
+
+  @Test
+  public void testUpsert() throws SQLException, OrmException {
+    final PhoneBookDb p = phoneBook.open();
+    try {
+      p.updateSchema(executor);
+      final Person bob = new Person(new Person.Key("Bob"), 18);
+      p.people().upsert(Collections.singleton(bob));
+
+      bob.growOlder();
+      final Person mary = new Person(new Person.Key("Mary"), 22);
+      p.people().upsert(Arrays.asList(bob, mary));
+
+      final ResultSet rs =
+          db.createStatement().executeQuery(
+              "SELECT name,age FROM people ORDER BY name");
+      try {
+        assertTrue(rs.next());
+        assertEquals("Bob", rs.getString(1));
+        assertEquals(19, rs.getInt(2));
+        assertTrue(rs.next());
+        assertEquals("Mary", rs.getString(1));
+        assertFalse(rs.next());
+      } finally {
+        rs.close();
+      }
+    } finally {
+      p.close();
+    }
+  }
 }
@@ -0,0 +1,66 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gwtorm.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class InMemoryOrmMetricsTest {
+  @Test
+  public void testBucketBounds() {
+    for (long v = 0; v < 1L << 40; v = v * 3 / 2 + 1) {
+      final long upper = InMemoryOrmMetrics.upperBound(InMemoryOrmMetrics.bucket(v));
+      assertTrue(v + " <= " + upper, v <= upper);
+      assertTrue(v + " ~ " + upper, upper - v <= v / 16);
+    }
+  }
+
+  @Test
+  public void testRecord() {
+    final InMemoryOrmMetrics m = new InMemoryOrmMetrics();
+    assertNull(m.get("people", "get"));
+
+    for (int i = 1; i <= 100; i++) {
+      m.record("people", "get", 1, 0, i * 1000L, i == 100);
+    }
+    m.record("people", "insert", 0, 5, 1000L, false);
+
+    final InMemoryOrmMetrics.Stats s = m.get("people", "get");
+    assertEquals(100, s.getCount());
+    assertEquals(1, s.getFailures());
+    assertEquals(100, s.getRowsReturned());
+    assertEquals(0, s.getRowsBound());
+    assertEquals(5, m.get("people", "insert").getRowsBound());
+    assertEquals(100000, s.getMaxNanos());
+    assertEquals(50500, s.getMeanNanos());
+    final long p50 = s.getPercentileNanos(50);
+    assertTrue(String.valueOf(p50), 50000 <= p50 && p50 <= 53125);
+    assertEquals(100000, s.getPercentileNanos(100));
+
+    assertEquals(0, s.getIterationNanos());
+    m.recordIteration("people", "get", 7000L);
+    assertEquals(7000, s.getIterationNanos());
+    assertEquals(100, s.getCount());
+    assertEquals(100000, s.getMaxNanos());
+
+    assertEquals(2, m.getAll().size());
+    m.reset();
+    assertTrue(m.getAll().isEmpty());
+  }
+}
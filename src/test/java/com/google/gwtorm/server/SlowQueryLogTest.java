@@ -0,0 +1,65 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.gwtorm.server;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class SlowQueryLogTest {
+  @Test
+  public void testLogsOnlySlowOperations() {
+    final InMemoryOrmMetrics stats = new InMemoryOrmMetrics();
+    final List<String> logged = new ArrayList<>();
+    final SlowQueryLog slow =
+        new SlowQueryLog(stats, 10, TimeUnit.MILLISECONDS) {
+          @Override
+          protected void log(String relation, String operation,
+              int rowsReturned, int rowsBound, long nanos, boolean failed) {
+            logged.add(relation + "." + operation + ":" + rowsReturned + "/"
+                + rowsBound);
+          }
+        };
+
+    slow.record("people", "get", 1, 0, TimeUnit.MILLISECONDS.toNanos(1),
+        false);
+    slow.record("people", "olderThan", 42, 0,
+        TimeUnit.MILLISECONDS.toNanos(25), false);
+    slow.record("people", "insert", 0, 7,
+        TimeUnit.MILLISECONDS.toNanos(30), false);
+    assertEquals(2, logged.size());
+    assertEquals("people.olderThan:42/0", logged.get(0));
+    assertEquals("people.insert:0/7", logged.get(1));
+    assertEquals(1, stats.get("people", "get").getCount());
+    assertEquals(42, stats.get("people", "olderThan").getRowsReturned());
+    assertEquals(0, stats.get("people", "olderThan").getRowsBound());
+    assertEquals(7, stats.get("people", "insert").getRowsBound());
+
+    slow.recordIteration("people", "olderThan",
+        TimeUnit.MILLISECONDS.toNanos(500));
+    assertEquals(2, logged.size());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(500),
+        stats.get("people", "olderThan").getIterationNanos());
+
+    slow.setThreshold(0, TimeUnit.MILLISECONDS);
+    slow.record("people", "get", 1, 0, 0, false);
+    assertEquals(3, logged.size());
+  }
+}